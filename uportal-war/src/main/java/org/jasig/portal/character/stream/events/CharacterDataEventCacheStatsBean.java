@@ -19,12 +19,54 @@
 package org.jasig.portal.character.stream.events;
 
 import org.jasig.portal.jmx.GuavaCacheStatsBean;
+import org.springframework.beans.factory.annotation.Value;
 
 import com.google.common.cache.Cache;
 
+/**
+ * Exposes the stats and configuration of the {@link CharacterDataEventImpl} intern cache
+ */
 public class CharacterDataEventCacheStatsBean extends GuavaCacheStatsBean {
     @Override
     protected Cache<?, ?> getCache() {
         return CharacterDataEventImpl.getEventCache();
     }
+    
+    /**
+     * Longest string that is interned, longer strings always create a new event
+     */
+    @Value("${org.jasig.portal.character.stream.events.CharacterDataEventImpl.maxInternLength:" + CharacterDataEventImpl.DEFAULT_MAX_INTERN_LENGTH + "}")
+    public void setMaxInternLength(int maxInternLength) {
+        CharacterDataEventImpl.setMaxInternLength(maxInternLength);
+    }
+    
+    public int getMaxInternLength() {
+        return CharacterDataEventImpl.getMaxInternLength();
+    }
+    
+    /**
+     * Maximum number of characters held by the intern cache, changing it discards the cache contents
+     */
+    @Value("${org.jasig.portal.character.stream.events.CharacterDataEventImpl.maxInternedCharacters:" + CharacterDataEventImpl.DEFAULT_MAX_INTERNED_CHARACTERS + "}")
+    public void setMaxInternedCharacters(long maxInternedCharacters) {
+        CharacterDataEventImpl.setMaxInternedCharacters(maxInternedCharacters);
+    }
+    
+    public long getMaxInternedCharacters() {
+        return CharacterDataEventImpl.getMaxInternedCharacters();
+    }
+    
+    /**
+     * @return Number of independent stripes the intern cache is split into
+     */
+    public int getStripeCount() {
+        return CharacterDataEventImpl.getStripeCount();
+    }
+    
+    /**
+     * @return Number of events created without interning, either too long or dynamic content
+     */
+    public long getBypassCount() {
+        return CharacterDataEventImpl.getBypassCount();
+    }
 }
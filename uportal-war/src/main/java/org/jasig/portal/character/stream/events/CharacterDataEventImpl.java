@@ -18,12 +18,11 @@
  */
 package org.jasig.portal.character.stream.events;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.springframework.util.Assert;
 
 import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 
 /**
  * @author Eric Dalquist
@@ -37,39 +36,94 @@ public final class CharacterDataEventImpl implements CharacterDataEvent {
      */
     public static final CharacterDataEvent EMPTY_CHARACTER_DATA = new CharacterDataEventImpl("");
     
-    //Since the cache using weak refs for the events it should never be a cause for object retention therefor no max-size is needed
-    private static final LoadingCache<String, CharacterDataEvent> WEAK_EVENT_CACHE = CacheBuilder.newBuilder()
-            .weakValues()
-            .recordStats()
-            .build(new CacheLoader<String, CharacterDataEvent>() {
-                @Override
-                public CharacterDataEvent load(String data) throws Exception {
-                    return new CharacterDataEventImpl(data);
-                }
-            });
+    /**
+     * Default longest string that is interned, longer strings are rarely repeated markup
+     */
+    public static final int DEFAULT_MAX_INTERN_LENGTH = 8192;
+    
+    /**
+     * Default maximum number of characters held by the intern cache
+     */
+    public static final long DEFAULT_MAX_INTERNED_CHARACTERS = 4 * 1024 * 1024;
+    
+    private static final int STRIPE_COUNT = Runtime.getRuntime().availableProcessors() * 2;
+    
+    private static final AtomicLong BYPASS_COUNT = new AtomicLong();
+    private static volatile int maxInternLength = DEFAULT_MAX_INTERN_LENGTH;
+    private static volatile CharacterDataEventInterner eventInterner = new CharacterDataEventInterner(STRIPE_COUNT, DEFAULT_MAX_INTERNED_CHARACTERS);
     
+    /**
+     * Get the shared event for the data, strings longer than {@link #getMaxInternLength()} are not interned
+     */
     public static CharacterDataEvent create(String data) {
         if (data.length() == 0) {
             return EMPTY_CHARACTER_DATA;
         }
         
-        CharacterDataEvent event = WEAK_EVENT_CACHE.getIfPresent(data);
-        if (event == null) {
-            //Make sure the String reference is using a minimal char[]
-            data = new String(data);
-            event = WEAK_EVENT_CACHE.getUnchecked(data);
+        if (data.length() > maxInternLength) {
+            BYPASS_COUNT.incrementAndGet();
+            return new CharacterDataEventImpl(data);
+        }
+        
+        return eventInterner.intern(data);
+    }
+    
+    /**
+     * Create an event for per-request data that is unlikely to be repeated, such as portlet output. The
+     * event is never interned.
+     */
+    public static CharacterDataEvent createDynamic(String data) {
+        if (data.length() == 0) {
+            return EMPTY_CHARACTER_DATA;
+        }
+        
+        BYPASS_COUNT.incrementAndGet();
+        return new CharacterDataEventImpl(data);
+    }
+    
+    /**
+     * @param maxInternLength Longest string that is interned
+     */
+    static void setMaxInternLength(int maxInternLength) {
+        CharacterDataEventImpl.maxInternLength = maxInternLength;
+    }
+    
+    static int getMaxInternLength() {
+        return maxInternLength;
+    }
+    
+    /**
+     * Replaces the intern cache if the maximum number of characters changed
+     */
+    static void setMaxInternedCharacters(long maxInternedCharacters) {
+        if (eventInterner.getMaximumCharacters() != maxInternedCharacters) {
+            eventInterner = new CharacterDataEventInterner(STRIPE_COUNT, maxInternedCharacters);
         }
-        return event;
+    }
+    
+    static long getMaxInternedCharacters() {
+        return eventInterner.getMaximumCharacters();
+    }
+    
+    static int getStripeCount() {
+        return eventInterner.getStripeCount();
+    }
+    
+    /**
+     * @return Number of events that were created without being interned
+     */
+    static long getBypassCount() {
+        return BYPASS_COUNT.get();
     }
     
     static Cache<String, CharacterDataEvent> getEventCache() {
-        return WEAK_EVENT_CACHE;
+        return eventInterner;
     }
     
     private final String data;
     private int hash = 0;
     
-    private CharacterDataEventImpl(String data) {
+    CharacterDataEventImpl(String data) {
         Assert.notNull(data);
         this.data = data;
     }
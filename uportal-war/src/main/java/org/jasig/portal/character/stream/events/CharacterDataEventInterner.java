@@ -0,0 +1,153 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.character.stream.events;
+
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.cache.AbstractCache;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Interns {@link CharacterDataEvent}s in a fixed number of independent stripes, each a Guava cache bounded by the
+ * total number of characters it holds. Presented as a single {@link Cache} so the aggregate stats can be exposed
+ * through {@link CharacterDataEventCacheStatsBean}.
+ */
+final class CharacterDataEventInterner extends AbstractCache<String, CharacterDataEvent> {
+    private static final Weigher<String, CharacterDataEvent> LENGTH_WEIGHER = new Weigher<String, CharacterDataEvent>() {
+        @Override
+        public int weigh(String key, CharacterDataEvent value) {
+            return key.length();
+        }
+    };
+    
+    private final ConcurrentMap<String, CharacterDataEvent>[] stripeMaps;
+    private final Cache<String, CharacterDataEvent>[] stripes;
+    private final int mask;
+    private final long maximumCharacters;
+    
+    /**
+     * @param stripeCount Number of stripes, rounded up to a power of two
+     * @param maximumCharacters Maximum number of characters to retain across all stripes
+     */
+    @SuppressWarnings("unchecked")
+    CharacterDataEventInterner(int stripeCount, long maximumCharacters) {
+        int stripeSize = 1;
+        while (stripeSize < stripeCount) {
+            stripeSize <<= 1;
+        }
+        
+        this.mask = stripeSize - 1;
+        this.maximumCharacters = maximumCharacters;
+        this.stripes = new Cache[stripeSize];
+        this.stripeMaps = new ConcurrentMap[stripeSize];
+        
+        final long maximumWeight = Math.max(1, maximumCharacters / stripeSize);
+        for (int i = 0; i < stripeSize; i++) {
+            this.stripes[i] = CacheBuilder.newBuilder()
+                    .concurrencyLevel(1)
+                    .maximumWeight(maximumWeight)
+                    .weigher(LENGTH_WEIGHER)
+                    .recordStats()
+                    .build();
+            this.stripeMaps[i] = this.stripes[i].asMap();
+        }
+    }
+    
+    int getStripeCount() {
+        return this.stripes.length;
+    }
+    
+    long getMaximumCharacters() {
+        return this.maximumCharacters;
+    }
+    
+    /**
+     * @return The canonical event for the data
+     */
+    CharacterDataEvent intern(String data) {
+        final int index = this.getStripeIndex(data);
+        
+        final CharacterDataEvent event = this.stripes[index].getIfPresent(data);
+        if (event != null) {
+            return event;
+        }
+        
+        final CharacterDataEvent newEvent = new CharacterDataEventImpl(data);
+        final CharacterDataEvent existingEvent = this.stripeMaps[index].putIfAbsent(data, newEvent);
+        return existingEvent != null ? existingEvent : newEvent;
+    }
+    
+    private int getStripeIndex(Object key) {
+        //Spread the hash bits so the stripe index does not only depend on the low bits
+        int h = key.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & this.mask;
+    }
+
+    @Override
+    public CharacterDataEvent getIfPresent(Object key) {
+        return this.stripes[this.getStripeIndex(key)].getIfPresent(key);
+    }
+
+    @Override
+    public void put(String key, CharacterDataEvent value) {
+        this.stripes[this.getStripeIndex(key)].put(key, value);
+    }
+
+    @Override
+    public void invalidate(Object key) {
+        this.stripes[this.getStripeIndex(key)].invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (final Cache<String, CharacterDataEvent> stripe : this.stripes) {
+            stripe.invalidateAll();
+        }
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (final Cache<String, CharacterDataEvent> stripe : this.stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    @Override
+    public CacheStats stats() {
+        CacheStats stats = new CacheStats(0, 0, 0, 0, 0, 0);
+        for (final Cache<String, CharacterDataEvent> stripe : this.stripes) {
+            stats = stats.plus(stripe.stats());
+        }
+        return stats;
+    }
+
+    @Override
+    public void cleanUp() {
+        for (final Cache<String, CharacterDataEvent> stripe : this.stripes) {
+            stripe.cleanUp();
+        }
+    }
+}
@@ -18,6 +18,10 @@
  */
 package org.jasig.portal.events.aggr;
 
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
 import org.joda.time.Chronology;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeFieldType;
@@ -87,6 +91,21 @@ public enum AggregationInterval {
     }
     
 
+    /**
+     * Parse a comma and/or space separated list of interval names, case is ignored
+     * 
+     * @param intervals The list of interval names, may be empty or null
+     * @return The set of intervals in the list
+     * @throws IllegalArgumentException if a name is not an {@link AggregationInterval}
+     */
+    public static Set<AggregationInterval> parseIntervals(String intervals) {
+        final Set<AggregationInterval> parsedIntervals = EnumSet.noneOf(AggregationInterval.class);
+        for (final String interval : StringUtils.split(intervals, ", ")) {
+            parsedIntervals.add(AggregationInterval.valueOf(interval.toUpperCase()));
+        }
+        return parsedIntervals;
+    }
+
     /**
      * @return true if the interval has a time part, false if the interval is date only
      */
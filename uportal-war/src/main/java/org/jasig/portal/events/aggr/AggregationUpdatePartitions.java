@@ -0,0 +1,168 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.aggr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jasig.portal.events.PortalEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the aggregation updates of a batch of events so they can be applied concurrently. Updates are partitioned
+ * by the aggregation they modify, each aggregation is only updated by a single thread and sees its updates in the
+ * order they were added. Stored in the {@link EventAggregationContext} keyed by this class while partitioned
+ * aggregation is enabled.
+ */
+final class AggregationUpdatePartitions {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    
+    private final List<List<AggregationUpdate>> partitions;
+    private int pendingUpdates = 0;
+    
+    AggregationUpdatePartitions(int partitionCount) {
+        this.partitions = new ArrayList<List<AggregationUpdate>>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            this.partitions.add(new ArrayList<AggregationUpdate>());
+        }
+    }
+    
+    /**
+     * Add an update to the partition of the aggregation it modifies
+     * 
+     * @param event The event the update is for, reported if the update fails
+     * @param aggregation The aggregation the update modifies
+     * @param update Updates the aggregation, must not modify anything other than the aggregation
+     */
+    void add(PortalEvent event, Object aggregation, Runnable update) {
+        final int partition = (System.identityHashCode(aggregation) & Integer.MAX_VALUE) % this.partitions.size();
+        this.partitions.get(partition).add(new AggregationUpdate(event, update));
+        this.pendingUpdates++;
+    }
+    
+    /**
+     * @return The number of updates added since the last {@link #apply(ExecutorService)}
+     */
+    int getPendingUpdates() {
+        return this.pendingUpdates;
+    }
+    
+    /**
+     * Apply all pending updates, the first partition and any partitions rejected by the executor are applied by the
+     * calling thread. Returns once all updates have been applied.
+     * 
+     * @param executor Pool the partitions after the first are applied on, may be null to apply all partitions on the calling thread
+     * @return The events that had an update fail, never null
+     */
+    Set<PortalEvent> apply(ExecutorService executor) {
+        if (this.pendingUpdates == 0) {
+            return Collections.emptySet();
+        }
+        
+        final List<List<PortalEvent>> partitionFailures = new ArrayList<List<PortalEvent>>(this.partitions.size());
+        final List<Future<?>> futures = new ArrayList<Future<?>>(this.partitions.size());
+        for (int i = 1; i < this.partitions.size(); i++) {
+            final List<AggregationUpdate> updates = this.partitions.get(i);
+            if (updates.isEmpty()) {
+                continue;
+            }
+            
+            final List<PortalEvent> failures = new ArrayList<PortalEvent>();
+            partitionFailures.add(failures);
+            
+            final Runnable partition = new Runnable() {
+                @Override
+                public void run() {
+                    applyUpdates(updates, failures);
+                }
+            };
+            
+            if (executor == null) {
+                partition.run();
+                continue;
+            }
+            
+            try {
+                futures.add(executor.submit(partition));
+            }
+            catch (RejectedExecutionException e) {
+                //No threads available, the calling thread applies the partition
+                partition.run();
+            }
+        }
+        
+        final List<PortalEvent> failures = new ArrayList<PortalEvent>();
+        partitionFailures.add(failures);
+        applyUpdates(this.partitions.get(0), failures);
+        
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for aggregations to be updated", e);
+            }
+            catch (ExecutionException e) {
+                throw new RuntimeException("Failed to update aggregations", e.getCause());
+            }
+        }
+        
+        for (final List<AggregationUpdate> updates : this.partitions) {
+            updates.clear();
+        }
+        this.pendingUpdates = 0;
+        
+        final Set<PortalEvent> failedEvents = Collections.newSetFromMap(new IdentityHashMap<PortalEvent, Boolean>());
+        for (final List<PortalEvent> partitionFailure : partitionFailures) {
+            failedEvents.addAll(partitionFailure);
+        }
+        return failedEvents;
+    }
+    
+    private void applyUpdates(List<AggregationUpdate> updates, List<PortalEvent> failures) {
+        for (final AggregationUpdate update : updates) {
+            try {
+                update.update.run();
+            }
+            catch (RuntimeException e) {
+                this.logger.warn("Failed to aggregate portal event: " + update.event, e);
+                failures.add(update.event);
+            }
+        }
+    }
+    
+    private static final class AggregationUpdate {
+        private final PortalEvent event;
+        private final Runnable update;
+        
+        public AggregationUpdate(PortalEvent event, Runnable update) {
+            this.event = event;
+            this.update = update;
+        }
+    }
+}
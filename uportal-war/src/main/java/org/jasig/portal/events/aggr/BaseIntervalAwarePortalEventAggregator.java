@@ -20,6 +20,7 @@ package org.jasig.portal.events.aggr;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -31,6 +32,7 @@ import org.jasig.portal.events.aggr.session.EventSession;
 import org.jasig.portal.jpa.BaseAggrEventsJpaDao.AggrEventsTransactional;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * Base {@link PortalEvent} aggregator, useful for aggregations that extend from {@link BaseAggregationImpl} 
@@ -49,19 +51,38 @@ public abstract class BaseIntervalAwarePortalEventAggregator<
     
     private final String aggregationsCacheKey = this.getClass().getName() + ".AGGREGATIONS_FOR_INTERVAL";
     private AggregationIntervalHelper aggregationIntervalHelper;
+    private Set<AggregationInterval> estimatedUniqueIntervals = EnumSet.noneOf(AggregationInterval.class);
     
     @Autowired
     public void setAggregationIntervalHelper(AggregationIntervalHelper aggregationIntervalHelper) {
         this.aggregationIntervalHelper = aggregationIntervalHelper;
     }
 
+    /**
+     * Comma separated list of {@link AggregationInterval}s that track unique strings with a {@link HyperLogLog}
+     * sketch instead of the exact set of strings, see {@link UniqueStrings#UniqueStrings(boolean)}
+     */
+    @Value("${org.jasig.portal.events.aggr.BaseIntervalAwarePortalEventAggregator.estimatedUniqueIntervals:}")
+    public void setEstimatedUniqueIntervals(String estimatedUniqueIntervals) {
+        this.estimatedUniqueIntervals = AggregationInterval.parseIntervals(estimatedUniqueIntervals);
+    }
+    
+    /**
+     * @return true if unique counts for the interval should be estimated, see {@link UniqueStrings#UniqueStrings(boolean)}
+     */
+    protected final boolean isUniqueCountEstimated(AggregationInterval interval) {
+        return this.estimatedUniqueIntervals.contains(interval);
+    }
+
     /**
      * @return The private aggregation DAO to use
      */
     protected abstract BaseAggregationPrivateDao<T, K> getAggregationDao();
 
     /**
-     * Called for each {@link BaseAggregationImpl} that needs to be updated 
+     * Called for each {@link BaseAggregationImpl} that needs to be updated. When the aggregation of a batch of events
+     * is partitioned this is called after {@link #aggregateEvent(PortalEvent, EventSession, EventAggregationContext, Map)}
+     * returns and concurrently for different aggregations, implementations must only modify the aggregation.
      * 
      * @param e The {@link PortalEvent} to get the data from
      * @param intervalInfo The info about the interval the aggregation is for
@@ -80,12 +101,15 @@ public abstract class BaseIntervalAwarePortalEventAggregator<
     
     @AggrEventsTransactional
     @Override
-    public final void aggregateEvent(E e, EventSession eventSession,
-            EventAggregationContext eventAggregationContext,
+    public final void aggregateEvent(final E e, EventSession eventSession,
+            final EventAggregationContext eventAggregationContext,
             Map<AggregationInterval, AggregationIntervalInfo> currentIntervals) {
         
         final BaseAggregationPrivateDao<T, K> aggregationDao = this.getAggregationDao();
         
+        //Set when the aggregation updates of the batch are applied concurrently by the caller
+        final AggregationUpdatePartitions updatePartitions = eventAggregationContext.getAttribute(AggregationUpdatePartitions.class);
+        
         for (Map.Entry<AggregationInterval, AggregationIntervalInfo> intervalInfoEntry : currentIntervals.entrySet()) {
             final AggregationIntervalInfo intervalInfo = intervalInfoEntry.getValue();
 
@@ -118,7 +142,18 @@ public abstract class BaseIntervalAwarePortalEventAggregator<
                 }
                 
                 //Update the aggregation with the event
-                updateAggregation(e, eventAggregationContext, intervalInfo, aggregation);
+                if (updatePartitions == null) {
+                    updateAggregation(e, eventAggregationContext, intervalInfo, aggregation);
+                }
+                else {
+                    final T partitionedAggregation = aggregation;
+                    updatePartitions.add(e, aggregation, new Runnable() {
+                        @Override
+                        public void run() {
+                            updateAggregation(e, eventAggregationContext, intervalInfo, partitionedAggregation);
+                        }
+                    });
+                }
             }
         }
     }
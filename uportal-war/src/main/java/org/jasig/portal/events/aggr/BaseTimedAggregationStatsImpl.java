@@ -24,6 +24,7 @@ import javax.persistence.Access;
 import javax.persistence.AccessType;
 import javax.persistence.Column;
 import javax.persistence.Embedded;
+import javax.persistence.Lob;
 import javax.persistence.MappedSuperclass;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
@@ -31,6 +32,7 @@ import javax.persistence.Transient;
 
 import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
 import org.jasig.portal.events.aggr.stat.JpaStatisticalSummary;
+import org.jasig.portal.events.aggr.stat.LogLinearHistogram;
 
 /**
  * Base for aggregate entities that track timed statistics
@@ -40,7 +42,7 @@ import org.jasig.portal.events.aggr.stat.JpaStatisticalSummary;
 @Access(AccessType.FIELD)
 @MappedSuperclass
 public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey, D extends BaseGroupedAggregationDiscriminator>
-        extends BaseAggregationImpl<K,D> implements TimedAggregationStatistics, Serializable {
+        extends BaseAggregationImpl<K,D> implements TimedAggregationStatistics, TimedAggregationHistogram, Serializable {
     private static final long serialVersionUID = 1L;
         
     @Column(name = "TIME_COUNT", nullable = false)
@@ -82,6 +84,14 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
     @Embedded
     private JpaStatisticalSummary statisticalSummary;
     
+    //Kept after the interval completes so percentiles can be reported
+    @Lob
+    @Column(name = "TIME_HISTOGRAM")
+    private byte[] histogramData;
+    
+    @Transient
+    private LogLinearHistogram histogram;
+    
     @Column(name = "STATS_COMPLETE", nullable = false)
     private boolean complete = false;
 
@@ -159,6 +169,25 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
         return this.secondMoment;
     }
 
+    @Override
+    public final double getPercentile(double percentile) {
+        final LogLinearHistogram histogram = this.getCurrentHistogram();
+        return histogram == null ? Double.NaN : histogram.getPercentile(percentile);
+    }
+
+    @Override
+    public final LogLinearHistogram getHistogram() {
+        final LogLinearHistogram histogram = this.getCurrentHistogram();
+        return histogram == null ? null : LogLinearHistogram.fromByteArray(histogram.toByteArray());
+    }
+    
+    private LogLinearHistogram getCurrentHistogram() {
+        if (this.histogram == null && this.histogramData != null) {
+            this.histogram = LogLinearHistogram.fromByteArray(this.histogramData);
+        }
+        return this.histogram;
+    }
+
     /**
      * Check if the interval is complete, must be called by super classes if overridden
      */
@@ -194,6 +223,13 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
         
         this.statisticalSummary.addValue(v);
         
+        LogLinearHistogram histogram = this.getCurrentHistogram();
+        if (histogram == null) {
+            histogram = new LogLinearHistogram();
+            this.histogram = histogram;
+        }
+        histogram.addValue(v);
+        
         this.modified = true;
     }
 
@@ -222,6 +258,10 @@ public abstract class BaseTimedAggregationStatsImpl<K extends BaseAggregationKey
         this.sumOfLogs = this.statisticalSummary.getSumOfLogs();
         this.secondMoment = this.statisticalSummary.getSecondMoment();
         
+        if (this.histogram != null) {
+            this.histogramData = this.histogram.toByteArray();
+        }
+        
         this.modified = false;
     }
 }
@@ -0,0 +1,185 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.aggr;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Mergeable HyperLogLog cardinality sketch used by {@link UniqueStrings} when an exact set of strings is
+ * too expensive to track. The sketch is backed by a byte array of 2^precision registers, the relative
+ * standard error of the estimate is 1.04/sqrt(2^precision).
+ */
+public final class HyperLogLog {
+    /**
+     * Default precision, 4096 one byte registers with a relative standard error of ~1.6%
+     */
+    public static final int DEFAULT_PRECISION = 12;
+    
+    private static final int MIN_PRECISION = 4;
+    private static final int MAX_PRECISION = 16;
+    
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final byte[] registers;
+    private final int precision;
+    
+    //Running sum of 2^-register and count of empty registers, allows estimating without scanning the registers
+    private double inverseSum;
+    private int zeroRegisters;
+    
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+    
+    public HyperLogLog(int precision) {
+        this(new byte[1 << checkPrecision(precision)]);
+    }
+    
+    /**
+     * Wraps the register array, changes made to the sketch are written directly to the array
+     */
+    HyperLogLog(byte[] registers) {
+        final int length = registers.length;
+        if (Integer.bitCount(length) != 1) {
+            throw new IllegalArgumentException("Register count must be a power of two: " + length);
+        }
+        
+        this.registers = registers;
+        this.precision = checkPrecision(Integer.numberOfTrailingZeros(length));
+        
+        for (final byte register : registers) {
+            if (register == 0) {
+                this.zeroRegisters++;
+            }
+            this.inverseSum += Math.scalb(1d, -register);
+        }
+    }
+    
+    private static int checkPrecision(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+        }
+        return precision;
+    }
+
+    /**
+     * @return The relative standard error of {@link #cardinality()} for a sketch of the specified precision
+     */
+    public static double getRelativeError(int precision) {
+        return 1.04 / Math.sqrt(1 << checkPrecision(precision));
+    }
+    
+    public int getPrecision() {
+        return this.precision;
+    }
+    
+    /**
+     * @return The relative standard error of {@link #cardinality()}
+     */
+    public double getRelativeError() {
+        return getRelativeError(this.precision);
+    }
+
+    /**
+     * Add a string to the sketch
+     * 
+     * @return true if the sketch changed as a result of the add
+     */
+    public boolean offer(String value) {
+        final long hash = HASH_FUNCTION.hashString(value, Charsets.UTF_8).asLong();
+        return this.offerHash(hash);
+    }
+    
+    boolean offerHash(long hash) {
+        final int index = (int) (hash >>> (Long.SIZE - this.precision));
+        final long remaining = hash << this.precision;
+        final int maxRank = Long.SIZE - this.precision + 1;
+        final int rank = Math.min(Long.numberOfLeadingZeros(remaining) + 1, maxRank);
+        return this.updateRegister(index, rank);
+    }
+
+    /**
+     * Merge the specified sketch into this one, after the merge this sketch estimates the cardinality
+     * of the union of both sketches.
+     * 
+     * @return true if this sketch changed as a result of the merge
+     */
+    public boolean merge(HyperLogLog other) {
+        if (other.precision != this.precision) {
+            throw new IllegalArgumentException("Cannot merge sketch with precision " + other.precision + " into sketch with precision " + this.precision);
+        }
+        
+        boolean changed = false;
+        for (int index = 0; index < other.registers.length; index++) {
+            changed |= this.updateRegister(index, other.registers[index]);
+        }
+        return changed;
+    }
+    
+    private boolean updateRegister(int index, int rank) {
+        final int current = this.registers[index];
+        if (rank <= current) {
+            return false;
+        }
+        
+        if (current == 0) {
+            this.zeroRegisters--;
+        }
+        this.inverseSum += Math.scalb(1d, -rank) - Math.scalb(1d, -current);
+        this.registers[index] = (byte) rank;
+        return true;
+    }
+    
+    /**
+     * @return The estimated number of distinct strings offered to the sketch
+     */
+    public long cardinality() {
+        final int m = this.registers.length;
+        final double alpha = 0.7213 / (1 + 1.079 / m);
+        final double estimate = alpha * m * m / this.inverseSum;
+        
+        //Use linear counting for small cardinalities where the raw estimate is biased
+        if (estimate <= 2.5 * m && this.zeroRegisters > 0) {
+            return Math.round(m * Math.log((double) m / this.zeroRegisters));
+        }
+        
+        return Math.round(estimate);
+    }
+    
+    /**
+     * @return A copy of the sketch registers
+     */
+    public byte[] toByteArray() {
+        return this.registers.clone();
+    }
+    
+    /**
+     * @return A new sketch from a copy of the specified registers
+     */
+    public static HyperLogLog fromByteArray(byte[] registers) {
+        return new HyperLogLog(registers.clone());
+    }
+
+    @Override
+    public String toString() {
+        return "HyperLogLog [precision=" + precision + ", cardinality=" + cardinality() + "]";
+    }
+}
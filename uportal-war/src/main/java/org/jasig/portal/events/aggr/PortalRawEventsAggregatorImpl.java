@@ -24,11 +24,13 @@ import java.util.Collections;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Resource;
 import javax.persistence.EntityManager;
@@ -51,6 +53,7 @@ import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
 import org.jasig.portal.events.aggr.session.EventSession;
 import org.jasig.portal.events.aggr.session.EventSessionDao;
 import org.jasig.portal.events.handlers.db.IPortalEventDao;
+import org.jasig.portal.events.handlers.db.PartitionedAggregationHandler;
 import org.jasig.portal.jpa.BaseAggrEventsJpaDao;
 import org.jasig.portal.jpa.BaseRawEventsJpaDao.RawEventsTransactional;
 import org.jasig.portal.spring.context.ApplicationEventFilter;
@@ -61,12 +64,12 @@ import org.joda.time.ReadablePeriod;
 import org.springframework.aop.framework.AopProxyUtils;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallback;
 
-import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMap.Builder;
@@ -95,6 +98,8 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
     private int cleanUnclosedAggregationsBatchSize = 1000;
     private int cleanUnclosedIntervalsBatchSize = 315;
     private ReadablePeriod aggregationDelay = Period.seconds(30);
+    private int aggregationPartitions = 1;
+    private ExecutorService aggregationPartitionExecutor;
     
     private final Map<Class<?>, List<String>> entityCollectionRoles = new HashMap<Class<?>, List<String>>();
     private volatile boolean shutdown = false;
@@ -193,6 +198,24 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
 		this.cleanUnclosedIntervalsBatchSize = cleanUnclosedIntervalsBatchSize;
 	}
 
+    /**
+     * Number of partitions the aggregation updates of each batch of events are split into so they can be applied
+     * concurrently, defaults to 1 which updates the aggregations as each event is handled.
+     */
+    @Value("${org.jasig.portal.events.handlers.db.JpaPortalEventStore.aggregationPartitions:1}")
+    public void setAggregationPartitions(int aggregationPartitions) {
+        this.aggregationPartitions = Math.max(1, aggregationPartitions);
+    }
+    
+    /**
+     * @param aggregationPartitionExecutor Pool the partitions after the first are applied on, if it rejects a
+     *      partition the aggregating thread applies it
+     */
+    @Autowired
+    public void setAggregationPartitionExecutor(@Qualifier("portalEventAggregationThreadPool") ExecutorService aggregationPartitionExecutor) {
+        this.aggregationPartitionExecutor = aggregationPartitionExecutor;
+    }
+
 	public void setShutdown(boolean shutdown) {
 		this.shutdown = shutdown;
 	}
@@ -550,9 +573,13 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
         }
     }
 
-	private final class AggregateEventsHandler implements Function<PortalEvent, Boolean> {
+	private final class AggregateEventsHandler implements PartitionedAggregationHandler {
         //Event Aggregation Context - used by aggregators to track state
         private final EventAggregationContext eventAggregationContext = new EventAggregationContextImpl(); 
+        //Aggregation updates deferred until the end of the batch, null if updates are not partitioned
+        private final AggregationUpdatePartitions updatePartitions;
+        //Events with failed aggregation updates since the last call to aggregatePartitions
+        private final Set<PortalEvent> failedEvents = Collections.newSetFromMap(new IdentityHashMap<PortalEvent, Boolean>());
         private final MutableInt eventCounter;
         private final MutableObject lastEventDate;
         private final IEventAggregatorStatus eventAggregatorStatus;
@@ -572,6 +599,32 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
             this.lastEventDate = lastEventDate;
             this.eventAggregatorStatus = eventAggregatorStatus;
             this.defaultAggregatedGroupConfig = eventAggregationManagementDao.getDefaultAggregatedGroupConfig();
+            
+            if (aggregationPartitions > 1 && aggregationPartitionExecutor != null) {
+                this.updatePartitions = new AggregationUpdatePartitions(aggregationPartitions);
+                this.eventAggregationContext.setAttribute(AggregationUpdatePartitions.class, this.updatePartitions);
+            }
+            else {
+                this.updatePartitions = null;
+            }
+        }
+        
+        @Override
+        public Set<PortalEvent> aggregatePartitions() {
+            this.applyUpdatePartitions();
+            
+            final Set<PortalEvent> failed = ImmutableSet.copyOf(this.failedEvents);
+            this.failedEvents.clear();
+            return failed;
+        }
+        
+        /**
+         * Apply the deferred aggregation updates, must be done before the aggregations of an interval are closed
+         */
+        private void applyUpdatePartitions() {
+            if (this.updatePartitions != null) {
+                this.failedEvents.addAll(this.updatePartitions.apply(aggregationPartitionExecutor));
+            }
         }
 
         @Override
@@ -596,6 +649,7 @@ public class PortalRawEventsAggregatorImpl extends BaseAggrEventsJpaDao implemen
                 AggregationIntervalInfo intervalInfo = this.currentIntervalInfo.get(interval);
                 if (intervalInfo != null && !intervalInfo.getEnd().isAfter(eventDate)) { //if there is no IntervalInfo that interval must not be supported in the current environment 
                     logger.debug("Crossing {} Interval, triggered by {}", interval, event);
+                    this.applyUpdatePartitions();
                     this.doHandleIntervalBoundary(interval, this.currentIntervalInfo);
                     
                     intervalInfo = intervalHelper.getIntervalInfo(interval, eventDate); 
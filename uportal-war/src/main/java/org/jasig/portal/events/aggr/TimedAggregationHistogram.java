@@ -0,0 +1,38 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.aggr;
+
+import org.jasig.portal.events.aggr.stat.LogLinearHistogram;
+
+/**
+ * Percentile statistics for timed aggregations
+ */
+public interface TimedAggregationHistogram {
+    /**
+     * @param percentile The requested percentile, in the range (0,100]
+     * @return Estimate of the value at the percentile, NaN if no histogram has been recorded for the aggregation
+     */
+    double getPercentile(double percentile);
+    
+    /**
+     * @return A copy of the histogram of values added to the aggregation, can be merged with the histograms of
+     * other intervals or groups. Null if no histogram has been recorded for the aggregation.
+     */
+    LogLinearHistogram getHistogram();
+}
@@ -32,6 +32,7 @@ import javax.persistence.Id;
 import javax.persistence.Inheritance;
 import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
 import javax.persistence.OneToMany;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
@@ -50,6 +51,9 @@ import org.slf4j.LoggerFactory;
  * maintain a set of unique strings over time can add a new {@link UniqueStrings} in each jpa session. This
  * will result in the set of UniqueStringsSegments being reloaded for the parent entity but the contents of each
  * UniqueStringsSegment will not need to be modified.
+ * <p>
+ * When created in estimating mode the strings are not stored at all, instead a {@link HyperLogLog} sketch
+ * is kept and {@link #size()} returns an estimate with a relative standard error of {@link #getRelativeError()}.
  * 
  * @author Eric Dalquist
  */
@@ -87,14 +91,99 @@ public final class UniqueStrings {
     @Fetch(FetchMode.JOIN)
     @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private Set<UniqueStringsSegment> uniqueStringSegments = new HashSet<UniqueStringsSegment>(0);
+    
+    @Lob
+    @Column(name="SKETCH_REGISTERS", length=1 << HyperLogLog.DEFAULT_PRECISION)
+    private byte[] sketchRegisters;
+    
     @Transient
     private UniqueStringsSegment currentUniqueUsernamesSegment;
+    @Transient
+    private HyperLogLog sketch;
     
     public UniqueStrings() {
+        this(false);
+    }
+    
+    /**
+     * @param estimated If true a {@link HyperLogLog} sketch is tracked instead of the exact set of strings
+     */
+    public UniqueStrings(boolean estimated) {
         this.id = -1;
+        if (estimated) {
+            this.sketchRegisters = new byte[1 << HyperLogLog.DEFAULT_PRECISION];
+            this.sketch = new HyperLogLog(this.sketchRegisters);
+        }
+    }
+    
+    /**
+     * @return true if {@link #size()} is an estimate
+     */
+    public boolean isEstimated() {
+        return this.sketchRegisters != null;
+    }
+    
+    /**
+     * @return The relative standard error of {@link #size()}, 0 if the strings are tracked exactly
+     */
+    public double getRelativeError() {
+        final HyperLogLog sketch = this.getSketch();
+        return sketch == null ? 0 : sketch.getRelativeError();
+    }
+    
+    /**
+     * @return The number of unique strings, an estimate if {@link #isEstimated()}
+     */
+    public int size() {
+        final HyperLogLog sketch = this.getSketch();
+        if (sketch != null) {
+            return (int) Math.min(sketch.cardinality(), Integer.MAX_VALUE);
+        }
+        
+        int size = 0;
+        for (final UniqueStringsSegment uniqueStringsSegment : this.uniqueStringSegments) {
+            size += uniqueStringsSegment.size();
+        }
+        return size;
+    }
+    
+    /**
+     * Merge the sketch of another estimated {@link UniqueStrings} into this one, used to build the unique
+     * strings of a larger interval from the smaller intervals it contains.
+     * 
+     * @return true if the estimate changed as a result of the merge
+     * @throws IllegalStateException if either instance is not estimated
+     */
+    public boolean merge(UniqueStrings other) {
+        final HyperLogLog sketch = this.getSketch();
+        final HyperLogLog otherSketch = other.getSketch();
+        if (sketch == null || otherSketch == null) {
+            throw new IllegalStateException("Only estimated UniqueStrings can be merged");
+        }
+        return sketch.merge(otherSketch);
+    }
+    
+    private HyperLogLog getSketch() {
+        HyperLogLog sketch = this.sketch;
+        if (sketch == null && this.sketchRegisters != null) {
+            //Wrap the persistent registers so updates are written back on flush
+            sketch = new HyperLogLog(this.sketchRegisters);
+            this.sketch = sketch;
+        }
+        return sketch;
     }
 
+    /**
+     * Add a string
+     * 
+     * @return true if the string was not already seen, if {@link #isEstimated()} true if the sketch changed
+     */
     public boolean add(String e) {
+        final HyperLogLog sketch = this.getSketch();
+        if (sketch != null) {
+            return sketch.offer(e);
+        }
+        
         int stringCount = 0;
         int smallSegments = 0;
         //Check if the username exists in any segment
@@ -180,6 +269,6 @@ public final class UniqueStrings {
 
     @Override
     public String toString() {
-        return "UniqueStrings [id=" + id + ", size=" + uniqueStringSegments.size() + "]";
+        return "UniqueStrings [id=" + id + ", size=" + uniqueStringSegments.size() + ", estimated=" + isEstimated() + "]";
     }
 }
@@ -33,4 +33,9 @@ public interface ConcurrentUserAggregation extends BaseAggregation<ConcurrentUse
      * @return Total number of users that were active for the duration of this aggregation.
      */
     int getConcurrentUsers();
+    
+    /**
+     * @return Relative standard error of {@link #getConcurrentUsers()}, 0 if the count is exact
+     */
+    double getConcurrentUsersError();
 }
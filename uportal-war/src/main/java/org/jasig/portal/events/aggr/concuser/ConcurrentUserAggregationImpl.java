@@ -88,6 +88,9 @@ public final class ConcurrentUserAggregationImpl
     
     @Column(name = "CONCURRENT_USERS", nullable = false)
     private int concurrentUsers;
+    
+    @Column(name = "CONCURRENT_USERS_ERROR")
+    private Double concurrentUsersError;
 
     @OneToOne(cascade = { CascadeType.ALL }, orphanRemoval=true)
     @JoinColumn(name = "UNIQUE_STRINGS_ID")
@@ -121,6 +124,12 @@ public final class ConcurrentUserAggregationImpl
         return this.concurrentUsers;
     }
 
+    @Override
+    public double getConcurrentUsersError() {
+        final Double error = this.concurrentUsersError;
+        return error == null ? 0 : error;
+    }
+
     @Override
     public ConcurrentUserAggregationKey getAggregationKey() {
         ConcurrentUserAggregationKey key = this.aggregationKey;
@@ -152,17 +161,30 @@ public final class ConcurrentUserAggregationImpl
     }
     
     void countSession(String eventSessionId) {
+        this.countSession(eventSessionId, false);
+    }
+
+    /**
+     * @param estimateUnique If the unique count should be estimated, only used when the interval's unique tracking is first created
+     */
+    void countSession(String eventSessionId, boolean estimateUnique) {
         if (isComplete()) {
             this.getLogger().warn("{} is already closed, the event session {} will be ignored on: {}", this.getClass().getSimpleName(), eventSessionId, this);
             return;
         }
         
         if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
+            this.uniqueStrings = new UniqueStrings(estimateUnique);
+            this.concurrentUsersError = this.uniqueStrings.getRelativeError();
         }
         
         if (this.uniqueStrings.add(eventSessionId)) {
-            this.concurrentUsers++;
+            if (this.uniqueStrings.isEstimated()) {
+                this.concurrentUsers = this.uniqueStrings.size();
+            }
+            else {
+                this.concurrentUsers++;
+            }
         }
     }
 
@@ -59,7 +59,7 @@ public class ConcurrentUserAggregator extends BaseIntervalAwarePortalEventAggreg
         final String eventSessionId = e.getEventSessionId();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countSession(eventSessionId);
+        aggregation.countSession(eventSessionId, this.isUniqueCountEstimated(intervalInfo.getAggregationInterval()));
     }
     
     @Override
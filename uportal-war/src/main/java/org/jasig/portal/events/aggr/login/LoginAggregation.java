@@ -35,4 +35,9 @@ public interface LoginAggregation extends BaseAggregation<LoginAggregationKey, L
      * @return Unique number of {@link LoginEvent}s that occurred in the interval, uniqueness is determined by {@link LoginEvent#getUserName()}
      */
     int getUniqueLoginCount();
+    
+    /**
+     * @return Relative standard error of {@link #getUniqueLoginCount()}, 0 if the count is exact
+     */
+    double getUniqueLoginCountError();
 }
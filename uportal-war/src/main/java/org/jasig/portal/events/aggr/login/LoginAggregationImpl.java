@@ -90,6 +90,9 @@ public final class LoginAggregationImpl
     
     @Column(name = "UNIQUE_LOGIN_COUNT", nullable = false)
     private int uniqueLoginCount;
+    
+    @Column(name = "UNIQUE_LOGIN_ERROR")
+    private Double uniqueLoginCountError;
 
     @OneToOne(cascade = { CascadeType.ALL }, orphanRemoval=true)
     @JoinColumn(name = "UNIQUE_STRINGS_ID")
@@ -126,6 +129,12 @@ public final class LoginAggregationImpl
     public int getUniqueLoginCount() {
         return this.uniqueLoginCount;
     }
+
+    @Override
+    public double getUniqueLoginCountError() {
+        final Double error = this.uniqueLoginCountError;
+        return error == null ? 0 : error;
+    }
     
     @Override
     public LoginAggregationKey getAggregationKey() {
@@ -158,17 +167,30 @@ public final class LoginAggregationImpl
     }
 
     void countUser(String userName) {
+        this.countUser(userName, false);
+    }
+
+    /**
+     * @param estimateUnique If the unique count should be estimated, only used when the interval's unique tracking is first created
+     */
+    void countUser(String userName, boolean estimateUnique) {
         if (isComplete()) {
             this.getLogger().warn("{} is already closed, the user name {} will be ignored on: {}", this.getClass().getSimpleName(), userName, this);
             return;
         }
         
         if (this.uniqueStrings == null) {
-            this.uniqueStrings = new UniqueStrings();
+            this.uniqueStrings = new UniqueStrings(estimateUnique);
+            this.uniqueLoginCountError = this.uniqueStrings.getRelativeError();
         }
         
         if (this.uniqueStrings.add(userName)) {
-            this.uniqueLoginCount++;
+            if (this.uniqueStrings.isEstimated()) {
+                this.uniqueLoginCount = this.uniqueStrings.size();
+            }
+            else {
+                this.uniqueLoginCount++;
+            }
         }
         this.loginCount++;
     }
@@ -69,6 +69,6 @@ public class LoginPortalEventAggregator extends BaseIntervalAwarePortalEventAggr
         final String userName = e.getUserName();
         final int duration = intervalInfo.getDurationTo(e.getTimestampAsDate());
         aggregation.setDuration(duration);
-        aggregation.countUser(userName);
+        aggregation.countUser(userName, this.isUniqueCountEstimated(intervalInfo.getAggregationInterval()));
     }
 }
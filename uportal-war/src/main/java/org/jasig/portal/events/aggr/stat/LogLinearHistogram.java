@@ -0,0 +1,209 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.aggr.stat;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Mergeable histogram used to answer percentile queries for timed aggregations. Values below 128 are
+ * counted exactly, larger values are counted in logarithmic buckets each split into 64 linear sub-buckets
+ * which bounds the relative error of any percentile to ~1.6% regardless of the value range. Only the
+ * range of buckets that has been used is allocated and the persistent form only encodes non-empty buckets.
+ */
+public final class LogLinearHistogram {
+    private static final byte FORMAT_VERSION = 1;
+    
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKET_COUNT = SUB_BUCKET_COUNT * 2;
+    private static final int LINEAR_BUCKET_BITS = Integer.numberOfTrailingZeros(LINEAR_BUCKET_COUNT);
+    
+    /**
+     * Offset of counts[0] in the full bucket index space
+     */
+    private int offset;
+    private long[] counts = new long[0];
+    private long n;
+    
+    /**
+     * Add a value to the histogram, negative values are counted as 0 and fractions are rounded
+     */
+    public void addValue(double value) {
+        final long v = value <= 0 ? 0 : Math.round(value);
+        this.increment(getBucketIndex(v), 1);
+    }
+    
+    /**
+     * @return Number of values added to the histogram
+     */
+    public long getN() {
+        return this.n;
+    }
+
+    /**
+     * Merge the counts of another histogram into this one, used to combine the histograms of
+     * different intervals or groups.
+     */
+    public void merge(LogLinearHistogram other) {
+        for (int i = 0; i < other.counts.length; i++) {
+            final long count = other.counts[i];
+            if (count > 0) {
+                this.increment(other.offset + i, count);
+            }
+        }
+    }
+    
+    /**
+     * @param percentile The requested percentile, must be in the range (0,100]
+     * @return An estimate of the value at the specified percentile, NaN if no values have been added
+     */
+    public double getPercentile(double percentile) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in the range (0,100]: " + percentile);
+        }
+        if (this.n == 0) {
+            return Double.NaN;
+        }
+        
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.n));
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return getBucketValue(this.offset + i);
+            }
+        }
+        
+        //Unreachable unless n and counts disagree
+        return getBucketValue(this.offset + this.counts.length - 1);
+    }
+    
+    private void increment(int index, long count) {
+        if (this.counts.length == 0) {
+            this.offset = index;
+            this.counts = new long[1];
+        }
+        else if (index < this.offset) {
+            final long[] newCounts = new long[this.counts.length + this.offset - index];
+            System.arraycopy(this.counts, 0, newCounts, this.offset - index, this.counts.length);
+            this.counts = newCounts;
+            this.offset = index;
+        }
+        else if (index >= this.offset + this.counts.length) {
+            final long[] newCounts = new long[index - this.offset + 1];
+            System.arraycopy(this.counts, 0, newCounts, 0, this.counts.length);
+            this.counts = newCounts;
+        }
+        
+        this.counts[index - this.offset] += count;
+        this.n += count;
+    }
+    
+    static int getBucketIndex(long value) {
+        if (value < LINEAR_BUCKET_COUNT) {
+            return (int) value;
+        }
+        
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return LINEAR_BUCKET_COUNT + (exponent - LINEAR_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+    }
+    
+    /**
+     * @return The midpoint of the range of values counted in the bucket
+     */
+    static double getBucketValue(int index) {
+        if (index < LINEAR_BUCKET_COUNT) {
+            return index;
+        }
+        
+        final int exponent = (index - LINEAR_BUCKET_COUNT) / SUB_BUCKET_COUNT + LINEAR_BUCKET_BITS;
+        final int subBucket = (index - LINEAR_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final double lower = (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lower + (1L << shift) / 2d;
+    }
+    
+    /**
+     * @return Compact encoding of the histogram, the index delta and count of each non-empty bucket as varints
+     */
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(16);
+        out.write(FORMAT_VERSION);
+        
+        int lastIndex = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            final long count = this.counts[i];
+            if (count > 0) {
+                final int index = this.offset + i;
+                writeVarLong(out, index - lastIndex);
+                writeVarLong(out, count);
+                lastIndex = index;
+            }
+        }
+        
+        return out.toByteArray();
+    }
+    
+    /**
+     * @return A histogram read from data created by {@link #toByteArray()}
+     */
+    public static LogLinearHistogram fromByteArray(byte[] data) {
+        if (data.length == 0 || data[0] != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported histogram data format");
+        }
+        
+        final LogLinearHistogram histogram = new LogLinearHistogram();
+        final int[] position = { 1 };
+        int index = 0;
+        while (position[0] < data.length) {
+            index += (int) readVarLong(data, position);
+            histogram.increment(index, readVarLong(data, position));
+        }
+        return histogram;
+    }
+    
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+    
+    private static long readVarLong(byte[] data, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (position[0] >= data.length) {
+                throw new IllegalArgumentException("Truncated histogram data");
+            }
+            b = data[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "LogLinearHistogram [n=" + n + ", buckets=" + counts.length + "]";
+    }
+}
@@ -19,6 +19,7 @@
 package org.jasig.portal.events.aggr.tabrender;
 
 import org.jasig.portal.events.aggr.BaseAggregation;
+import org.jasig.portal.events.aggr.TimedAggregationHistogram;
 import org.jasig.portal.events.aggr.TimedAggregationStatistics;
 import org.jasig.portal.events.aggr.tabs.AggregatedTabMapping;
 
@@ -28,7 +29,7 @@ import org.jasig.portal.events.aggr.tabs.AggregatedTabMapping;
  * @author Eric Dalquist
  */
 public interface TabRenderAggregation
-        extends BaseAggregation<TabRenderAggregationKey, TabRenderAggregationDiscriminator>, TimedAggregationStatistics {
+        extends BaseAggregation<TabRenderAggregationKey, TabRenderAggregationDiscriminator>, TimedAggregationStatistics, TimedAggregationHistogram {
     
     /**
      * @return Number of times the tab was rendered
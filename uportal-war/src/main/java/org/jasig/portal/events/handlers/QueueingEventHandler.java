@@ -20,8 +20,10 @@ package org.jasig.portal.events.handlers;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -30,19 +32,48 @@ import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationEvent;
 
 /**
- * Queues PortalEvents in a local {@link ConcurrentLinkedQueue} and flushes the events to the configured
+ * Queues PortalEvents in a local bounded {@link ArrayBlockingQueue} and flushes the events to the configured
  * {@link BatchingEventHandler} when {@link #flush()} is called. This class must be used with some external
- * timer that will call {@link #flush()} at regular intervals
+ * timer that will call {@link #flush()} at regular intervals. What happens to events that arrive while the
+ * queue is full is determined by the {@link OverflowPolicy}.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public abstract class QueueingEventHandler<E extends ApplicationEvent> 
-        extends FilteringApplicationListener<E> implements DisposableBean {
+        extends FilteringApplicationListener<E> implements DisposableBean, QueueingEventHandlerMXBean {
     
-    private final Queue<E> eventQueue = new ConcurrentLinkedQueue<E>();
+    /**
+     * What to do with an event that is queued while the queue is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the oldest queued event to make room for the new event
+         */
+        DROP_OLDEST,
+        /**
+         * Keep one of every {@link QueueingEventHandler#setOverflowSampleRate(int)} overflowing events by discarding
+         * the oldest queued event, the other overflowing events are discarded
+         */
+        SAMPLE,
+        /**
+         * Block the thread queuing the event for up to {@link QueueingEventHandler#setOverflowBlockTimeout(long)}
+         * waiting for room in the queue, the event is discarded if no room is made
+         */
+        BLOCK;
+    }
+    
+    private BlockingQueue<E> eventQueue = new ArrayBlockingQueue<E>(10000);
     private final Lock flushLock = new ReentrantLock();
     private int batchSize = 25;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private int overflowSampleRate = 10;
+    private long overflowBlockTimeout = 100;
+    
+    private final AtomicLong overflowCount = new AtomicLong();
+    private final AtomicLong discardCount = new AtomicLong();
+    private final AtomicLong flushedEventCount = new AtomicLong();
+    private final AtomicLong flushTime = new AtomicLong();
     
     //Used to hold events to flush, MUST only be read/written from within the flushLock 
     private List<E> eventBuffer = new ArrayList<E>(this.batchSize);
@@ -57,6 +88,78 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
         eventBuffer = new ArrayList<E>(this.batchSize);
     }
     
+    /**
+     * The maximum number of events waiting to be flushed, defaults to 10000. Must be set before events are queued.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.eventQueue = new ArrayBlockingQueue<E>(queueCapacity);
+    }
+    
+    /**
+     * What to do with an event that is queued while the queue is full, defaults to {@link OverflowPolicy#DROP_OLDEST}
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+    
+    /**
+     * One of every overflowSampleRate overflowing events is kept when using {@link OverflowPolicy#SAMPLE}, defaults to 10
+     */
+    public void setOverflowSampleRate(int overflowSampleRate) {
+        this.overflowSampleRate = Math.max(1, overflowSampleRate);
+    }
+    
+    /**
+     * Milliseconds to wait for room in the queue when using {@link OverflowPolicy#BLOCK}, defaults to 100
+     */
+    public void setOverflowBlockTimeout(long overflowBlockTimeout) {
+        this.overflowBlockTimeout = overflowBlockTimeout;
+    }
+    
+    @Override
+    public int getQueueSize() {
+        return this.eventQueue.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return this.eventQueue.size() + this.eventQueue.remainingCapacity();
+    }
+
+    @Override
+    public String getOverflowPolicy() {
+        return this.overflowPolicy.name();
+    }
+
+    @Override
+    public long getOverflowCount() {
+        return this.overflowCount.get();
+    }
+
+    @Override
+    public long getDiscardCount() {
+        return this.discardCount.get();
+    }
+
+    @Override
+    public long getFlushedEventCount() {
+        return this.flushedEventCount.get();
+    }
+
+    @Override
+    public long getFlushTime() {
+        return this.flushTime.get();
+    }
+
+    @Override
+    public double getFlushThroughput() {
+        final long flushTime = this.flushTime.get();
+        if (flushTime == 0) {
+            return 0;
+        }
+        return this.flushedEventCount.get() * 1000d / flushTime;
+    }
+    
     /* (non-Javadoc)
      * @see org.springframework.beans.factory.DisposableBean#destroy()
      */
@@ -70,7 +173,40 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
      */
     @Override
     protected final void onFilteredApplicationEvent(E event) {
-        this.eventQueue.offer(event);
+        if (this.eventQueue.offer(event)) {
+            return;
+        }
+        
+        final long overflowCount = this.overflowCount.incrementAndGet();
+        switch (this.overflowPolicy) {
+            case SAMPLE: {
+                if (overflowCount % this.overflowSampleRate != 0) {
+                    this.discardCount.incrementAndGet();
+                    break;
+                }
+                //Fall through to keep the sampled event
+            }
+            case DROP_OLDEST: {
+                while (!this.eventQueue.offer(event)) {
+                    if (this.eventQueue.poll() != null) {
+                        this.discardCount.incrementAndGet();
+                    }
+                }
+                break;
+            }
+            case BLOCK: {
+                try {
+                    if (!this.eventQueue.offer(event, this.overflowBlockTimeout, TimeUnit.MILLISECONDS)) {
+                        this.discardCount.incrementAndGet();
+                    }
+                }
+                catch (InterruptedException e) {
+                    this.discardCount.incrementAndGet();
+                    Thread.currentThread().interrupt();
+                }
+                break;
+            }
+        }
     }
     
     /**
@@ -102,16 +238,15 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
             logger.trace("FlushLock already held, returning.");
             return;
         }
+        final long flushStart = System.currentTimeMillis();
         try {
             while (!this.eventQueue.isEmpty()) {
                 //Clear the buffer for re-use
                 eventBuffer.clear();
                 
                 //Pop events off the queue into the buffer
-                while (!this.eventQueue.isEmpty() && eventBuffer.size() < this.batchSize) {
-                    final E event = eventQueue.poll();
-                    eventBuffer.add(event);
-                }
+                this.eventQueue.drainTo(eventBuffer, this.batchSize);
+                this.flushedEventCount.addAndGet(eventBuffer.size());
 
                 if (this.logger.isDebugEnabled()) {
                     this.logger.debug("Flushing " + eventBuffer.size() + " events");
@@ -147,6 +282,7 @@ public abstract class QueueingEventHandler<E extends ApplicationEvent>
             //Clear the buffer to avoid memory leaks
             eventBuffer.clear();
             
+            this.flushTime.addAndGet(System.currentTimeMillis() - flushStart);
             this.flushLock.unlock();
         }
     }
@@ -0,0 +1,66 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.handlers;
+
+/**
+ * JMX view of a {@link QueueingEventHandler}, used to size the queue and to see if flushing keeps up with the
+ * rate events are queued
+ */
+public interface QueueingEventHandlerMXBean {
+    
+    /**
+     * @return Number of events waiting to be flushed
+     */
+    int getQueueSize();
+    
+    /**
+     * @return Maximum number of events that can be waiting to be flushed
+     */
+    int getQueueCapacity();
+    
+    /**
+     * @return What is done with an event when the queue is full
+     */
+    String getOverflowPolicy();
+    
+    /**
+     * @return Number of events that were queued while the queue was full
+     */
+    long getOverflowCount();
+    
+    /**
+     * @return Number of events that were discarded because the queue was full
+     */
+    long getDiscardCount();
+    
+    /**
+     * @return Number of events that have been flushed
+     */
+    long getFlushedEventCount();
+    
+    /**
+     * @return Total milliseconds spent flushing events
+     */
+    long getFlushTime();
+    
+    /**
+     * @return Average number of events flushed per second of flush time
+     */
+    double getFlushThroughput();
+}
@@ -19,8 +19,17 @@
 package org.jasig.portal.events.handlers.db;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
@@ -28,6 +37,7 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Root;
 
+import org.apache.commons.io.output.StringBuilderWriter;
 import org.hibernate.FlushMode;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
@@ -37,6 +47,7 @@ import org.jasig.portal.events.PortalEvent;
 import org.jasig.portal.jpa.BaseRawEventsJpaDao;
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.stereotype.Repository;
@@ -44,12 +55,21 @@ import org.springframework.stereotype.Repository;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.google.common.base.Function;
 
 /**
  * Stores portal events using JPA/Hibenate no internal batch segmentation is done to the passed list
  * of {@link PortalEvent}s. If a {@link PortalEvent} is not mapped as a persistent entity a message is logged
  * at the WARN level and the event is ignored.
+ * <p>
+ * Inserts are sent to the database in JDBC batches of <code>hibernate.jdbc.batch_size</code> when the transaction
+ * commits, callers storing many events should pass them in groups of about that size.
+ * <p>
+ * During aggregation the event data of each batch of events is deserialized in {@link #setAggregationPartitions(int)}
+ * concurrent partitions, the events are then handed to the aggregation handler one at a time in timestamp order. A
+ * {@link PartitionedAggregationHandler} completes the aggregation of the batch before the events are marked as
+ * aggregated, so the aggregation and the marks are written together when the batch is flushed.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -58,10 +78,13 @@ import com.google.common.base.Function;
 public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalEventDao {
 
     private ObjectMapper mapper;
+    private ObjectWriter eventWriter;
     private String deleteQuery;
     private String selectQuery;
     private String selectUnaggregatedQuery;
     private int flushPeriod = 1000;
+    private int aggregationPartitions = 1;
+    private ExecutorService aggregationPartitionExecutor;
     private CriteriaQuery<DateTime> findNewestPersistentPortalEventTimestampQuery;
     private CriteriaQuery<DateTime> findOldestPersistentPortalEventTimestampQuery;
     private ParameterExpression<DateTime> startTimeParameter;
@@ -71,6 +94,7 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Autowired
     public void setMapper(ObjectMapper mapper) {
         this.mapper = mapper;
+        this.eventWriter = mapper.writer();
     }
 
     /**
@@ -78,7 +102,27 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
      */
     @Value("${org.jasig.portal.events.handlers.db.JpaPortalEventStore.aggregationFlushPeriod:1000}")
     public void setAggregationFlushPeriod(int flushPeriod) {
-        this.flushPeriod = flushPeriod;
+        this.flushPeriod = Math.max(1, flushPeriod);
+    }
+    
+    /**
+     * Number of partitions each batch of {@link #setAggregationFlushPeriod(int)} events is split into so the event
+     * data can be deserialized concurrently during aggregation, defaults to 1 which deserializes all events in the
+     * aggregating thread. The same setting is used by the aggregator to update the aggregations of a batch
+     * concurrently.
+     */
+    @Value("${org.jasig.portal.events.handlers.db.JpaPortalEventStore.aggregationPartitions:1}")
+    public void setAggregationPartitions(int aggregationPartitions) {
+        this.aggregationPartitions = Math.max(1, aggregationPartitions);
+    }
+    
+    /**
+     * @param aggregationPartitionExecutor Pool the partitions after the first are deserialized on, if it rejects a
+     *      partition the aggregating thread deserializes it
+     */
+    @Autowired
+    public void setAggregationPartitionExecutor(@Qualifier("portalEventAggregationThreadPool") ExecutorService aggregationPartitionExecutor) {
+        this.aggregationPartitionExecutor = aggregationPartitionExecutor;
     }
     
     @Override
@@ -147,22 +191,21 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
     @Override
     @RawEventsTransactional
     public void storePortalEvents(PortalEvent... portalEvents) {
-        for (final PortalEvent portalEvent : portalEvents) {
-            try {
-                storePortalEvent(portalEvent);
-            }
-            catch (IllegalArgumentException iae) {
-                this.logger.warn(portalEvent.getClass().getName() + " is not mapped as a persistent entity and will not be stored. " + portalEvent + " Exception=" + iae.getMessage());
-            }
-        }
+        this.storePortalEvents(Arrays.asList(portalEvents));
     }
 
     @Override
     @RawEventsTransactional
     public void storePortalEvents(Iterable<PortalEvent> portalEvents) {
+        final EntityManager entityManager = this.getEntityManager();
+        
+        //Serialize all of the events through the same buffer
+        final StringBuilderWriter eventDataBuffer = new StringBuilderWriter();
+        
         for (final PortalEvent portalEvent : portalEvents) {
             try {
-                storePortalEvent(portalEvent);
+                final String portalEventData = this.toString(portalEvent, eventDataBuffer);
+                entityManager.persist(new PersistentPortalEvent(portalEvent, portalEventData));
             }
             catch (IllegalArgumentException iae) {
                 this.logger.warn(portalEvent.getClass().getName() + " is not mapped as a persistent entity and will not be stored. " + portalEvent + " Exception=" + iae.getMessage());
@@ -196,53 +239,174 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
             query.setMaxResults(maxEvents);
         }
 
-        int resultCount = 0;
-        for (final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY); results.next(); ) {
-            final PersistentPortalEvent persistentPortalEvent = (PersistentPortalEvent)results.get(0);
-            final PortalEvent portalEvent;
-            try {
-                portalEvent = this.toPortalEvent(persistentPortalEvent.getEventData(), persistentPortalEvent.getEventType());
-            }
-            catch (RuntimeException e) {
-                this.logger.warn("Failed to convert PersistentPortalEvent to PortalEvent: " + persistentPortalEvent, e);
-                
-                //Mark the event as error and store the mark to prevent trying to reprocess the broken event data
-                persistentPortalEvent.setErrorAggregating(true);
-                session.persist(persistentPortalEvent);
-                
-                continue;
+        final ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+        final List<PersistentPortalEvent> persistentPortalEvents = new ArrayList<PersistentPortalEvent>(this.flushPeriod);
+        boolean moreResults = true;
+        while (moreResults) {
+            //Read the next batch of events, the batch is cleared from the session once it has been handled
+            persistentPortalEvents.clear();
+            while (persistentPortalEvents.size() < this.flushPeriod && (moreResults = results.next())) {
+                persistentPortalEvents.add((PersistentPortalEvent)results.get(0));
             }
             
-            try {
+            final PortalEvent[] portalEvents = new PortalEvent[persistentPortalEvents.size()];
+            final RuntimeException[] conversionErrors = new RuntimeException[persistentPortalEvents.size()];
+            this.toPortalEvents(persistentPortalEvents, portalEvents, conversionErrors);
             
-                final Boolean eventHandled = handler.apply(portalEvent);
-                if (!eventHandled) {
-                    this.logger.debug("Aggregation stop requested before processing event {}", portalEvent);
-                    return false;
+            //Events are only marked as aggregated once the handler has completed their aggregation
+            final boolean[] handledEvents = new boolean[portalEvents.length];
+            for (int index = 0; index < portalEvents.length; index++) {
+                final PersistentPortalEvent persistentPortalEvent = persistentPortalEvents.get(index);
+                final PortalEvent portalEvent = portalEvents[index];
+                if (portalEvent == null) {
+                    this.logger.warn("Failed to convert PersistentPortalEvent to PortalEvent: " + persistentPortalEvent, conversionErrors[index]);
+                    
+                    //Mark the event as error and store the mark to prevent trying to reprocess the broken event data
+                    persistentPortalEvent.setErrorAggregating(true);
+                    session.persist(persistentPortalEvent);
+                    
+                    continue;
                 }
                 
-                //Mark the event as aggregated and store the mark
-                persistentPortalEvent.setAggregated(true);
-                session.persist(persistentPortalEvent);
+                try {
                 
-                //periodic flush and clear of session to manage memory demands
-                if (++resultCount % this.flushPeriod == 0) {
-                    this.logger.debug("Aggregated {} events, flush and clear {} EntityManager.", resultCount, PERSISTENCE_UNIT_NAME);
-                    session.flush();
-                    session.clear();
+                    final Boolean eventHandled = handler.apply(portalEvent);
+                    if (!eventHandled) {
+                        this.logger.debug("Aggregation stop requested before processing event {}", portalEvent);
+                        this.markAggregated(session, handler, persistentPortalEvents, portalEvents, handledEvents);
+                        return false;
+                    }
+                    
+                    handledEvents[index] = true;
+                
+                } catch (Exception e) {
+                    this.logger.warn("Failed to aggregate portal event: " + persistentPortalEvent, e);
+                    //mark the event as erred and move on. This will not be picked up by processing again
+                    persistentPortalEvent.setErrorAggregating(true);
+                    session.persist(persistentPortalEvent);
                 }
+            }
             
-            } catch (Exception e) {
-                this.logger.warn("Failed to aggregate portal event: " + persistentPortalEvent, e);
-                //mark the event as erred and move on. This will not be picked up by processing again
-                persistentPortalEvent.setErrorAggregating(true);
-                session.persist(persistentPortalEvent);
+            this.markAggregated(session, handler, persistentPortalEvents, portalEvents, handledEvents);
+            
+            //periodic flush and clear of session to manage memory demands
+            if (moreResults) {
+                this.logger.debug("Aggregated {} events, flush and clear {} EntityManager.", portalEvents.length, PERSISTENCE_UNIT_NAME);
+                session.flush();
+                session.clear();
             }
         }
         
         return true;
     }
     
+    /**
+     * Completes the deferred aggregation of a {@link PartitionedAggregationHandler} and then marks the handled events
+     * of the batch as aggregated, or as erred if their deferred aggregation failed.
+     */
+    private void markAggregated(Session session, Function<PortalEvent, Boolean> handler,
+            List<PersistentPortalEvent> persistentPortalEvents, PortalEvent[] portalEvents, boolean[] handledEvents) {
+        
+        final Set<PortalEvent> failedEvents;
+        if (handler instanceof PartitionedAggregationHandler) {
+            failedEvents = ((PartitionedAggregationHandler)handler).aggregatePartitions();
+        }
+        else {
+            failedEvents = Collections.emptySet();
+        }
+        
+        for (int index = 0; index < handledEvents.length; index++) {
+            if (!handledEvents[index]) {
+                continue;
+            }
+            
+            final PersistentPortalEvent persistentPortalEvent = persistentPortalEvents.get(index);
+            if (failedEvents.contains(portalEvents[index])) {
+                //mark the event as erred, the handler has logged the failure
+                persistentPortalEvent.setErrorAggregating(true);
+            }
+            else {
+                persistentPortalEvent.setAggregated(true);
+            }
+            session.persist(persistentPortalEvent);
+        }
+    }
+    
+    /**
+     * Deserializes the event data of a batch of events. The batch is split into {@link #setAggregationPartitions(int)}
+     * partitions of consecutive events which are deserialized concurrently. Events that cannot be deserialized are
+     * left null in portalEvents with the cause in conversionErrors.
+     */
+    private void toPortalEvents(List<PersistentPortalEvent> persistentPortalEvents, final PortalEvent[] portalEvents,
+            final RuntimeException[] conversionErrors) {
+        
+        //Read the event data here so the partition threads never touch the session's entities
+        final List<String> eventData = new ArrayList<String>(persistentPortalEvents.size());
+        final List<Class<PortalEvent>> eventTypes = new ArrayList<Class<PortalEvent>>(persistentPortalEvents.size());
+        for (final PersistentPortalEvent persistentPortalEvent : persistentPortalEvents) {
+            eventData.add(persistentPortalEvent.getEventData());
+            eventTypes.add(persistentPortalEvent.getEventType());
+        }
+        
+        final int eventCount = eventData.size();
+        final int partitionSize;
+        if (this.aggregationPartitionExecutor == null || this.aggregationPartitions <= 1) {
+            partitionSize = eventCount;
+        }
+        else {
+            partitionSize = (eventCount + this.aggregationPartitions - 1) / this.aggregationPartitions;
+        }
+        
+        //The aggregating thread handles the first partition and any partition the pool rejects
+        final List<Future<?>> partitions = new ArrayList<Future<?>>(this.aggregationPartitions);
+        int rejectedStart = eventCount;
+        for (int start = partitionSize; start < eventCount; start += partitionSize) {
+            final int partitionStart = start;
+            final int partitionEnd = Math.min(start + partitionSize, eventCount);
+            try {
+                partitions.add(this.aggregationPartitionExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        toPortalEvents(eventData, eventTypes, partitionStart, partitionEnd, portalEvents, conversionErrors);
+                    }
+                }));
+            }
+            catch (RejectedExecutionException e) {
+                //No threads available, the aggregating thread deserializes the rest of the batch
+                rejectedStart = start;
+                break;
+            }
+        }
+        
+        this.toPortalEvents(eventData, eventTypes, 0, Math.min(partitionSize, eventCount), portalEvents, conversionErrors);
+        this.toPortalEvents(eventData, eventTypes, rejectedStart, eventCount, portalEvents, conversionErrors);
+        
+        for (final Future<?> partition : partitions) {
+            try {
+                partition.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for PortalEvent data to be deserialized", e);
+            }
+            catch (ExecutionException e) {
+                throw new RuntimeException("Failed to deserialize PortalEvent data", e.getCause());
+            }
+        }
+    }
+    
+    private void toPortalEvents(List<String> eventData, List<Class<PortalEvent>> eventTypes, int start, int end,
+            PortalEvent[] portalEvents, RuntimeException[] conversionErrors) {
+        for (int index = start; index < end; index++) {
+            try {
+                portalEvents[index] = this.toPortalEvent(eventData.get(index), eventTypes.get(index));
+            }
+            catch (RuntimeException e) {
+                conversionErrors[index] = e;
+            }
+        }
+    }
+    
     @Override
     public void getPortalEvents(DateTime startTime, DateTime endTime, FunctionWithoutResult<PortalEvent> handler) {
         this.getPortalEvents(startTime, endTime, -1, handler);
@@ -309,4 +473,25 @@ public class JpaPortalEventStore extends BaseRawEventsJpaDao implements IPortalE
             throw new RuntimeException("Failed to serialize PortalEvent data", e);
         }
     }
+    
+    /**
+     * Serialize the event using the buffer, the buffer is cleared first so it can be reused for each event
+     */
+    protected String toString(PortalEvent event, StringBuilderWriter buffer) {
+        final StringBuilder builder = buffer.getBuilder();
+        builder.setLength(0);
+        try {
+            this.eventWriter.writeValue(buffer, event);
+            return builder.toString();
+        }
+        catch (JsonParseException e) {
+            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+        }
+        catch (JsonMappingException e) {
+            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to serialize PortalEvent data", e);
+        }
+    }
 }
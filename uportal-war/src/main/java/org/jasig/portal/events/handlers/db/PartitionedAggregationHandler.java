@@ -0,0 +1,41 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.handlers.db;
+
+import java.util.Set;
+
+import org.jasig.portal.events.PortalEvent;
+import org.joda.time.DateTime;
+
+import com.google.common.base.Function;
+
+/**
+ * Handler for {@link IPortalEventDao#aggregatePortalEvents(DateTime, DateTime, int, Function)} that defers part of the
+ * aggregation of each event so it can be done in concurrent partitions. {@link #apply(Object)} is still called for
+ * each event in timestamp order and does the work that depends on the order of the events or uses the database.
+ */
+public interface PartitionedAggregationHandler extends Function<PortalEvent, Boolean> {
+    /**
+     * Complete the deferred aggregation of every event passed to {@link #apply(Object)} so far. Called after each batch
+     * of events and before the events of the batch are marked as aggregated.
+     *
+     * @return The events that failed to aggregate, they are marked as erred instead of aggregated
+     */
+    Set<PortalEvent> aggregatePartitions();
+}
@@ -0,0 +1,590 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.groups;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jasig.portal.properties.PropertiesManager;
+
+/**
+ * In-memory transitive closure of the group-in-group memberships of the local (RDBM) group service. Group keys are
+ * interned to dense ints and each group keeps the sorted ids of all of its ancestors, so deep membership between two
+ * local groups is answered without walking the group graph through the group service.
+ * <p>
+ * Local groups can only be contained by local groups, the ancestors of groups from other services (PAGS, LDAP, ...)
+ * are still resolved through their stores until a local group is reached.
+ * <p>
+ * Instances are immutable. Changes create a new index that shares the interned keys and the unchanged member, parent
+ * and ancestor lists with the old one, only the ancestors of the changed groups and their descendants are
+ * recalculated. The current index, returned by {@link #getIndex()}, is loaded and periodically rebuilt from the
+ * database by {@link #rebuildIndex()}, which is run by a scheduled task, to pick up changes made by other servers. It is
+ * updated in memory when local group memberships are changed by this server. The index is only used when
+ * {@code org.jasig.portal.groups.GroupClosureIndex.enabled} is true.
+ *
+ * @see GroupMemberImpl#isDeepMemberOf(IGroupMember)
+ * @see GroupMemberImpl#getAllContainingGroups()
+ */
+public final class GroupClosureIndex {
+    private static final Log log = LogFactory.getLog(GroupClosureIndex.class);
+    
+    private static final boolean ENABLED = PropertiesManager.getPropertyAsBoolean("org.jasig.portal.groups.GroupClosureIndex.enabled", false);
+    private static final int[] NO_IDS = new int[0];
+    
+    private static final ReentrantLock indexLock = new ReentrantLock();
+    private static volatile GroupClosureIndex currentIndex;
+    private static volatile List<IndexUpdate> rebuildUpdates;
+    private static volatile String indexedServiceName;
+    
+    private final GroupKeys groupKeys;
+    private final int[][] members;
+    private final int[][] parents;
+    private final int[][] ancestors;
+    private final int size;
+    
+    /**
+     * @param memberGroupKeys The keys of the member groups of every local group, keyed by the local group key. Every
+     * local group must have an entry, groups that are not keys of the map are not indexed.
+     */
+    public GroupClosureIndex(Map<String, ? extends Collection<String>> memberGroupKeys) {
+        this.groupKeys = new GroupKeys();
+        
+        //Intern the indexed groups and their members
+        final int[] groupIds = new int[memberGroupKeys.size()];
+        final int[][] groupMembers = new int[memberGroupKeys.size()][];
+        int group = 0;
+        for (final Map.Entry<String, ? extends Collection<String>> memberEntry : memberGroupKeys.entrySet()) {
+            groupIds[group] = this.groupKeys.intern(memberEntry.getKey());
+            groupMembers[group] = this.groupKeys.intern(memberEntry.getValue());
+            group++;
+        }
+        
+        final int length = this.groupKeys.size();
+        this.members = new int[length][];
+        for (group = 0; group < groupIds.length; group++) {
+            this.members[groupIds[group]] = groupMembers[group];
+        }
+        this.size = groupIds.length;
+        
+        //Invert the member lists into parent lists
+        final int[] parentCounts = new int[length];
+        for (final int[] memberIds : this.members) {
+            if (memberIds != null) {
+                for (final int memberId : memberIds) {
+                    parentCounts[memberId]++;
+                }
+            }
+        }
+        this.parents = new int[length][];
+        for (int id = 0; id < length; id++) {
+            this.parents[id] = new int[parentCounts[id]];
+            parentCounts[id] = 0;
+        }
+        for (int parentId = 0; parentId < length; parentId++) {
+            if (this.members[parentId] != null) {
+                for (final int memberId : this.members[parentId]) {
+                    this.parents[memberId][parentCounts[memberId]++] = parentId;
+                }
+            }
+        }
+        
+        final BitSet allGroups = new BitSet(length);
+        allGroups.set(0, length);
+        this.ancestors = new int[length][];
+        new AncestorCalculator(this.parents, this.ancestors, allGroups).calculate();
+    }
+    
+    private GroupClosureIndex(GroupKeys groupKeys, int[][] members, int[][] parents, int[][] ancestors, int size) {
+        this.groupKeys = groupKeys;
+        this.members = members;
+        this.parents = parents;
+        this.ancestors = ancestors;
+        this.size = size;
+    }
+    
+    /**
+     * @return The id of the group in this index, -1 if the group is not known to this index
+     */
+    private int getId(String groupKey) {
+        final Integer id = this.groupKeys.getId(groupKey);
+        if (id == null || id >= this.members.length) {
+            return -1;
+        }
+        return id;
+    }
+    
+    /**
+     * @return true if the group is a local group, ancestors of other groups are only partially known by the index
+     */
+    public boolean isIndexed(String groupKey) {
+        final int id = this.getId(groupKey);
+        return id >= 0 && this.members[id] != null;
+    }
+    
+    /**
+     * @return true if the group identified by memberGroupKey is directly or indirectly contained by the group
+     * identified by groupKey. Only valid if memberGroupKey is {@link #isIndexed(String)}.
+     */
+    public boolean isDeepMemberOf(String memberGroupKey, String groupKey) {
+        final int memberId = this.getId(memberGroupKey);
+        final int groupId = this.getId(groupKey);
+        if (memberId < 0 || groupId < 0) {
+            return false;
+        }
+        return Arrays.binarySearch(this.ancestors[memberId], groupId) >= 0;
+    }
+    
+    /**
+     * @return Keys of all groups that directly or indirectly contain the group, the key of the group itself is only
+     * included if the group is part of a membership cycle
+     */
+    public List<String> getAncestorKeys(String groupKey) {
+        final int id = this.getId(groupKey);
+        if (id < 0) {
+            return Collections.emptyList();
+        }
+        
+        final int[] ancestorIds = this.ancestors[id];
+        final List<String> ancestorKeys = new ArrayList<String>(ancestorIds.length);
+        for (final int ancestorId : ancestorIds) {
+            ancestorKeys.add(this.groupKeys.getKey(ancestorId));
+        }
+        return ancestorKeys;
+    }
+    
+    /**
+     * @return Number of local groups in the index
+     */
+    public int size() {
+        return this.size;
+    }
+    
+    /**
+     * @return A copy of this index with the member groups of the local group replaced
+     */
+    public GroupClosureIndex withMemberGroupKeys(String groupKey, Collection<String> memberGroupKeys) {
+        final int groupId = this.groupKeys.intern(groupKey);
+        final int[] newMembers = this.groupKeys.intern(memberGroupKeys);
+        
+        final int length = this.groupKeys.size();
+        final int[][] members = Arrays.copyOf(this.members, length);
+        final int[][] parents = Arrays.copyOf(this.parents, length);
+        final int[][] ancestors = Arrays.copyOf(this.ancestors, length);
+        for (int id = this.members.length; id < length; id++) {
+            parents[id] = NO_IDS;
+            ancestors[id] = NO_IDS;
+        }
+        
+        final int[] oldMembers = members[groupId] != null ? members[groupId] : NO_IDS;
+        final int size = members[groupId] != null ? this.size : this.size + 1;
+        members[groupId] = newMembers;
+        
+        //Only the groups added or removed as members have new parents
+        final BitSet changedGroups = new BitSet(length);
+        for (final int memberId : oldMembers) {
+            if (!contains(newMembers, memberId)) {
+                parents[memberId] = remove(parents[memberId], groupId);
+                changedGroups.set(memberId);
+            }
+        }
+        for (final int memberId : newMembers) {
+            if (!contains(oldMembers, memberId)) {
+                parents[memberId] = add(parents[memberId], groupId);
+                changedGroups.set(memberId);
+            }
+        }
+        
+        return update(members, parents, ancestors, size, changedGroups);
+    }
+    
+    /**
+     * @return A copy of this index without the local group
+     */
+    public GroupClosureIndex withoutGroup(String groupKey) {
+        final int groupId = this.getId(groupKey);
+        if (groupId < 0 || this.members[groupId] == null) {
+            return this;
+        }
+        
+        final int length = this.members.length;
+        final int[][] members = this.members.clone();
+        final int[][] parents = this.parents.clone();
+        final int[][] ancestors = this.ancestors.clone();
+        
+        //The group and its former members have new parents
+        final BitSet changedGroups = new BitSet(length);
+        changedGroups.set(groupId);
+        for (final int memberId : members[groupId]) {
+            parents[memberId] = remove(parents[memberId], groupId);
+            changedGroups.set(memberId);
+        }
+        for (final int parentId : parents[groupId]) {
+            members[parentId] = remove(members[parentId], groupId);
+        }
+        members[groupId] = null;
+        parents[groupId] = NO_IDS;
+        
+        return update(members, parents, ancestors, this.size - 1, changedGroups);
+    }
+    
+    /**
+     * Recalculates the ancestors of the changed groups and their descendants, the ancestors of all other groups
+     * do not depend on the changed parents.
+     */
+    private GroupClosureIndex update(int[][] members, int[][] parents, int[][] ancestors, int size, BitSet changedGroups) {
+        final BitSet affectedGroups = new BitSet(members.length);
+        final int[] queue = new int[members.length];
+        int queueEnd = 0;
+        for (int id = changedGroups.nextSetBit(0); id >= 0; id = changedGroups.nextSetBit(id + 1)) {
+            affectedGroups.set(id);
+            queue[queueEnd++] = id;
+        }
+        for (int queueStart = 0; queueStart < queueEnd; queueStart++) {
+            final int[] memberIds = members[queue[queueStart]];
+            if (memberIds != null) {
+                for (final int memberId : memberIds) {
+                    if (!affectedGroups.get(memberId)) {
+                        affectedGroups.set(memberId);
+                        queue[queueEnd++] = memberId;
+                    }
+                }
+            }
+        }
+        
+        for (int id = affectedGroups.nextSetBit(0); id >= 0; id = affectedGroups.nextSetBit(id + 1)) {
+            ancestors[id] = null;
+        }
+        new AncestorCalculator(parents, ancestors, affectedGroups).calculate();
+        
+        return new GroupClosureIndex(this.groupKeys, members, parents, ancestors, size);
+    }
+    
+    private static boolean contains(int[] ids, int id) {
+        for (final int existingId : ids) {
+            if (existingId == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static int[] add(int[] ids, int id) {
+        final int[] newIds = Arrays.copyOf(ids, ids.length + 1);
+        newIds[ids.length] = id;
+        return newIds;
+    }
+    
+    private static int[] remove(int[] ids, int id) {
+        final int[] newIds = new int[ids.length];
+        int length = 0;
+        for (final int existingId : ids) {
+            if (existingId != id) {
+                newIds[length++] = existingId;
+            }
+        }
+        return Arrays.copyOf(newIds, length);
+    }
+    
+    /**
+     * @return The current index, null if the index is disabled or has not been loaded
+     */
+    public static GroupClosureIndex getIndex() {
+        if (!ENABLED) {
+            return null;
+        }
+        return currentIndex;
+    }
+    
+    /**
+     * @return true if changes to local group memberships must be passed to the index, the index is enabled and
+     * loaded or being loaded
+     */
+    static boolean isMaintained() {
+        return ENABLED && (currentIndex != null || rebuildUpdates != null);
+    }
+    
+    /**
+     * Updates the current index after the member groups of a group have been stored
+     */
+    static void memberGroupsUpdated(final IEntityGroup group, final String[] memberGroupKeys) {
+        applyUpdate(group, new IndexUpdate() {
+            @Override
+            public GroupClosureIndex apply(GroupClosureIndex index) {
+                return index.withMemberGroupKeys(group.getKey(), Arrays.asList(memberGroupKeys));
+            }
+        });
+    }
+    
+    /**
+     * Updates the current index after a group has been deleted
+     */
+    static void groupDeleted(final IEntityGroup group) {
+        applyUpdate(group, new IndexUpdate() {
+            @Override
+            public GroupClosureIndex apply(GroupClosureIndex index) {
+                return index.withoutGroup(group.getKey());
+            }
+        });
+    }
+    
+    private static void applyUpdate(IEntityGroup group, IndexUpdate update) {
+        if (!isMaintained()) {
+            return;
+        }
+        
+        indexLock.lock();
+        try {
+            if (!group.getServiceName().toString().equals(indexedServiceName)) {
+                return;
+            }
+            
+            //Changes made while the index is rebuilt may be missing from the loaded memberships
+            if (rebuildUpdates != null) {
+                rebuildUpdates.add(update);
+            }
+            if (currentIndex != null) {
+                currentIndex = update.apply(currentIndex);
+            }
+        }
+        finally {
+            indexLock.unlock();
+        }
+    }
+    
+    /**
+     * Loads the index from the database, replacing the current index. Run periodically by a scheduled task to pick up
+     * changes made by other servers, requests keep using the current index while it is rebuilt.
+     */
+    public static void rebuildIndex() {
+        if (!ENABLED) {
+            return;
+        }
+        
+        final long start = System.currentTimeMillis();
+        try {
+            //The default service is the RDBM backed local service
+            final String serviceName = GroupServiceConfiguration.getConfiguration().getDefaultService();
+            indexLock.lock();
+            try {
+                indexedServiceName = serviceName;
+                rebuildUpdates = new ArrayList<IndexUpdate>();
+            }
+            finally {
+                indexLock.unlock();
+            }
+            
+            final Map<String, Set<String>> memberGroupKeys = RDBMEntityGroupStore.singleton().findAllMemberGroupKeys(serviceName);
+            GroupClosureIndex index = new GroupClosureIndex(memberGroupKeys);
+            
+            indexLock.lock();
+            try {
+                for (final IndexUpdate update : rebuildUpdates) {
+                    index = update.apply(index);
+                }
+                currentIndex = index;
+            }
+            finally {
+                rebuildUpdates = null;
+                indexLock.unlock();
+            }
+            
+            if (log.isDebugEnabled()) {
+                log.debug("Built closure index of " + index.size() + " groups in service '" + serviceName + "' in "
+                        + (System.currentTimeMillis() - start) + "ms");
+            }
+        }
+        catch (Exception e) {
+            //Keep using the old index, if there is none deep membership falls back to walking the group graph
+            rebuildUpdates = null;
+            log.warn("Failed to build the group closure index, will retry on the next rebuild", e);
+        }
+    }
+    
+    /**
+     * A change to the memberships of a local group
+     */
+    private static abstract class IndexUpdate {
+        public abstract GroupClosureIndex apply(GroupClosureIndex index);
+    }
+    
+    /**
+     * Interned group keys, shared by an index and all indexes derived from it. Ids are only added, an index only knows
+     * the ids that existed when it was created.
+     */
+    private static final class GroupKeys {
+        private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+        private volatile String[] keys = new String[16];
+        private int size = 0;
+        
+        public Integer getId(String key) {
+            return this.ids.get(key);
+        }
+        
+        public String getKey(int id) {
+            return this.keys[id];
+        }
+        
+        public synchronized int size() {
+            return this.size;
+        }
+        
+        public synchronized int intern(String key) {
+            final Integer id = this.ids.get(key);
+            if (id != null) {
+                return id;
+            }
+            
+            if (this.size == this.keys.length) {
+                this.keys = Arrays.copyOf(this.keys, this.size * 2);
+            }
+            this.keys[this.size] = key;
+            this.ids.put(key, this.size);
+            return this.size++;
+        }
+        
+        /**
+         * @return The ids of the distinct keys
+         */
+        public int[] intern(Collection<String> keys) {
+            final Set<Integer> ids = new LinkedHashSet<Integer>();
+            for (final String key : keys) {
+                ids.add(this.intern(key));
+            }
+            final int[] idArray = new int[ids.size()];
+            int i = 0;
+            for (final Integer id : ids) {
+                idArray[i++] = id;
+            }
+            return idArray;
+        }
+    }
+    
+    /**
+     * Calculates the ancestors of the groups being calculated. The strongly connected components of the group graph
+     * are found with Tarjan's algorithm, which completes the components containing the parents of a group before the
+     * component of the group so every group's ancestors are calculated from the already complete ancestors of its
+     * parents. Groups in the same component, a membership cycle, share their ancestors. The ancestors of groups that
+     * are not being calculated must already be complete.
+     */
+    private static final class AncestorCalculator {
+        private final int[][] parents;
+        private final int[][] ancestors;
+        private final BitSet calculated;
+        private final int[] index;
+        private final int[] lowLink;
+        private final boolean[] onStack;
+        private final int[] stack;
+        private final BitSet componentAncestors;
+        private int stackSize = 0;
+        private int nextIndex = 0;
+        
+        /**
+         * @param parents The parents of every group
+         * @param ancestors Filled in with the ancestors of the calculated groups
+         * @param calculated The groups to calculate the ancestors of
+         */
+        public AncestorCalculator(int[][] parents, int[][] ancestors, BitSet calculated) {
+            this.parents = parents;
+            this.ancestors = ancestors;
+            this.calculated = calculated;
+            this.index = new int[parents.length];
+            this.lowLink = new int[parents.length];
+            this.onStack = new boolean[parents.length];
+            this.stack = new int[parents.length];
+            this.componentAncestors = new BitSet(parents.length);
+            Arrays.fill(this.index, -1);
+        }
+        
+        public void calculate() {
+            for (int id = this.calculated.nextSetBit(0); id >= 0; id = this.calculated.nextSetBit(id + 1)) {
+                if (this.index[id] == -1) {
+                    this.visit(id);
+                }
+            }
+        }
+        
+        private void visit(int id) {
+            this.index[id] = this.nextIndex;
+            this.lowLink[id] = this.nextIndex;
+            this.nextIndex++;
+            this.stack[this.stackSize++] = id;
+            this.onStack[id] = true;
+            
+            for (final int parentId : this.parents[id]) {
+                if (!this.calculated.get(parentId)) {
+                    //Already complete
+                    continue;
+                }
+                if (this.index[parentId] == -1) {
+                    this.visit(parentId);
+                    this.lowLink[id] = Math.min(this.lowLink[id], this.lowLink[parentId]);
+                }
+                else if (this.onStack[parentId]) {
+                    this.lowLink[id] = Math.min(this.lowLink[id], this.index[parentId]);
+                }
+            }
+            
+            if (this.lowLink[id] != this.index[id]) {
+                return;
+            }
+            
+            //id is the root of a component, the component is everything on the stack above it
+            int componentStart = this.stackSize - 1;
+            while (this.stack[componentStart] != id) {
+                componentStart--;
+            }
+            
+            this.componentAncestors.clear();
+            for (int i = componentStart; i < this.stackSize; i++) {
+                for (final int parentId : this.parents[this.stack[i]]) {
+                    this.componentAncestors.set(parentId);
+                    final int[] parentAncestors = this.ancestors[parentId];
+                    if (parentAncestors != null) {
+                        for (final int ancestorId : parentAncestors) {
+                            this.componentAncestors.set(ancestorId);
+                        }
+                    }
+                }
+            }
+            
+            final int[] sharedAncestors = new int[this.componentAncestors.cardinality()];
+            for (int ancestorId = this.componentAncestors.nextSetBit(0), i = 0; ancestorId >= 0; ancestorId = this.componentAncestors.nextSetBit(ancestorId + 1), i++) {
+                sharedAncestors[i] = ancestorId;
+            }
+            
+            for (int i = componentStart; i < this.stackSize; i++) {
+                this.ancestors[this.stack[i]] = sharedAncestors;
+                this.onStack[this.stack[i]] = false;
+            }
+            this.stackSize = componentStart;
+        }
+    }
+}
@@ -299,8 +299,40 @@ public boolean isDeepMemberOf(IGroupMember gm) throws GroupsException {
 
     if ( this.isMemberOf(gm) )
         { return true; }
+    GroupClosureIndex closureIndex = GroupClosureIndex.getIndex();
+    if ( closureIndex != null && gm.isGroup() && closureIndex.isIndexed(gm.getKey()) )
+        { return primIsDeepMemberOf(closureIndex, gm.getKey(), new HashSet()); }
     return gm.deepContains( this );
 }
+/**
+ * Answers if this <code>IGroupMember</code> is, recursively, a member of the local group
+ * with key groupKey.  Local containing groups are answered by the closure index, other
+ * containing groups are walked until they reach a local group.
+ * @param closureIndex the current <code>GroupClosureIndex</code>
+ * @param groupKey the key of a group in the closure index
+ * @param visited keys of the non-local groups that have already been walked
+ * @return boolean
+ */
+protected boolean primIsDeepMemberOf(GroupClosureIndex closureIndex, String groupKey, Set visited) throws GroupsException
+{
+    for (Iterator itr = getGroupKeys().iterator(); itr.hasNext(); )
+    {
+        String parentKey = (String) itr.next();
+        if ( closureIndex.isIndexed(parentKey) )
+        {
+            if ( parentKey.equals(groupKey) || closureIndex.isDeepMemberOf(parentKey, groupKey) )
+                { return true; }
+        }
+        else if ( visited.add(parentKey) )
+        {
+            IEntityGroup parent = getCompositeGroupService().findGroup(parentKey);
+            if ( parent instanceof GroupMemberImpl
+              && ((GroupMemberImpl) parent).primIsDeepMemberOf(closureIndex, groupKey, visited) )
+                { return true; }
+        }
+    }
+    return false;
+}
 /**
  * @return boolean
  */
@@ -344,6 +376,7 @@ public boolean isMemberOf(IGroupMember gm) throws GroupsException
  */
 protected java.util.Set primGetAllContainingGroups(IGroupMember member, Set s) throws GroupsException
 {
+    GroupClosureIndex closureIndex = GroupClosureIndex.getIndex();
     Iterator i = member.getContainingGroups();
     while ( i.hasNext() )
     {
@@ -351,11 +384,28 @@ protected java.util.Set primGetAllContainingGroups(IGroupMember member, Set s) t
         // avoid stack overflow in case of circular group dependencies
         if (!s.contains(gm)) {
             s.add(gm);
-            primGetAllContainingGroups(gm, s);
+            if ( closureIndex != null && closureIndex.isIndexed(gm.getKey()) )
+                { addAncestors(closureIndex, gm.getKey(), s); }
+            else
+                { primGetAllContainingGroups(gm, s); }
         }
     }
     return s;
 }
+/**
+ * Adds the groups that contain the local group with key groupKey, as recorded in the closure
+ * index, to the <code>Set</code>.  Local groups are only contained by other local groups so
+ * the closure index knows all of them.
+ */
+private void addAncestors(GroupClosureIndex closureIndex, String groupKey, Set s) throws GroupsException
+{
+    for (Iterator itr = closureIndex.getAncestorKeys(groupKey).iterator(); itr.hasNext(); )
+    {
+        IEntityGroup ancestor = getCompositeGroupService().findGroup((String) itr.next());
+        if ( ancestor != null )
+            { s.add(ancestor); }
+    }
+}
 /**
  * Removes the key of the <code>IEntityGroup</code> from our <code>Set</code> of group keys
  * by copying the keys, updating the copy, and replacing the old keys with the copy.
@@ -25,8 +25,12 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -283,6 +287,7 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
             { primDelete(group); }
             catch (SQLException sqle)
             { throw new GroupsException("Problem deleting " + group, sqle); }
+            GroupClosureIndex.groupDeleted(group);
         }
     }
 
@@ -612,6 +617,69 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
 
         return (String[]) groupKeys.toArray(new String[groupKeys.size()]);
     }
+
+    /**
+     * Find the keys of the member groups of every group in the store, used to build the
+     * <code>GroupClosureIndex</code>.
+     * @param serviceName the name of the service the groups in this store belong to
+     * @return the member group keys keyed by group key, groups without member groups map to an empty Set
+     */
+    public Map<String, Set<String>> findAllMemberGroupKeys(String serviceName) throws GroupsException
+    {
+        java.sql.Connection conn = null;
+        Map<String, Set<String>> memberGroupKeys = new HashMap<String, Set<String>>();
+
+        try
+        {
+            conn = RDBMServices.getConnection();
+            Statement stmnt = conn.createStatement();
+            try
+            {
+                String sql = "SELECT " + GROUP_ID_COLUMN + " FROM " + GROUP_TABLE;
+                if (log.isDebugEnabled())
+                    log.debug("RDBMEntityGroupStore.findAllMemberGroupKeys(): " + sql);
+                ResultSet rs = stmnt.executeQuery(sql);
+                try
+                {
+                    while (rs.next())
+                    {
+                        String groupKey = serviceName + GROUP_NODE_SEPARATOR + rs.getString(1);
+                        memberGroupKeys.put(groupKey, new HashSet<String>());
+                    }
+                }
+                finally
+                { rs.close(); }
+
+                sql = "SELECT " + MEMBER_GROUP_ID_COLUMN + ", " + MEMBER_MEMBER_SERVICE_COLUMN + ", " + MEMBER_MEMBER_KEY_COLUMN +
+                        " FROM " + MEMBER_TABLE + " WHERE " + MEMBER_IS_GROUP_COLUMN + EQ + sqlQuote(MEMBER_IS_GROUP);
+                if (log.isDebugEnabled())
+                    log.debug("RDBMEntityGroupStore.findAllMemberGroupKeys(): " + sql);
+                rs = stmnt.executeQuery(sql);
+                try
+                {
+                    while (rs.next())
+                    {
+                        Set<String> memberKeys = memberGroupKeys.get(serviceName + GROUP_NODE_SEPARATOR + rs.getString(1));
+                        if (memberKeys != null)
+                        { memberKeys.add(rs.getString(2) + GROUP_NODE_SEPARATOR + rs.getString(3)); }
+                    }
+                }
+                finally
+                { rs.close(); }
+            }
+            finally
+            { stmnt.close(); }
+        }
+        catch (Exception sqle)
+        {
+            log.error( "RDBMEntityGroupStore.findAllMemberGroupKeys(): " + sqle);
+            throw new GroupsException("Problem retrieving member group keys: " + sqle);
+        }
+        finally
+        { RDBMServices.releaseConnection(conn); }
+
+        return memberGroupKeys;
+    }
     /**
      * Find the IUserGroups that are members of the group.
      * @param group org.jasig.portal.groups.IEntityGroup
@@ -1668,6 +1736,7 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
                 }
             }
         }
+        updateClosureIndex(group);
     }
 
     /**
@@ -1711,6 +1780,19 @@ public class RDBMEntityGroupStore implements IEntityGroupStore, IGroupConstants
                     }
                 }
             }
+        if ( egi.isDirty() )
+            { updateClosureIndex(egi); }
+    }
+
+    /**
+     * Replace the member groups of the group in the <code>GroupClosureIndex</code> with
+     * the member groups that were just stored.
+     * @param group org.jasig.portal.groups.IEntityGroup
+     */
+    private void updateClosureIndex(IEntityGroup group) throws GroupsException
+    {
+        if ( GroupClosureIndex.isMaintained() )
+            { GroupClosureIndex.memberGroupsUpdated(group, findMemberGroupKeys(group)); }
     }
 
     private static final void close(final Statement statement) {
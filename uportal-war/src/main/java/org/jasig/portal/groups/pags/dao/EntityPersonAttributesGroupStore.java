@@ -18,7 +18,6 @@
  */
 package org.jasig.portal.groups.pags.dao;
 
-import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -44,6 +43,7 @@ import org.jasig.portal.groups.ILockableEntityGroup;
 import org.jasig.portal.groups.pags.PagsGroup;
 import org.jasig.portal.groups.pags.IPersonTester;
 import org.jasig.portal.groups.pags.TestGroup;
+import org.jasig.portal.properties.PropertiesManager;
 import org.jasig.portal.security.IPerson;
 import org.jasig.portal.security.PersonFactory;
 import org.jasig.portal.security.provider.RestrictedPerson;
@@ -59,6 +59,9 @@ import org.springframework.context.ApplicationContext;
  * The Person Attributes Group Store uses attributes stored in the IPerson object to determine
  * group membership.  It can use attributes from any data source supported by the PersonDirectory
  * service.
+ * <p>
+ * Unless {@code org.jasig.portal.groups.pags.dao.PagsGroupEvaluator.enabled} is false, person
+ * memberships are evaluated by a {@link PagsGroupEvaluator} compiled from all the definitions.
  * 
  * @author Shawn Connolly, sconnolly@unicon.net
  * @since 4.1
@@ -67,8 +70,12 @@ public class EntityPersonAttributesGroupStore implements IEntityGroupStore, IEnt
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     private static final Class<IPerson> IPERSON_CLASS = IPerson.class;
     private static final EntityIdentifier[] EMPTY_SEARCH_RESULTS = new EntityIdentifier[0];
+    private static final String EVALUATOR_CACHE_KEY = PagsGroupEvaluator.class.getName();
+    private static final boolean EVALUATOR_ENABLED = PropertiesManager.getPropertyAsBoolean("org.jasig.portal.groups.pags.dao.PagsGroupEvaluator.enabled", true);
+    private static final int EVALUATOR_RESULT_CACHE_SIZE = PropertiesManager.getPropertyAsInt("org.jasig.portal.groups.pags.dao.PagsGroupEvaluator.resultCacheSize", 1000);
     private IPersonAttributesGroupDefinitionDao personAttributesGroupDefinitionDao;
     private final Cache groupDefCache;
+    private final Cache evaluatorCache;
 
     public EntityPersonAttributesGroupStore() {
         super();
@@ -76,10 +83,23 @@ public class EntityPersonAttributesGroupStore implements IEntityGroupStore, IEnt
         this.personAttributesGroupDefinitionDao = applicationContext.getBean("personAttributesGroupDefinitionDao", IPersonAttributesGroupDefinitionDao.class);
         CacheManager cacheManager = applicationContext.getBean("cacheManager", CacheManager.class);
         this.groupDefCache = cacheManager.getCache("org.jasig.portal.groups.pags.dao.EntityPersonAttributesGroupStore");
+        this.evaluatorCache = cacheManager.getCache("org.jasig.portal.groups.pags.dao.PagsGroupEvaluator");
     }
 
     public boolean contains(IEntityGroup group, IGroupMember member) {
         logger.debug("Checking if group {} contains member {}/{}", group.getName(), member.getKey(), member.getEntityType().getSimpleName());
+        if (EVALUATOR_ENABLED) {
+            final PagsGroupEvaluator evaluator = getEvaluator();
+            if (member.isGroup()) {
+                return evaluator.hasMember(group.getName(), ((IEntityGroup)member).getLocalKey());
+            }
+            if (member.getEntityType() != IPERSON_CLASS) {
+                return false;
+            }
+            final IPerson person = getPerson(member, group);
+            return person != null && evaluator.contains(group.getName(), person);
+        }
+
         PagsGroup groupDef = convertEntityToGroupDef(group);
         if (member.isGroup()) 
         {
@@ -90,26 +110,50 @@ public class EntityPersonAttributesGroupStore implements IEntityGroupStore, IEnt
         {
            if (member.getEntityType() != IPERSON_CLASS) 
                { return false; }
-           IPerson person = null;
-           try {
-               IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
-               final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
-
-               RestrictedPerson rp = PersonFactory.createRestrictedPerson();
-               if (personAttributes != null) {
-                   rp.setAttributes(personAttributes.getAttributes());
-               }
-               
-               person = rp;
-           }
-           catch (Exception ex) { 
-               logger.error("Exception acquiring attributes for member " + member + " while checking if group " + group + " contains this member.", ex);
-               return false;
-           }
+           IPerson person = getPerson(member, group);
+           if (person == null)
+               { return false; }
            return testRecursively(groupDef, person, member);
         }
     }
 
+    /**
+     * @return The person with the attributes of the member, null if they could not be acquired
+     */
+    private IPerson getPerson(IGroupMember member, IEntityGroup group) {
+        try {
+            IPersonAttributeDao pa = PersonAttributeDaoLocator.getPersonAttributeDao();
+            final IPersonAttributes personAttributes = pa.getPerson(member.getKey());
+
+            RestrictedPerson rp = PersonFactory.createRestrictedPerson();
+            if (personAttributes != null) {
+                rp.setAttributes(personAttributes.getAttributes());
+            }
+
+            return rp;
+        }
+        catch (Exception ex) { 
+            logger.error("Exception acquiring attributes for member " + member + " while checking if group " + group + " contains this member.", ex);
+            return null;
+        }
+    }
+
+    /**
+     * @return The evaluator compiled from the current PAGS definitions, compiled again
+     * when the definitions change or the cached evaluator expires
+     */
+    private PagsGroupEvaluator getEvaluator() {
+        Element element = this.evaluatorCache.get(EVALUATOR_CACHE_KEY);
+        if (element != null) {
+            return (PagsGroupEvaluator) element.getObjectValue();
+        }
+        final PagsGroupEvaluator evaluator = new PagsGroupEvaluator(
+                personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions(), EVALUATOR_RESULT_CACHE_SIZE);
+        logger.debug("Compiled {}", evaluator);
+        this.evaluatorCache.put(new Element(EVALUATOR_CACHE_KEY, evaluator));
+        return evaluator;
+    }
+
     private PagsGroup convertEntityToGroupDef(IEntityGroup group) {
         Set<IPersonAttributesGroupDefinition> groups = personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitionByName(group.getName());
         IPersonAttributesGroupDefinition pagsGroup = groups.iterator().next();
@@ -202,6 +246,20 @@ public class EntityPersonAttributesGroupStore implements IEntityGroupStore, IEnt
     throws GroupsException {
         Set<IPersonAttributesGroupDefinition> pagsGroups = personAttributesGroupDefinitionDao.getPersonAttributesGroupDefinitions();
         List<IEntityGroup> results = new ArrayList<IEntityGroup>();
+        if (EVALUATOR_ENABLED) {
+            if (member.getEntityType() != IPERSON_CLASS) 
+                { return results.iterator(); }
+            // Fetch the attributes once and evaluate every group in one pass
+            final IPerson person = getPerson(member, null);
+            if (person == null)
+                { return results.iterator(); }
+            final Set<String> groupNames = getEvaluator().getContainingGroupNames(person);
+            for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
+                if (groupNames.contains(pagsGroup.getName()))
+                    { results.add(convertPagsGroupToEntity(pagsGroup)); }
+            }
+            return results.iterator();
+        }
         for (IPersonAttributesGroupDefinition pagsGroup : pagsGroups) {
             IEntityGroup group = convertPagsGroupToEntity(pagsGroup);
             if ( contains(group, member))
@@ -354,15 +412,7 @@ public class EntityPersonAttributesGroupStore implements IEntityGroupStore, IEnt
     }
 
     private IPersonTester initializeTester(IPersonAttributesGroupTestDefinition test) {
-        try {
-            Class<?> testerClass = Class.forName(test.getTesterClassName());
-            Constructor<?> c = testerClass.getConstructor(new Class[]{IPersonAttributesGroupTestDefinition.class});
-            Object o = c.newInstance(new Object[]{test});
-            return (IPersonTester) o;
-        } catch (Exception e) {
-            logger.error("Error in initializing tester class: {}", test.getTesterClassName(), e);
-            return null;
-        }
+        return PagsGroupEvaluator.newTester(test);
    }
 
     private Set<IEntityGroup> getContainingGroups(String name, Set<IEntityGroup> groups) throws GroupsException
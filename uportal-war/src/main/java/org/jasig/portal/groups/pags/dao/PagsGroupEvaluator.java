@@ -0,0 +1,345 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.groups.pags.dao;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.jasig.portal.groups.pags.IPersonTester;
+import org.jasig.portal.groups.pags.testers.BaseAttributeTester;
+import org.jasig.portal.security.IPerson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Compiled form of all PAGS group definitions.  The definitions are read once, every distinct
+ * test (same tester class, attribute and test value) is instantiated once and shared by all the
+ * groups using it, and the ancestors of every group are resolved up front.  Instances are
+ * immutable apart from their result cache and are replaced when the definitions change.
+ * <p>
+ * Tests extending {@link BaseAttributeTester} only depend on the attributes of the person, they
+ * are indexed by attribute name and evaluated together in a single pass.  Their results are
+ * cached by the values of the tested attributes, so people with the same values for those
+ * attributes share one evaluation.  Other testers (guest, ad hoc group, theme ...) are evaluated
+ * on every call, and only when a group using them is evaluated.
+ * 
+ * @see EntityPersonAttributesGroupStore
+ * @since 4.3
+ */
+public final class PagsGroupEvaluator {
+    private static final Logger logger = LoggerFactory.getLogger(PagsGroupEvaluator.class);
+
+    private static final byte UNKNOWN = 0;
+    private static final byte PASSED = 1;
+    private static final byte FAILED = 2;
+
+    private final Map<String, Integer> groupIds;
+    private final String[] groupNames;
+    private final Set<String>[] memberNames;
+    /** Test ids of every test group of every group, null for test groups with a tester that could not be created */
+    private final int[][][] testGroups;
+    private final int[][] ancestors;
+
+    private final IPersonTester[] testers;
+    private final String[] attributeNames;
+    private final int[][] attributeTests;
+
+    private final Cache<List<List<Object>>, BitSet> attributeTestResults;
+
+    /**
+     * @param definitions All of the PAGS group definitions
+     * @param resultCacheSize The number of distinct attribute snapshots to cache test results for
+     */
+    @SuppressWarnings("unchecked")
+    public PagsGroupEvaluator(Collection<IPersonAttributesGroupDefinition> definitions, int resultCacheSize) {
+        //Sort the definitions by name so group ids are stable and results are ordered
+        final Map<String, IPersonAttributesGroupDefinition> definitionsByName = new TreeMap<String, IPersonAttributesGroupDefinition>();
+        for (final IPersonAttributesGroupDefinition definition : definitions) {
+            if (definitionsByName.put(definition.getName(), definition) != null) {
+                logger.error("More than one PAGS Group found for name: {}", definition.getName());
+            }
+        }
+
+        this.groupNames = definitionsByName.keySet().toArray(new String[definitionsByName.size()]);
+        this.groupIds = new HashMap<String, Integer>((int) (this.groupNames.length / 0.75f) + 1);
+        for (int id = 0; id < this.groupNames.length; id++) {
+            this.groupIds.put(this.groupNames[id], id);
+        }
+
+        this.memberNames = new Set[this.groupNames.length];
+        this.testGroups = new int[this.groupNames.length][][];
+        final List<List<Integer>> parents = new ArrayList<List<Integer>>(this.groupNames.length);
+        for (int id = 0; id < this.groupNames.length; id++) {
+            parents.add(new ArrayList<Integer>());
+        }
+
+        final Map<String, Integer> testerIds = new HashMap<String, Integer>();
+        final List<IPersonTester> testerList = new ArrayList<IPersonTester>();
+        final Map<String, List<Integer>> testsByAttribute = new TreeMap<String, List<Integer>>();
+
+        for (int id = 0; id < this.groupNames.length; id++) {
+            final IPersonAttributesGroupDefinition definition = definitionsByName.get(this.groupNames[id]);
+
+            final Set<String> members = new LinkedHashSet<String>();
+            for (final IPersonAttributesGroupDefinition member : definition.getMembers()) {
+                members.add(member.getName());
+                final Integer memberId = this.groupIds.get(member.getName());
+                if (memberId != null) {
+                    parents.get(memberId).add(id);
+                }
+            }
+            this.memberNames[id] = Collections.unmodifiableSet(members);
+
+            final List<int[]> compiledTestGroups = new ArrayList<int[]>();
+            for (final IPersonAttributesGroupTestGroupDefinition testGroup : definition.getTestGroups()) {
+                final Set<IPersonAttributesGroupTestDefinition> tests = testGroup.getTests();
+                int[] compiledTests = new int[tests.size()];
+                int testIndex = 0;
+                for (final IPersonAttributesGroupTestDefinition test : tests) {
+                    final String testKey = test.getTesterClassName() + '\u0000' + test.getAttributeName() + '\u0000' + test.getTestValue();
+                    Integer testerId = testerIds.get(testKey);
+                    if (testerId == null) {
+                        final IPersonTester tester = newTester(test);
+                        if (tester == null) {
+                            /*
+                             * Tests in a test group are "and-ed" together, like TestGroup
+                             * treats a missing tester as a failed test this test group can
+                             * never pass.  The other test groups of the group still apply.
+                             */
+                            compiledTests = null;
+                            break;
+                        }
+                        testerId = testerList.size();
+                        testerList.add(tester);
+                        testerIds.put(testKey, testerId);
+                        if (tester instanceof BaseAttributeTester) {
+                            final String attributeName = ((BaseAttributeTester) tester).getAttributeName();
+                            List<Integer> attributeTestIds = testsByAttribute.get(attributeName);
+                            if (attributeTestIds == null) {
+                                attributeTestIds = new ArrayList<Integer>();
+                                testsByAttribute.put(attributeName, attributeTestIds);
+                            }
+                            attributeTestIds.add(testerId);
+                        }
+                    }
+                    compiledTests[testIndex++] = testerId;
+                }
+                compiledTestGroups.add(compiledTests);
+            }
+            this.testGroups[id] = compiledTestGroups.toArray(new int[compiledTestGroups.size()][]);
+        }
+
+        this.testers = testerList.toArray(new IPersonTester[testerList.size()]);
+        this.attributeNames = testsByAttribute.keySet().toArray(new String[testsByAttribute.size()]);
+        this.attributeTests = new int[this.attributeNames.length][];
+        for (int attributeIndex = 0; attributeIndex < this.attributeNames.length; attributeIndex++) {
+            final List<Integer> attributeTestIds = testsByAttribute.get(this.attributeNames[attributeIndex]);
+            this.attributeTests[attributeIndex] = new int[attributeTestIds.size()];
+            for (int i = 0; i < this.attributeTests[attributeIndex].length; i++) {
+                this.attributeTests[attributeIndex][i] = attributeTestIds.get(i);
+            }
+        }
+
+        this.ancestors = new int[this.groupNames.length][];
+        for (int id = 0; id < this.groupNames.length; id++) {
+            this.ancestors[id] = findAncestors(id, parents);
+        }
+
+        this.attributeTestResults = CacheBuilder.newBuilder().maximumSize(resultCacheSize).build();
+    }
+
+    /**
+     * Creates the tester for the test definition
+     * 
+     * @return The tester, null if it could not be created
+     */
+    static IPersonTester newTester(IPersonAttributesGroupTestDefinition test) {
+        try {
+            Class<?> testerClass = Class.forName(test.getTesterClassName());
+            Constructor<?> c = testerClass.getConstructor(new Class[]{IPersonAttributesGroupTestDefinition.class});
+            Object o = c.newInstance(new Object[]{test});
+            return (IPersonTester) o;
+        } catch (Exception e) {
+            logger.error("Error in initializing tester class: {}", test.getTesterClassName(), e);
+            return null;
+        }
+    }
+
+    private static int[] findAncestors(int id, List<List<Integer>> parents) {
+        final Set<Integer> visited = new HashSet<Integer>();
+        final List<Integer> toVisit = new ArrayList<Integer>(parents.get(id));
+        while (!toVisit.isEmpty()) {
+            final Integer parentId = toVisit.remove(toVisit.size() - 1);
+            if (parentId != id && visited.add(parentId)) {
+                toVisit.addAll(parents.get(parentId));
+            }
+        }
+        final int[] result = new int[visited.size()];
+        int i = 0;
+        for (final Integer ancestorId : visited) {
+            result[i++] = ancestorId;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * @return true if a PAGS group with the name is defined
+     */
+    public boolean isDefined(String groupName) {
+        return this.groupIds.containsKey(groupName);
+    }
+
+    /**
+     * @return true if the group has the other group as a direct member
+     */
+    public boolean hasMember(String groupName, String memberGroupName) {
+        final Integer id = this.groupIds.get(groupName);
+        return id != null && this.memberNames[id].contains(memberGroupName);
+    }
+
+    /**
+     * @return true if the person passes the tests of the group and of all of its ancestors
+     */
+    public boolean contains(String groupName, IPerson person) {
+        final Integer id = this.groupIds.get(groupName);
+        if (id == null) {
+            return false;
+        }
+        return contains(id, person, getAttributeTestResults(person), new byte[this.testers.length]);
+    }
+
+    /**
+     * Evaluates every group for the person in one pass.
+     * 
+     * @return The names of the groups that contain the person, in name order
+     */
+    public Set<String> getContainingGroupNames(IPerson person) {
+        final BitSet attributeResults = getAttributeTestResults(person);
+        final byte[] testResults = new byte[this.testers.length];
+        final Set<String> result = new LinkedHashSet<String>();
+        for (int id = 0; id < this.groupNames.length; id++) {
+            if (contains(id, person, attributeResults, testResults)) {
+                result.add(this.groupNames[id]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of distinct tests shared by all groups
+     */
+    public int getTestCount() {
+        return this.testers.length;
+    }
+
+    private boolean contains(int id, IPerson person, BitSet attributeResults, byte[] testResults) {
+        if (this.testGroups[id].length == 0 || !passesGroupTests(id, person, attributeResults, testResults)) {
+            return false;
+        }
+        for (final int ancestorId : this.ancestors[id]) {
+            if (!passesGroupTests(ancestorId, person, attributeResults, testResults)) {
+                logger.warn("PAGS group {} contained person {}, but the person failed to be contained in"
+                        + " ancestor {} of this group. This may indicate a misconfigured PAGS group store."
+                        + " Please check PAGS Entity Files", this.groupNames[id], person.getUserName(), this.groupNames[ancestorId]);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the group has no test groups or the person passes all tests of one of them
+     */
+    private boolean passesGroupTests(int id, IPerson person, BitSet attributeResults, byte[] testResults) {
+        final int[][] groupTests = this.testGroups[id];
+        if (groupTests.length == 0) {
+            return true;
+        }
+        for (final int[] testGroup : groupTests) {
+            if (testGroup == null) {
+                continue;
+            }
+            boolean passed = true;
+            for (int i = 0; i < testGroup.length && passed; i++) {
+                passed = passesTest(testGroup[i], person, attributeResults, testResults);
+            }
+            if (passed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean passesTest(int testId, IPerson person, BitSet attributeResults, byte[] testResults) {
+        final IPersonTester tester = this.testers[testId];
+        if (tester instanceof BaseAttributeTester) {
+            return attributeResults.get(testId);
+        }
+        if (testResults[testId] == UNKNOWN) {
+            testResults[testId] = tester.test(person) ? PASSED : FAILED;
+        }
+        return testResults[testId] == PASSED;
+    }
+
+    /**
+     * @return The ids of the attribute tests the person passes, shared by all people with the same values for the tested attributes
+     */
+    private BitSet getAttributeTestResults(IPerson person) {
+        final List<List<Object>> snapshot = new ArrayList<List<Object>>(this.attributeNames.length);
+        for (final String attributeName : this.attributeNames) {
+            final Object[] values = person.getAttributeValues(attributeName);
+            snapshot.add(values != null ? Arrays.asList(values) : null);
+        }
+
+        BitSet results = this.attributeTestResults.getIfPresent(snapshot);
+        if (results == null) {
+            results = new BitSet(this.testers.length);
+            for (final int[] tests : this.attributeTests) {
+                for (final int testId : tests) {
+                    if (this.testers[testId].test(person)) {
+                        results.set(testId);
+                    }
+                }
+            }
+            this.attributeTestResults.put(snapshot, results);
+        }
+        return results;
+    }
+
+    @Override
+    public String toString() {
+        return "PagsGroupEvaluator [groups=" + this.groupNames.length + ", tests=" + this.testers.length
+                + ", attributes=" + this.attributeNames.length + "]";
+    }
+}
@@ -30,13 +30,19 @@ import javax.persistence.criteria.Join;
 import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Root;
 
+import net.sf.ehcache.Ehcache;
+
 import com.google.common.base.Function;
 
 import org.apache.commons.lang.Validate;
 import org.jasig.portal.groups.pags.dao.IPersonAttributesGroupDefinition;
 import org.jasig.portal.groups.pags.dao.IPersonAttributesGroupDefinitionDao;
 import org.jasig.portal.jpa.BasePortalJpaDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * @author Shawn Connolly, sconnolly@unicon.net
@@ -48,6 +54,18 @@ public class JpaPersonAttributesGroupDefinitionDao extends BasePortalJpaDao impl
     private CriteriaQuery<PersonAttributesGroupDefinitionImpl> groupDefinitionByNameQuery;
     private CriteriaQuery<PersonAttributesGroupDefinitionImpl> parentGroupDefinitionsQuery;
     private ParameterExpression<String> nameParameter;
+    private Ehcache groupDefCache;
+    private Ehcache evaluatorCache;
+
+    @Autowired
+    public void setGroupDefCache(@Qualifier("org.jasig.portal.groups.pags.dao.EntityPersonAttributesGroupStore") Ehcache groupDefCache) {
+        this.groupDefCache = groupDefCache;
+    }
+
+    @Autowired
+    public void setEvaluatorCache(@Qualifier("org.jasig.portal.groups.pags.dao.PagsGroupEvaluator") Ehcache evaluatorCache) {
+        this.evaluatorCache = evaluatorCache;
+    }
 
     @Override
     public void afterPropertiesSet() throws Exception {
@@ -99,6 +117,7 @@ public class JpaPersonAttributesGroupDefinitionDao extends BasePortalJpaDao impl
         }
 
         this.getEntityManager().persist(persistentDefinition);
+        definitionsChanged();
         return persistentDefinition;
     }
 
@@ -115,6 +134,7 @@ public class JpaPersonAttributesGroupDefinitionDao extends BasePortalJpaDao impl
             persistentDefinition = entityManager.merge(definition);
         }
         entityManager.remove(persistentDefinition);
+        definitionsChanged();
     }
 
     @PortalTransactionalReadOnly
@@ -152,7 +172,32 @@ public class JpaPersonAttributesGroupDefinitionDao extends BasePortalJpaDao impl
         final IPersonAttributesGroupDefinition personAttributesGroupDefinition = new PersonAttributesGroupDefinitionImpl(name, description);
 
         this.getEntityManager().persist(personAttributesGroupDefinition);
+        definitionsChanged();
         return personAttributesGroupDefinition;
     }
 
+    /**
+     * Drops the definitions cached by the group store so the changed definitions are compiled again. When called
+     * in a transaction the caches are cleared once it commits, clearing them earlier would let a concurrent request
+     * cache the definitions from before the change again.
+     */
+    private void definitionsChanged() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            clearCaches();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                clearCaches();
+            }
+        });
+    }
+
+    private void clearCaches() {
+        this.groupDefCache.removeAll();
+        this.evaluatorCache.removeAll();
+    }
+
 }
@@ -148,6 +148,23 @@ public interface IUserLayout {
      * @return The ID of the resolved node, null if there is no match.
      */
     public String findNodeId(INodeIdResolver finder);
+    
+    /**
+     * Returns the ID of the tab that is or contains the specified node, the child of the root folder that is an
+     * ancestor of the node.
+     * 
+     * @param nodeId The ID of a folder or channel in the layout
+     * @return The ID of the tab, null if the node doesn't exist or is the root folder
+     */
+    public String getTabId(String nodeId);
+    
+    /**
+     * Returns the ID of the tab at the specified position counting only regular tabs that are not hidden.
+     * 
+     * @param tabIndex 1 based index of the tab
+     * @return The ID of the tab, null if there is no tab at the index
+     */
+    public String getTabIdByIndex(int tabIndex);
 
      /**
      * Returns a list of node Ids in the layout.
@@ -52,6 +52,26 @@ public interface IUserLayoutStore {
      */
     public DistributedUserLayout getUserLayout (IPerson Person, IUserProfile profile);
 
+    /**
+     * Checks if the fragments the layout was composed from have changed since it was composed.
+     *
+     * @param userLayout a layout returned by this store
+     * @return true if none of the fragments incorporated into the layout have changed
+     */
+    public boolean isUserLayoutCurrent(DistributedUserLayout userLayout);
+
+    /**
+     * Re-merges a layout that is no longer current with the latest versions of its fragments, reusing the user's
+     * loaded PLF and the fragment applicability and stylesheet preferences of the existing layout.
+     *
+     * @param person an <code>IPerson</code> object specifying the user
+     * @param profile a user profile
+     * @param userLayout the layout to recompose, as returned by this store
+     * @return the recomposed layout
+     */
+    public DistributedUserLayout recomposeUserLayout(IPerson person, IUserProfile profile,
+            DistributedUserLayout userLayout);
+
     /**
      * Returns an <code>Element</code> representing the user's layout and 
      * <code>UserPreferences</code> (but not portlet preferences) formatted for 
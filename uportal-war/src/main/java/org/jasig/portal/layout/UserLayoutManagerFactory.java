@@ -18,13 +18,25 @@
  */
 package org.jasig.portal.layout;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
 import org.jasig.portal.IUserProfile;
 import org.jasig.portal.PortalException;
+import org.jasig.portal.i18n.LocaleManager;
 import org.jasig.portal.layout.immutable.ImmutableTransientUserLayoutManagerWrapper;
 import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.PersonFactory;
+import org.jasig.portal.utils.cache.CacheKey;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 
@@ -39,11 +51,20 @@ public class UserLayoutManagerFactory implements BeanFactoryAware {
     public static final String USER_LAYOUT_MANAGER_PROTOTYPE_BEAN_NAME = "userLayoutManager";
     
     private BeanFactory beanFactory;
+    private Ehcache guestUserLayoutManagers;
     
     @Override
     public void setBeanFactory(BeanFactory beanFactory) throws BeansException {
         this.beanFactory = beanFactory;
     }
+
+    /**
+     * Cache of the layout managers shared by all sessions of a guest user
+     */
+    @Autowired
+    public void setGuestUserLayoutManagers(@Qualifier("org.jasig.portal.layout.UserLayoutManagerFactory.guestUserLayoutManagers") Ehcache guestUserLayoutManagers) {
+        this.guestUserLayoutManagers = guestUserLayoutManagers;
+    }
     
     /**
      * Obtain a regular user layout manager implementation (which allows transient layout alterations).
@@ -52,11 +73,53 @@ public class UserLayoutManagerFactory implements BeanFactoryAware {
      * @return an <code>IUserLayoutManager</code> value
      */
     public IUserLayoutManager getUserLayoutManager(IPerson person, IUserProfile profile) throws PortalException {
-        final IUserLayoutManager userLayoutManager = (IUserLayoutManager)this.beanFactory.getBean(USER_LAYOUT_MANAGER_PROTOTYPE_BEAN_NAME, person, profile);
-
         if (person.isGuest()) {
+            final IUserLayoutManager userLayoutManager = this.getGuestUserLayoutManager(person, profile);
             return new ImmutableTransientUserLayoutManagerWrapper(userLayoutManager);
         }
+        
+        final IUserLayoutManager userLayoutManager = this.createUserLayoutManager(person, profile);
         return new TransientUserLayoutManagerWrapper(userLayoutManager);
     }
+    
+    /**
+     * Guest layouts can't be modified so one layout manager is shared by every session of a guest user
+     * with the same profile and locale. Only the light weight transient wrapper is created per session.
+     */
+    protected IUserLayoutManager getGuestUserLayoutManager(IPerson person, IUserProfile profile) throws PortalException {
+        final LocaleManager localeManager = profile.getLocaleManager();
+        final Locale locale = localeManager != null ? localeManager.getLocales()[0] : null;
+        final CacheKey cacheKey = CacheKey.build(UserLayoutManagerFactory.class.getName(), 
+                person.getID(), profile.getProfileId(), String.valueOf(locale));
+        
+        final Element element = this.guestUserLayoutManagers.get(cacheKey);
+        if (element != null) {
+            return (IUserLayoutManager) element.getObjectValue();
+        }
+        
+        //The shared layout manager keeps its owner, don't let it hold on to this session's person
+        final IUserLayoutManager userLayoutManager = this.createUserLayoutManager(this.createSharedGuestPerson(person), profile);
+        
+        //Another session may have created a layout manager concurrently, use whichever was cached first
+        final Element existingElement = this.guestUserLayoutManagers.putIfAbsent(new Element(cacheKey, userLayoutManager));
+        if (existingElement != null) {
+            return (IUserLayoutManager) existingElement.getObjectValue();
+        }
+        return userLayoutManager;
+    }
+    
+    /**
+     * Copy of the guest person with only its id and attributes, not tied to any session
+     */
+    protected IPerson createSharedGuestPerson(IPerson person) {
+        final IPerson guestPerson = PersonFactory.createPerson();
+        guestPerson.setID(person.getID());
+        guestPerson.setFullName(person.getFullName());
+        guestPerson.setAttributes(new HashMap<String, List<Object>>(person.getAttributeMap()));
+        return guestPerson;
+    }
+    
+    protected IUserLayoutManager createUserLayoutManager(IPerson person, IUserProfile profile) throws PortalException {
+        return (IUserLayoutManager)this.beanFactory.getBean(USER_LAYOUT_MANAGER_PROTOTYPE_BEAN_NAME, person, profile);
+    }
 }
@@ -0,0 +1,83 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.dlm;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Memoizes the results of audience checks while the fragments that apply to a single user are evaluated.
+ * Many fragments test the same groups or attributes, {@link Evaluator}s that are expensive and depend only on
+ * the user being evaluated use {@link #getResult(Object)} and {@link #putResult(Object, Object)} so each distinct
+ * check is only done once per evaluation. The context is shared by all threads evaluating fragments for the user.
+ */
+public final class AudienceEvaluationContext {
+    private static final ThreadLocal<AudienceEvaluationContext> CURRENT_CONTEXT = new ThreadLocal<AudienceEvaluationContext>();
+    
+    private final ConcurrentMap<Object, Object> results = new ConcurrentHashMap<Object, Object>();
+    
+    /**
+     * Make the context the current context for the calling thread
+     * 
+     * @return The previously bound context, to be passed to {@link #restore(AudienceEvaluationContext)}
+     */
+    static AudienceEvaluationContext bind(AudienceEvaluationContext context) {
+        final AudienceEvaluationContext previous = CURRENT_CONTEXT.get();
+        CURRENT_CONTEXT.set(context);
+        return previous;
+    }
+    
+    /**
+     * Restore the context that was bound before {@link #bind(AudienceEvaluationContext)} was called
+     */
+    static void restore(AudienceEvaluationContext previous) {
+        if (previous == null) {
+            CURRENT_CONTEXT.remove();
+        }
+        else {
+            CURRENT_CONTEXT.set(previous);
+        }
+    }
+    
+    /**
+     * @return The memoized result for the key, null if there is no result or no evaluation is in progress
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T getResult(Object key) {
+        final AudienceEvaluationContext context = CURRENT_CONTEXT.get();
+        if (context == null) {
+            return null;
+        }
+        return (T) context.results.get(key);
+    }
+    
+    /**
+     * Memoize a result for the rest of the evaluation, does nothing if no evaluation is in progress
+     */
+    public static void putResult(Object key, Object result) {
+        final AudienceEvaluationContext context = CURRENT_CONTEXT.get();
+        if (context != null) {
+            context.results.put(key, result);
+        }
+    }
+    
+    int size() {
+        return this.results.size();
+    }
+}
@@ -27,9 +27,11 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
@@ -49,7 +51,6 @@ import org.jasig.portal.layout.IFolderLocalNameResolver;
 import org.jasig.portal.layout.IUserLayout;
 import org.jasig.portal.layout.IUserLayoutManager;
 import org.jasig.portal.layout.IUserLayoutStore;
-import org.jasig.portal.layout.PortletSubscribeIdResolver;
 import org.jasig.portal.layout.node.IUserLayoutChannelDescription;
 import org.jasig.portal.layout.node.IUserLayoutFolderDescription;
 import org.jasig.portal.layout.node.IUserLayoutNodeDescription;
@@ -70,6 +71,7 @@ import org.jasig.portal.xml.XmlUtilities;
 import org.jasig.portal.xml.xpath.XPathOperations;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -94,6 +96,9 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
     private XPathOperations xpathOperations;
     private IPortalLayoutEventFactory portalEventFactory;
     private IAuthorizationService authorizationService;
+    private ExecutorService taskExecutor;
+    
+    private final AtomicBoolean recomposing = new AtomicBoolean();
     
     protected final IPerson owner;
     protected final IUserProfile profile;
@@ -104,8 +109,6 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
      */
     static final String FOLDER_LABEL_POLICY = "FolderLabelPolicy";
     
-    protected final static Random rnd=new Random();
-    protected String cacheKey="initialKey";
     protected String rootNodeId = null;
 
     private boolean channelsAdded = false;
@@ -141,6 +144,11 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
         this.authorizationService = authorizationService;
     }
 
+    @Autowired
+    public void setTaskExecutor(@Qualifier("uPortalTaskExecutor") ExecutorService taskExecutor) {
+        this.taskExecutor = taskExecutor;
+    }
+
     @Autowired
     public void setXpathOperations(XPathOperations xpathOperations) {
         this.xpathOperations = xpathOperations;
@@ -198,7 +206,6 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
     private void setUserLayoutDOM(DistributedUserLayout userLayout) {
 
         this.layoutCachingService.cacheLayout(owner, profile, userLayout);
-        this.updateCacheKey();
 
         // determine if this is a layout fragment by looking at the root node
         // for a cp:fragment attribute.
@@ -208,77 +215,162 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
         this.isFragmentOwner = attr != null;
     }
 
+    /**
+     * @return A copy of the layout document, the layout is only modified through the layout manager
+     */
     @SuppressWarnings("deprecation")
     @Deprecated
     @Override
     public Document getUserLayoutDOM()
     {
-        final DistributedUserLayout userLayout = getDistributedUserLayout();
-        return userLayout.getLayout();
+        return (Document) this.getLayoutDocument().cloneNode(true);
+    }
+
+    /**
+     * @return The document of the current layout snapshot, must not be modified
+     */
+    private Document getLayoutDocument() {
+        return this.getDistributedUserLayout().getLayout();
     }
 
     protected DistributedUserLayout getDistributedUserLayout() {
         DistributedUserLayout userLayout = this.layoutCachingService.getCachedLayout(owner, profile);
         if ( null == userLayout )
         {
-            if (LOG.isDebugEnabled())
-            {
-                LOG.debug("Load from store for " +
-                    owner.getAttribute(IPerson.USERNAME));
-            }
-            userLayout = this.distributedLayoutStore.getUserLayout(this.owner,this.profile);
-            
-            final Document userLayoutDocument = userLayout.getLayout();
-
-            // DistributedLayoutManager shall gracefully remove channels 
-            // that the user isn't authorized to render from folders of type 
-            // 'header' and 'footer'.
-            IAuthorizationPrincipal principal = authorizationService.newPrincipal(owner.getUserName(), IPerson.class);
-            NodeList nodes = userLayoutDocument.getElementsByTagName("folder");
-            for (int i=0; i < nodes.getLength(); i++) {
-          	  Element fd = (Element) nodes.item(i);
-          	  String type = fd.getAttribute("type");
-          	  if (type != null && (type.equals("header") || type.equals("footer") || type.equals("sidebar"))) {
-          		  // Here's where we do the work...
-          		  if (LOG.isDebugEnabled()) {
-          			  LOG.debug("RDBMUserLayoutStore examining the '" 
-        					  	+ type 
-        					  	+ "' folder of user '" 
-        					  	+ owner.getUserName() 
-        					  	+ "' for non-authorized channels.");
-          		  }
-          		  NodeList channels = fd.getElementsByTagName("channel");
-          		  for (int j=0; j < channels.getLength(); j++) {
-          			  Element ch = (Element) channels.item(j);
-          			  try {
-          				  String chanId = ch.getAttribute("chanID");
-          				  if (!principal.canRender(chanId)) {
-          					  fd.removeChild(ch);
-          					  if (LOG.isDebugEnabled()) {
-          						  LOG.debug("RDBMUserLayoutStore removing channel '" 
-            							  	+ ch.getAttribute("fname") 
-            							  	+ "' from the header or footer of user '" 
-            							  	+ owner.getUserName() 
-            							  	+ "' because he/she isn't authorized to render it.");
-          					  }
-          				  }
-          			  } catch (Throwable t) {
-          				  // Log this...
-          				  LOG.warn("RDBMUserLayoutStore was unable to analyze channel element with Id=" 
-          						  									+ch.getAttribute("chanID"), t);
-          			  }
-          		  }
-          	  }
-            }
-            
-            setUserLayoutDOM( userLayout );
+            userLayout = this.loadDistributedUserLayout();
         }
+        else if (!this.distributedLayoutStore.isUserLayoutCurrent(userLayout))
+        {
+            startLayoutRecomposition();
+        }
+        return userLayout;
+    }
+    
+    /**
+     * Loads the layout from the store unless another thread loaded it first. Holds the same lock as layout
+     * modifications so a load can't replace a modified layout.
+     */
+    private synchronized DistributedUserLayout loadDistributedUserLayout() {
+        DistributedUserLayout userLayout = this.layoutCachingService.getCachedLayout(owner, profile);
+        if ( null != userLayout )
+        {
+            return userLayout;
+        }
+        
+        if (LOG.isDebugEnabled())
+        {
+            LOG.debug("Load from store for " +
+                owner.getAttribute(IPerson.USERNAME));
+        }
+        userLayout = this.distributedLayoutStore.getUserLayout(this.owner,this.profile);
+        
+        removeUnauthorizedChannels( userLayout.getLayout() );
+        
+        setUserLayoutDOM( userLayout );
         return userLayout;
     }
     
+    private void removeUnauthorizedChannels(final Document userLayoutDocument) {
+        // DistributedLayoutManager shall gracefully remove channels 
+        // that the user isn't authorized to render from folders of type 
+        // 'header' and 'footer'.
+        IAuthorizationPrincipal principal = authorizationService.newPrincipal(owner.getUserName(), IPerson.class);
+        NodeList nodes = userLayoutDocument.getElementsByTagName("folder");
+        for (int i=0; i < nodes.getLength(); i++) {
+      	  Element fd = (Element) nodes.item(i);
+      	  String type = fd.getAttribute("type");
+      	  if (type != null && (type.equals("header") || type.equals("footer") || type.equals("sidebar"))) {
+      		  // Here's where we do the work...
+      		  if (LOG.isDebugEnabled()) {
+      			  LOG.debug("RDBMUserLayoutStore examining the '" 
+    					  	+ type 
+    					  	+ "' folder of user '" 
+    					  	+ owner.getUserName() 
+    					  	+ "' for non-authorized channels.");
+      		  }
+      		  NodeList channels = fd.getElementsByTagName("channel");
+      		  for (int j=0; j < channels.getLength(); j++) {
+      			  Element ch = (Element) channels.item(j);
+      			  try {
+      				  String chanId = ch.getAttribute("chanID");
+      				  if (!principal.canRender(chanId)) {
+      					  fd.removeChild(ch);
+      					  if (LOG.isDebugEnabled()) {
+      						  LOG.debug("RDBMUserLayoutStore removing channel '" 
+        							  	+ ch.getAttribute("fname") 
+        							  	+ "' from the header or footer of user '" 
+        							  	+ owner.getUserName() 
+        							  	+ "' because he/she isn't authorized to render it.");
+      					  }
+      				  }
+      			  } catch (Throwable t) {
+      				  // Log this...
+      				  LOG.warn("RDBMUserLayoutStore was unable to analyze channel element with Id=" 
+      						  									+ch.getAttribute("chanID"), t);
+      			  }
+      		  }
+      	  }
+        }
+    }
+    
+    /**
+     * Re-merges the cached layout with the fragments that changed since it was composed. The recomposition runs in
+     * the background, the current layout continues to be used until the recomposed layout replaces it.
+     */
+    private void startLayoutRecomposition() {
+        if (!this.recomposing.compareAndSet(false, true)) {
+            return;
+        }
+        
+        final Runnable recomposition = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    recomposeUserLayout();
+                }
+                catch (Exception e) {
+                    LOG.warn("Failed to recompose the layout of " + owner.getAttribute(IPerson.USERNAME) + 
+                            ", it will be retried when the layout is next used", e);
+                }
+                finally {
+                    recomposing.set(false);
+                }
+            }
+        };
+        
+        if (this.taskExecutor == null) {
+            recomposition.run();
+            return;
+        }
+        
+        try {
+            this.taskExecutor.submit(recomposition);
+        }
+        catch (RejectedExecutionException e) {
+            //All task threads are busy, the recomposition is retried when the layout is next used
+            LOG.debug("Deferring layout recomposition for " + owner.getAttribute(IPerson.USERNAME), e);
+            this.recomposing.set(false);
+        }
+    }
+    
+    /**
+     * Holds the same lock as layout modifications so the PLF is not modified during the merge and no modified layout
+     * is replaced.
+     */
+    private synchronized void recomposeUserLayout() {
+        final DistributedUserLayout userLayout = this.layoutCachingService.getCachedLayout(owner, profile);
+        if (userLayout == null || this.distributedLayoutStore.isUserLayoutCurrent(userLayout)) {
+            return;
+        }
+        
+        final DistributedUserLayout recomposedLayout = this.distributedLayoutStore.recomposeUserLayout(this.owner, this.profile, userLayout);
+        removeUnauthorizedChannels( recomposedLayout.getLayout() );
+        setUserLayoutDOM( recomposedLayout );
+    }
+    
     @Override
     public XMLEventReader getUserLayoutReader() {
-        Document ul = this.getUserLayoutDOM();
+        Document ul = this.getLayoutDocument();
         if (ul == null) {
             throw new PortalException("User layout has not been initialized for " + owner.getAttribute(IPerson.USERNAME));
         }
@@ -326,7 +418,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
                 this.layoutCachingService.removeCachedLayout(owner, profile);
             }
             
-            uli=getUserLayoutDOM();
+            uli=getLayoutDocument();
         } catch (Exception e) {
             throw new PortalException("Exception encountered while " +
                     "reading a layout for userId=" + this.owner.getID() +
@@ -341,7 +433,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
     }
 
     public synchronized void saveUserLayout() throws PortalException{
-        Document uld=this.getUserLayoutDOM();
+        Document uld=this.getLayoutDocument();
         
         if(uld==null) {
             throw new PortalException("UserLayout has not been initialized for " 
@@ -361,7 +453,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
 
     @Override
     public Set<String> getAllSubscribedChannels() {
-        final Document uld = this.getUserLayoutDOM();
+        final Document uld = this.getLayoutDocument();
 
         if (uld == null) {
             throw new PortalException("UserLayout has not been initialized for " + owner.getAttribute(IPerson.USERNAME));
@@ -385,7 +477,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
         if (nodeId == null)
             return null;
         
-        Document uld=this.getUserLayoutDOM();
+        Document uld=this.getLayoutDocument();
 
         if( uld==null )
             throw new PortalException("UserLayout has not been initialized for " 
@@ -410,7 +502,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
         return desc;
     }
 
-    public IUserLayoutNodeDescription addNode( IUserLayoutNodeDescription node,
+    public synchronized IUserLayoutNodeDescription addNode( IUserLayoutNodeDescription node,
                                               String parentId,
                                               String nextSiblingId )
         throws PortalException
@@ -433,7 +525,8 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
                         + owner.getAttribute(IPerson.USERNAME), e);
             }
 
-            Document uld=getUserLayoutDOM();
+            final DistributedUserLayout userLayout = this.copyDistributedUserLayout();
+            Document uld=userLayout.getLayout();
             Element childElement=node.getXML(uld);
             Element parentElement= uld.getElementById(parentId);
             if(nextSiblingId==null) {
@@ -445,7 +538,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
             // register element id
             childElement.setIdAttribute(Constants.ATT_ID, true);
             childElement.setAttribute(Constants.ATT_ID, node.getId());
-            this.updateCacheKey();
+            this.setDistributedUserLayout(userLayout);
 
             // push into the user's real layout that gets persisted.
             HandlerUtils.createPlfNodeAndPath( childElement,
@@ -467,7 +560,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
         return null;
     }
 
-    public boolean moveNode( String nodeId,
+    public synchronized boolean moveNode( String nodeId,
                              String parentId,
                              String nextSiblingId )
         throws PortalException
@@ -477,7 +570,8 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
         String oldParentNodeId=getParentId(nodeId);
         if(canMoveNode(node,parent,nextSiblingId)) {
             // must be a folder
-            Document uld=this.getUserLayoutDOM();
+            final DistributedUserLayout userLayout = this.copyDistributedUserLayout();
+            Document uld=userLayout.getLayout();
             Element childElement = uld.getElementById(nodeId);
             Element parentElement = uld.getElementById(parentId);
             if(nextSiblingId==null) {
@@ -486,7 +580,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
                 Node nextSibling=uld.getElementById(nextSiblingId);
                 parentElement.insertBefore(childElement,nextSibling);
             }
-            this.updateCacheKey();
+            this.setDistributedUserLayout(userLayout);
 
             // propagate the change into the PLF
             Element oldParent = uld.getElementById(oldParentNodeId);
@@ -508,13 +602,14 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
         return false;
     }
 
-    public boolean deleteNode( String nodeId )
+    public synchronized boolean deleteNode( String nodeId )
         throws PortalException {
         if(canDeleteNode(nodeId)) {
             IUserLayoutNodeDescription nodeDescription=this.getNode(nodeId);
             String parentNodeId=this.getParentId(nodeId);
 
-            Document uld=this.getUserLayoutDOM();
+            final DistributedUserLayout userLayout = this.copyDistributedUserLayout();
+            Document uld=userLayout.getLayout();
             Element ilfNode = uld.getElementById(nodeId);
             Node parent=ilfNode.getParentNode();
             if(parent!=null) {
@@ -524,7 +619,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
                         "\" has a NULL parent for layout of " 
                     + owner.getAttribute(IPerson.USERNAME) + ".");
             }
-            this.updateCacheKey();
+            this.setDistributedUserLayout(userLayout);
 
             // now push into the PLF
             TabColumnPrefsHandler.deleteNode( ilfNode, (Element) parent,
@@ -558,6 +653,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
         {
             String nodeId = node.getId();
             IUserLayoutNodeDescription oldNode = getNode( nodeId );
+            final DistributedUserLayout userLayout = this.copyDistributedUserLayout();
 
             if( oldNode instanceof IUserLayoutChannelDescription )
             {
@@ -571,7 +667,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
                 }
                 IUserLayoutChannelDescription newChanDesc = 
                     (IUserLayoutChannelDescription) node;
-                updateChannelNode(nodeId, newChanDesc, oldChanDesc);
+                updateChannelNode(userLayout.getLayout(), nodeId, newChanDesc, oldChanDesc);
             }
             else
             {
@@ -583,10 +679,10 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
                 if( node instanceof IUserLayoutFolderDescription )
                 {
                     IUserLayoutFolderDescription newFolderDesc=(IUserLayoutFolderDescription) node;
-                    updateFolderNode(nodeId, newFolderDesc, oldFolderDesc);
+                    updateFolderNode(userLayout.getLayout(), nodeId, newFolderDesc, oldFolderDesc);
                 }
             }
-            this.updateCacheKey();
+            this.setDistributedUserLayout(userLayout);
             return true;
         }
         return false;
@@ -605,12 +701,12 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
      * @param oldFolderDesc
      * @throws PortalException
      */
-    private void updateFolderNode(String nodeId,
+    private void updateFolderNode(Document uld, String nodeId,
             IUserLayoutFolderDescription newFolderDesc,
             IUserLayoutFolderDescription oldFolderDesc)
     throws PortalException
     {
-        Element ilfNode = (Element) getUserLayoutDOM().getElementById(nodeId);
+        Element ilfNode = (Element) uld.getElementById(nodeId);
         List<ILayoutProcessingAction> pendingActions 
             = new ArrayList<ILayoutProcessingAction>();
 
@@ -752,12 +848,12 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
      * @param oldChanDesc
      * @throws PortalException
      */
-    private void updateChannelNode(String nodeId,
+    private void updateChannelNode(Document uld, String nodeId,
             IUserLayoutChannelDescription newChanDesc,
             IUserLayoutChannelDescription oldChanDesc)
     throws PortalException
     {
-        Element ilfNode = (Element) getUserLayoutDOM().getElementById(nodeId);
+        Element ilfNode = (Element) uld.getElementById(nodeId);
         List<ILayoutProcessingAction> pendingActions 
             = new ArrayList<ILayoutProcessingAction>();
         boolean isIncorporated = 
@@ -1037,7 +1133,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
                 canAddNode( node, parent, nextSiblingId );
 
         // same parent. which direction are we moving?
-        Document uld = this.getUserLayoutDOM();
+        Document uld = this.getLayoutDocument();
         Element parentE = uld.getElementById( parent.getId() );
         Element child = (Element) parentE.getFirstChild();
         int idx = 0;
@@ -1172,7 +1268,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
 
 
     public String getParentId(String nodeId) throws PortalException {
-        Document uld=this.getUserLayoutDOM();
+        Document uld=this.getLayoutDocument();
         Element nelement = uld.getElementById(nodeId);
         if(nelement!=null) {
             Node parent=nelement.getParentNode();
@@ -1191,7 +1287,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
     }
 
     public String getNextSiblingId(String nodeId) throws PortalException {
-        Document uld=this.getUserLayoutDOM();
+        Document uld=this.getLayoutDocument();
         Element nelement = uld.getElementById(nodeId);
         if(nelement!=null) {
             Node nsibling=nelement.getNextSibling();
@@ -1212,7 +1308,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
     }
 
     public String getPreviousSiblingId(String nodeId) throws PortalException {
-        Document uld=this.getUserLayoutDOM();
+        Document uld=this.getLayoutDocument();
         Element nelement = uld.getElementById(nodeId);
         if(nelement!=null) {
             Node nsibling=nelement.getPreviousSibling();
@@ -1248,7 +1344,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
         Vector<String> v=new Vector<String>();
         IUserLayoutNodeDescription node=getNode(nodeId);
         if(node instanceof IUserLayoutFolderDescription) {
-            Document uld=this.getUserLayoutDOM();
+            Document uld=this.getLayoutDocument();
             Element felement = uld.getElementById(nodeId);
             for(Node n=felement.getFirstChild(); n!=null;n=n.getNextSibling()) {
                 if( n.getNodeType()==Node.ELEMENT_NODE &&
@@ -1268,20 +1364,29 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
         return v.elements();
     }
 
+    /**
+     * The key is the version of the current layout snapshot, every modification of the layout creates a new
+     * snapshot with a new version. Cyclic changes to the layout still result in a new key.
+     */
     public String getCacheKey() {
-        return this.cacheKey;
+        return Long.toString(this.getDistributedUserLayout().getVersion());
     }
-
+    
+    /**
+     * Copy the current layout so it can be modified without affecting requests that are reading it. The
+     * modified copy is made visible by {@link #setDistributedUserLayout(DistributedUserLayout)}
+     */
+    private DistributedUserLayout copyDistributedUserLayout() {
+        final DistributedUserLayout userLayout = this.getDistributedUserLayout();
+        final Document layoutCopy = (Document) userLayout.getLayout().cloneNode(true);
+        return new DistributedUserLayout(userLayout, layoutCopy);
+    }
+    
     /**
-     * This is outright cheating ! We're supposed to analyze the user layout tree
-     * and return a key that corresponds uniqly to the composition and the sturcture of the tree.
-     * Here we just return a different key wheneever anything changes. So if one was to move a
-     * node back and forth, the key would always never (almost) come back to the original value,
-     * even though the changes to the user layout are cyclic.
-     *
+     * Replace the current layout with a modified copy
      */
-    private void updateCacheKey() {
-        this.cacheKey=Long.toString(rnd.nextLong());
+    private void setDistributedUserLayout(DistributedUserLayout userLayout) {
+        this.layoutCachingService.cacheLayout(owner, profile, userLayout);
     }
 
     public int getLayoutId() {
@@ -1294,22 +1399,11 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
      */
     @Override
     public String getSubscribeId(String fname) {
-    	final Document userLayout = this.getUserLayoutDOM();
-        return new PortletSubscribeIdResolver(fname).traverseDocument(userLayout);
+        return this.getDistributedUserLayout().getIndex().getSubscribeId(fname);
     }
     
     public String getSubscribeId(String parentFolderId, String fname) {
-    	final Map<String, String> variables = new HashMap<String, String>();
-    	variables.put("parentFolderId", parentFolderId);
-    	variables.put("fname", fname);
-    	
-    	final Document userLayout = this.getUserLayoutDOM();
-    	final Element fnameNode = this.xpathOperations.evaluate("//folder[@ID=$parentFolderId]/descendant::channel[@fname=$fname]", variables, userLayout, XPathConstants.NODE);
-		if (fnameNode != null) {
-			return fnameNode.getAttribute("ID");
-		}
-    	
-    	return null;
+        return this.getDistributedUserLayout().getIndex().getSubscribeId(parentFolderId, fname);
     }
     
 
@@ -1320,7 +1414,8 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
     {
         // Copied from SimpleLayoutManager since our layouts are regular
         // simple layouts, ie Documents.
-        return new SimpleLayout(this.getDistributedUserLayout(), String.valueOf(profile.getLayoutId()), this.cacheKey);
+        final DistributedUserLayout userLayout = this.getDistributedUserLayout();
+        return new SimpleLayout(userLayout, String.valueOf(profile.getLayoutId()), Long.toString(userLayout.getVersion()));
     }
 
     /* Returns the ID attribute of the root folder of the layout. This folder 
@@ -1332,7 +1427,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
     public String getRootFolderId()
     {
         if (rootNodeId == null) {
-            Document layout = getUserLayoutDOM();
+            Document layout = getLayoutDocument();
             
             Element rootNode = this.xpathOperations.evaluate("//layout/folder", layout, XPathConstants.NODE);
             if (rootNode == null || !rootNode.getAttribute(Constants.ATT_TYPE).equals(Constants.ROOT_FOLDER_ID)) {
@@ -1477,8 +1572,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
             if (person == owner)
             {
                 this.layoutCachingService.removeCachedLayout(person, profile);
-                updateCacheKey();
-                getUserLayoutDOM();
+                getDistributedUserLayout();
             }
             //if (isFragmentOwner)
             //{
@@ -1518,7 +1612,7 @@ public class DistributedLayoutManager implements IUserLayoutManager, IFolderLoca
      */
     public Map getChannelFunctionalNameMap() throws PortalException
     {
-        Document layout = getUserLayoutDOM();
+        Document layout = getLayoutDocument();
         
         /*
          * NodeLists are known not to be thread safe but the layout is 
@@ -19,23 +19,35 @@
 package org.jasig.portal.layout.dlm;
 
 import java.util.Collections;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.jasig.portal.layout.om.IStylesheetUserPreferences;
 import org.w3c.dom.Document;
 
 /**
- * A user's layout and meta-data about that layout
+ * A user's layout and meta-data about that layout. The layout document is treated as an immutable snapshot,
+ * modifications are made to a copy created with {@link #DistributedUserLayout(DistributedUserLayout, Document)} which
+ * then replaces this layout.
+ * <p>
+ * The version of each fragment the layout was composed from is tracked so that a layout can be re-merged when one
+ * of its fragments changes and kept as is when some other fragment changes.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public class DistributedUserLayout {
+    private static final AtomicLong VERSION_SEQUENCE = new AtomicLong();
+    
+    private final long version = VERSION_SEQUENCE.incrementAndGet();
     private final Document layout;
-    private final Set<String> fragmentNames;
+    private final Map<String, Long> fragmentVersions;
     private final IStylesheetUserPreferences distributedStructureStylesheetUserPreferences;
     private final IStylesheetUserPreferences distributedThemeStylesheetUserPreferences;
+    private volatile UserLayoutIndex index;
+    private volatile long checkedFragmentVersion;
 
     /**
      * This constructor seems to be used with fragment owners.
@@ -44,7 +56,7 @@ public class DistributedUserLayout {
      */
     public DistributedUserLayout(Document layout) {
         this.layout = layout;
-        this.fragmentNames = Collections.emptySet();
+        this.fragmentVersions = Collections.emptyMap();
         this.distributedStructureStylesheetUserPreferences = null;
         this.distributedThemeStylesheetUserPreferences = null;
     }
@@ -53,16 +65,40 @@ public class DistributedUserLayout {
      * This constructor seems to be used with non-fragment owners.
      * 
      * @param layout
+     * @param fragmentVersions The names of the fragments incorporated into the layout and the version of each
+     * @param checkedFragmentVersion The latest fragment version at the time the layout was composed
      */
-    public DistributedUserLayout(Document layout, Set<String> fragmentNames,
+    public DistributedUserLayout(Document layout, Map<String, Long> fragmentVersions, long checkedFragmentVersion,
             IStylesheetUserPreferences distributedStructureStylesheetUserPreferences,
             IStylesheetUserPreferences distributedThemeStylesheetUserPreferences) {
         this.layout = layout;
-        this.fragmentNames = Collections.unmodifiableSet(new LinkedHashSet<String>(fragmentNames));
+        this.fragmentVersions = Collections.unmodifiableMap(new LinkedHashMap<String, Long>(fragmentVersions));
+        this.checkedFragmentVersion = checkedFragmentVersion;
         this.distributedStructureStylesheetUserPreferences = distributedStructureStylesheetUserPreferences;
         this.distributedThemeStylesheetUserPreferences = distributedThemeStylesheetUserPreferences;
     }
 
+    /**
+     * Create a new version of the layout with the modified layout document
+     * 
+     * @param userLayout The layout being modified
+     * @param layout The modified copy of the layout document
+     */
+    public DistributedUserLayout(DistributedUserLayout userLayout, Document layout) {
+        this.layout = layout;
+        this.fragmentVersions = userLayout.fragmentVersions;
+        this.checkedFragmentVersion = userLayout.checkedFragmentVersion;
+        this.distributedStructureStylesheetUserPreferences = userLayout.distributedStructureStylesheetUserPreferences;
+        this.distributedThemeStylesheetUserPreferences = userLayout.distributedThemeStylesheetUserPreferences;
+    }
+    
+    /**
+     * @return Unique version of this layout, a modified layout always has a different version
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
     /**
      * @return The layout document
      */
@@ -70,11 +106,44 @@ public class DistributedUserLayout {
         return this.layout;
     }
 
+    /**
+     * @return Index of the nodes in the layout document, built on first use
+     */
+    public UserLayoutIndex getIndex() {
+        UserLayoutIndex index = this.index;
+        if (index == null) {
+            index = new UserLayoutIndex(this.layout);
+            this.index = index;
+        }
+        return index;
+    }
+    
     /**
      * @return The names of all of the fragments incorperated into the layout
      */
     public Set<String> getFragmentNames() {
-        return this.fragmentNames;
+        return this.fragmentVersions.keySet();
+    }
+    
+    /**
+     * @return The version of each fragment incorporated into the layout, keyed by fragment name
+     */
+    public Map<String, Long> getFragmentVersions() {
+        return this.fragmentVersions;
+    }
+    
+    /**
+     * @return The latest fragment version the fragment versions of this layout have been checked against
+     */
+    public long getCheckedFragmentVersion() {
+        return this.checkedFragmentVersion;
+    }
+    
+    /**
+     * Record that the fragments of this layout are all current as of the specified latest fragment version
+     */
+    public void setCheckedFragmentVersion(long checkedFragmentVersion) {
+        this.checkedFragmentVersion = checkedFragmentVersion;
     }
 
     public IStylesheetUserPreferences getDistributedStructureStylesheetUserPreferences() {
@@ -21,7 +21,10 @@ package org.jasig.portal.layout.dlm;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import net.sf.ehcache.Ehcache;
@@ -42,6 +45,7 @@ import org.jasig.portal.security.provider.PersonImpl;
 import org.jasig.portal.utils.Tuple;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jmx.export.annotation.ManagedResource;
 import org.springframework.stereotype.Service;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -56,8 +60,9 @@ import com.google.common.cache.LoadingCache;
  * @version $Revision$ $Date$
  * @since uPortal 2.5
  */
+@ManagedResource("uPortal:section=Layout,name=FragmentActivator")
 @Service
-public class FragmentActivator
+public class FragmentActivator implements FragmentActivatorMXBean
 {
     private static final String NEWLY_CREATED_ATTR = "newlyCreated";
     public static final String RCS_ID = "@(#) $Header$";
@@ -70,6 +75,17 @@ public class FragmentActivator
                     return new CopyOnWriteArrayList<Locale>();
                 }
             });
+    
+    /**
+     * Version of each fragment keyed by owner id, bumped every time the owner changes the fragment. Versions come
+     * from {@link #fragmentVersionSequence} so the sequence's value identifies the last change to any fragment.
+     */
+    private final ConcurrentMap<String, Long> fragmentVersions = new ConcurrentHashMap<String, Long>();
+    private final AtomicLong fragmentVersionSequence = new AtomicLong();
+    
+    private final AtomicLong compositionCount = new AtomicLong();
+    private final AtomicLong recompositionCount = new AtomicLong();
+    private final AtomicLong recompositionAvoidedCount = new AtomicLong();
 
     private Ehcache userViews;
     private Ehcache userViewErrors;
@@ -520,16 +536,63 @@ public class FragmentActivator
         return userViews.get(new Tuple<String, String>(ownerId, locale.toString()));
     }
     
+    /**
+     * @return The current version of the owner's fragment, 0 if the fragment has not changed since startup
+     */
+    public long getFragmentVersion(String ownerId) {
+        final Long version = this.fragmentVersions.get(ownerId);
+        return version != null ? version : 0;
+    }
+    
+    /**
+     * @return Version of the most recent change to any fragment, 0 if no fragment has changed since startup
+     */
+    public long getLatestFragmentVersion() {
+        return this.fragmentVersionSequence.get();
+    }
+    
+    void countComposition() {
+        this.compositionCount.incrementAndGet();
+    }
+    
+    void countRecomposition() {
+        this.recompositionCount.incrementAndGet();
+    }
+    
+    void countRecompositionAvoided() {
+        this.recompositionAvoidedCount.incrementAndGet();
+    }
+
+    @Override
+    public long getFragmentChangeCount() {
+        return this.fragmentVersionSequence.get();
+    }
+
+    @Override
+    public long getCompositionCount() {
+        return this.compositionCount.get();
+    }
+
+    @Override
+    public long getRecompositionCount() {
+        return this.recompositionCount.get();
+    }
+
+    @Override
+    public long getRecompositionAvoidedCount() {
+        return this.recompositionAvoidedCount.get();
+    }
+
     public void clearChacheForOwner(final String ownerId) {
         final List<Locale> locales = fragmentOwnerLocales.getIfPresent(ownerId);
-        if (locales == null) {
-            //Nothing to purge
-            return;
+        if (locales != null) {
+            for (final Locale locale : locales) {
+                final UserViewKey userViewKey = new UserViewKey(ownerId, locale);
+                userViews.remove(userViewKey);
+            }
         }
         
-        for (final Locale locale : locales) {
-            final UserViewKey userViewKey = new UserViewKey(ownerId, locale);
-            userViews.remove(userViewKey);
-        }
+        //Bump the version after the purge so no layout can record the new version with the old view
+        this.fragmentVersions.put(ownerId, this.fragmentVersionSequence.incrementAndGet());
     }
 }
@@ -0,0 +1,46 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.dlm;
+
+/**
+ * JMX view of the {@link FragmentActivator}, used to see how much layout composition work fragment changes cause
+ */
+public interface FragmentActivatorMXBean {
+    
+    /**
+     * @return Number of times a fragment owner has changed their fragment
+     */
+    long getFragmentChangeCount();
+    
+    /**
+     * @return Number of user layouts that were composed from the database
+     */
+    long getCompositionCount();
+    
+    /**
+     * @return Number of cached user layouts that were re-merged with changed fragments
+     */
+    long getRecompositionCount();
+    
+    /**
+     * @return Number of cached user layouts that were kept after a fragment change because they do not include the
+     * changed fragment
+     */
+    long getRecompositionAvoidedCount();
+}
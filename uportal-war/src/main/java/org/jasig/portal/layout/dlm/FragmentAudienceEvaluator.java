@@ -0,0 +1,317 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.dlm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jasig.portal.security.IPerson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * Determines which {@link FragmentDefinition}s apply to a user. The audiences of the fragments are evaluated on
+ * up to {@link #setThreads(int)} threads, the results of expensive checks shared by several fragments, such as group
+ * membership, are memoized in an {@link AudienceEvaluationContext} for the duration of the evaluation.
+ */
+@ManagedResource("uPortal:section=Layout,name=FragmentAudienceEvaluator")
+@Service
+public class FragmentAudienceEvaluator implements FragmentAudienceEvaluatorMXBean {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private final ConcurrentMap<String, EvaluationTime> fragmentEvaluationTimes = new ConcurrentHashMap<String, EvaluationTime>();
+    private final AtomicLong evaluationCount = new AtomicLong();
+    
+    private int threads = 1;
+    private ExecutorService evaluationExecutor;
+    
+    /**
+     * Number of threads fragment audiences are evaluated on for each user, defaults to 1 which evaluates all
+     * fragments in the requesting thread. The requesting thread always takes part in the evaluation, the other
+     * threads - 1 come from the evaluation executor if it has threads available.
+     */
+    @Value("${org.jasig.portal.layout.dlm.FragmentAudienceEvaluator.threads:1}")
+    public void setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+    
+    /**
+     * @param evaluationExecutor Pool shared by all evaluations, should not queue work so an evaluation never waits on another
+     */
+    @Autowired
+    public void setEvaluationExecutor(@Qualifier("fragmentAudienceThreadPool") ExecutorService evaluationExecutor) {
+        this.evaluationExecutor = evaluationExecutor;
+    }
+    
+    @Override
+    public int getThreads() {
+        return this.threads;
+    }
+
+    @Override
+    public long getEvaluationCount() {
+        return this.evaluationCount.get();
+    }
+
+    @Override
+    public Map<String, Long> getAverageFragmentEvaluationTimes() {
+        final Map<String, Long> times = new LinkedHashMap<String, Long>();
+        for (final Map.Entry<String, EvaluationTime> timeEntry : this.fragmentEvaluationTimes.entrySet()) {
+            times.put(timeEntry.getKey(), timeEntry.getValue().getAverage());
+        }
+        return times;
+    }
+
+    @Override
+    public Map<String, Long> getMaxFragmentEvaluationTimes() {
+        final Map<String, Long> times = new LinkedHashMap<String, Long>();
+        for (final Map.Entry<String, EvaluationTime> timeEntry : this.fragmentEvaluationTimes.entrySet()) {
+            times.put(timeEntry.getKey(), timeEntry.getValue().getMax());
+        }
+        return times;
+    }
+
+    @Override
+    public void resetFragmentEvaluationTimes() {
+        this.fragmentEvaluationTimes.clear();
+    }
+
+    /**
+     * @param person The user to evaluate the fragments for
+     * @param fragments The fragments to evaluate, may be null
+     * @return The fragments that apply to the user in the same order as they were passed
+     */
+    public List<FragmentDefinition> getApplicableFragments(IPerson person, List<FragmentDefinition> fragments) {
+        if (fragments == null || fragments.isEmpty()) {
+            return Collections.emptyList();
+        }
+        
+        this.evaluationCount.incrementAndGet();
+        
+        final FragmentEvaluation evaluation = new FragmentEvaluation(person, fragments);
+        
+        final ExecutorService executor = this.evaluationExecutor;
+        final List<EvaluationHelper> helpers;
+        if (executor == null || this.threads <= 1) {
+            helpers = Collections.emptyList();
+        }
+        else {
+            final int helperCount = Math.min(this.threads, fragments.size()) - 1;
+            helpers = new ArrayList<EvaluationHelper>(helperCount);
+            final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+            for (int i = 0; i < helperCount; i++) {
+                final EvaluationHelper helper = new EvaluationHelper(evaluation, requestAttributes);
+                try {
+                    helper.future = executor.submit(helper);
+                }
+                catch (RejectedExecutionException e) {
+                    //No threads available, the requesting thread does the rest of the work
+                    break;
+                }
+                helpers.add(helper);
+            }
+        }
+        
+        //The requesting thread evaluates fragments too, if the pool is busy it may do all of the work itself
+        evaluation.run();
+        
+        for (final EvaluationHelper helper : helpers) {
+            //A helper that has not started has nothing left to do, don't wait for a thread to run it
+            if (helper.cancel()) {
+                continue;
+            }
+            
+            try {
+                helper.future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while evaluating fragment audiences for user '" + person.getUserName() + "'", e);
+            }
+            catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new RuntimeException("Failed to evaluate fragment audiences for user '" + person.getUserName() + "'", cause);
+            }
+        }
+        
+        return evaluation.getApplicableFragments();
+    }
+    
+    private void recordEvaluationTime(String fragmentName, long nanos) {
+        EvaluationTime evaluationTime = this.fragmentEvaluationTimes.get(fragmentName);
+        if (evaluationTime == null) {
+            evaluationTime = new EvaluationTime();
+            final EvaluationTime existing = this.fragmentEvaluationTimes.putIfAbsent(fragmentName, evaluationTime);
+            if (existing != null) {
+                evaluationTime = existing;
+            }
+        }
+        evaluationTime.add(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+    
+    /**
+     * Evaluation of the fragments for one user. Every thread taking part claims the next unevaluated fragment until
+     * all fragments have been evaluated or a fragment fails.
+     */
+    private final class FragmentEvaluation implements Runnable {
+        private final AudienceEvaluationContext context = new AudienceEvaluationContext();
+        private final AtomicInteger nextFragment = new AtomicInteger();
+        private final IPerson person;
+        private final List<FragmentDefinition> fragments;
+        private final boolean[] applicable;
+        private volatile boolean failed = false;
+        
+        public FragmentEvaluation(IPerson person, List<FragmentDefinition> fragments) {
+            this.person = person;
+            this.fragments = new ArrayList<FragmentDefinition>(fragments);
+            this.applicable = new boolean[this.fragments.size()];
+        }
+
+        @Override
+        public void run() {
+            final AudienceEvaluationContext previousContext = AudienceEvaluationContext.bind(this.context);
+            try {
+                for (int index = this.nextFragment.getAndIncrement(); index < this.applicable.length && !this.failed; index = this.nextFragment.getAndIncrement()) {
+                    final FragmentDefinition fragment = this.fragments.get(index);
+                    logger.debug("Checking applicability of the following fragment: {}", fragment.getName());
+                    
+                    final long start = System.nanoTime();
+                    try {
+                        this.applicable[index] = fragment.isApplicable(this.person);
+                    }
+                    catch (RuntimeException e) {
+                        this.failed = true;
+                        throw e;
+                    }
+                    recordEvaluationTime(fragment.getName(), System.nanoTime() - start);
+                }
+            }
+            finally {
+                AudienceEvaluationContext.restore(previousContext);
+            }
+        }
+        
+        /**
+         * Must only be called once every thread taking part in the evaluation has finished
+         */
+        public List<FragmentDefinition> getApplicableFragments() {
+            final List<FragmentDefinition> applicableFragments = new ArrayList<FragmentDefinition>();
+            for (int index = 0; index < this.applicable.length; index++) {
+                if (this.applicable[index]) {
+                    applicableFragments.add(this.fragments.get(index));
+                }
+            }
+            return applicableFragments;
+        }
+    }
+    
+    /**
+     * Runs a {@link FragmentEvaluation} on a pool thread with the request of the user being evaluated
+     */
+    private static final class EvaluationHelper implements Runnable {
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private final FragmentEvaluation evaluation;
+        private final RequestAttributes requestAttributes;
+        private Future<?> future;
+        
+        public EvaluationHelper(FragmentEvaluation evaluation, RequestAttributes requestAttributes) {
+            this.evaluation = evaluation;
+            this.requestAttributes = requestAttributes;
+        }
+        
+        /**
+         * @return true if the helper had not started and now never will
+         */
+        public boolean cancel() {
+            if (this.claimed.compareAndSet(false, true)) {
+                this.future.cancel(false);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void run() {
+            if (!this.claimed.compareAndSet(false, true)) {
+                return;
+            }
+            
+            //Evaluators such as the ProfileEvaluator need the request of the user being evaluated
+            final RequestAttributes previousAttributes = RequestContextHolder.getRequestAttributes();
+            RequestContextHolder.setRequestAttributes(this.requestAttributes);
+            try {
+                this.evaluation.run();
+            }
+            finally {
+                RequestContextHolder.setRequestAttributes(previousAttributes);
+            }
+        }
+    }
+    
+    private static final class EvaluationTime {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        
+        public void add(long time) {
+            this.count.incrementAndGet();
+            this.total.addAndGet(time);
+            
+            long currentMax = this.max.get();
+            while (time > currentMax && !this.max.compareAndSet(currentMax, time)) {
+                currentMax = this.max.get();
+            }
+        }
+        
+        public long getAverage() {
+            final long count = this.count.get();
+            if (count == 0) {
+                return 0;
+            }
+            return this.total.get() / count;
+        }
+        
+        public long getMax() {
+            return this.max.get();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.dlm;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link FragmentAudienceEvaluator}, used to find the fragments whose audiences are expensive to
+ * evaluate during layout composition
+ */
+public interface FragmentAudienceEvaluatorMXBean {
+    
+    /**
+     * @return Number of threads fragment audiences are evaluated on for each user, 1 if evaluation is serial
+     */
+    int getThreads();
+    
+    /**
+     * @return Number of times the applicable fragments have been determined for a user
+     */
+    long getEvaluationCount();
+    
+    /**
+     * @return Average time in microseconds spent evaluating the audience of each fragment, keyed by fragment name
+     */
+    Map<String, Long> getAverageFragmentEvaluationTimes();
+    
+    /**
+     * @return Longest time in microseconds spent evaluating the audience of each fragment, keyed by fragment name
+     */
+    Map<String, Long> getMaxFragmentEvaluationTimes();
+    
+    /**
+     * Reset the fragment evaluation times
+     */
+    void resetFragmentEvaluationTimes();
+}
@@ -63,6 +63,24 @@ public class ILFBuilder
         if (LOG.isDebugEnabled()) {
             LOG.debug("Constructing ILF for IPerson='" + person + "'");
         }
+
+        // build the auth principal for determining if pushed channels can be 
+        // used by this user
+        EntityIdentifier ei = person.getEntityIdentifier();
+        AuthorizationService authS = AuthorizationService.instance();
+        IAuthorizationPrincipal ap = authS.newPrincipal(ei.getKey(), 
+                ei.getType());
+        
+        return constructILF(PLF, sequence, ap);
+    }
+
+    /**
+     * @param PLF The user's personal layout fragment
+     * @param sequence The fragment layouts to merge, in order
+     * @param ap User's authorization principal for determining if they can view a channel
+     */
+    public static Document constructILF( Document PLF, List<Document> sequence, IAuthorizationPrincipal ap)
+    {
         // first construct the destination document and root element. The root
         // element should be a complete copy of the PLF's root including its
         // node identifier in the new document. This requires the use of
@@ -80,13 +98,6 @@ public class ILFBuilder
         if (ilfRoot.getAttribute(Constants.ATT_ID) != null)
             ilfRoot.setIdAttribute(Constants.ATT_ID, true);
 
-        // build the auth principal for determining if pushed channels can be 
-        // used by this user
-        EntityIdentifier ei = person.getEntityIdentifier();
-        AuthorizationService authS = AuthorizationService.instance();
-        IAuthorizationPrincipal ap = authS.newPrincipal(ei.getKey(), 
-                ei.getType());
-
         // now merge fragments one at a time into ILF document
         
         for (final Document document : sequence) {
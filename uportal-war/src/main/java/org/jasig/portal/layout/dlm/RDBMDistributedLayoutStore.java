@@ -19,8 +19,6 @@
 package org.jasig.portal.layout.dlm;
 
 import java.io.StringWriter;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -28,6 +26,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -66,6 +65,7 @@ import org.jasig.portal.layout.dao.IStylesheetUserPreferencesDao;
 import org.jasig.portal.layout.om.IStylesheetDescriptor;
 import org.jasig.portal.layout.om.IStylesheetUserPreferences;
 import org.jasig.portal.layout.simple.RDBMUserLayoutStore;
+import org.jasig.portal.layout.simple.UserLayoutRows;
 import org.jasig.portal.portlet.dao.IPortletEntityDao;
 import org.jasig.portal.portlet.dao.jpa.PortletPreferenceImpl;
 import org.jasig.portal.portlet.om.IPortletDefinition;
@@ -78,6 +78,8 @@ import org.jasig.portal.portlet.om.IPortletType;
 import org.jasig.portal.portlet.om.PortletLifecycleState;
 import org.jasig.portal.portlet.registry.IPortletEntityRegistry;
 import org.jasig.portal.properties.PropertiesManager;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IAuthorizationService;
 import org.jasig.portal.security.IPerson;
 import org.jasig.portal.security.provider.BrokenSecurityContext;
 import org.jasig.portal.security.provider.PersonImpl;
@@ -125,6 +127,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
 
     private ConfigurationLoader configurationLoader;
     private FragmentActivator fragmentActivator;
+    private FragmentAudienceEvaluator fragmentAudienceEvaluator;
 
     private Ehcache fragmentNodeInfoCache;
 
@@ -154,10 +157,16 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     private IPortletEntityRegistry portletEntityRegistry;
     private IPortletEntityDao portletEntityDao;
     private IPortalDataHandlerService portalDataHandlerService;
+    private IAuthorizationService authorizationService;
 
     @Autowired
     private NodeReferenceFactory nodeReferenceFactory;
 
+    @Autowired
+    public void setFragmentAudienceEvaluator(FragmentAudienceEvaluator fragmentAudienceEvaluator) {
+        this.fragmentAudienceEvaluator = fragmentAudienceEvaluator;
+    }
+
     @Autowired
     public void setPortletEntityRegistry(IPortletEntityRegistry portletEntityRegistry) {
         this.portletEntityRegistry = portletEntityRegistry;
@@ -174,6 +183,11 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         this.portletEntityDao = portletEntityDao;
     }
 
+    @Autowired
+    public void setAuthorizationService(IAuthorizationService authorizationService) {
+        this.authorizationService = authorizationService;
+    }
+
     @Autowired
     public void setXmlUtilities(XmlUtilities xmlUtilities) {
         this.xmlUtilities = xmlUtilities;
@@ -376,6 +390,62 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         return layout;
     }
 
+    @Override
+    public boolean isUserLayoutCurrent(DistributedUserLayout userLayout) {
+        final FragmentActivator activator = this.getFragmentActivator();
+        final long latestFragmentVersion = activator.getLatestFragmentVersion();
+        if (userLayout.getCheckedFragmentVersion() == latestFragmentVersion) {
+            return true;
+        }
+
+        final Map<String, Long> fragmentVersions = userLayout.getFragmentVersions();
+        for (final Entry<String, Long> fragmentVersion : fragmentVersions.entrySet()) {
+            final FragmentDefinition fragment = this.configurationLoader.getFragmentByName(fragmentVersion.getKey());
+            if (fragment == null
+                    || activator.getFragmentVersion(fragment.getOwnerId()) != fragmentVersion.getValue()) {
+                return false;
+            }
+        }
+
+        // None of the fragments that changed are part of this layout
+        userLayout.setCheckedFragmentVersion(latestFragmentVersion);
+        if (!fragmentVersions.isEmpty()) {
+            activator.countRecompositionAvoided();
+        }
+        return true;
+    }
+
+    @Override
+    public DistributedUserLayout recomposeUserLayout(IPerson person, IUserProfile profile,
+            DistributedUserLayout userLayout) {
+        final Document PLF = (Document) person.getAttribute(Constants.PLF);
+        if (PLF == null) {
+            // Without the PLF there is nothing to be saved over composing the layout from scratch
+            return this.getUserLayout(person, profile);
+        }
+
+        final FragmentActivator activator = this.getFragmentActivator();
+        final long latestFragmentVersion = activator.getLatestFragmentVersion();
+
+        // Fragment applicability and the distributed stylesheet preferences do not depend on the content of the
+        // fragments so re-merge the PLF with the current views of the same fragments
+        final List<FragmentDefinition> fragments = new ArrayList<FragmentDefinition>();
+        for (final String fragmentName : userLayout.getFragmentNames()) {
+            final FragmentDefinition fragment = this.configurationLoader.getFragmentByName(fragmentName);
+            if (fragment != null) {
+                fragments.add(fragment);
+            }
+        }
+
+        final Map<String, Long> fragmentVersions = new LinkedHashMap<String, Long>();
+        final Document ILF = this.mergeFragments(person, profile, PLF, fragments, fragmentVersions);
+        activator.countRecomposition();
+
+        return new DistributedUserLayout(ILF, fragmentVersions, latestFragmentVersion,
+                userLayout.getDistributedStructureStylesheetUserPreferences(),
+                userLayout.getDistributedThemeStylesheetUserPreferences());
+    }
+
     private boolean layoutExistsForUser(IPerson person) {
 
         // Assertions.
@@ -1313,29 +1383,14 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     private DistributedUserLayout getCompositeLayout(IPerson person, IUserProfile profile)
 
     {
-        final Set<String> fragmentNames = new LinkedHashSet<String>();
-        final List<Document> applicables = new LinkedList<Document>();
-        final Locale locale = profile.getLocaleManager().getLocales()[0];
-
         final List<FragmentDefinition> definitions = this.configurationLoader.getFragments();
 
         logger.debug("About to check applicability of {} fragments", definitions.size());
 
         final FragmentActivator activator = this.getFragmentActivator();
+        final long latestFragmentVersion = activator.getLatestFragmentVersion();
 
-        if (definitions != null) {
-            for (final FragmentDefinition fragmentDefinition : definitions) {
-                logger.debug("Checking applicability of the following fragment: {}", fragmentDefinition.getName());
-
-                if (fragmentDefinition.isApplicable(person)) {
-                    final UserView userView = activator.getUserView(fragmentDefinition, locale);
-                    if (userView != null) {
-                        applicables.add(userView.layout);
-                    }
-                    fragmentNames.add(fragmentDefinition.getName());
-                }
-            }
-        }
+        final List<FragmentDefinition> applicables = this.fragmentAudienceEvaluator.getApplicableFragments(person, definitions);
 
         Document PLF = (Document) person.getAttribute(Constants.PLF);
 
@@ -1346,7 +1401,49 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             logger.debug("PLF for {} immediately after loading\n{}", person.getAttribute(IPerson.USERNAME), XmlUtilitiesImpl.toString(PLF));
         }
 
-        final Document ILF = ILFBuilder.constructILF(PLF, applicables, person);
+        final Map<String, Long> fragmentVersions = new LinkedHashMap<String, Long>();
+        final Document ILF = this.mergeFragments(person, profile, PLF, applicables, fragmentVersions);
+        final Set<String> fragmentNames = fragmentVersions.keySet();
+
+        final int structureStylesheetId = profile.getStructureStylesheetId();
+        final IStylesheetUserPreferences distributedStructureStylesheetUserPreferences = this
+                .loadDistributedStylesheetUserPreferences(person, profile, structureStylesheetId, fragmentNames);
+
+        final int themeStylesheetId = profile.getThemeStylesheetId();
+        final IStylesheetUserPreferences distributedThemeStylesheetUserPreferences = this
+                .loadDistributedStylesheetUserPreferences(person, profile, themeStylesheetId, fragmentNames);
+
+        activator.countComposition();
+
+        return new DistributedUserLayout(ILF, fragmentVersions, latestFragmentVersion,
+                distributedStructureStylesheetUserPreferences, distributedThemeStylesheetUserPreferences);
+    }
+
+    /**
+     * Combines the current views of the fragments into an ILF and merges the PLF into it. The version of each
+     * fragment is recorded in fragmentVersions before its view is read so a fragment that changes during the merge
+     * is seen as changed afterwards.
+     */
+    private Document mergeFragments(IPerson person, IUserProfile profile, Document PLF,
+            List<FragmentDefinition> fragments, Map<String, Long> fragmentVersions) {
+        final List<Document> applicables = new LinkedList<Document>();
+        final Locale locale = profile.getLocaleManager().getLocales()[0];
+
+        final FragmentActivator activator = this.getFragmentActivator();
+        for (final FragmentDefinition fragmentDefinition : fragments) {
+            fragmentVersions.put(fragmentDefinition.getName(), activator.getFragmentVersion(fragmentDefinition.getOwnerId()));
+
+            final UserView userView = activator.getUserView(fragmentDefinition, locale);
+            if (userView != null) {
+                applicables.add(userView.layout);
+            }
+        }
+
+        // build the auth principal for determining if pushed channels can be used by this user
+        final EntityIdentifier ei = person.getEntityIdentifier();
+        final IAuthorizationPrincipal ap = this.authorizationService.newPrincipal(ei.getKey(), ei.getType());
+
+        final Document ILF = ILFBuilder.constructILF(PLF, applicables, ap);
         person.setAttribute(Constants.PLF, PLF);
         final IntegrationResult result = new IntegrationResult();
         PLFIntegrator.mergePLFintoILF(PLF, ILF, result);
@@ -1362,16 +1459,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             super.setUserLayout(person, profile, PLF, false);
         }
 
-        final int structureStylesheetId = profile.getStructureStylesheetId();
-        final IStylesheetUserPreferences distributedStructureStylesheetUserPreferences = this
-                .loadDistributedStylesheetUserPreferences(person, profile, structureStylesheetId, fragmentNames);
-
-        final int themeStylesheetId = profile.getThemeStylesheetId();
-        final IStylesheetUserPreferences distributedThemeStylesheetUserPreferences = this
-                .loadDistributedStylesheetUserPreferences(person, profile, themeStylesheetId, fragmentNames);
-
-        return new DistributedUserLayout(ILF, fragmentNames, distributedStructureStylesheetUserPreferences,
-                distributedThemeStylesheetUserPreferences);
+        return ILF;
     }
 
     /**
@@ -1655,14 +1743,13 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
     }
 
     @Override
-    protected int saveStructure(Node node, PreparedStatement structStmt, PreparedStatement parmStmt)
-            throws SQLException {
+    protected int saveStructure(Node node, UserLayoutRows layoutRows) {
         if (node == null) { // No more
             return 0;
         }
         if (node.getNodeName().equals("parameter")) {
             //parameter, skip it and go on to the next node
-            return this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
+            return this.saveStructure(node.getNextSibling(), layoutRows);
         }
         if (!(node instanceof Element)) {
             return 0;
@@ -1704,38 +1791,26 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
         }
 
         if (node.hasChildNodes()) {
-            childStructId = this.saveStructure(node.getFirstChild(), structStmt, parmStmt);
+            childStructId = this.saveStructure(node.getFirstChild(), layoutRows);
         }
-        nextStructId = this.saveStructure(node.getNextSibling(), structStmt, parmStmt);
-        structStmt.clearParameters();
-        structStmt.setInt(1, saveStructId);
-        structStmt.setInt(2, nextStructId);
-        structStmt.setInt(3, childStructId);
+        nextStructId = this.saveStructure(node.getNextSibling(), layoutRows);
 
         final String externalId = structure.getAttribute("external_id");
+        final String eID;
         if (externalId != null && externalId.trim().length() > 0) {
-            final Integer eID = new Integer(externalId);
-            structStmt.setInt(4, eID.intValue());
-        }
-        else {
-            structStmt.setNull(4, java.sql.Types.NUMERIC);
-
-        }
-        if (isChannel) {
-            structStmt.setInt(5, chanId);
-            structStmt.setNull(6, java.sql.Types.VARCHAR);
+            eID = new Integer(externalId).toString();
         }
         else {
-            structStmt.setNull(5, java.sql.Types.NUMERIC);
-            structStmt.setString(6, structure.getAttribute("name"));
+            eID = null;
         }
         final String structType = structure.getAttribute("type");
-        structStmt.setString(7, structType);
-        structStmt.setString(8, RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))));
-        structStmt.setString(9, RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))));
-        structStmt.setString(10, RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable"))));
-        logger.debug(structStmt.toString());
-        structStmt.executeUpdate();
+        layoutRows.addStruct(saveStructId, nextStructId, childStructId, eID,
+                isChannel ? chanId : null,
+                isChannel ? null : structure.getAttribute("name"),
+                structType,
+                RDBMServices.dbFlag(xmlBool(structure.getAttribute("hidden"))),
+                RDBMServices.dbFlag(xmlBool(structure.getAttribute("immutable"))),
+                RDBMServices.dbFlag(xmlBool(structure.getAttribute("unremovable"))));
 
         // code to persist extension attributes for dlm
         final NamedNodeMap attribs = node.getAttributes();
@@ -1746,12 +1821,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
             if (name.startsWith(Constants.NS) && !name.equals(Constants.ATT_PLF_ID)
                     && !name.equals(Constants.ATT_FRAGMENT) && !name.equals(Constants.ATT_PRECEDENCE)) {
                 // a cp extension attribute. Push into param table.
-                parmStmt.clearParameters();
-                parmStmt.setInt(1, saveStructId);
-                parmStmt.setString(2, name);
-                parmStmt.setString(3, attrib.getNodeValue());
-                logger.debug(parmStmt.toString());
-                parmStmt.executeUpdate();
+                layoutRows.addParam(saveStructId, name, attrib.getNodeValue());
             }
         }
         final NodeList parameters = node.getChildNodes();
@@ -1772,12 +1842,7 @@ public class RDBMDistributedLayoutStore extends RDBMUserLayoutStore {
                         // override only for adhoc or if diff from chan def
                         final IPortletDefinitionParameter cp = portletDef.getParameter(parmName);
                         if (cp == null || !cp.getValue().equals(parmValue)) {
-                            parmStmt.clearParameters();
-                            parmStmt.setInt(1, saveStructId);
-                            parmStmt.setString(2, parmName);
-                            parmStmt.setString(3, parmValue);
-                            logger.debug(parmStmt.toString());
-                            parmStmt.executeUpdate();
+                            layoutRows.addParam(saveStructId, parmName, parmValue);
                         }
                     }
                 }
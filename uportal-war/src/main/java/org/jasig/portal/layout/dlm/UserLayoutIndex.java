@@ -0,0 +1,231 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.dlm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
+
+/**
+ * Immutable index of the folder and channel nodes in a layout document so common lookups don't need to traverse
+ * the DOM or evaluate XPath. Built by {@link DistributedUserLayout#getIndex()} and discarded when the layout is
+ * modified.
+ * 
+ * @version $Revision$
+ */
+public final class UserLayoutIndex {
+    private static final String FOLDER = "folder";
+    private static final String CHANNEL = "channel";
+    
+    private final String rootId;
+    private final Map<String, Element> nodes;
+    private final Map<String, String> parentIds;
+    private final ListMultimap<String, String> childIds;
+    private final ListMultimap<String, String> subscribeIdsByFname;
+    private final Map<String, String> containingTabIds;
+    private final List<String> tabIds;
+    
+    /**
+     * Index all folder and channel nodes in the layout document
+     */
+    public UserLayoutIndex(Document layout) {
+        final Builder builder = new Builder();
+        
+        // '/layout'
+        final Element layoutElement = layout.getDocumentElement();
+        if (layoutElement != null) {
+            for (Node rootFolder = layoutElement.getFirstChild(); rootFolder != null; rootFolder = rootFolder.getNextSibling()) {
+                // '/layout/folder' - root folder
+                if (isLayoutNode(rootFolder)) {
+                    builder.index((Element) rootFolder, null, null, 0);
+                }
+            }
+        }
+        
+        this.rootId = builder.rootId;
+        this.nodes = Collections.unmodifiableMap(builder.nodes);
+        this.parentIds = Collections.unmodifiableMap(builder.parentIds);
+        this.childIds = builder.childIds.build();
+        this.subscribeIdsByFname = builder.subscribeIdsByFname.build();
+        this.containingTabIds = Collections.unmodifiableMap(builder.containingTabIds);
+        this.tabIds = builder.tabIds.build();
+    }
+    
+    /**
+     * @return The ID of the root folder, the first '/layout/folder' element
+     */
+    public String getRootId() {
+        return this.rootId;
+    }
+    
+    /**
+     * @return The folder or channel element with the ID, null if there is no such node
+     */
+    public Element getNode(String nodeId) {
+        return this.nodes.get(nodeId);
+    }
+    
+    /**
+     * @return The ID of the parent folder, null if the node doesn't exist or is the root folder
+     */
+    public String getParentId(String nodeId) {
+        return this.parentIds.get(nodeId);
+    }
+    
+    /**
+     * @return The IDs of the children of the node in document order, empty if the node has no children
+     */
+    public List<String> getChildIds(String nodeId) {
+        return this.childIds.get(nodeId);
+    }
+    
+    /**
+     * @return The subscribe ID of the first channel with the fname, null if no channel has the fname
+     */
+    public String getSubscribeId(String fname) {
+        final List<String> subscribeIds = this.subscribeIdsByFname.get(fname);
+        if (subscribeIds.isEmpty()) {
+            return null;
+        }
+        return subscribeIds.get(0);
+    }
+    
+    /**
+     * @return The subscribe ID of the first channel with the fname that is a descendant of the folder, null if there
+     *  is no such channel
+     */
+    public String getSubscribeId(String parentFolderId, String fname) {
+        for (final String subscribeId : this.subscribeIdsByFname.get(fname)) {
+            for (String ancestorId = this.parentIds.get(subscribeId); ancestorId != null; ancestorId = this.parentIds.get(ancestorId)) {
+                if (ancestorId.equals(parentFolderId)) {
+                    return subscribeId;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * @return The ID of the child of the root folder that is or contains the node, null if the node doesn't exist
+     *  or is the root folder
+     */
+    public String getTabId(String nodeId) {
+        return this.containingTabIds.get(nodeId);
+    }
+    
+    /**
+     * @param tabIndex 1 based index of the tab
+     * @return The ID of the tab at the index counting only regular tabs that are not hidden, null if there is no tab
+     *  at the index
+     */
+    public String getTabIdByIndex(int tabIndex) {
+        if (tabIndex < 1 || tabIndex > this.tabIds.size()) {
+            return null;
+        }
+        return this.tabIds.get(tabIndex - 1);
+    }
+    
+    /**
+     * @return The IDs of the regular tabs that are not hidden in document order
+     */
+    public List<String> getTabIds() {
+        return this.tabIds;
+    }
+    
+    private static boolean isLayoutNode(Node node) {
+        if (node.getNodeType() != Node.ELEMENT_NODE) {
+            return false;
+        }
+        final String nodeName = node.getNodeName();
+        return FOLDER.equals(nodeName) || CHANNEL.equals(nodeName);
+    }
+    
+    /**
+     * Mutable state used while walking the document
+     */
+    private static final class Builder {
+        private String rootId;
+        private final Map<String, Element> nodes = new HashMap<String, Element>();
+        private final Map<String, String> parentIds = new HashMap<String, String>();
+        private final ImmutableListMultimap.Builder<String, String> childIds = ImmutableListMultimap.builder();
+        private final ImmutableListMultimap.Builder<String, String> subscribeIdsByFname = ImmutableListMultimap.builder();
+        private final Map<String, String> containingTabIds = new HashMap<String, String>();
+        private final ImmutableList.Builder<String> tabIds = ImmutableList.builder();
+        
+        /**
+         * @param depth 0 for the root folder, 1 for tabs
+         */
+        private void index(Element element, String parentId, String tabId, int depth) {
+            final String id = element.getAttribute(Constants.ATT_ID);
+            
+            if (depth == 0 && this.rootId == null) {
+                this.rootId = id;
+            }
+            else if (depth == 1) {
+                tabId = id;
+                if (FOLDER.equals(element.getNodeName()) 
+                        && "regular".equals(element.getAttribute("type"))
+                        && !"true".equals(element.getAttribute("hidden"))) {
+                    this.tabIds.add(id);
+                }
+            }
+            
+            if (StringUtils.isNotEmpty(id)) {
+                //First node wins for duplicate IDs, matching Document.getElementById
+                if (!this.nodes.containsKey(id)) {
+                    this.nodes.put(id, element);
+                    if (parentId != null) {
+                        this.parentIds.put(id, parentId);
+                    }
+                    if (tabId != null) {
+                        this.containingTabIds.put(id, tabId);
+                    }
+                }
+                
+                if (CHANNEL.equals(element.getNodeName())) {
+                    final String fname = element.getAttribute("fname");
+                    if (StringUtils.isNotEmpty(fname)) {
+                        this.subscribeIdsByFname.put(fname, id);
+                    }
+                }
+            }
+            
+            for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (isLayoutNode(child)) {
+                    final Element childElement = (Element) child;
+                    final String childId = childElement.getAttribute(Constants.ATT_ID);
+                    if (StringUtils.isNotEmpty(id) && StringUtils.isNotEmpty(childId)) {
+                        this.childIds.put(id, childId);
+                    }
+                    this.index(childElement, id, tabId, depth + 1);
+                }
+            }
+        }
+    }
+}
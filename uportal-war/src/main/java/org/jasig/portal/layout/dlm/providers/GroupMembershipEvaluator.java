@@ -31,6 +31,7 @@ import org.jasig.portal.groups.GroupsException;
 import org.jasig.portal.groups.IEntityGroup;
 import org.jasig.portal.groups.IGroupConstants;
 import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.layout.dlm.AudienceEvaluationContext;
 import org.jasig.portal.layout.dlm.Evaluator;
 import org.jasig.portal.layout.dlm.EvaluatorFactory;
 import org.jasig.portal.security.IPerson;
@@ -131,6 +132,13 @@ public class GroupMembershipEvaluator extends Evaluator
           if (groupKey == null || p == null)
               return false;
           
+          // Many fragments share audiences, only check each group once per evaluation
+          final String resultKey = "groupMembership:" + evaluatorMode + ":" + groupKey;
+          final Boolean memoizedResult = AudienceEvaluationContext.getResult(resultKey);
+          if (memoizedResult != null) {
+              return memoizedResult;
+          }
+          
           IEntityGroup group = getGroup(groupKey);
           EntityIdentifier ei = p.getEntityIdentifier();
           
@@ -147,6 +155,7 @@ public class GroupMembershipEvaluator extends Evaluator
               { 
                   isMember = groupMember.isDeepMemberOf(group);
               }
+              AudienceEvaluationContext.putResult(resultKey, isMember);
               return isMember;
           } catch (Exception e)
           {
@@ -31,6 +31,7 @@ import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.jasig.portal.fragment.subscribe.IUserFragmentSubscription;
 import org.jasig.portal.fragment.subscribe.dao.IUserFragmentSubscriptionDao;
+import org.jasig.portal.layout.dlm.AudienceEvaluationContext;
 import org.jasig.portal.layout.dlm.Evaluator;
 import org.jasig.portal.layout.dlm.EvaluatorFactory;
 import org.jasig.portal.layout.dlm.FragmentDefinition;
@@ -50,6 +51,7 @@ import org.jasig.portal.spring.locator.UserFragmentSubscriptionDaoLocator;
 @Cacheable
 @Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 public class SubscribedTabEvaluator extends Evaluator {
+    private static final String SUBSCRIPTIONS_RESULT_KEY = SubscribedTabEvaluator.class.getName() + ".subscriptions";
     
     @Column(name = "OWNER_ID")
     private final String ownerId;
@@ -76,11 +78,14 @@ public class SubscribedTabEvaluator extends Evaluator {
     @Override
     public boolean isApplicable(IPerson person) {
         
-        IUserFragmentSubscriptionDao userFragmentInfoDao = UserFragmentSubscriptionDaoLocator.getUserIdentityStore();
-
-        // get the list of current fragment subscriptions for this person
-        List<IUserFragmentSubscription> fragments = userFragmentInfoDao
-                .getUserFragmentInfo(person);
+        // get the list of current fragment subscriptions for this person, it is
+        // loaded once per evaluation and shared by every subscription evaluator
+        List<IUserFragmentSubscription> fragments = AudienceEvaluationContext.getResult(SUBSCRIPTIONS_RESULT_KEY);
+        if (fragments == null) {
+            IUserFragmentSubscriptionDao userFragmentInfoDao = UserFragmentSubscriptionDaoLocator.getUserIdentityStore();
+            fragments = userFragmentInfoDao.getUserFragmentInfo(person);
+            AudienceEvaluationContext.putResult(SUBSCRIPTIONS_RESULT_KEY, fragments);
+        }
         
         // iterate through the subscription list to determine if the 
         // specified person is actively subscribed to the fragment associated
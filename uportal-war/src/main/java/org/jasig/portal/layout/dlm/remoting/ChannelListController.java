@@ -230,12 +230,10 @@ public class ChannelListController {
         uncategorizedPortletsBean.setName(UNCATEGORIZED);
         uncategorizedPortletsBean.setDescription(messageSource.getMessage(UNCATEGORIZED_DESC, new Object[] {}, locale));
 
-        for (IPortletDefinition portlet : portletsNotYetCategorized) {
-            if (authorizationService.canPrincipalBrowse(ap, portlet)) {
-                // construct a new channel bean from this channel
-                ChannelBean channel = getChannel(portlet, request, locale);
-                uncategorizedPortletsBean.addChannel(channel);
-            }
+        for (IPortletDefinition portlet : authorizationService.getBrowsablePortlets(ap, portletsNotYetCategorized)) {
+            // construct a new channel bean from this channel
+            ChannelBean channel = getChannel(portlet, request, locale);
+            uncategorizedPortletsBean.addChannel(channel);
         }
         // Add even if no portlets in category
         categories.add(uncategorizedPortletsBean);
@@ -255,10 +253,11 @@ public class ChannelListController {
         Set<IPortletDefinition> portlets = portletCategoryRegistry.getChildPortlets(category);
         EntityIdentifier ei = user.getEntityIdentifier();
         IAuthorizationPrincipal ap = AuthorizationService.instance().newPrincipal(ei.getKey(), ei.getType());
+        Set<IPortletDefinition> browsablePortlets = authorizationService.getBrowsablePortlets(ap, portlets);
 
         for(IPortletDefinition portlet : portlets) {
 
-            if (authorizationService.canPrincipalBrowse(ap, portlet)) {
+            if (browsablePortlets.contains(portlet)) {
                 // construct a new channel bean from this channel
                 ChannelBean channel = getChannel(portlet, request, locale);
                 categoryBean.addChannel(channel);
@@ -344,11 +343,9 @@ public class ChannelListController {
             IAuthorizationPrincipal ap = AuthorizationService.instance().newPrincipal(ei.getKey(), ei.getType());
 
             Set<PortletDefinitionBean> marketplacePortlets = new HashSet<>();
-            for (IPortletDefinition portlet : portletsNotYetCategorized) {
-                if (authorizationService.canPrincipalBrowse(ap, portlet)) {
-                    PortletDefinitionBean pdb = preparePortletDefinitionBean(request, portlet, locale);
-                    marketplacePortlets.add(pdb);
-                }
+            for (IPortletDefinition portlet : authorizationService.getBrowsablePortlets(ap, portletsNotYetCategorized)) {
+                PortletDefinitionBean pdb = preparePortletDefinitionBean(request, portlet, locale);
+                marketplacePortlets.add(pdb);
             }
 
             // construct a new channel category bean for this category
@@ -381,11 +378,12 @@ public class ChannelListController {
         Set<IPortletDefinition> portlets = portletCategoryRegistry.getChildPortlets(category);
         EntityIdentifier ei = user.getEntityIdentifier();
         IAuthorizationPrincipal ap = AuthorizationService.instance().newPrincipal(ei.getKey(), ei.getType());
+        Set<IPortletDefinition> browsablePortlets = authorizationService.getBrowsablePortlets(ap, portlets);
 
         Set<PortletDefinitionBean> marketplacePortlets = new HashSet<>();
         for(IPortletDefinition portlet : portlets) {
 
-            if (authorizationService.canPrincipalBrowse(ap, portlet)) {
+            if (browsablePortlets.contains(portlet)) {
                 PortletDefinitionBean pdb = preparePortletDefinitionBean(req, portlet, locale);
                 marketplacePortlets.add(pdb);
             }
@@ -1179,7 +1179,12 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
 
     protected abstract Element getStructure(Document doc, LayoutStructure ls);
 
-    protected abstract int saveStructure (Node node, PreparedStatement structStmt, PreparedStatement parmStmt) throws SQLException;
+    /**
+     * Adds the rows for the node, its children and its following siblings to the layout rows
+     * 
+     * @return The struct id of the node, 0 if there is no node to save
+     */
+    protected abstract int saveStructure (Node node, UserLayoutRows layoutRows);
 
     public void setUserBrowserMapping (final IPerson person, final String userAgentArg, final int profileId) {
         final int userId = person.getID();
@@ -1236,7 +1241,7 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
     }
 
     /**
-     * Save the user layout.
+     * Save the user layout. Only the layout rows that differ from the persisted layout are written.
      * @param person
      * @param profile
      * @param layoutXML
@@ -1268,48 +1273,17 @@ public abstract class RDBMUserLayoutStore implements IUserLayoutStore, Initializ
                             firstLayout = true;
                         }
 
-                        String sql = "DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?";
-                        PreparedStatement pstmt = con.prepareStatement(sql);
-                        try {
-                            pstmt.clearParameters();
-                            pstmt.setInt(1, userId);
-                            pstmt.setInt(2, layoutId);
-                                logger.debug(sql);
-                            pstmt.executeUpdate();
-                        } finally {
-                            pstmt.close();
-                        }
-
-                        sql = "DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?";
-                        pstmt = con.prepareStatement(sql);
-                        try {
-                            pstmt.clearParameters();
-                            pstmt.setInt(1, userId);
-                            pstmt.setInt(2, layoutId);
-                            logger.debug(sql);
-                            pstmt.executeUpdate();
-                        } finally {
-                            pstmt.close();
-                        }
-
-                        PreparedStatement structStmt = con.prepareStatement("INSERT INTO UP_LAYOUT_STRUCT "
-                                + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID,EXTERNAL_ID,CHAN_ID,NAME,TYPE,HIDDEN,IMMUTABLE,UNREMOVABLE) "
-                                + "VALUES (" + userId + "," + layoutId + ",?,?,?,?,?,?,?,?,?,?)");
-
-                        PreparedStatement parmStmt = con.prepareStatement("INSERT INTO UP_LAYOUT_PARAM "
-                                + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) " + "VALUES (" + userId + "," + layoutId + ",?,?,?)");
-
-                        int firstStructId;
-                        try {
-                            firstStructId = saveStructure(layoutXML.getFirstChild().getFirstChild(), structStmt, parmStmt);
-                        } finally {
-                            structStmt.close();
-                            parmStmt.close();
-                        }
+                        // Only write the rows that changed since the layout was last saved
+                        final UserLayoutRows layoutRows = new UserLayoutRows();
+                        final int firstStructId = saveStructure(layoutXML.getFirstChild().getFirstChild(), layoutRows);
+                        final UserLayoutRows persistedRows = UserLayoutRows.load(con, userId, layoutId);
+                        final UserLayoutRows.Changes changes = layoutRows.getChanges(persistedRows);
+                        logger.debug("Saving layout {} of user {}: {}", layoutId, userId, changes);
+                        changes.apply(con, userId, layoutId);
 
                         //Check to see if the user has a matching layout
-                        sql = "SELECT * FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
-                        pstmt = con.prepareStatement(sql);
+                        String sql = "SELECT * FROM UP_USER_LAYOUT WHERE USER_ID=? AND LAYOUT_ID=?";
+                        PreparedStatement pstmt = con.prepareStatement(sql);
                         try {
                             pstmt.clearParameters();
                             pstmt.setInt(1, userId);
@@ -18,6 +18,7 @@
  */
 package org.jasig.portal.layout.simple;
 
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Set;
 import java.util.Vector;
@@ -34,7 +35,6 @@ import org.jasig.portal.PortalException;
 import org.jasig.portal.layout.IUserLayout;
 import org.jasig.portal.layout.INodeIdResolver;
 import org.jasig.portal.layout.dlm.DistributedUserLayout;
-import org.jasig.portal.layout.node.IUserLayoutFolderDescription;
 import org.jasig.portal.layout.node.IUserLayoutNodeDescription;
 import org.jasig.portal.layout.node.UserLayoutNodeDescription;
 import org.jasig.portal.layout.om.IStylesheetUserPreferences;
@@ -88,34 +88,12 @@ public class SimpleLayout implements IUserLayout {
 
     @Override
     public String getParentId(String nodeId) throws PortalException {
-        String parentId = null;
-        Element element = layout.getElementById(nodeId);
-        if (element != null) {
-            Node parent = element.getParentNode();
-            if (parent != null && parent.getNodeType() == Node.ELEMENT_NODE) {
-                Element parentE = (Element)parent;
-                parentId = parentE.getAttribute("ID");
-            }
-        }
-        return parentId;
+        return this.userLayout.getIndex().getParentId(nodeId);
     }
 
     @Override
     public Enumeration getChildIds(String nodeId) throws PortalException {
-        Vector v = new Vector();
-        IUserLayoutNodeDescription node = getNodeDescription(nodeId);
-        if (node instanceof IUserLayoutFolderDescription) {
-            Element element = layout.getElementById(nodeId);
-            for (Node n = element.getFirstChild(); n != null; n = n.getNextSibling()) {
-                if (n.getNodeType() == Node.ELEMENT_NODE) {
-                    Element e = (Element)n;
-                    if (e.getAttribute("ID") != null) {
-                        v.add(e.getAttribute("ID"));
-                    }
-                }
-            }
-        }
-        return v.elements();
+        return Collections.enumeration(this.userLayout.getIndex().getChildIds(nodeId));
     }
 
     @Override
@@ -166,19 +144,7 @@ public class SimpleLayout implements IUserLayout {
 
     @Override
     public String getNodeId(String fname) throws PortalException {
-        String nodeId = null;
-        NodeList nl = layout.getElementsByTagName("channel");
-        for (int i = 0; i < nl.getLength(); i++) {
-            Node node = nl.item(i);
-            if (node.getNodeType() == Node.ELEMENT_NODE) {
-                Element channelE = (Element)node;
-                if (fname.equals(channelE.getAttribute("fname"))) {
-                    nodeId = channelE.getAttribute("ID");
-                    break;
-                }
-            }
-        }
-        return nodeId;
+        return this.userLayout.getIndex().getSubscribeId(fname);
     }
     
     /* (non-Javadoc)
@@ -198,6 +164,16 @@ public class SimpleLayout implements IUserLayout {
     public String findNodeId(INodeIdResolver finder) {
         return finder.traverseDocument(this.layout);
     }
+    
+    @Override
+    public String getTabId(String nodeId) {
+        return this.userLayout.getIndex().getTabId(nodeId);
+    }
+    
+    @Override
+    public String getTabIdByIndex(int tabIndex) {
+        return this.userLayout.getIndex().getTabIdByIndex(tabIndex);
+    }
 
     @Override
     public Enumeration getNodeIds() throws PortalException {
@@ -223,20 +199,7 @@ public class SimpleLayout implements IUserLayout {
 
     @Override
     public String getRootId() {
-        String rootNode = null;
-        try {
-            
-            String expression = "/layout/folder";
-            XPathFactory fac = XPathFactory.newInstance();
-            XPath xpath = fac.newXPath();
-            Element rootNodeE = (Element) xpath.evaluate(expression, layout, 
-                    XPathConstants.NODE);
-            
-            rootNode = rootNodeE.getAttribute("ID");
-        } catch (Exception e) {
-            log.error("Error getting root id.", e);
-        }
-        return rootNode;
+        return this.userLayout.getIndex().getRootId();
     }
 
     @Override
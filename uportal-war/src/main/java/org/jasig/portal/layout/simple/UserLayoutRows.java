@@ -0,0 +1,420 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.simple;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
+import org.jasig.portal.utils.Tuple;
+
+/**
+ * The UP_LAYOUT_STRUCT and UP_LAYOUT_PARAM rows of one user layout.  A layout is saved by
+ * comparing its rows with the rows of the persisted layout and only inserting, updating and
+ * deleting the rows that differ, using batched statements.
+ * 
+ * @see RDBMUserLayoutStore#setUserLayout(org.jasig.portal.security.IPerson, org.jasig.portal.IUserProfile, org.w3c.dom.Document, boolean)
+ * @since 4.3
+ */
+public final class UserLayoutRows {
+    private final Map<Integer, StructRow> structRows = new LinkedHashMap<Integer, StructRow>();
+    private final Map<Tuple<Integer, String>, String> paramRows = new LinkedHashMap<Tuple<Integer, String>, String>();
+
+    /**
+     * Reads the persisted rows of the layout
+     */
+    public static UserLayoutRows load(Connection con, int userId, int layoutId) throws SQLException {
+        final UserLayoutRows rows = new UserLayoutRows();
+
+        PreparedStatement pstmt = con.prepareStatement("SELECT STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE "
+                + "FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?");
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    final int chanIdValue = rs.getInt(5);
+                    final Integer chanId = rs.wasNull() ? null : chanIdValue;
+                    rows.addStruct(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getString(4), chanId,
+                            rs.getString(6), rs.getString(7), rs.getString(8), rs.getString(9), rs.getString(10));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            pstmt.close();
+        }
+
+        pstmt = con.prepareStatement("SELECT STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?");
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, layoutId);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    rows.addParam(rs.getInt(1), rs.getString(2), rs.getString(3));
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            pstmt.close();
+        }
+
+        return rows;
+    }
+
+    /**
+     * Adds the UP_LAYOUT_STRUCT row of a layout node
+     * 
+     * @param externalId The external id, null if there is none
+     * @param chanId The portlet definition id for portlets, null for folders
+     * @param name The folder name, null for portlets
+     */
+    public void addStruct(int structId, int nextStructId, int childStructId, String externalId, Integer chanId,
+            String name, String type, String hidden, String immutable, String unremovable) {
+        this.structRows.put(structId, new StructRow(structId, nextStructId, childStructId, externalId, chanId,
+                name, type, hidden, immutable, unremovable));
+    }
+
+    /**
+     * Adds a UP_LAYOUT_PARAM row of a layout node
+     */
+    public void addParam(int structId, String name, String value) {
+        this.paramRows.put(new Tuple<Integer, String>(structId, name), value);
+    }
+
+    public int getStructCount() {
+        return this.structRows.size();
+    }
+
+    public int getParamCount() {
+        return this.paramRows.size();
+    }
+
+    /**
+     * @param persisted The rows of the persisted layout
+     * @return The changes that turn the persisted rows into these rows
+     */
+    public Changes getChanges(UserLayoutRows persisted) {
+        final Changes changes = new Changes();
+
+        for (final StructRow structRow : this.structRows.values()) {
+            final StructRow persistedRow = persisted.structRows.get(structRow.structId);
+            if (persistedRow == null) {
+                changes.insertedStructs.add(structRow);
+            }
+            else if (!structRow.equals(persistedRow)) {
+                changes.updatedStructs.add(structRow);
+            }
+        }
+        for (final Integer structId : persisted.structRows.keySet()) {
+            if (!this.structRows.containsKey(structId)) {
+                changes.deletedStructs.add(structId);
+            }
+        }
+
+        for (final Map.Entry<Tuple<Integer, String>, String> paramRow : this.paramRows.entrySet()) {
+            final Tuple<Integer, String> paramKey = paramRow.getKey();
+            if (!persisted.paramRows.containsKey(paramKey)) {
+                changes.insertedParams.add(paramRow);
+            }
+            else if (!columnEquals(paramRow.getValue(), persisted.paramRows.get(paramKey))) {
+                changes.updatedParams.add(paramRow);
+            }
+        }
+        for (final Tuple<Integer, String> paramKey : persisted.paramRows.keySet()) {
+            if (!this.paramRows.containsKey(paramKey)) {
+                changes.deletedParams.add(paramKey);
+            }
+        }
+
+        return changes;
+    }
+
+    /**
+     * Compares VARCHAR column values, an empty string is equal to null since some databases (Oracle)
+     * store empty strings as NULL
+     */
+    static boolean columnEquals(String value, String persistedValue) {
+        return StringUtils.defaultString(value).equals(StringUtils.defaultString(persistedValue));
+    }
+
+    /**
+     * The rows that differ between two versions of a layout
+     */
+    public static final class Changes {
+        private final List<StructRow> insertedStructs = new ArrayList<StructRow>();
+        private final List<StructRow> updatedStructs = new ArrayList<StructRow>();
+        private final List<Integer> deletedStructs = new ArrayList<Integer>();
+        private final List<Map.Entry<Tuple<Integer, String>, String>> insertedParams = new ArrayList<Map.Entry<Tuple<Integer, String>, String>>();
+        private final List<Map.Entry<Tuple<Integer, String>, String>> updatedParams = new ArrayList<Map.Entry<Tuple<Integer, String>, String>>();
+        private final List<Tuple<Integer, String>> deletedParams = new ArrayList<Tuple<Integer, String>>();
+
+        private Changes() {
+        }
+
+        public List<Integer> getInsertedStructIds() {
+            return getStructIds(this.insertedStructs);
+        }
+
+        public List<Integer> getUpdatedStructIds() {
+            return getStructIds(this.updatedStructs);
+        }
+
+        public List<Integer> getDeletedStructIds() {
+            return Collections.unmodifiableList(this.deletedStructs);
+        }
+
+        public int getInsertedParamCount() {
+            return this.insertedParams.size();
+        }
+
+        public int getUpdatedParamCount() {
+            return this.updatedParams.size();
+        }
+
+        public int getDeletedParamCount() {
+            return this.deletedParams.size();
+        }
+
+        /**
+         * @return The number of rows that are inserted, updated or deleted
+         */
+        public int size() {
+            return this.insertedStructs.size() + this.updatedStructs.size() + this.deletedStructs.size()
+                    + this.insertedParams.size() + this.updatedParams.size() + this.deletedParams.size();
+        }
+
+        private static List<Integer> getStructIds(List<StructRow> structRows) {
+            final List<Integer> structIds = new ArrayList<Integer>(structRows.size());
+            for (final StructRow structRow : structRows) {
+                structIds.add(structRow.structId);
+            }
+            return structIds;
+        }
+
+        /**
+         * Writes the changes to the layout tables, one batch per statement
+         */
+        public void apply(Connection con, int userId, int layoutId) throws SQLException {
+            if (!this.deletedParams.isEmpty()) {
+                final PreparedStatement pstmt = con.prepareStatement("DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?");
+                try {
+                    for (final Tuple<Integer, String> paramKey : this.deletedParams) {
+                        pstmt.setInt(1, userId);
+                        pstmt.setInt(2, layoutId);
+                        pstmt.setInt(3, paramKey.first);
+                        pstmt.setString(4, paramKey.second);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                } finally {
+                    pstmt.close();
+                }
+            }
+
+            if (!this.deletedStructs.isEmpty()) {
+                final PreparedStatement pstmt = con.prepareStatement("DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?");
+                try {
+                    for (final Integer structId : this.deletedStructs) {
+                        pstmt.setInt(1, userId);
+                        pstmt.setInt(2, layoutId);
+                        pstmt.setInt(3, structId);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                } finally {
+                    pstmt.close();
+                }
+            }
+
+            if (!this.updatedStructs.isEmpty()) {
+                final PreparedStatement pstmt = con.prepareStatement("UPDATE UP_LAYOUT_STRUCT "
+                        + "SET NEXT_STRUCT_ID=?, CHLD_STRUCT_ID=?, EXTERNAL_ID=?, CHAN_ID=?, NAME=?, TYPE=?, HIDDEN=?, IMMUTABLE=?, UNREMOVABLE=? "
+                        + "WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=?");
+                try {
+                    for (final StructRow structRow : this.updatedStructs) {
+                        structRow.setColumns(pstmt, 1);
+                        pstmt.setInt(10, userId);
+                        pstmt.setInt(11, layoutId);
+                        pstmt.setInt(12, structRow.structId);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                } finally {
+                    pstmt.close();
+                }
+            }
+
+            if (!this.insertedStructs.isEmpty()) {
+                final PreparedStatement pstmt = con.prepareStatement("INSERT INTO UP_LAYOUT_STRUCT "
+                        + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE) "
+                        + "VALUES (?,?,?,?,?,?,?,?,?,?,?,?)");
+                try {
+                    for (final StructRow structRow : this.insertedStructs) {
+                        pstmt.setInt(1, userId);
+                        pstmt.setInt(2, layoutId);
+                        pstmt.setInt(3, structRow.structId);
+                        structRow.setColumns(pstmt, 4);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                } finally {
+                    pstmt.close();
+                }
+            }
+
+            if (!this.updatedParams.isEmpty()) {
+                final PreparedStatement pstmt = con.prepareStatement("UPDATE UP_LAYOUT_PARAM SET STRUCT_PARM_VAL=? WHERE USER_ID=? AND LAYOUT_ID=? AND STRUCT_ID=? AND STRUCT_PARM_NM=?");
+                try {
+                    for (final Map.Entry<Tuple<Integer, String>, String> paramRow : this.updatedParams) {
+                        pstmt.setString(1, paramRow.getValue());
+                        pstmt.setInt(2, userId);
+                        pstmt.setInt(3, layoutId);
+                        pstmt.setInt(4, paramRow.getKey().first);
+                        pstmt.setString(5, paramRow.getKey().second);
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                } finally {
+                    pstmt.close();
+                }
+            }
+
+            if (!this.insertedParams.isEmpty()) {
+                final PreparedStatement pstmt = con.prepareStatement("INSERT INTO UP_LAYOUT_PARAM "
+                        + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) VALUES (?,?,?,?,?)");
+                try {
+                    for (final Map.Entry<Tuple<Integer, String>, String> paramRow : this.insertedParams) {
+                        pstmt.setInt(1, userId);
+                        pstmt.setInt(2, layoutId);
+                        pstmt.setInt(3, paramRow.getKey().first);
+                        pstmt.setString(4, paramRow.getKey().second);
+                        pstmt.setString(5, paramRow.getValue());
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                } finally {
+                    pstmt.close();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Changes [insertedStructs=" + this.insertedStructs.size() + ", updatedStructs=" + this.updatedStructs.size()
+                    + ", deletedStructs=" + this.deletedStructs.size() + ", insertedParams=" + this.insertedParams.size()
+                    + ", updatedParams=" + this.updatedParams.size() + ", deletedParams=" + this.deletedParams.size() + "]";
+        }
+    }
+
+    private static final class StructRow {
+        private final int structId;
+        private final int nextStructId;
+        private final int childStructId;
+        private final String externalId;
+        private final Integer chanId;
+        private final String name;
+        private final String type;
+        private final String hidden;
+        private final String immutable;
+        private final String unremovable;
+
+        public StructRow(int structId, int nextStructId, int childStructId, String externalId, Integer chanId,
+                String name, String type, String hidden, String immutable, String unremovable) {
+            this.structId = structId;
+            this.nextStructId = nextStructId;
+            this.childStructId = childStructId;
+            this.externalId = externalId;
+            this.chanId = chanId;
+            this.name = name;
+            this.type = type;
+            this.hidden = hidden;
+            this.immutable = immutable;
+            this.unremovable = unremovable;
+        }
+
+        /**
+         * Sets the columns from NEXT_STRUCT_ID to UNREMOVABLE starting at the parameter index
+         */
+        void setColumns(PreparedStatement pstmt, int index) throws SQLException {
+            pstmt.setInt(index, this.nextStructId);
+            pstmt.setInt(index + 1, this.childStructId);
+            if (this.externalId != null) {
+                pstmt.setInt(index + 2, Integer.parseInt(this.externalId));
+            }
+            else {
+                pstmt.setNull(index + 2, Types.NUMERIC);
+            }
+            if (this.chanId != null) {
+                pstmt.setInt(index + 3, this.chanId);
+            }
+            else {
+                pstmt.setNull(index + 3, Types.NUMERIC);
+            }
+            if (this.name != null) {
+                pstmt.setString(index + 4, this.name);
+            }
+            else {
+                pstmt.setNull(index + 4, Types.VARCHAR);
+            }
+            pstmt.setString(index + 5, this.type);
+            pstmt.setString(index + 6, this.hidden);
+            pstmt.setString(index + 7, this.immutable);
+            pstmt.setString(index + 8, this.unremovable);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.structId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof StructRow)) {
+                return false;
+            }
+            final StructRow other = (StructRow) obj;
+            return this.structId == other.structId
+                    && this.nextStructId == other.nextStructId
+                    && this.childStructId == other.childStructId
+                    && columnEquals(this.externalId, other.externalId)
+                    && ObjectUtils.equals(this.chanId, other.chanId)
+                    && columnEquals(this.name, other.name)
+                    && columnEquals(this.type, other.type)
+                    && columnEquals(this.hidden, other.hidden)
+                    && columnEquals(this.immutable, other.immutable)
+                    && columnEquals(this.unremovable, other.unremovable);
+        }
+    }
+}
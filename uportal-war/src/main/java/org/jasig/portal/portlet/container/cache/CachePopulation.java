@@ -0,0 +1,67 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.portlet.container.cache;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks a request that is rendering a portlet to populate the public cache for a {@link PublicPortletCacheKey}.
+ * Other requests for the same key wait on the population or serve stale data instead of rendering the portlet
+ * themselves.
+ * 
+ * @see PortletCacheControlServiceImpl
+ */
+final class CachePopulation {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final long started = System.currentTimeMillis();
+    private final ConcurrentMap<PublicPortletCacheKey, CachePopulation> populations;
+    private final PublicPortletCacheKey publicCacheKey;
+    
+    CachePopulation(ConcurrentMap<PublicPortletCacheKey, CachePopulation> populations, PublicPortletCacheKey publicCacheKey) {
+        this.populations = populations;
+        this.publicCacheKey = publicCacheKey;
+    }
+    
+    /**
+     * @return true if the population was started more than timeout ms ago
+     */
+    boolean isAbandoned(long timeout) {
+        return System.currentTimeMillis() - this.started > timeout;
+    }
+    
+    /**
+     * Wait for the population to end, waiting at most until timeout ms after it was started
+     * 
+     * @return true if the population ended
+     */
+    boolean await(long timeout) throws InterruptedException {
+        final long remaining = this.started + timeout - System.currentTimeMillis();
+        return this.latch.await(remaining, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Mark the population as complete and wake waiting requests
+     */
+    void end() {
+        this.populations.remove(this.publicCacheKey, this);
+        this.latch.countDown();
+    }
+}
@@ -32,6 +32,8 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     private boolean useBrowserData = false;
     private boolean browserDataMatches = false;
     private boolean browserSetEtag = false;
+    private boolean useStaleDataOnError = false;
+    private CachePopulation cachePopulation;
     private PublicPortletCacheKey publicPortletCacheKey;
     private PrivatePortletCacheKey privatePortletCacheKey;
     
@@ -74,6 +76,30 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     public boolean isBrowserSetEtag() {
         return browserSetEtag;
     }
+    /**
+     * @return true If the cached portlet data is expired but may be replayed if the portlet fails to render
+     */
+    public boolean isUseStaleDataOnError() {
+        return useStaleDataOnError;
+    }
+    /**
+     * @return true If this request is responsible for populating the public cache, other requests for the same
+     * public cache key are waiting or serving stale data until {@link #endCachePopulation()} is called
+     */
+    public boolean isCachePopulation() {
+        return cachePopulation != null;
+    }
+    /**
+     * Signal that this request is done populating the public cache. Must be called once the portlet has been executed
+     * and its output cached, safe to call if {@link #isCachePopulation()} is false.
+     */
+    public void endCachePopulation() {
+        final CachePopulation population = this.cachePopulation;
+        if (population != null) {
+            this.cachePopulation = null;
+            population.end();
+        }
+    }
     /**
      * @return The public cache key for the portlet, will not be null
      */
@@ -88,6 +114,12 @@ public class CacheState<D extends CachedPortletResultHolder<T>, T extends Serial
     }
 
     
+    protected void setUseStaleDataOnError(boolean useStaleDataOnError) {
+        this.useStaleDataOnError = useStaleDataOnError;
+    }
+    void setCachePopulation(CachePopulation cachePopulation) {
+        this.cachePopulation = cachePopulation;
+    }
     protected void setBrowserSetEtag(boolean browserSetEtag) {
         this.browserSetEtag = browserSetEtag;
     }
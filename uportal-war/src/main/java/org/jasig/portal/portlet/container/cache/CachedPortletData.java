@@ -21,14 +21,23 @@
  */
 package org.jasig.portal.portlet.container.cache;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.charset.Charset;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import javax.portlet.CacheControl;
 
+import org.apache.commons.io.IOUtils;
 import org.jasig.portal.portlet.rendering.PortletOutputHandler;
 
 /**
@@ -41,10 +50,18 @@ import org.jasig.portal.portlet.rendering.PortletOutputHandler;
 public class CachedPortletData<T extends Serializable> implements CachedPortletResultHolder<T>, Serializable {
 	private static final long serialVersionUID = 5509299103587289000L;
 	
+	private static final Charset WRITER_OUTPUT_CHARSET = Charset.forName("UTF-8");
+	
 	private final T portletResult;
 	
 	private final String cachedWriterOutput;
 	private final byte[] cachedStreamOutput;
+	
+	/**
+	 * Deflated output, if set cachedWriterOutput and cachedStreamOutput are null
+	 */
+	private final byte[] compressedOutput;
+	private final boolean compressedWriterOutput;
 
     private final String contentType;
 
@@ -67,6 +84,8 @@ public class CachedPortletData<T extends Serializable> implements CachedPortletR
         this.portletResult = portletResult;
         this.cachedWriterOutput = cachedWriterOutput;
         this.cachedStreamOutput = cachedStreamOutput;
+        this.compressedOutput = null;
+        this.compressedWriterOutput = false;
         
         this.contentType = contentType;
         
@@ -76,6 +95,24 @@ public class CachedPortletData<T extends Serializable> implements CachedPortletR
         this.updateExpirationTime(expirationTime);
     }
     
+    /**
+     * Copy of the data with the output replaced by its compressed form
+     */
+    private CachedPortletData(CachedPortletData<T> data, byte[] compressedOutput, boolean compressedWriterOutput) {
+        this.portletResult = data.portletResult;
+        this.cachedWriterOutput = null;
+        this.cachedStreamOutput = null;
+        this.compressedOutput = compressedOutput;
+        this.compressedWriterOutput = compressedWriterOutput;
+        
+        this.contentType = data.contentType;
+        
+        this.publicScope = data.publicScope;
+        this.etag = data.etag;
+        this.timeStored = data.timeStored;
+        this.expirationTime = data.expirationTime;
+    }
+    
     public void replay(PortletOutputHandler portletOutputHandler) throws IOException {
         if (contentType != null) {
             portletOutputHandler.setContentType(contentType);
@@ -89,6 +126,104 @@ public class CachedPortletData<T extends Serializable> implements CachedPortletR
             final OutputStream outputStream = portletOutputHandler.getOutputStream();
             outputStream.write(cachedStreamOutput);
         }
+        else if (this.compressedOutput != null) {
+            //Inflate directly into the response instead of rebuilding the uncompressed output
+            final InputStream inputStream = this.getCompressedOutputStream();
+            try {
+                if (this.compressedWriterOutput) {
+                    final PrintWriter printWriter = portletOutputHandler.getPrintWriter();
+                    IOUtils.copy(new InputStreamReader(inputStream, WRITER_OUTPUT_CHARSET), printWriter);
+                }
+                else {
+                    final OutputStream outputStream = portletOutputHandler.getOutputStream();
+                    IOUtils.copy(inputStream, outputStream);
+                }
+            }
+            finally {
+                IOUtils.closeQuietly(inputStream);
+            }
+        }
+    }
+    
+    /**
+     * @param compressionThreshold Minimum output size in bytes or characters to compress
+     * @return A copy of this data with the output stored compressed, this if the output is smaller than the threshold,
+     *  already compressed or does not get smaller when compressed 
+     */
+    @Override
+    public CachedPortletData<T> compress(int compressionThreshold) {
+        final byte[] output;
+        final boolean writerOutput;
+        if (this.cachedWriterOutput != null && this.cachedWriterOutput.length() >= compressionThreshold) {
+            output = this.cachedWriterOutput.getBytes(WRITER_OUTPUT_CHARSET);
+            writerOutput = true;
+        }
+        else if (this.cachedStreamOutput != null && this.cachedStreamOutput.length >= compressionThreshold) {
+            output = this.cachedStreamOutput;
+            writerOutput = false;
+        }
+        else {
+            return this;
+        }
+        
+        final ByteArrayOutputStream compressedStream = new ByteArrayOutputStream(output.length / 4);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            final DeflaterOutputStream deflaterStream = new DeflaterOutputStream(compressedStream, deflater);
+            deflaterStream.write(output);
+            deflaterStream.finish();
+        }
+        catch (IOException e) {
+            //Not possible when writing to a ByteArrayOutputStream
+            throw new IllegalStateException("Failed to compress cached portlet output", e);
+        }
+        finally {
+            deflater.end();
+        }
+        
+        if (compressedStream.size() >= output.length) {
+            return this;
+        }
+        
+        return new CachedPortletData<T>(this, compressedStream.toByteArray(), writerOutput);
+    }
+    
+    @Override
+    public int getStoredOutputSize() {
+        if (this.compressedOutput != null) {
+            return this.compressedOutput.length;
+        }
+        if (this.cachedWriterOutput != null) {
+            return this.cachedWriterOutput.length();
+        }
+        if (this.cachedStreamOutput != null) {
+            return this.cachedStreamOutput.length;
+        }
+        return 0;
+    }
+    
+    /**
+     * @return true if the output is stored compressed
+     */
+    public boolean isCompressed() {
+        return this.compressedOutput != null;
+    }
+    
+    private InputStream getCompressedOutputStream() {
+        return new InflaterInputStream(new ByteArrayInputStream(this.compressedOutput));
+    }
+    
+    private byte[] decompress() {
+        final InputStream inputStream = this.getCompressedOutputStream();
+        try {
+            return IOUtils.toByteArray(inputStream);
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Failed to decompress cached portlet output", e);
+        }
+        finally {
+            IOUtils.closeQuietly(inputStream);
+        }
     }
 
     /**
@@ -115,10 +250,16 @@ public class CachedPortletData<T extends Serializable> implements CachedPortletR
     }
 
     public String getCachedWriterOutput() {
+        if (this.compressedOutput != null && this.compressedWriterOutput) {
+            return new String(this.decompress(), WRITER_OUTPUT_CHARSET);
+        }
         return cachedWriterOutput;
     }
 
     public byte[] getCachedStreamOutput() {
+        if (this.compressedOutput != null && !this.compressedWriterOutput) {
+            return this.decompress();
+        }
         return cachedStreamOutput;
     }
 
@@ -70,6 +70,18 @@ public class CachedPortletResourceData<T extends Serializable> implements Cached
         this.contentLength = contentLength;
         this.locale = locale;
     }
+    
+    /**
+     * Copy of the data with different cached output
+     */
+    private CachedPortletResourceData(CachedPortletResourceData<T> data, CachedPortletData<T> cachedPortletData) {
+        this.cachedPortletData = cachedPortletData;
+        this.headers = data.headers;
+        this.status = data.status;
+        this.characterEncoding = data.characterEncoding;
+        this.contentLength = data.contentLength;
+        this.locale = data.locale;
+    }
 
     public final void replay(PortletResourceOutputHandler portletOutputHandler) throws IOException {
         //Write status
@@ -110,6 +122,21 @@ public class CachedPortletResourceData<T extends Serializable> implements Cached
         this.cachedPortletData.replay(portletOutputHandler);
     }
 
+    @Override
+    public CachedPortletResourceData<T> compress(int compressionThreshold) {
+        final CachedPortletData<T> compressedPortletData = this.cachedPortletData.compress(compressionThreshold);
+        if (compressedPortletData == this.cachedPortletData) {
+            return this;
+        }
+        
+        return new CachedPortletResourceData<T>(this, compressedPortletData);
+    }
+
+    @Override
+    public int getStoredOutputSize() {
+        return this.cachedPortletData.getStoredOutputSize();
+    }
+
     @Override
     public T getPortletResult() {
         return this.cachedPortletData.getPortletResult();
@@ -47,4 +47,15 @@ public interface CachedPortletResultHolder<T extends Serializable> {
      * @return The time the result was cached
      */
     long getTimeStored();
+    
+    /**
+     * @param compressionThreshold Minimum output size to compress
+     * @return The result with its output stored compressed, may be the same instance if compression is not worthwhile
+     */
+    CachedPortletResultHolder<T> compress(int compressionThreshold);
+    
+    /**
+     * @return Size of the output as it is stored, in bytes if compressed otherwise in bytes or characters
+     */
+    int getStoredOutputSize();
 }
@@ -35,7 +35,8 @@ import org.jasig.portal.portlet.rendering.PortletRenderResult;
 public interface IPortletCacheControlService {
 
 	/**
-	 * @return the maximum size of cached portlet output, in bytes
+	 * @return the maximum size of portlet output captured for caching, in bytes. Larger than the maximum cached size
+	 *  when output is compressed before it is cached.
 	 */
 	int getCacheSizeThreshold();
 
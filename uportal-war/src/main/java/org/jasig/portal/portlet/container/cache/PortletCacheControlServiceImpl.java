@@ -21,6 +21,9 @@ package org.jasig.portal.portlet.container.cache;
 import java.io.Serializable;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.portlet.CacheControl;
 import javax.portlet.MimeResponse;
@@ -32,6 +35,7 @@ import net.sf.ehcache.Element;
 import net.sf.ehcache.config.CacheConfiguration;
 
 import org.apache.pluto.container.om.portlet.PortletDefinition;
+import org.jasig.portal.portlet.om.IPortletDefinition;
 import org.jasig.portal.portlet.om.IPortletDefinitionId;
 import org.jasig.portal.portlet.om.IPortletEntity;
 import org.jasig.portal.portlet.om.IPortletEntityId;
@@ -81,9 +85,21 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
     private Ehcache privateScopePortletResourceOutputCache;
     private Ehcache publicScopePortletResourceOutputCache;
     
+    /**
+     * Requests currently rendering a portlet to populate the public cache
+     */
+    private final ConcurrentMap<PublicPortletCacheKey, CachePopulation> cachePopulations = new ConcurrentHashMap<PublicPortletCacheKey, CachePopulation>();
+    
     // default to 100 KB
     private int cacheSizeThreshold = 102400;
     
+    private int compressionThreshold = -1;
+    // default to 1 MB
+    private int captureSizeThreshold = 1048576;
+    private long cachePopulationTimeout = 0;
+    private int staleWhileRevalidate = 0;
+    private int staleIfError = 0;
+    
     @Autowired
     public void setTaggedCacheEntryPurger(TaggedCacheEntryPurger taggedCacheEntryPurger) {
         this.taggedCacheEntryPurger = taggedCacheEntryPurger;
@@ -127,7 +143,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
     }
     
 	/**
-	 * @param cacheSizeThreshold the cacheSizeThreshold to set in bytes
+	 * @param cacheSizeThreshold the cacheSizeThreshold to set in bytes, when compression is enabled it is the limit on
+	 *  the compressed size
 	 */
     @Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.cacheSizeThreshold:102400}")
 	public void setCacheSizeThreshold(int cacheSizeThreshold) {
@@ -136,8 +153,57 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
     
 	@Override
 	public int getCacheSizeThreshold() {
+	    // compressed output is checked against cacheSizeThreshold when it is cached
+	    if (this.compressionThreshold >= 0 && this.cacheSizeThreshold > 0) {
+	        return Math.max(this.cacheSizeThreshold, this.captureSizeThreshold);
+	    }
 		return cacheSizeThreshold;
 	}
+	
+    /**
+     * @param captureSizeThreshold Maximum uncompressed output in bytes/characters captured for caching when compression
+     *  is enabled, the compressed output must still fit in the cacheSizeThreshold. Defaults to 1 MB.
+     */
+    @Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.captureSizeThreshold:1048576}")
+    public void setCaptureSizeThreshold(int captureSizeThreshold) {
+        this.captureSizeThreshold = captureSizeThreshold;
+    }
+	
+    /**
+     * @param compressionThreshold Cached output of at least this many bytes/characters is stored compressed, -1 disables
+     *  compression
+     */
+    @Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.compressionThreshold:-1}")
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+    
+    /**
+     * @param cachePopulationTimeout Maximum time in ms a request waits for another request that is rendering the same
+     *  publicly cached portlet, after that the other request is assumed to have failed. The wait is never longer than
+     *  the portlet's own timeout. 0 disables waiting. Defaults to 0.
+     */
+    @Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.cachePopulationTimeout:0}")
+    public void setCachePopulationTimeout(long cachePopulationTimeout) {
+        this.cachePopulationTimeout = cachePopulationTimeout;
+    }
+
+    /**
+     * @param staleWhileRevalidate Time in seconds after expiration that publicly cached data is served while a single
+     *  request renders the portlet to refresh it, independent of {@link #setCachePopulationTimeout(long)}
+     */
+    @Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.staleWhileRevalidate:0}")
+    public void setStaleWhileRevalidate(int staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * @param staleIfError Time in seconds after expiration that cached data is served if the portlet fails to render
+     */
+    @Value("${org.jasig.portal.portlet.container.cache.PortletCacheControlServiceImpl.staleIfError:0}")
+    public void setStaleIfError(int staleIfError) {
+        this.staleIfError = staleIfError;
+    }
 	@Autowired
 	public void setPortletWindowRegistry(
 			IPortletWindowRegistry portletWindowRegistry) {
@@ -236,7 +302,29 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 publicCacheKey,
                 publicOutputCache,
                 privateOutputCache);
-    
+
+        try {
+            return this.<D, T> checkPortletState(request, portletWindow, cacheState, publicCacheKey, publicOutputCache, useHttpHeaders);
+        }
+        catch (RuntimeException e) {
+            //The caller never sees the state, don't leave other requests waiting on its cache population
+            cacheState.endCachePopulation();
+            throw e;
+        }
+        catch (Error e) {
+            cacheState.endCachePopulation();
+            throw e;
+        }
+    }
+
+    private <D extends CachedPortletResultHolder<T>, T extends Serializable> CacheState<D, T> checkPortletState(
+            HttpServletRequest request,
+            IPortletWindow portletWindow,
+            CacheState<D, T> cacheState,
+            PublicPortletCacheKey publicCacheKey,
+            Ehcache publicOutputCache,
+            boolean useHttpHeaders) {
+
         String etagHeader = null;
         final D cachedPortletData = cacheState.getCachedPortletData();
         if (cachedPortletData != null) {
@@ -258,7 +346,8 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
             }
             
             final long expirationTime = cachedPortletData.getExpirationTime();
-            if (expirationTime == -1 || expirationTime > System.currentTimeMillis()) {
+            final long now = System.currentTimeMillis();
+            if (expirationTime == -1 || expirationTime > now) {
                 //Cached data exists, see if it can be used with no additional work
                 //Cached data is not expired, check if browser data should be used
                 cacheState.setUseCachedData(true);
@@ -269,6 +358,22 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
                 //No browser side data to be used, return the cached data for replay
                 return cacheState;
             }
+            
+            //Cached data is expired, see if it can still be served
+            final long staleTime = now - expirationTime;
+            cacheState.setUseStaleDataOnError(staleTime <= TimeUnit.SECONDS.toMillis(this.staleIfError));
+            
+            //No private key means the data came from the public cache
+            if (cacheState.getPrivatePortletCacheKey() == null
+                    && staleTime <= TimeUnit.SECONDS.toMillis(this.staleWhileRevalidate)
+                    && this.startCachePopulation(cacheState, publicCacheKey, TimeUnit.SECONDS.toMillis(this.staleWhileRevalidate)) != null) {
+                
+                //Another request is already refreshing the data, serve the stale data
+                logger.debug("Serving stale data for {} while another request refreshes it", publicCacheKey);
+                cacheState.setUseCachedData(true);
+                cacheState.setUseBrowserData(cacheState.isBrowserDataMatches());
+                return cacheState;
+            }
         }
         
         //Build CacheControl structure
@@ -288,6 +393,18 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         //Set the default expiration time
         cacheControl.setExpirationTime(portletDescriptor.getExpirationCache());
         
+        //Only one request renders a publicly cached portlet at a time, others wait for it to populate the cache
+        if (cachedPortletData == null && cacheControl.isPublicScope() && this.cachePopulationTimeout > 0) {
+            //Only resource requests use the http headers
+            final long maxWait = this.getCachePopulationWait(portletWindow, useHttpHeaders);
+            final D populatedPortletData = this.<D, T> awaitCachePopulation(cacheState, publicCacheKey, publicOutputCache, portletWindow, maxWait);
+            if (populatedPortletData != null) {
+                cacheState.setCachedPortletData(populatedPortletData);
+                cacheState.setUseCachedData(true);
+                return cacheState;
+            }
+        }
+        
         // Use the request etag if it exists (implies useHttpHeaders==true)
         if (etagHeader != null) {
             cacheControl.setETag(etagHeader);
@@ -302,6 +419,94 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
         return cacheState;
     }
     
+    /**
+     * Register the request as populating the public cache for the key, unless another request already is.
+     * 
+     * @param abandonedAfter Time in ms after which another request's population is assumed to have failed and is
+     *  taken over
+     * @return The population of the other request, null if this request is now populating the cache
+     */
+    protected CachePopulation startCachePopulation(CacheState<?, ?> cacheState, PublicPortletCacheKey publicCacheKey, long abandonedAfter) {
+        final CachePopulation population = new CachePopulation(this.cachePopulations, publicCacheKey);
+        
+        CachePopulation existing = this.cachePopulations.putIfAbsent(publicCacheKey, population);
+        while (existing != null) {
+            if (!existing.isAbandoned(abandonedAfter)) {
+                return existing;
+            }
+            
+            //The other request took too long, take over
+            if (this.cachePopulations.replace(publicCacheKey, existing, population)) {
+                break;
+            }
+            existing = this.cachePopulations.putIfAbsent(publicCacheKey, population);
+        }
+        
+        cacheState.setCachePopulation(population);
+        return null;
+    }
+    
+    /**
+     * @return Time in ms to wait for another request to populate the cache, capped at the timeout the portlet would
+     *  be waited on to render itself
+     */
+    protected long getCachePopulationWait(IPortletWindow portletWindow, boolean resource) {
+        final IPortletDefinition portletDefinition = portletWindow.getPortletEntity().getPortletDefinition();
+        if (portletDefinition == null) {
+            return this.cachePopulationTimeout;
+        }
+        
+        final Integer phaseTimeout = resource ? portletDefinition.getResourceTimeout() : portletDefinition.getRenderTimeout();
+        final long portletTimeout = phaseTimeout != null ? phaseTimeout : portletDefinition.getTimeout();
+        if (portletTimeout <= 0) {
+            return this.cachePopulationTimeout;
+        }
+        
+        return Math.min(this.cachePopulationTimeout, portletTimeout);
+    }
+    
+    /**
+     * If another request is populating the public cache for the key wait for it to finish and return the data it
+     * cached. Otherwise register this request as populating the cache.
+     * 
+     * @param maxWait Maximum time in ms to wait for the other request
+     * @return Unexpired cached data, null if this request should render the portlet
+     */
+    @SuppressWarnings("unchecked")
+    protected <D extends CachedPortletResultHolder<T>, T extends Serializable> D awaitCachePopulation(CacheState<D, T> cacheState,
+            PublicPortletCacheKey publicCacheKey, Ehcache publicOutputCache, IPortletWindow portletWindow, long maxWait) {
+        
+        final CachePopulation population = this.startCachePopulation(cacheState, publicCacheKey, this.cachePopulationTimeout);
+        if (population == null) {
+            return null;
+        }
+        
+        logger.debug("Waiting for another request to populate cache for {}", publicCacheKey);
+        try {
+            if (!population.await(maxWait)) {
+                logger.debug("Timed out waiting for another request to populate cache for {}", publicCacheKey);
+                return null;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        
+        //The portlet may have switched to private scope or not set caching headers, render if nothing usable was cached
+        final D cachedPortletData = (D)this.getCachedPortletData(publicCacheKey, publicOutputCache, portletWindow);
+        if (cachedPortletData == null) {
+            return null;
+        }
+        
+        final long expirationTime = cachedPortletData.getExpirationTime();
+        if (expirationTime != -1 && expirationTime <= System.currentTimeMillis()) {
+            return null;
+        }
+        
+        return cachedPortletData;
+    }
+    
     /**
      * Get the cached portlet data looking in both the public and then private caches returning the first found
      * 
@@ -457,6 +662,15 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 	 * The element's ttl will be set depending on whether expiration or validation method is indicated from the CacheControl and the cache's configuration.
 	 */
 	protected void cacheElement(Ehcache cache, Serializable cacheKey, CachedPortletResultHolder<?> data, CacheControl cacheControl) {
+	    // store large output compressed, it is inflated directly into the response when replayed
+	    if (this.compressionThreshold >= 0) {
+	        data = data.compress(this.compressionThreshold);
+	    }
+	    if (this.cacheSizeThreshold > 0 && data.getStoredOutputSize() > this.cacheSizeThreshold) {
+	        logger.debug("Not caching {} output for {}, it is larger than the cacheSizeThreshold", data.getStoredOutputSize(), cacheKey);
+	        return;
+	    }
+	    
 		// using validation method, ignore expirationTime and defer to cache configuration
         if (cacheControl.getETag() != null) {
             final Element element = new Element(cacheKey, data);
@@ -473,11 +687,13 @@ public class PortletCacheControlServiceImpl implements IPortletCacheControlServi
 		}
 
 		// using expiration method with a positive expiration, set that value as the element's TTL if it is lower than the configured cache TTL
+		// the element is kept for the stale windows past the expiration so it can still be served stale
 		final CacheConfiguration cacheConfiguration = cache.getCacheConfiguration();
 		final Element element = new Element(cacheKey, data);
         final long cacheTTL = cacheConfiguration.getTimeToLiveSeconds();
-        if (expirationTime < cacheTTL) {
-            element.setTimeToLive(expirationTime);
+        final int elementTTL = expirationTime + Math.max(this.staleWhileRevalidate, this.staleIfError);
+        if (elementTTL < cacheTTL) {
+            element.setTimeToLive(elementTTL);
         }
 		cache.put(element);
 	}
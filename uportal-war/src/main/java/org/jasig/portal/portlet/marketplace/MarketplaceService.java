@@ -126,19 +126,21 @@ public class MarketplaceService implements IMarketplaceService, ApplicationListe
 
         final Set<MarketplaceEntry> visiblePortletDefinitions = new HashSet<>();
 
-        for (final IPortletDefinition portletDefinition : allPortletDefinitions) {
+        // resolve browse permission for all the portlets in a single pass over the user's groups
+        final Set<IPortletDefinition> browseablePortletDefinitions =
+                this.authorizationService.getBrowsablePortlets(principal, allPortletDefinitions);
 
-            if (mayBrowsePortlet(principal, portletDefinition)) {
-                final MarketplacePortletDefinition marketplacePortletDefinition = getOrCreateMarketplacePortletDefinition(portletDefinition);
-                final MarketplaceEntry entry =
-                    new MarketplaceEntry(marketplacePortletDefinition, user);
+        for (final IPortletDefinition portletDefinition : browseablePortletDefinitions) {
 
-                // flag whether this use can add the portlet...
-                boolean canAdd = mayAddPortlet(user, portletDefinition);
-                entry.setCanAdd(canAdd);
+            final MarketplacePortletDefinition marketplacePortletDefinition = getOrCreateMarketplacePortletDefinition(portletDefinition);
+            final MarketplaceEntry entry =
+                new MarketplaceEntry(marketplacePortletDefinition, user);
 
-                visiblePortletDefinitions.add(entry);
-            }
+            // flag whether this use can add the portlet...
+            boolean canAdd = mayAddPortlet(user, portletDefinition);
+            entry.setCanAdd(canAdd);
+
+            visiblePortletDefinitions.add(entry);
         }
 
         logger.trace("These portlet definitions {} are browseable by {}.", visiblePortletDefinitions, user);
@@ -108,6 +108,22 @@ public interface IPortletExecutionManager {
      */
     public boolean isPortletRenderRequested(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
 
+    /**
+     * @return true if the BODY render for the specified portlet has been started and has either completed or run
+     * past its timeout, meaning {@link #getPortletOutput(IPortletWindowId, HttpServletRequest, HttpServletResponse)}
+     * will not need to wait on the portlet.
+     */
+    public boolean isPortletOutputAvailable(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
+
+    /**
+     * Register a callback that is run once the render of the specified portlet has completed. If the render has
+     * already completed the callback is run immediately by the calling thread, otherwise it is run by the thread
+     * that rendered the portlet. Renders that hang past their timeout may never run the callback.
+     * 
+     * @return false if the portlet has not been requested to render during this request, the callback is never run
+     */
+    public boolean addPortletRenderCompletionCallback(IPortletWindowId portletWindowId, Runnable callback, HttpServletRequest request, HttpServletResponse response);
+    
     /**
      * @see #getPortletHeadOutput(IPortletWindowId, HttpServletRequest, HttpServletResponse)
      * @param subscribeId
@@ -142,6 +158,14 @@ public interface IPortletExecutionManager {
      * Get the duration it took for the portlet to render.
      */
     public long getPortletRenderTime(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response);
+    
+    /**
+     * Get the moving average of the time it has taken the portlet to render across all requests. Only renders
+     * that completed without an exception are included.
+     * 
+     * @return The average render time in ms, -1 if the portlet has not been rendered yet
+     */
+    public long getAverageRenderTime(String fname);
 
 
     /**
@@ -0,0 +1,181 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.portlet.rendering;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jasig.portal.utils.ConcurrentMapUtils;
+
+import com.google.common.base.Function;
+
+/**
+ * Caps the number of concurrent executions of each portlet fname so a single slow portlet cannot occupy the entire
+ * portlet thread pool. Each fname's limit adapts to the portlet's observed execution duration: executions that use
+ * more than {@link #setSlowExecutionRatio(double)} of their timeout shrink the limit multiplicatively, executions
+ * that complete in time while the limit is nearly reached grow it by one.
+ */
+class PortletBulkhead {
+    private final ConcurrentMap<String, Compartment> compartments = ConcurrentMapUtils.makeDefaultsMap(new Function<String, Compartment>() {
+        @Override
+        public Compartment apply(String fname) {
+            return new Compartment(maxConcurrentExecutions);
+        }
+    });
+    
+    private volatile int maxConcurrentExecutions = 50;
+    private volatile int minConcurrentExecutions = 2;
+    private volatile double slowExecutionRatio = 0.5;
+    private volatile double decreaseFactor = 0.75;
+    
+    public int getMaxConcurrentExecutions() {
+        return this.maxConcurrentExecutions;
+    }
+
+    /**
+     * Upper bound and initial value of each portlet's limit
+     */
+    public void setMaxConcurrentExecutions(int maxConcurrentExecutions) {
+        this.maxConcurrentExecutions = maxConcurrentExecutions;
+    }
+
+    public int getMinConcurrentExecutions() {
+        return this.minConcurrentExecutions;
+    }
+
+    /**
+     * Lower bound of each portlet's limit
+     */
+    public void setMinConcurrentExecutions(int minConcurrentExecutions) {
+        this.minConcurrentExecutions = minConcurrentExecutions;
+    }
+
+    public double getSlowExecutionRatio() {
+        return this.slowExecutionRatio;
+    }
+
+    /**
+     * Fraction of the execution timeout after which an execution counts as slow
+     */
+    public void setSlowExecutionRatio(double slowExecutionRatio) {
+        this.slowExecutionRatio = slowExecutionRatio;
+    }
+
+    public double getDecreaseFactor() {
+        return this.decreaseFactor;
+    }
+
+    /**
+     * Factor the limit is multiplied by after a slow execution
+     */
+    public void setDecreaseFactor(double decreaseFactor) {
+        this.decreaseFactor = decreaseFactor;
+    }
+
+    /**
+     * @return true if an execution of the portlet may start, must be followed by {@link #release(String, long, long)}
+     */
+    public boolean tryAcquire(String fname) {
+        final Compartment compartment = this.compartments.get(fname);
+        while (true) {
+            final int active = compartment.active.get();
+            if (active >= compartment.limit) {
+                compartment.rejections.incrementAndGet();
+                return false;
+            }
+            if (compartment.active.compareAndSet(active, active + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    /**
+     * @return The current limit for the portlet
+     */
+    public int getLimit(String fname) {
+        return this.compartments.get(fname).limit;
+    }
+    
+    /**
+     * Release the execution slot and adjust the portlet's limit based on how long the execution took 
+     */
+    public void release(String fname, long duration, long timeout) {
+        final Compartment compartment = this.compartments.get(fname);
+        final int active = compartment.active.getAndDecrement();
+        
+        synchronized (compartment) {
+            final int limit = compartment.limit;
+            if (timeout > 0 && duration > timeout * this.slowExecutionRatio) {
+                compartment.limit = Math.max(this.minConcurrentExecutions, (int) (limit * this.decreaseFactor));
+            }
+            else if (active >= limit - 1) {
+                compartment.limit = Math.min(this.maxConcurrentExecutions, limit + 1);
+            }
+            else if (limit > this.maxConcurrentExecutions) {
+                compartment.limit = this.maxConcurrentExecutions;
+            }
+        }
+    }
+    
+    /**
+     * @return Current limit for each portlet fname
+     */
+    public Map<String, Integer> getLimits() {
+        final Map<String, Integer> limits = new TreeMap<String, Integer>();
+        for (final Map.Entry<String, Compartment> entry : this.compartments.entrySet()) {
+            limits.put(entry.getKey(), entry.getValue().limit);
+        }
+        return limits;
+    }
+    
+    /**
+     * @return Number of executions in progress for each portlet fname
+     */
+    public Map<String, Integer> getActiveExecutions() {
+        final Map<String, Integer> active = new TreeMap<String, Integer>();
+        for (final Map.Entry<String, Compartment> entry : this.compartments.entrySet()) {
+            active.put(entry.getKey(), entry.getValue().active.get());
+        }
+        return active;
+    }
+    
+    /**
+     * @return Number of rejected executions for each portlet fname
+     */
+    public Map<String, Long> getRejections() {
+        final Map<String, Long> rejections = new TreeMap<String, Long>();
+        for (final Map.Entry<String, Compartment> entry : this.compartments.entrySet()) {
+            rejections.put(entry.getKey(), entry.getValue().rejections.get());
+        }
+        return rejections;
+    }
+    
+    private static final class Compartment {
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicLong rejections = new AtomicLong();
+        private volatile int limit;
+        
+        public Compartment(int limit) {
+            this.limit = limit;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.portlet.rendering;
+
+/**
+ * Thrown when a portlet execution is rejected because the portlet already has as many executions in progress as
+ * its bulkhead currently allows.
+ */
+public class PortletBulkheadSaturatedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public PortletBulkheadSaturatedException(String portletFname, int limit) {
+        super("Portlet " + portletFname + " already has " + limit + " executions in progress");
+    }
+}
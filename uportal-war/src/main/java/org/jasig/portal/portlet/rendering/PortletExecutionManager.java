@@ -31,6 +31,7 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.portlet.Event;
 import javax.servlet.http.HttpServletRequest;
@@ -93,6 +94,12 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
      * 'javax.portlet.renderHeaders' is the name of a container runtime option a JSR-286 portlet can enable to trigger header output
      */
     protected static final String PORTLET_RENDER_HEADERS_OPTION = "javax.portlet.renderHeaders";
+    protected static final String BULKHEAD_PERMIT_ATTRIBUTE = PortletExecutionManager.class.getName() + ".BULKHEAD_PERMIT";
+    
+    /**
+     * Weight of the previous average when recording render times, each new sample contributes 1/RENDER_TIME_WEIGHT
+     */
+    private static final int RENDER_TIME_WEIGHT = 8;
     
     protected final Logger logger = LoggerFactory.getLogger(this.getClass());
     
@@ -107,7 +114,15 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         }
     });
     
+    /**
+     * Moving average of the RENDER execution time in ms for each portlet fname
+     */
+    private final ConcurrentMap<String, AtomicLong> averageRenderTimes = new ConcurrentHashMap<String, AtomicLong>();
+    
+    private final PortletBulkhead portletBulkhead = new PortletBulkhead();
+    
     private boolean ignoreTimeouts = false;
+    private boolean bulkheadEnabled = false;
     private int extendedTimeoutExecutions = 5;
     private long extendedTimeoutMultiplier = 20;
     private int maxEventIterations = 100;
@@ -163,6 +178,68 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         return this.extendedTimeoutMultiplier;
     }
     
+    /**
+     * @param bulkheadEnabled If true the number of concurrent executions of each portlet is limited. Defaults to false
+     */
+    @Override
+    @Value("${org.jasig.portal.portlet.bulkhead.enabled:false}")
+    public void setBulkheadEnabled(boolean bulkheadEnabled) {
+        this.bulkheadEnabled = bulkheadEnabled;
+    }
+
+    @Override
+    public boolean isBulkheadEnabled() {
+        return this.bulkheadEnabled;
+    }
+    
+    @Override
+    @Value("${org.jasig.portal.portlet.bulkhead.maxConcurrentExecutions:50}")
+    public void setBulkheadMaxConcurrentExecutions(int maxConcurrentExecutions) {
+        this.portletBulkhead.setMaxConcurrentExecutions(maxConcurrentExecutions);
+    }
+
+    @Override
+    public int getBulkheadMaxConcurrentExecutions() {
+        return this.portletBulkhead.getMaxConcurrentExecutions();
+    }
+    
+    @Override
+    @Value("${org.jasig.portal.portlet.bulkhead.minConcurrentExecutions:2}")
+    public void setBulkheadMinConcurrentExecutions(int minConcurrentExecutions) {
+        this.portletBulkhead.setMinConcurrentExecutions(minConcurrentExecutions);
+    }
+
+    @Override
+    public int getBulkheadMinConcurrentExecutions() {
+        return this.portletBulkhead.getMinConcurrentExecutions();
+    }
+    
+    @Override
+    @Value("${org.jasig.portal.portlet.bulkhead.slowExecutionRatio:0.5}")
+    public void setBulkheadSlowExecutionRatio(double slowExecutionRatio) {
+        this.portletBulkhead.setSlowExecutionRatio(slowExecutionRatio);
+    }
+
+    @Override
+    public double getBulkheadSlowExecutionRatio() {
+        return this.portletBulkhead.getSlowExecutionRatio();
+    }
+    
+    @Override
+    public Map<String, Integer> getBulkheadLimits() {
+        return this.portletBulkhead.getLimits();
+    }
+    
+    @Override
+    public Map<String, Integer> getBulkheadActiveExecutions() {
+        return this.portletBulkhead.getActiveExecutions();
+    }
+    
+    @Override
+    public Map<String, Long> getBulkheadRejections() {
+        return this.portletBulkhead.getRejections();
+    }
+    
     @Override
     public Map<String, Integer> getPortletExecutionCounts() {
         final Map<String, Integer> counts = new TreeMap<String, Integer>();
@@ -175,6 +252,27 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         
         return counts;
     }
+    
+    @Override
+    public Map<String, Long> getAverageRenderTimes() {
+        final Map<String, Long> renderTimes = new TreeMap<String, Long>();
+        
+        for (final Map.Entry<String, AtomicLong> entry : this.averageRenderTimes.entrySet()) {
+            renderTimes.put(entry.getKey(), entry.getValue().get());
+        }
+        
+        return renderTimes;
+    }
+    
+    @Override
+    public long getAverageRenderTime(String fname) {
+        final AtomicLong averageRenderTime = this.averageRenderTimes.get(fname);
+        if (averageRenderTime == null) {
+            return -1;
+        }
+        
+        return averageRenderTime.get();
+    }
 
     @Autowired
     public void setPortletWorkerFactory(IPortletWorkerFactory portletWorkerFactory) {
@@ -288,6 +386,16 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
 
     @Override
     public void preSubmit(HttpServletRequest request, HttpServletResponse response, IPortletExecutionContext context) {
+        if (!this.bulkheadEnabled || context.getExecutionType() == IPortletExecutionContext.ExecutionType.FAILURE) {
+            return;
+        }
+        
+        //Fail fast, the failed execution is rendered by the error portlet
+        final String fname = context.getPortletFname();
+        if (!this.portletBulkhead.tryAcquire(fname)) {
+            throw new PortletBulkheadSaturatedException(fname, this.portletBulkhead.getLimit(fname));
+        }
+        context.setExecutionAttribute(BULKHEAD_PERMIT_ATTRIBUTE, Boolean.TRUE);
     }
 
     @Override
@@ -296,6 +404,15 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
 
     @Override
     public void postExecution(HttpServletRequest request, HttpServletResponse response, IPortletExecutionContext context, Exception e) {
+        if (context.setExecutionAttribute(BULKHEAD_PERMIT_ATTRIBUTE, null) != null) {
+            this.portletBulkhead.release(context.getPortletFname(), context.getDuration(), context.getApplicableTimeout());
+        }
+        
+        //Failed, rejected and timed out renders end early, their duration would drag the average down
+        if (e == null && context.getExecutionType() == IPortletExecutionContext.ExecutionType.RENDER) {
+            this.recordRenderTime(context.getPortletFname(), context.getDuration());
+        }
+        
         final IPortletWindowId portletWindowId = context.getPortletWindowId();
         final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(request, portletWindowId);
         final IPortletEntity portletEntity = portletWindow.getPortletEntity();
@@ -305,6 +422,23 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         final AtomicInteger counter = this.executionCount.get(portletDescriptorKey);
         counter.incrementAndGet();
     }
+    
+    /**
+     * Update the moving average render time for the fname, only called for renders that completed successfully
+     */
+    protected void recordRenderTime(String fname, long duration) {
+        AtomicLong averageRenderTime = this.averageRenderTimes.get(fname);
+        if (averageRenderTime == null) {
+            averageRenderTime = ConcurrentMapUtils.putIfAbsent(this.averageRenderTimes, fname, new AtomicLong(-1));
+        }
+        
+        long current;
+        long updated;
+        do {
+            current = averageRenderTime.get();
+            updated = current < 0 ? duration : current + (duration - current) / RENDER_TIME_WEIGHT;
+        } while (!averageRenderTime.compareAndSet(current, updated));
+    }
 
     /* (non-Javadoc)
      * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#doPortletAction(org.jasig.portal.portlet.om.IPortletEntityId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
@@ -610,7 +744,43 @@ public class PortletExecutionManager extends HandlerInterceptorAdapter
         
         return tracker != null;
     }
-    
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#isPortletOutputAvailable(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public boolean isPortletOutputAvailable(IPortletWindowId portletWindowId, HttpServletRequest request, HttpServletResponse response) {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap = this.getPortletRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+        if (tracker == null) {
+            return false;
+        }
+
+        if (tracker.getCompleteTime() > 0) {
+            return true;
+        }
+
+        //Once the timeout has passed getPortletOutput will fall back to the failure worker
+        final long startedTime = tracker.getStartedTime();
+        final long waitStart = startedTime > 0 ? startedTime : tracker.getSubmittedTime();
+        return System.currentTimeMillis() - waitStart >= tracker.getApplicableTimeout();
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#addPortletRenderCompletionCallback(org.jasig.portal.portlet.om.IPortletWindowId, java.lang.Runnable, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    @Override
+    public boolean addPortletRenderCompletionCallback(IPortletWindowId portletWindowId, Runnable callback, HttpServletRequest request, HttpServletResponse response) {
+        final Map<IPortletWindowId, IPortletRenderExecutionWorker> portletRenderingMap = this.getPortletRenderingMap(request);
+        final IPortletRenderExecutionWorker tracker = portletRenderingMap.get(portletWindowId);
+        if (tracker == null) {
+            return false;
+        }
+        
+        tracker.addCompletionCallback(callback);
+        return true;
+    }
+
     /* (non-Javadoc)
 	 * @see org.jasig.portal.portlet.rendering.IPortletExecutionManager#getPortletHeadOutput(org.jasig.portal.portlet.om.IPortletWindowId, javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
 	 */
@@ -63,9 +63,69 @@ public interface PortletExecutionManagerMXBean {
      */
     long getExtendedTimeoutMultiplier();
     
+    /**
+     * @param bulkheadEnabled If true the number of concurrent executions of each portlet is limited
+     */
+    void setBulkheadEnabled(boolean bulkheadEnabled);
+    
+    /**
+     * @return If true the number of concurrent executions of each portlet is limited
+     */
+    boolean isBulkheadEnabled();
+    
+    /**
+     * @param maxConcurrentExecutions Upper bound and initial value of each portlet's concurrent execution limit
+     */
+    void setBulkheadMaxConcurrentExecutions(int maxConcurrentExecutions);
+    
+    /**
+     * @return Upper bound and initial value of each portlet's concurrent execution limit
+     */
+    int getBulkheadMaxConcurrentExecutions();
+    
+    /**
+     * @param minConcurrentExecutions Lower bound of each portlet's concurrent execution limit
+     */
+    void setBulkheadMinConcurrentExecutions(int minConcurrentExecutions);
+    
+    /**
+     * @return Lower bound of each portlet's concurrent execution limit
+     */
+    int getBulkheadMinConcurrentExecutions();
+    
+    /**
+     * @param slowExecutionRatio Fraction of the timeout after which an execution lowers the portlet's limit
+     */
+    void setBulkheadSlowExecutionRatio(double slowExecutionRatio);
+    
+    /**
+     * @return Fraction of the timeout after which an execution lowers the portlet's limit
+     */
+    double getBulkheadSlowExecutionRatio();
+    
+    /**
+     * @return Current concurrent execution limit for each portlet fname
+     */
+    Map<String, Integer> getBulkheadLimits();
+    
+    /**
+     * @return Number of executions in progress for each portlet fname
+     */
+    Map<String, Integer> getBulkheadActiveExecutions();
+    
+    /**
+     * @return Number of executions rejected by the bulkhead for each portlet fname
+     */
+    Map<String, Long> getBulkheadRejections();
+    
     /**
      * @return Number of times each portlet has been executed
      */
     Map<String, Integer> getPortletExecutionCounts();
     
+    /**
+     * @return Moving average render time in ms for each portlet fname
+     */
+    Map<String, Long> getAverageRenderTimes();
+    
 }
\ No newline at end of file
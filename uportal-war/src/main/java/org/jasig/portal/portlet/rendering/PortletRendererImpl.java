@@ -364,8 +364,23 @@ public class PortletRendererImpl implements IPortletRenderer {
             HttpServletResponse httpServletResponse, PortletOutputHandler portletOutputHandler, RenderPart renderPart)
             throws IOException {
         
-        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = renderPart
-                .getCacheState(this.portletCacheControlService, httpServletRequest, portletWindowId);
+        //The cache state may register this request as populating the cache, get it inside the try so it is always ended
+        CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = null;
+        try {
+            cacheState = renderPart.getCacheState(this.portletCacheControlService, httpServletRequest, portletWindowId);
+            return doRender(portletWindowId, httpServletRequest, httpServletResponse, portletOutputHandler, renderPart, cacheState);
+        }
+        finally {
+            //Let any requests waiting on this one to populate the cache continue
+            if (cacheState != null) {
+                cacheState.endCachePopulation();
+            }
+        }
+    }
+    
+    protected PortletRenderResult doRender(IPortletWindowId portletWindowId, HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse, PortletOutputHandler portletOutputHandler, RenderPart renderPart,
+            CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState) throws IOException {
 
         final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(httpServletRequest, portletWindowId);
 
@@ -405,13 +420,16 @@ public class PortletRendererImpl implements IPortletRenderer {
             this.portletContainer.doRender(portletWindow.getPlutoPortletWindow(), httpServletRequest, httpServletResponse);     
         }
         catch (PortletException pe) {
-            throw new PortletDispatchException("The portlet window '" + portletWindow + "' threw an exception while executing renderMarkup.", portletWindow, pe);
+            return doRenderStaleCachedContent(new PortletDispatchException("The portlet window '" + portletWindow + "' threw an exception while executing renderMarkup.", portletWindow, pe),
+                    portletWindow, httpServletRequest, cacheState, portletOutputHandler, renderPart);
         }
         catch (PortletContainerException pce) {
-            throw new PortletDispatchException("The portlet container threw an exception while executing renderMarkup on portlet window '" + portletWindow + "'.", portletWindow, pce);
+            return doRenderStaleCachedContent(new PortletDispatchException("The portlet container threw an exception while executing renderMarkup on portlet window '" + portletWindow + "'.", portletWindow, pce),
+                    portletWindow, httpServletRequest, cacheState, portletOutputHandler, renderPart);
         }
         catch (IOException ioe) {
-            throw new PortletDispatchException("The portlet window '" + portletWindow + "' threw an exception while executing renderMarkup.", portletWindow, ioe);
+            return doRenderStaleCachedContent(new PortletDispatchException("The portlet window '" + portletWindow + "' threw an exception while executing renderMarkup.", portletWindow, ioe),
+                    portletWindow, httpServletRequest, cacheState, portletOutputHandler, renderPart);
         }
         
         final long executionTime = System.nanoTime() - renderStartTime;
@@ -462,6 +480,25 @@ public class PortletRendererImpl implements IPortletRenderer {
         return portletRenderResult;
     }
     
+    /**
+     * Replay expired cached content if the cache state allows it to be used when the portlet fails to render,
+     * otherwise throw the render failure.
+     */
+    protected PortletRenderResult doRenderStaleCachedContent(PortletDispatchException renderFailure, IPortletWindow portletWindow,
+            HttpServletRequest httpServletRequest, CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState,
+            PortletOutputHandler portletOutputHandler, RenderPart renderPart) throws IOException {
+        
+        if (!cacheState.isUseStaleDataOnError() || cacheState.getCachedPortletData() == null || portletOutputHandler.isCommitted()) {
+            throw renderFailure;
+        }
+        
+        logger.warn("Portlet window " + portletWindow + " failed to render " + renderPart + ", replaying expired cached content", renderFailure);
+        
+        //Discard any partial output from the failed render
+        portletOutputHandler.reset();
+        return doRenderReplayCachedContent(portletWindow, httpServletRequest, cacheState, portletOutputHandler, renderPart, 0);
+    }
+    
     /**
      * Replay the cached content inside the {@link CachedPortletData} as the response to a doRender.
      */
@@ -533,8 +570,23 @@ public class PortletRendererImpl implements IPortletRenderer {
     public long doServeResource(IPortletWindowId portletWindowId, HttpServletRequest httpServletRequest,
             HttpServletResponse httpServletResponse, PortletResourceOutputHandler portletOutputHandler) throws IOException {
         
-        final CacheState<CachedPortletResourceData<Long>, Long> cacheState = this.portletCacheControlService
-                .getPortletResourceState(httpServletRequest, portletWindowId);
+        //The cache state may register this request as populating the cache, get it inside the try so it is always ended
+        CacheState<CachedPortletResourceData<Long>, Long> cacheState = null;
+        try {
+            cacheState = this.portletCacheControlService.getPortletResourceState(httpServletRequest, portletWindowId);
+            return doServeResource(portletWindowId, httpServletRequest, httpServletResponse, portletOutputHandler, cacheState);
+        }
+        finally {
+            //Let any requests waiting on this one to populate the cache continue
+            if (cacheState != null) {
+                cacheState.endCachePopulation();
+            }
+        }
+    }
+    
+    protected long doServeResource(IPortletWindowId portletWindowId, HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse, PortletResourceOutputHandler portletOutputHandler,
+            CacheState<CachedPortletResourceData<Long>, Long> cacheState) throws IOException {
 
         final IPortletWindow portletWindow = this.portletWindowRegistry.getPortletWindow(httpServletRequest, portletWindowId);
 
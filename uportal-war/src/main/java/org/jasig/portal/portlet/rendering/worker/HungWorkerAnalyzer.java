@@ -32,6 +32,7 @@ import org.jasig.portal.events.PortalEvent;
 import org.jasig.portal.events.PortletHungCompleteEvent;
 import org.jasig.portal.events.PortletHungEvent;
 import org.jasig.portal.utils.ConcurrentMapUtils;
+import org.jasig.portal.utils.threading.ConcurrencyLimitedExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
@@ -73,7 +74,7 @@ public class HungWorkerAnalyzer implements ApplicationListener<PortalEvent>, Ini
     @Deprecated
     private Integer numberPermittedErrantByFname;
     
-    private ThreadPoolExecutor portletThreadPool;
+    private ExecutorService portletThreadPool;
     
     private double percentPermittedErrantByFname = .1;
     
@@ -99,8 +100,11 @@ public class HungWorkerAnalyzer implements ApplicationListener<PortalEvent>, Ini
 
     @Autowired
     public void setPortletThreadPool(@Qualifier("portletThreadPool") ExecutorService portletThreadPool) {
-        //Note this is injected as a ExecutorService then cast due to the original object being created by a FactoryBean that declares itself as an ExecutorService
-        this.portletThreadPool = (ThreadPoolExecutor)portletThreadPool;
+        //Note this is injected as a ExecutorService due to the original object being created by a FactoryBean that declares itself as an ExecutorService
+        if (!(portletThreadPool instanceof ThreadPoolExecutor) && !(portletThreadPool instanceof ConcurrencyLimitedExecutorService)) {
+            throw new IllegalArgumentException("portletThreadPool must be a ThreadPoolExecutor or ConcurrencyLimitedExecutorService: " + portletThreadPool);
+        }
+        this.portletThreadPool = portletThreadPool;
     }
     
     @Override
@@ -120,7 +124,7 @@ public class HungWorkerAnalyzer implements ApplicationListener<PortalEvent>, Ini
                 this.percentPermittedErrantByFname = 0;
             }
             else if (numberPermittedErrantByFname > 0) {
-                this.percentPermittedErrantByFname = ((double)numberPermittedErrantByFname) / this.portletThreadPool.getMaximumPoolSize();
+                this.percentPermittedErrantByFname = ((double)numberPermittedErrantByFname) / this.getMaximumPoolSize();
             }
         }
     }
@@ -160,9 +164,29 @@ public class HungWorkerAnalyzer implements ApplicationListener<PortalEvent>, Ini
         this.hungPortletCountTotal.decrementAndGet();
     }
 
+    /**
+     * @return The maximum number of portlet workers that can execute concurrently
+     */
+    private int getMaximumPoolSize() {
+        if (this.portletThreadPool instanceof ConcurrencyLimitedExecutorService) {
+            return ((ConcurrencyLimitedExecutorService) this.portletThreadPool).getMaximumConcurrency();
+        }
+        return ((ThreadPoolExecutor) this.portletThreadPool).getMaximumPoolSize();
+    }
+    
+    /**
+     * @return The number of portlet workers currently executing
+     */
+    private int getActiveCount() {
+        if (this.portletThreadPool instanceof ConcurrencyLimitedExecutorService) {
+            return ((ConcurrencyLimitedExecutorService) this.portletThreadPool).getActiveCount();
+        }
+        return ((ThreadPoolExecutor) this.portletThreadPool).getActiveCount();
+    }
+
     private void logState(final String portletFname, final int hungWorkerCount) {
-        final int maximumPoolSize = this.portletThreadPool.getMaximumPoolSize();
-        final int availableWorkers = maximumPoolSize - this.portletThreadPool.getActiveCount();
+        final int maximumPoolSize = this.getMaximumPoolSize();
+        final int availableWorkers = maximumPoolSize - this.getActiveCount();
         final double hungWorkerLimit = this.percentPermittedErrantByFname * availableWorkers;
         
         final String msg = "Portlet '{}' has {} hung workers out of {} total and {} available workers with a limit of {} hung workers.";
@@ -198,8 +222,8 @@ public class HungWorkerAnalyzer implements ApplicationListener<PortalEvent>, Ini
             return;
         }
         
-        final int maximumPoolSize = this.portletThreadPool.getMaximumPoolSize();
-        final int availableWorkers = maximumPoolSize - this.portletThreadPool.getActiveCount();
+        final int maximumPoolSize = this.getMaximumPoolSize();
+        final int availableWorkers = maximumPoolSize - this.getActiveCount();
         final double hungWorkerLimit = this.percentPermittedErrantByFname * availableWorkers;
         if (hungWorkers < Math.ceil(hungWorkerLimit)) {
             //Number of hung workers is less than the calculated hung worker limit
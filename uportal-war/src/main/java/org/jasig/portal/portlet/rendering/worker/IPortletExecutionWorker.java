@@ -64,4 +64,10 @@ public interface IPortletExecutionWorker<V> extends IPortletExecutionContext {
      * @return true If {@link #get(long)} has been called
      */
     public boolean isRetrieved();
+    
+    /**
+     * Register a callback that is run once the worker has completed. If the worker has already completed the
+     * callback is run immediately by the calling thread, otherwise it is run by the thread that executed the worker.
+     */
+    public void addCompletionCallback(Runnable callback);
 }
\ No newline at end of file
@@ -36,7 +36,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.util.concurrent.ExecutionList;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.jasig.portal.portlet.om.IPortletWindow;
 import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.portlet.rendering.IPortletRenderer;
@@ -52,6 +54,7 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
     
     private final Map<String, Object> executionAttributes = new ConcurrentHashMap<String, Object>();
     private final CountDownLatch startLatch = new CountDownLatch(1);
+    private final ExecutionList completionCallbacks = new ExecutionList();
     private final ExecutorService executorService;
     private final List<IPortletExecutionInterceptor> interceptors;
     final IPortletRenderer portletRenderer;
@@ -141,20 +144,23 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
         }
         catch (final Exception e) {
             //All is not well do the basic portlet execution lifecycle and then, return a Future that simply rethrows the exception
+            //The exception is passed through the lifecycle so post execution interceptors know the portlet never ran
             
-            final Callable<Future<V>> callable = new ExecutionLifecycleCallable<Future<V>>(new Callable<Future<V>>() {
+            final Callable<V> callable = new ExecutionLifecycleCallable<V>(new Callable<V>() {
                 @Override
-                public Future<V> call() throws Exception {
-                    return Futures.immediateFailedFuture(e);
+                public V call() throws Exception {
+                    throw e;
                 }
             });
             
             try {
-                this.future = callable.call();
+                callable.call();
             }
             catch (Exception e1) {
-                //We know this will never throw
+                //We know this will always rethrow e
             }
+            
+            this.future = Futures.immediateFailedFuture(e);
         }
     }
     
@@ -209,6 +215,9 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
         }
         
         workerThread = null;
+        
+        //notify anything waiting on the worker to complete
+        completionCallbacks.execute();
     }
     
     private void doPostExecution(Exception e) {
@@ -332,6 +341,11 @@ abstract class PortletExecutionWorker<V> implements IPortletExecutionWorker<V> {
         }
     }
     
+    @Override
+    public final void addCompletionCallback(Runnable callback) {
+        this.completionCallbacks.add(callback, MoreExecutors.sameThreadExecutor());
+    }
+
     @Override
     public final int getCancelCount() {
         return this.cancelCount.get();
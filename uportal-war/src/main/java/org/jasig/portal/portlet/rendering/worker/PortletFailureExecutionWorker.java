@@ -35,6 +35,9 @@ import org.jasig.portal.portlet.rendering.RenderPortletOutputHandler;
 import org.jasig.portal.portlets.error.PortletErrorController;
 import org.jasig.portal.utils.web.PortletHttpServletRequestWrapper;
 
+import com.google.common.util.concurrent.ExecutionList;
+import com.google.common.util.concurrent.MoreExecutors;
+
 /**
  * Worker used to execute render requests on the error portlet. Does not use
  * any thread-pool code to make sure the error portlet still renders in the event
@@ -50,6 +53,7 @@ final class PortletFailureExecutionWorker implements IPortletFailureExecutionWor
     protected final Log logger = LogFactory.getLog(this.getClass());
     
     private final Map<String, Object> executionAttributes = new ConcurrentHashMap<String, Object>();
+    private final ExecutionList completionCallbacks = new ExecutionList();
     
     private final IPortletRenderer portletRenderer;
     private final List<IPortletExecutionInterceptor> interceptors;
@@ -149,6 +153,14 @@ final class PortletFailureExecutionWorker implements IPortletFailureExecutionWor
     public int getCancelCount() {
         return 0;
     }
+    
+    /* (non-Javadoc)
+     * @see org.jasig.portal.portlet.rendering.worker.IPortletExecutionWorker#addCompletionCallback(java.lang.Runnable)
+     */
+    @Override
+    public void addCompletionCallback(Runnable callback) {
+        this.completionCallbacks.add(callback, MoreExecutors.sameThreadExecutor());
+    }
 
     protected synchronized void renderError(long timeout) {
         //Make sure the error rendering only happens once
@@ -182,6 +194,7 @@ final class PortletFailureExecutionWorker implements IPortletFailureExecutionWor
         }
         
         this.completed = System.currentTimeMillis();
+        this.completionCallbacks.execute();
     }
 
     @Override
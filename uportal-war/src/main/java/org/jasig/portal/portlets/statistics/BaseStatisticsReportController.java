@@ -19,7 +19,9 @@
 package org.jasig.portal.portlets.statistics;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +43,7 @@ import com.google.visualization.datasource.datatable.TableCell;
 import com.google.visualization.datasource.datatable.TableRow;
 import com.google.visualization.datasource.datatable.value.DateTimeValue;
 import com.google.visualization.datasource.datatable.value.DateValue;
+import com.google.visualization.datasource.datatable.value.NumberValue;
 import com.google.visualization.datasource.datatable.value.TimeOfDayValue;
 import com.google.visualization.datasource.datatable.value.Value;
 import com.google.visualization.datasource.datatable.value.ValueType;
@@ -108,6 +111,17 @@ public abstract class BaseStatisticsReportController<
     @org.springframework.beans.factory.annotation.Value("${org.jasig.portal.portlets.statistics.maxIntervals}")
     private int maxIntervals = 4000;
     
+    private Set<AggregationInterval> estimatedUniqueIntervals = EnumSet.noneOf(AggregationInterval.class);
+    
+    /**
+     * Comma separated list of {@link AggregationInterval}s whose unique counts are estimated by the aggregators,
+     * reports for these intervals include the error bounds of the estimates
+     */
+    @org.springframework.beans.factory.annotation.Value("${org.jasig.portal.events.aggr.BaseIntervalAwarePortalEventAggregator.estimatedUniqueIntervals:}")
+    public void setEstimatedUniqueIntervals(String estimatedUniqueIntervals) {
+        this.estimatedUniqueIntervals = AggregationInterval.parseIntervals(estimatedUniqueIntervals);
+    }
+    
     @InitBinder
     public void initBinder(WebDataBinder binder) {
         final DateTimeFormatter formatter = new DateTimeFormatterBuilder().appendPattern("M/d/yyyy").toFormatter();
@@ -321,6 +335,50 @@ public abstract class BaseStatisticsReportController<
      */
     protected abstract List<Value> createRowValues(T aggr, F form);
     
+    /**
+     * @return true if unique counts for the interval of the report are estimated
+     */
+    protected final boolean isUniqueCountEstimated(F form) {
+        return this.estimatedUniqueIntervals.contains(form.getInterval());
+    }
+    
+    /**
+     * Columns for the lower and upper bound of an estimated value, charts draw them as an error bar on the
+     * preceding column. Values are created by {@link #createErrorBoundValues(BaseReportForm, int, double)}
+     * 
+     * @return The bound columns, empty if unique counts are not estimated for the interval of the report
+     */
+    protected final List<ColumnDescription> createErrorBoundColumnDescriptions(F form, String id, String label) {
+        if (!this.isUniqueCountEstimated(form)) {
+            return Collections.emptyList();
+        }
+        
+        final ColumnDescription lowerBound = new ColumnDescription(id + "-lowerBound", ValueType.NUMBER, label + " - Lower Bound");
+        lowerBound.setCustomProperty("role", "interval");
+        final ColumnDescription upperBound = new ColumnDescription(id + "-upperBound", ValueType.NUMBER, label + " - Upper Bound");
+        upperBound.setCustomProperty("role", "interval");
+        return ImmutableList.of(lowerBound, upperBound);
+    }
+    
+    /**
+     * Bounds two standard errors either side of an estimated value, about 95% of estimates are within them
+     * 
+     * @param form The form submitted by the user
+     * @param estimate The estimated value
+     * @param relativeError Relative standard error of the estimate, 0 if it is exact
+     * @return The bound values, empty if unique counts are not estimated for the interval of the report
+     */
+    protected final List<Value> createErrorBoundValues(F form, int estimate, double relativeError) {
+        if (!this.isUniqueCountEstimated(form)) {
+            return Collections.emptyList();
+        }
+        
+        final double error = estimate * relativeError * 2;
+        return ImmutableList.<Value>of(
+                new NumberValue(Math.max(0, Math.floor(estimate - error))),
+                new NumberValue(Math.ceil(estimate + error)));
+    }
+    
     /**
      * @param form The form submitted by the user
      * @return The model and view to render
@@ -18,7 +18,6 @@
  */
 package org.jasig.portal.portlets.statistics;
 
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
@@ -43,6 +42,7 @@ import org.springframework.web.portlet.ModelAndView;
 import org.springframework.web.portlet.bind.annotation.RenderMapping;
 import org.springframework.web.portlet.bind.annotation.ResourceMapping;
 
+import com.google.common.collect.ImmutableList;
 import com.google.visualization.datasource.base.TypeMismatchException;
 import com.google.visualization.datasource.datatable.ColumnDescription;
 import com.google.visualization.datasource.datatable.value.NumberValue;
@@ -127,20 +127,31 @@ public class ConcurrentUsersStatisticsController
     @Override
     protected List<ColumnDescription> getColumnDescriptions(ConcurrentUserAggregationDiscriminator discriminator, ConcurrentUserReportForm form) {
         final String groupName = discriminator.getAggregatedGroup().getGroupName();
-        return Collections.singletonList(new ColumnDescription(groupName, ValueType.NUMBER, groupName));
+        
+        //Concurrent users are followed by their error bounds when they are estimated
+        return ImmutableList.<ColumnDescription>builder()
+                .add(new ColumnDescription(groupName, ValueType.NUMBER, groupName))
+                .addAll(createErrorBoundColumnDescriptions(form, groupName, groupName))
+                .build();
     }
 
     @Override
     protected List<Value> createRowValues(ConcurrentUserAggregation aggr, ConcurrentUserReportForm form) {
         final int concurrentUsers;
+        final double concurrentUsersError;
         if (aggr == null) {
             concurrentUsers = 0;
+            concurrentUsersError = 0;
         }
         else {
             concurrentUsers = aggr.getConcurrentUsers();
+            concurrentUsersError = aggr.getConcurrentUsersError();
         }
         
-        return Collections.<Value>singletonList(new NumberValue(concurrentUsers));
+        return ImmutableList.<Value>builder()
+                .add(new NumberValue(concurrentUsers))
+                .addAll(createErrorBoundValues(form, concurrentUsers, concurrentUsersError))
+                .build();
     }
 
     @Override
@@ -131,15 +131,20 @@ public class LoginTotalsStatisticsController
     protected List<ColumnDescription> getColumnDescriptions(LoginAggregationDiscriminator columnDiscriminator, LoginReportForm form) {
         final String groupName = columnDiscriminator.getAggregatedGroup().getGroupName();
         
+        //Unique logins are followed by their error bounds when they are estimated
         if (form.isTotalLogins() && form.isUniqueLogins()) {
-            return ImmutableList.of(
+            return ImmutableList.<ColumnDescription>builder()
                     //THE ORDER OF RETURNED COLUMNS HERE MUST MATCH THE ORDER OF THE VALUES RETURNED IN createRowValues
-                    new ColumnDescription(groupName + "-uniqueLogins", ValueType.NUMBER, groupName + " - Unique Logins"),
-                    new ColumnDescription(groupName + "-totalLogins", ValueType.NUMBER, groupName + " - Total Logins")
-                );
+                    .add(new ColumnDescription(groupName + "-uniqueLogins", ValueType.NUMBER, groupName + " - Unique Logins"))
+                    .addAll(createErrorBoundColumnDescriptions(form, groupName + "-uniqueLogins", groupName + " - Unique Logins"))
+                    .add(new ColumnDescription(groupName + "-totalLogins", ValueType.NUMBER, groupName + " - Total Logins"))
+                    .build();
         }
         else if (form.isUniqueLogins()) {
-            return Collections.singletonList(new ColumnDescription(groupName + "-uniqueLogins", ValueType.NUMBER, groupName + " - Unique Logins"));
+            return ImmutableList.<ColumnDescription>builder()
+                    .add(new ColumnDescription(groupName + "-uniqueLogins", ValueType.NUMBER, groupName + " - Unique Logins"))
+                    .addAll(createErrorBoundColumnDescriptions(form, groupName + "-uniqueLogins", groupName + " - Unique Logins"))
+                    .build();
         }
         else {
             return Collections.singletonList(new ColumnDescription(groupName + "-totalLogins", ValueType.NUMBER, groupName + " - Total Logins"));
@@ -150,24 +155,31 @@ public class LoginTotalsStatisticsController
     protected List<Value> createRowValues(LoginAggregation aggr, LoginReportForm form) {
         final int loginCount;
         final int uniqueLoginCount;
+        final double uniqueLoginCountError;
         if (aggr == null) {
             loginCount = 0;
             uniqueLoginCount = 0;
+            uniqueLoginCountError = 0;
         }
         else {
             loginCount = aggr.getLoginCount();
             uniqueLoginCount = aggr.getUniqueLoginCount();
+            uniqueLoginCountError = aggr.getUniqueLoginCountError();
         }
         
         if (form.isTotalLogins() && form.isUniqueLogins()) {
-            return ImmutableList.<Value>of(
+            return ImmutableList.<Value>builder()
                     //THE ORDER OF RETURNED VALUES HERE MUST MATCH THE ORDER OF THE COLUMNS RETURNED IN getColumnDescriptions
-                    new NumberValue(uniqueLoginCount),
-                    new NumberValue(loginCount)
-                );
+                    .add(new NumberValue(uniqueLoginCount))
+                    .addAll(createErrorBoundValues(form, uniqueLoginCount, uniqueLoginCountError))
+                    .add(new NumberValue(loginCount))
+                    .build();
         }
         else if (form.isUniqueLogins()) {
-            return Collections.<Value>singletonList(new NumberValue(uniqueLoginCount));
+            return ImmutableList.<Value>builder()
+                    .add(new NumberValue(uniqueLoginCount))
+                    .addAll(createErrorBoundValues(form, uniqueLoginCount, uniqueLoginCountError))
+                    .build();
         }
         else {
             return Collections.<Value>singletonList(new NumberValue(loginCount));
@@ -26,6 +26,7 @@ public class PortletExecutionReportForm extends BaseReportForm {
 
     private Set<String> portlets = new HashSet<String>();
     private Set<String> executionTypeNames = new HashSet<String>();
+    private int percentile = 0;
 
     public final Set<String> getPortlets() {
         return portlets;
@@ -43,4 +44,15 @@ public class PortletExecutionReportForm extends BaseReportForm {
         this.executionTypeNames = executionTypeNames;
     }
 
+    /**
+     * @return The execution time percentile to report, 0 to report the number of executions
+     */
+    public int getPercentile() {
+        return percentile;
+    }
+
+    public void setPercentile(int percentile) {
+        this.percentile = percentile;
+    }
+
 }
@@ -285,6 +285,13 @@ public class PortletExecutionStatisticsController
 
     @Override
     protected List<Value> createRowValues(PortletExecutionAggregation aggr, PortletExecutionReportForm form) {
+        final int percentile = form.getPercentile();
+        if (percentile > 0) {
+            //Times are recorded in nanoseconds, report them in milliseconds
+            final double time = aggr != null ? aggr.getPercentile(percentile) : Double.NaN;
+            return Collections.<Value>singletonList(Double.isNaN(time) ? NumberValue.getNullValue() : new NumberValue(time / 1000000));
+        }
+        
         int count = aggr != null ? aggr.getExecutionCount() : 0;
         return Collections.<Value>singletonList(new NumberValue(count));
     }
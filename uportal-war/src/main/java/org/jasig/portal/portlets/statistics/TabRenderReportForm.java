@@ -25,6 +25,7 @@ import java.util.List;
 public class TabRenderReportForm extends BaseReportForm {
 
     private List<Long> tabs = new ArrayList<Long>();
+    private int percentile = 0;
 
     public final List<Long> getTabs() {
         return tabs;
@@ -33,4 +34,15 @@ public class TabRenderReportForm extends BaseReportForm {
     public final void setTabs(List<Long> tabs) {
         this.tabs = tabs;
     }
+
+    /**
+     * @return The execution time percentile to report, 0 to report the number of executions
+     */
+    public int getPercentile() {
+        return percentile;
+    }
+
+    public void setPercentile(int percentile) {
+        this.percentile = percentile;
+    }
 }
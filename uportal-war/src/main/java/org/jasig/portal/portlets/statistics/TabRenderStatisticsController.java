@@ -223,6 +223,13 @@ public class TabRenderStatisticsController extends
 
     @Override
     protected List<Value> createRowValues(TabRenderAggregation aggr, TabRenderReportForm form) {
+        final int percentile = form.getPercentile();
+        if (percentile > 0) {
+            //Times are recorded in nanoseconds, report them in milliseconds
+            final double time = aggr != null ? aggr.getPercentile(percentile) : Double.NaN;
+            return Collections.<Value>singletonList(Double.isNaN(time) ? NumberValue.getNullValue() : new NumberValue(time / 1000000));
+        }
+        
         int count = aggr != null ? aggr.getRenderCount() : 0;
         return Collections.<Value>singletonList(new NumberValue(count));
     }
@@ -210,12 +210,12 @@ public class AnalyticsIncorporationComponent extends CharacterPipelineComponentW
 
                     final String data = serializePortletRenderExecutionEvents(portalEvents);
                     
-                    return CharacterDataEventImpl.create(data);
+                    return CharacterDataEventImpl.createDynamic(data);
                 }
                 case PAGE_ANALYTICS_DATA: {
                     final String data = serializePageData(request, startTime);
                     
-                    return CharacterDataEventImpl.create(data);
+                    return CharacterDataEventImpl.createDynamic(data);
                 }
                 default: {
                     return event;
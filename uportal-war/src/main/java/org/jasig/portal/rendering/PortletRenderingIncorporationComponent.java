@@ -18,13 +18,22 @@
  */
 package org.jasig.portal.rendering;
 
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.lang.StringEscapeUtils;
 import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.CharacterEventReaderDelegate;
 import org.jasig.portal.character.stream.FilteringCharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
 import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
 import org.jasig.portal.character.stream.events.CharacterEvent;
 import org.jasig.portal.character.stream.events.PortletContentPlaceholderEvent;
@@ -36,21 +45,54 @@ import org.jasig.portal.portlet.om.IPortletWindowId;
 import org.jasig.portal.portlet.rendering.IPortletExecutionManager;
 import org.jasig.portal.utils.cache.CacheKey;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 /**
  * Inserts the results of portlet's rendering into the character stream
+ * <p>
+ * If {@link #setDeferIncompletePortlets(boolean)} is enabled portlets that have not finished rendering when their
+ * content or title placeholder is reached are replaced with an empty slot element and the stream continues.
+ * Placeholders inside of a tag, a comment, a &lt;script&gt; or &lt;style&gt; element or the page &lt;title&gt;
+ * cannot hold markup and are always rendered inline. The
+ * deferred portlet output is written just before &lt;/body&gt;, in the order the portlets complete, along with a
+ * small inline script that moves the output into its slot. Combined with the per-event flushing done by
+ * {@link DynamicRenderingPipeline} this lets the page shell and fast portlets reach the browser without waiting on
+ * the slowest portlet.
  * 
  * @author Eric Dalquist
  * @version $Revision$
  */
 public class PortletRenderingIncorporationComponent extends CharacterPipelineComponentWrapper {
+    private static final String DEFERRED_SLOT_ID_PREFIX = "up-deferred-";
+    
     private IPortletExecutionManager portletExecutionManager;
+    private boolean deferIncompletePortlets = false;
+    private long deferredTimeoutCheckInterval = 1000;
     
     @Autowired
     public void setPortletExecutionManager(IPortletExecutionManager portletExecutionManager) {
         this.portletExecutionManager = portletExecutionManager;
     }
 
+    /**
+     * @param deferIncompletePortlets If portlets that are still rendering when their placeholder is reached should be
+     *  written out of order at the end of the page instead of blocking the stream. Defaults to false.
+     */
+    @Value("${org.jasig.portal.rendering.PortletRenderingIncorporationComponent.deferIncompletePortlets:false}")
+    public void setDeferIncompletePortlets(boolean deferIncompletePortlets) {
+        this.deferIncompletePortlets = deferIncompletePortlets;
+    }
+
+    /**
+     * @param deferredTimeoutCheckInterval Longest time in ms to wait for a deferred portlet to complete before
+     *  checking if any deferred portlet has passed its render timeout. Completed portlets are written as soon as they
+     *  complete, this only bounds how late the failure output of a hung portlet is written. Defaults to 1000.
+     */
+    @Value("${org.jasig.portal.rendering.PortletRenderingIncorporationComponent.deferredTimeoutCheckInterval:1000}")
+    public void setDeferredTimeoutCheckInterval(long deferredTimeoutCheckInterval) {
+        this.deferredTimeoutCheckInterval = deferredTimeoutCheckInterval;
+    }
+
     /* (non-Javadoc)
      * @see org.jasig.portal.rendering.PipelineComponent#getCacheKey(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -73,43 +115,343 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
         final CharacterEventReader eventReader = pipelineEventReader.getEventReader();
         final PortletIncorporatingEventReader portletIncorporatingEventReader = new PortletIncorporatingEventReader(eventReader, request, response);
         
+        final CharacterEventReader incorporatedEventReader;
+        if (this.deferIncompletePortlets) {
+            incorporatedEventReader = new DeferredPortletIncorporatingEventReader(portletIncorporatingEventReader);
+        }
+        else {
+            incorporatedEventReader = portletIncorporatingEventReader;
+        }
+        
         final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
-        return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(portletIncorporatingEventReader, outputProperties);
+        return new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(incorporatedEventReader, outputProperties);
+    }
+    
+    /**
+     * Tracks a portlet whose output was replaced by a slot element
+     */
+    private static final class DeferredPortlet {
+        private final IPortletWindowId portletWindowId;
+        private final String slotId;
+        private final boolean title;
+        
+        public DeferredPortlet(IPortletWindowId portletWindowId, String slotId, boolean title) {
+            this.portletWindowId = portletWindowId;
+            this.slotId = slotId;
+            this.title = title;
+        }
     }
 
+    /**
+     * Follows the markup written by the character data events closely enough to know if a placeholder is inside of
+     * a tag, a comment or the &lt;title&gt;, &lt;script&gt; or &lt;style&gt; elements, where a slot element cannot be
+     * written, and where &lt;/body&gt; starts.
+     */
+    private static final class MarkupContext {
+        private final StringBuilder tagName = new StringBuilder();
+        private boolean inTag = false;
+        private boolean readingTagName = false;
+        private char quote = 0;
+        private boolean inTitle = false;
+        private boolean inComment = false;
+        private int commentDashes = 0;
+        private String rawTextTag = null;
+        private String rawTextEnd = null;
+        private int rawTextEndMatched = 0;
+        private int tagStart = -1;
+        
+        /**
+         * @return true if a slot element can be written at the current position
+         */
+        public boolean isSlotAllowed() {
+            return !this.inTag && !this.inTitle && !this.inComment && this.rawTextEnd == null;
+        }
+        
+        /**
+         * Update the context with the next block of character data.
+         *
+         * @return The index of the &lt;/body&gt; tag in the data, -1 if the data does not start a &lt;/body&gt; tag
+         */
+        public int update(String data) {
+            int bodyClose = -1;
+            this.tagStart = -1;
+            
+            for (int i = 0; i < data.length(); i++) {
+                final char c = data.charAt(i);
+                
+                if (this.inComment) {
+                    if (c == '>' && this.commentDashes >= 2) {
+                        this.inComment = false;
+                    }
+                    this.commentDashes = c == '-' ? this.commentDashes + 1 : 0;
+                    continue;
+                }
+                
+                //Script and style text is not markup, only the matching end tag closes the element
+                if (this.rawTextEnd != null) {
+                    if (Character.toLowerCase(c) == this.rawTextEnd.charAt(this.rawTextEndMatched)) {
+                        this.rawTextEndMatched++;
+                    }
+                    else {
+                        this.rawTextEndMatched = c == '<' ? 1 : 0;
+                    }
+                    
+                    if (this.rawTextEndMatched == this.rawTextEnd.length()) {
+                        this.inTag = true;
+                        this.readingTagName = true;
+                        this.tagName.setLength(0);
+                        this.tagName.append(this.rawTextEnd, 1, this.rawTextEnd.length());
+                        this.rawTextEnd = null;
+                        this.rawTextEndMatched = 0;
+                    }
+                    continue;
+                }
+                
+                if (!this.inTag) {
+                    if (c == '<') {
+                        this.inTag = true;
+                        this.readingTagName = true;
+                        this.tagName.setLength(0);
+                        this.tagStart = i;
+                    }
+                    continue;
+                }
+                
+                if (this.quote != 0) {
+                    if (c == this.quote) {
+                        this.quote = 0;
+                    }
+                    continue;
+                }
+                
+                if (this.readingTagName) {
+                    if (Character.isLetterOrDigit(c) || ((c == '/' || c == '!') && this.tagName.length() == 0)) {
+                        this.tagName.append(c);
+                        continue;
+                    }
+                    if (c == '-' && this.tagName.length() < 3 && this.tagName.length() > 0 && this.tagName.charAt(0) == '!') {
+                        this.tagName.append(c);
+                        if (this.tagName.length() == 3) {
+                            this.inTag = false;
+                            this.readingTagName = false;
+                            this.inComment = true;
+                            this.commentDashes = 0;
+                        }
+                        continue;
+                    }
+                    
+                    this.readingTagName = false;
+                    if (this.tagNameRead() && this.tagStart >= 0) {
+                        bodyClose = this.tagStart;
+                    }
+                }
+                
+                if (c == '"' || c == '\'') {
+                    this.quote = c;
+                }
+                else if (c == '>') {
+                    this.inTag = false;
+                    if (this.rawTextTag != null) {
+                        this.rawTextEnd = "</" + this.rawTextTag;
+                        this.rawTextTag = null;
+                    }
+                }
+            }
+            
+            return bodyClose;
+        }
+        
+        /**
+         * Track the title, script and style elements once a complete tag name has been read
+         *
+         * @return true if the tag was &lt;/body&gt;
+         */
+        private boolean tagNameRead() {
+            final String name = this.tagName.toString();
+            if ("title".equalsIgnoreCase(name)) {
+                this.inTitle = true;
+            }
+            else if ("/title".equalsIgnoreCase(name)) {
+                this.inTitle = false;
+            }
+            else if ("script".equalsIgnoreCase(name) || "style".equalsIgnoreCase(name)) {
+                this.rawTextTag = name.toLowerCase();
+            }
+            
+            return "/body".equalsIgnoreCase(name);
+        }
+    }
+    
     private class PortletIncorporatingEventReader extends FilteringCharacterEventReader {
+        private final LinkedList<DeferredPortlet> deferredPortlets = new LinkedList<DeferredPortlet>();
+        private final BlockingQueue<DeferredPortlet> completedPortlets = new LinkedBlockingQueue<DeferredPortlet>();
+        private final MarkupContext markupContext = new MarkupContext();
         private final HttpServletRequest request;
         private final HttpServletResponse response;
+        private CharacterEvent bodyCloseEvent;
+        private int bodyCloseIndex = -1;
+        private int slotCount = 0;
         
         public PortletIncorporatingEventReader(CharacterEventReader delegate, HttpServletRequest request, HttpServletResponse response) {
             super(delegate);
             this.request = request;
             this.response = response;
         }
+        
+        /**
+         * @return true if the portlet output is not yet available and should be written to a slot
+         */
+        private boolean isDeferred(IPortletWindowId portletWindowId) {
+            //Portlets that were never started are rendered inline, there is nothing to wait on in the background
+            return deferIncompletePortlets
+                    && this.markupContext.isSlotAllowed()
+                    && portletExecutionManager.isPortletRenderRequested(portletWindowId, this.request, this.response)
+                    && !portletExecutionManager.isPortletOutputAvailable(portletWindowId, this.request, this.response);
+        }
+        
+        /**
+         * Track the deferred portlet and return the slot markup to write in place of its output
+         */
+        private CharacterEvent createSlot(IPortletWindowId portletWindowId, boolean title) {
+            //A peeked event is returned as-is by the following next() call so the slot is always tracked here
+            final String slotId = DEFERRED_SLOT_ID_PREFIX + this.slotCount++;
+            final DeferredPortlet deferredPortlet = new DeferredPortlet(portletWindowId, slotId, title);
+            this.deferredPortlets.add(deferredPortlet);
+            
+            portletExecutionManager.addPortletRenderCompletionCallback(portletWindowId, new Runnable() {
+                @Override
+                public void run() {
+                    completedPortlets.offer(deferredPortlet);
+                }
+            }, this.request, this.response);
+            
+            final String element = title ? "span" : "div";
+            return CharacterDataEventImpl.create("<" + element + " id=\"" + slotId + "\" class=\"up-deferred-portlet\"></" + element + ">");
+        }
+        
+        /**
+         * @return true if there are deferred portlets that have not been written yet
+         */
+        public boolean hasDeferredPortlets() {
+            return !this.deferredPortlets.isEmpty();
+        }
+        
+        /**
+         * @return The index the &lt;/body&gt; tag starts at if the event is the character data that contains it, -1 otherwise
+         */
+        public int getBodyCloseIndex(CharacterEvent event) {
+            return event == this.bodyCloseEvent ? this.bodyCloseIndex : -1;
+        }
+        
+        /**
+         * Removes the next deferred portlet that can be written, waiting for one to complete if needed, and returns
+         * the markup that fills its slot.
+         */
+        public CharacterEvent nextDeferredPortlet() {
+            try {
+                while (true) {
+                    final DeferredPortlet completedPortlet = this.completedPortlets.poll(deferredTimeoutCheckInterval, TimeUnit.MILLISECONDS);
+                    if (completedPortlet != null) {
+                        //A portlet that completed after timing out may have already been written
+                        if (this.deferredPortlets.remove(completedPortlet)) {
+                            return this.fillSlot(completedPortlet);
+                        }
+                        continue;
+                    }
+                    
+                    //Hung portlets never complete, write their failure output once they pass their timeout
+                    for (final Iterator<DeferredPortlet> deferredItr = this.deferredPortlets.iterator(); deferredItr.hasNext();) {
+                        final DeferredPortlet deferredPortlet = deferredItr.next();
+                        if (portletExecutionManager.isPortletOutputAvailable(deferredPortlet.portletWindowId, this.request, this.response)) {
+                            deferredItr.remove();
+                            return this.fillSlot(deferredPortlet);
+                        }
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                //Stop waiting and just block on the portlets in document order
+                Thread.currentThread().interrupt();
+                return this.fillSlot(this.deferredPortlets.removeFirst());
+            }
+        }
+        
+        private CharacterEvent fillSlot(DeferredPortlet deferredPortlet) {
+            final IPortletWindowId portletWindowId = deferredPortlet.portletWindowId;
+            final String slotId = deferredPortlet.slotId;
+            
+            final StringBuilder fill = new StringBuilder();
+            if (deferredPortlet.title) {
+                final String title = portletExecutionManager.getPortletTitle(portletWindowId, this.request, this.response);
+                fill.append("<script type=\"text/javascript\">(function(){")
+                    .append("var s=document.getElementById('").append(slotId).append("');")
+                    .append("if(s){s.innerHTML='").append(StringEscapeUtils.escapeJavaScript(title)).append("';}")
+                    .append("})();</script>");
+            }
+            else {
+                /*
+                 * The output is written into a hidden container and the nodes moved into the slot so that any
+                 * scripts in the portlet output are executed by the browser as it parses them.
+                 */
+                final String output = portletExecutionManager.getPortletOutput(portletWindowId, this.request, this.response);
+                final String contentId = slotId + "-content";
+                fill.append("<div id=\"").append(contentId).append("\" style=\"display:none\">")
+                    .append(output)
+                    .append("</div>")
+                    .append("<script type=\"text/javascript\">(function(){")
+                    .append("var s=document.getElementById('").append(slotId).append("'),")
+                    .append("c=document.getElementById('").append(contentId).append("');")
+                    .append("if(s&&c){while(c.firstChild){s.parentNode.insertBefore(c.firstChild,s);}")
+                    .append("s.parentNode.removeChild(s);c.parentNode.removeChild(c);}")
+                    .append("})();</script>");
+            }
+            
+            return CharacterDataEventImpl.createDynamic(fill.toString());
+        }
 
         @Override
         protected CharacterEvent filterEvent(CharacterEvent event, boolean peek) {
             switch (event.getEventType()) {
+                case CHARACTER: {
+                    //Only the page markup is tracked, portlet output is written as complete elements
+                    if (deferIncompletePortlets) {
+                        final int index = this.markupContext.update(((CharacterDataEvent) event).getData());
+                        if (index >= 0) {
+                            this.bodyCloseEvent = event;
+                            this.bodyCloseIndex = index;
+                        }
+                    }
+                    
+                    return event;
+                }
             	case PORTLET_HEADER: {
             		final PortletHeaderPlaceholderEvent headerPlaceholderEvent = (PortletHeaderPlaceholderEvent) event;
             		final IPortletWindowId portletWindowId = headerPlaceholderEvent.getPortletWindowId();
             		
             		final String output = portletExecutionManager.getPortletHeadOutput(portletWindowId, this.request, this.response);
             		
-            		return CharacterDataEventImpl.create(output);
+            		return CharacterDataEventImpl.createDynamic(output);
             	}
                 case PORTLET_CONTENT: {
                     final PortletContentPlaceholderEvent contentPlaceholderEvent = (PortletContentPlaceholderEvent)event;
                     final IPortletWindowId portletWindowId = contentPlaceholderEvent.getPortletWindowId();
                     
+                    if (this.isDeferred(portletWindowId)) {
+                        return this.createSlot(portletWindowId, false);
+                    }
+                    
                     final String output = portletExecutionManager.getPortletOutput(portletWindowId, this.request, this.response);
                     
-                    return CharacterDataEventImpl.create(output);
+                    return CharacterDataEventImpl.createDynamic(output);
                 }
                 case PORTLET_TITLE: {
                     final PortletTitlePlaceholderEvent titlePlaceholderEvent = (PortletTitlePlaceholderEvent)event;
                     final IPortletWindowId portletWindowId = titlePlaceholderEvent.getPortletWindowId();
                     
+                    if (this.isDeferred(portletWindowId)) {
+                        return this.createSlot(portletWindowId, true);
+                    }
+                    
                     final String title = portletExecutionManager.getPortletTitle(portletWindowId, this.request, this.response);
                     
                     return CharacterDataEventImpl.create(title);
@@ -118,6 +460,11 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                     final PortletNewItemCountPlaceholderEvent newItemCountPlaceholderEvent = (PortletNewItemCountPlaceholderEvent)event;
                     final IPortletWindowId portletWindowId = newItemCountPlaceholderEvent.getPortletWindowId();
                     
+                    if (this.isDeferred(portletWindowId)) {
+                        //Count may be used in attributes so a slot cannot be used
+                        return CharacterDataEventImpl.create("0");
+                    }
+                    
                     final int newItemCount = portletExecutionManager.getPortletNewItemCount(portletWindowId, this.request, this.response);
                     
                     return CharacterDataEventImpl.create(String.valueOf(newItemCount));
@@ -127,6 +474,11 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
                     final IPortletWindowId portletWindowId = linkPlaceholderEvent.getPortletWindowId();
                     final String defaultPortletUrl = linkPlaceholderEvent.getDefaultPortletUrl();
                     
+                    if (this.isDeferred(portletWindowId)) {
+                        //Link is written into an attribute so a slot cannot be used
+                        return CharacterDataEventImpl.create(defaultPortletUrl);
+                    }
+                    
                     final String link = portletExecutionManager.getPortletLink(portletWindowId, defaultPortletUrl, this.request, this.response);
                     
                     return CharacterDataEventImpl.create(link);
@@ -137,4 +489,79 @@ public class PortletRenderingIncorporationComponent extends CharacterPipelineCom
             }
         }
     }
+    
+    /**
+     * Writes the deferred portlet output before the &lt;/body&gt; tag, or at the end of the stream if the page has no
+     * &lt;/body&gt; tag
+     */
+    private static class DeferredPortletIncorporatingEventReader extends CharacterEventReaderDelegate {
+        private final PortletIncorporatingEventReader portletIncorporatingEventReader;
+        private CharacterEvent peekedEvent;
+        private CharacterEvent bodyCloseEvent;
+        
+        public DeferredPortletIncorporatingEventReader(PortletIncorporatingEventReader delegate) {
+            super(delegate);
+            this.portletIncorporatingEventReader = delegate;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.peekedEvent != null
+                    || this.bodyCloseEvent != null
+                    || super.hasNext()
+                    || this.portletIncorporatingEventReader.hasDeferredPortlets();
+        }
+
+        @Override
+        public CharacterEvent next() {
+            if (this.peekedEvent != null) {
+                final CharacterEvent event = this.peekedEvent;
+                this.peekedEvent = null;
+                return event;
+            }
+            
+            return this.readNext();
+        }
+        
+        @Override
+        public CharacterEvent peek() {
+            if (this.peekedEvent == null && this.hasNext()) {
+                this.peekedEvent = this.readNext();
+            }
+            
+            return this.peekedEvent;
+        }
+        
+        private CharacterEvent readNext() {
+            //Deferred portlets are written between the markup before </body> and the </body> tag
+            if (this.bodyCloseEvent != null) {
+                if (this.portletIncorporatingEventReader.hasDeferredPortlets()) {
+                    return this.portletIncorporatingEventReader.nextDeferredPortlet();
+                }
+                
+                final CharacterEvent event = this.bodyCloseEvent;
+                this.bodyCloseEvent = null;
+                return event;
+            }
+            
+            if (super.hasNext()) {
+                final CharacterEvent event = super.next();
+                
+                final int bodyCloseIndex = this.portletIncorporatingEventReader.getBodyCloseIndex(event);
+                if (bodyCloseIndex < 0 || !this.portletIncorporatingEventReader.hasDeferredPortlets()) {
+                    return event;
+                }
+                
+                final String data = ((CharacterDataEvent) event).getData();
+                this.bodyCloseEvent = CharacterDataEventImpl.create(data.substring(bodyCloseIndex));
+                return CharacterDataEventImpl.create(data.substring(0, bodyCloseIndex));
+            }
+            
+            if (this.portletIncorporatingEventReader.hasDeferredPortlets()) {
+                return this.portletIncorporatingEventReader.nextDeferredPortlet();
+            }
+            
+            throw new NoSuchElementException();
+        }
+    }
 }
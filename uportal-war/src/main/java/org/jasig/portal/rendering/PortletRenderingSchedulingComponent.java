@@ -0,0 +1,292 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.math.NumberUtils;
+import org.jasig.portal.IUserPreferencesManager;
+import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.layout.IStylesheetUserPreferencesService;
+import org.jasig.portal.layout.IStylesheetUserPreferencesService.PreferencesScope;
+import org.jasig.portal.layout.IUserLayout;
+import org.jasig.portal.layout.node.IUserLayoutChannelDescription;
+import org.jasig.portal.layout.node.IUserLayoutFolderDescription;
+import org.jasig.portal.layout.node.IUserLayoutNodeDescription;
+import org.jasig.portal.layout.node.IUserLayoutNodeDescription.LayoutNodeType;
+import org.jasig.portal.layout.om.IStylesheetDescriptor;
+import org.jasig.portal.layout.om.IStylesheetParameterDescriptor;
+import org.jasig.portal.portlet.om.IPortletWindow;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
+import org.jasig.portal.portlet.rendering.IPortletExecutionManager;
+import org.jasig.portal.user.IUserInstance;
+import org.jasig.portal.user.IUserInstanceManager;
+import org.jasig.portal.utils.cache.CacheKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Starts the header and markup rendering of every portlet that will be displayed on the page before the rest of the
+ * pipeline runs. The portlets are determined directly from the user's {@link IUserLayout} using the same rules as
+ * the columns structure transform: the channels in the page regions plus the channels on the focused tab, favorite
+ * collection or the single focused portlet. Renders are submitted in descending order of the portlet's average render
+ * time so the slowest portlets start first and the page waits on the slowest portlet instead of the sum of the slow
+ * ones.
+ * <p/>
+ * Rendering is speculative, {@link PortletRenderingInitiationStAXComponent} and
+ * {@link PortletRenderingInitiationCharacterComponent} still start any portlet in the stream that was not
+ * started here.
+ */
+public class PortletRenderingSchedulingComponent extends CharacterPipelineComponentWrapper {
+    private static final String ROOT_LAYOUT_NODE = "root";
+    private static final String NONE = "none";
+    private static final String DEFAULT_TAB_PARAMETER = "defaultTab";
+    
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private IUserInstanceManager userInstanceManager;
+    private IStylesheetUserPreferencesService stylesheetUserPreferencesService;
+    private IPortletWindowRegistry portletWindowRegistry;
+    private IPortletExecutionManager portletExecutionManager;
+    private boolean enabled = false;
+    
+    @Autowired
+    public void setUserInstanceManager(IUserInstanceManager userInstanceManager) {
+        this.userInstanceManager = userInstanceManager;
+    }
+
+    @Autowired
+    public void setStylesheetUserPreferencesService(IStylesheetUserPreferencesService stylesheetUserPreferencesService) {
+        this.stylesheetUserPreferencesService = stylesheetUserPreferencesService;
+    }
+
+    @Autowired
+    public void setPortletWindowRegistry(IPortletWindowRegistry portletWindowRegistry) {
+        this.portletWindowRegistry = portletWindowRegistry;
+    }
+
+    @Autowired
+    public void setPortletExecutionManager(IPortletExecutionManager portletExecutionManager) {
+        this.portletExecutionManager = portletExecutionManager;
+    }
+
+    @Value("${org.jasig.portal.rendering.PortletRenderingSchedulingComponent.enabled:false}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
+        //Starting portlet renders doesn't change the stream
+        return this.wrappedComponent.getCacheKey(request, response);
+    }
+
+    @Override
+    public PipelineEventReader<CharacterEventReader, CharacterEvent> getEventReader(HttpServletRequest request, HttpServletResponse response) {
+        if (this.enabled) {
+            try {
+                this.startPortletRenders(request, response);
+            }
+            catch (RuntimeException e) {
+                //Speculative, the portlets will be started as they are found in the stream
+                this.logger.warn("Failed to schedule portlet rendering from the user layout, portlets will be started as they are rendered", e);
+            }
+        }
+        
+        return this.wrappedComponent.getEventReader(request, response);
+    }
+    
+    /**
+     * Start the header and markup render for every portlet that will be displayed, slowest first
+     */
+    protected void startPortletRenders(HttpServletRequest request, HttpServletResponse response) {
+        final IUserInstance userInstance = this.userInstanceManager.getUserInstance(request);
+        final IUserPreferencesManager preferencesManager = userInstance.getPreferencesManager();
+        final IUserLayout userLayout = preferencesManager.getUserLayoutManager().getUserLayout();
+        
+        final String focusedTabId = this.getStructureParameter(request, "focusedTabID", NONE);
+        final String defaultTab = this.getDefaultTab(request);
+        final String userLayoutRoot = this.getStructureParameter(request, "userLayoutRoot", ROOT_LAYOUT_NODE);
+        final boolean detached = Boolean.parseBoolean(this.getStructureParameter(request, "detached", "false"));
+        
+        final List<IUserLayoutChannelDescription> channels = getDisplayedChannels(userLayout, focusedTabId, defaultTab, userLayoutRoot, detached);
+        
+        //Resolve windows and historical render times
+        final Map<IPortletWindowId, Long> renderTimes = new LinkedHashMap<IPortletWindowId, Long>();
+        for (final IUserLayoutChannelDescription channel : channels) {
+            final IPortletWindow portletWindow = this.portletWindowRegistry.getOrCreateDefaultPortletWindowByLayoutNodeId(request, channel.getId());
+            if (portletWindow != null) {
+                renderTimes.put(portletWindow.getPortletWindowId(), this.portletExecutionManager.getAverageRenderTime(channel.getFunctionalName()));
+            }
+        }
+        
+        final List<IPortletWindowId> portletWindowIds = new ArrayList<IPortletWindowId>(renderTimes.keySet());
+        Collections.sort(portletWindowIds, new Comparator<IPortletWindowId>() {
+            @Override
+            public int compare(IPortletWindowId o1, IPortletWindowId o2) {
+                //Descending, portlets with no history (-1) go last
+                final long t1 = renderTimes.get(o1);
+                final long t2 = renderTimes.get(o2);
+                return t1 < t2 ? 1 : (t1 == t2 ? 0 : -1);
+            }
+        });
+        
+        for (final IPortletWindowId portletWindowId : portletWindowIds) {
+            if (!this.portletExecutionManager.isPortletRenderHeaderRequested(portletWindowId, request, response)) {
+                this.portletExecutionManager.startPortletHeaderRender(portletWindowId, request, response);
+            }
+            if (!this.portletExecutionManager.isPortletRenderRequested(portletWindowId, request, response)) {
+                this.portletExecutionManager.startPortletRender(portletWindowId, request, response);
+            }
+        }
+        
+        this.logger.debug("Scheduled rendering of {} portlets from the user layout: {}", portletWindowIds.size(), renderTimes);
+    }
+    
+    /**
+     * Determine the channels the columns structure transform will include on the page
+     * 
+     * @param focusedTabId ID of the requested tab or favorite collection, "none" if not set
+     * @param defaultTab 1 based index of the tab displayed when the requested tab is not a visible regular tab
+     * @param userLayoutRoot ID of the focused portlet, "root" if no portlet is focused
+     * @param detached If the focused portlet is being rendered detached
+     */
+    static List<IUserLayoutChannelDescription> getDisplayedChannels(IUserLayout userLayout, String focusedTabId, String defaultTab, String userLayoutRoot, boolean detached) {
+        final List<IUserLayoutChannelDescription> channels = new ArrayList<IUserLayoutChannelDescription>();
+        final boolean focused = !ROOT_LAYOUT_NODE.equals(userLayoutRoot);
+        
+        IUserLayoutFolderDescription firstTab = null;
+        IUserLayoutFolderDescription focusedTab = null;
+        IUserLayoutFolderDescription focusedFolder = null;
+        
+        for (final Enumeration<?> tabIds = userLayout.getChildIds(userLayout.getRootId()); tabIds.hasMoreElements();) {
+            final IUserLayoutNodeDescription node = userLayout.getNodeDescription((String) tabIds.nextElement());
+            if (node.getType() != LayoutNodeType.FOLDER) {
+                continue;
+            }
+            
+            final IUserLayoutFolderDescription folder = (IUserLayoutFolderDescription) node;
+            final String folderType = folder.getFolderType();
+            if ("regular".equals(folderType)) {
+                if (!folder.isHidden()) {
+                    if (firstTab == null) {
+                        firstTab = folder;
+                    }
+                    if (folder.getId().equals(focusedTabId)) {
+                        focusedTab = folder;
+                    }
+                }
+            }
+            else if ("favorite_collection".equals(folderType)) {
+                if (!focused && folder.getId().equals(focusedTabId)) {
+                    focusedFolder = folder;
+                }
+            }
+            else if (isRegion(folderType, focused, detached)) {
+                addChannels(userLayout, folder.getId(), channels);
+            }
+        }
+        
+        if (focused) {
+            final IUserLayoutNodeDescription node = userLayout.getNodeDescription(userLayoutRoot);
+            if (node != null && node.getType() == LayoutNodeType.PORTLET) {
+                channels.add((IUserLayoutChannelDescription) node);
+            }
+        }
+        else if (focusedFolder != null) {
+            addChannels(userLayout, focusedFolder.getId(), channels);
+        }
+        else if (focusedTab != null) {
+            addChannels(userLayout, focusedTab.getId(), channels);
+        }
+        else {
+            //Like the structure transform use the tab at the defaultTab index, the first tab if there is no such tab
+            final String defaultTabId = NumberUtils.isDigits(defaultTab) ? userLayout.getTabIdByIndex(NumberUtils.toInt(defaultTab)) : null;
+            if (defaultTabId != null) {
+                addChannels(userLayout, defaultTabId, channels);
+            }
+            else if (firstTab != null) {
+                addChannels(userLayout, firstTab.getId(), channels);
+            }
+        }
+        
+        return channels;
+    }
+    
+    private static boolean isRegion(String folderType, boolean focused, boolean detached) {
+        if (focused && detached) {
+            return "hidden-top".equals(folderType) || "page-top".equals(folderType) 
+                    || "page-bottom".equals(folderType) || "hidden-bottom".equals(folderType);
+        }
+        
+        return !"sidebar".equals(folderType) && !"favorites".equals(folderType) && !"root".equals(folderType) 
+                && !(focused && "customize".equals(folderType));
+    }
+    
+    private static void addChannels(IUserLayout userLayout, String folderId, List<IUserLayoutChannelDescription> channels) {
+        for (final Enumeration<?> childIds = userLayout.getChildIds(folderId); childIds.hasMoreElements();) {
+            final IUserLayoutNodeDescription node = userLayout.getNodeDescription((String) childIds.nextElement());
+            if (node.getType() == LayoutNodeType.PORTLET) {
+                channels.add((IUserLayoutChannelDescription) node);
+            }
+            else {
+                addChannels(userLayout, node.getId(), channels);
+            }
+        }
+    }
+    
+    /**
+     * @return The user's defaultTab structure parameter, falling back to the default value from the stylesheet descriptor
+     */
+    private String getDefaultTab(HttpServletRequest request) {
+        final String defaultTab = this.stylesheetUserPreferencesService.getStylesheetParameter(request, PreferencesScope.STRUCTURE, DEFAULT_TAB_PARAMETER);
+        if (defaultTab != null) {
+            return defaultTab;
+        }
+        
+        final IStylesheetDescriptor stylesheetDescriptor = this.stylesheetUserPreferencesService.getStylesheetDescriptor(request, PreferencesScope.STRUCTURE);
+        final IStylesheetParameterDescriptor stylesheetParameterDescriptor = stylesheetDescriptor.getStylesheetParameterDescriptor(DEFAULT_TAB_PARAMETER);
+        if (stylesheetParameterDescriptor != null) {
+            return stylesheetParameterDescriptor.getDefaultValue();
+        }
+        
+        return "1";
+    }
+    
+    private String getStructureParameter(HttpServletRequest request, String name, String defaultValue) {
+        final String value = this.stylesheetUserPreferencesService.getStylesheetParameter(request, PreferencesScope.STRUCTURE, name);
+        if (value == null || value.length() == 0) {
+            return defaultValue;
+        }
+        return value;
+    }
+}
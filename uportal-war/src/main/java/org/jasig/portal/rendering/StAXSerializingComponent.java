@@ -18,7 +18,6 @@
  */
 package org.jasig.portal.rendering;
 
-import java.io.StringWriter;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +31,7 @@ import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.XMLEvent;
 
+import org.apache.commons.io.output.StringBuilderWriter;
 import org.jasig.portal.character.stream.CharacterEventBufferReader;
 import org.jasig.portal.character.stream.CharacterEventReader;
 import org.jasig.portal.character.stream.CharacterEventSource;
@@ -39,6 +39,7 @@ import org.jasig.portal.character.stream.events.CharacterEvent;
 import org.jasig.portal.utils.cache.CacheKey;
 import org.jasig.portal.xml.XmlUtilities;
 import org.jasig.portal.xml.stream.ChunkingEventReader;
+import org.jasig.portal.xml.stream.MultiPatternMatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -60,6 +61,7 @@ public class StAXSerializingComponent implements CharacterPipelineComponent {
     private Map<String, CharacterEventSource> chunkingElements;
     private Map<Pattern, CharacterEventSource> chunkingPatternEventSources;
     private Pattern[] chunkingPatterns;
+    private MultiPatternMatcher chunkingPatternMatcher;
 
     @Autowired
     public void setXmlUtilities(XmlUtilities xmlUtilities) {
@@ -86,6 +88,17 @@ public class StAXSerializingComponent implements CharacterPipelineComponent {
         
         this.chunkingPatternEventSources = compiledChunkingPatternEventSources;
         this.chunkingPatterns = this.chunkingPatternEventSources.keySet().toArray(new Pattern[this.chunkingPatternEventSources.size()]);
+        
+        //Combine the patterns so each chunk is only scanned once, falls back to scanning once per pattern
+        this.chunkingPatternMatcher = null;
+        if (this.chunkingPatterns.length > 0) {
+            try {
+                this.chunkingPatternMatcher = new MultiPatternMatcher(this.chunkingPatterns);
+            }
+            catch (IllegalArgumentException e) {
+                this.logger.warn("Chunking patterns cannot be combined, each pattern will be matched separately: " + e.getMessage());
+            }
+        }
     }
 
     @Override
@@ -93,7 +106,7 @@ public class StAXSerializingComponent implements CharacterPipelineComponent {
         final PipelineEventReader<XMLEventReader, XMLEvent> eventReader = this.wrappedComponent.getEventReader(request, response);
 
         //Writer shared by the ChunkingEventReader and the StAX Serializer
-        final StringWriter writer = new StringWriter();
+        final StringBuilderWriter writer = new StringBuilderWriter();
         
         final XMLOutputFactory outputFactory = this.xmlUtilities.getHtmlOutputFactory();
         final XMLEventWriter xmlEventWriter;
@@ -107,7 +120,7 @@ public class StAXSerializingComponent implements CharacterPipelineComponent {
         //Add the chunking wrapper to the XMLEventReader
         final XMLEventReader xmlEventReader = eventReader.getEventReader();
         final ChunkingEventReader chunkingEventReader = new ChunkingEventReader(request,
-                this.chunkingElements, this.chunkingPatternEventSources, this.chunkingPatterns,
+                this.chunkingElements, this.chunkingPatternEventSources, this.chunkingPatterns, this.chunkingPatternMatcher,
                 xmlEventReader, xmlEventWriter, writer);
         
         try {
@@ -0,0 +1,182 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering.cache;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import com.google.common.base.Equivalence;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Immutable, array backed list of pipeline events. Events are de-duplicated against an
+ * {@link Equivalence} keyed cache as the buffer is built so that identical events within one
+ * entry, and across entries that share the same cache, are stored once. The list iterators
+ * read directly from the backing array.
+ * <p>
+ * The de-duplication cache only weakly references the events, an event is dropped from it once
+ * no cached buffer uses it so the cache does not hold heap outside of the cached entries.
+ * 
+ * @param <E> The event type
+ */
+final class CachedEventBuffer<E> extends AbstractList<E> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Approximate size of an object header and a reference, used for the size estimate
+     */
+    private static final int OBJECT_HEADER_SIZE = 16;
+    private static final int REFERENCE_SIZE = 8;
+    
+    private final Object[] events;
+    private final int uniqueEvents;
+    
+    private CachedEventBuffer(Object[] events, int uniqueEvents) {
+        this.events = events;
+        this.uniqueEvents = uniqueEvents;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public E get(int index) {
+        return (E)this.events[index];
+    }
+
+    @Override
+    public int size() {
+        return this.events.length;
+    }
+    
+    /**
+     * @return The number of events that were not already present in the de-duplication cache when the buffer was built
+     */
+    public int getUniqueEvents() {
+        return this.uniqueEvents;
+    }
+    
+    /**
+     * @return Estimated heap retained by the buffer itself, events shared with other buffers are not included 
+     */
+    public long getEstimatedRetainedSize() {
+        return OBJECT_HEADER_SIZE * 2 + (long)REFERENCE_SIZE * this.events.length;
+    }
+    
+    /**
+     * Create a cache to de-duplicate events across buffers, events are only weakly referenced by the cache
+     * 
+     * @param maximumSize Maximum number of distinct events tracked
+     */
+    public static <E> Cache<EventKey<E>, E> createDeduplicationCache(int maximumSize) {
+        return CacheBuilder.newBuilder().maximumSize(maximumSize).weakValues().<EventKey<E>, E>build();
+    }
+    
+    /**
+     * De-duplication cache key that compares events with an {@link Equivalence} without holding a strong
+     * reference to the event, which would keep the weakly referenced value from being collected.
+     */
+    static final class EventKey<E> {
+        private final Equivalence<? super E> equivalence;
+        private final WeakReference<E> event;
+        private final int hash;
+        
+        EventKey(Equivalence<? super E> equivalence, E event) {
+            this.equivalence = equivalence;
+            this.event = new WeakReference<E>(event);
+            this.hash = equivalence.hash(event);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof EventKey)) {
+                return false;
+            }
+            
+            @SuppressWarnings("unchecked")
+            final EventKey<E> other = (EventKey<E>) obj;
+            if (this.hash != other.hash || !this.equivalence.equals(other.equivalence)) {
+                return false;
+            }
+            
+            //A collected event is not equivalent to anything, its entry is being removed from the cache
+            final E event = this.event.get();
+            final E otherEvent = other.event.get();
+            return event != null && otherEvent != null && this.equivalence.equivalent(event, otherEvent);
+        }
+    }
+    
+    /**
+     * Builds a {@link CachedEventBuffer}, not thread-safe.
+     */
+    static final class Builder<E> {
+        private final Equivalence<? super E> equivalence;
+        private final Cache<EventKey<E>, E> eventCache;
+        private Object[] events = new Object[64];
+        private int size = 0;
+        private int uniqueEvents = 0;
+        
+        /**
+         * @param equivalence Used to decide which events are duplicates
+         * @param eventCache Shared cache of previously seen events, from {@link CachedEventBuffer#createDeduplicationCache(int)}.
+         *  May be null to disable de-duplication
+         */
+        public Builder(Equivalence<? super E> equivalence, Cache<EventKey<E>, E> eventCache) {
+            this.equivalence = equivalence;
+            this.eventCache = eventCache;
+        }
+        
+        public Builder<E> add(E event) {
+            if (this.size == this.events.length) {
+                this.events = Arrays.copyOf(this.events, this.size + (this.size >> 1));
+            }
+            this.events[this.size++] = this.dedupe(event);
+            return this;
+        }
+        
+        private E dedupe(E event) {
+            if (this.eventCache == null || event == null) {
+                this.uniqueEvents++;
+                return event;
+            }
+            
+            final E existing = this.eventCache.asMap().putIfAbsent(new EventKey<E>(this.equivalence, event), event);
+            if (existing != null) {
+                return existing;
+            }
+            
+            this.uniqueEvents++;
+            return event;
+        }
+        
+        public CachedEventBuffer<E> build() {
+            return new CachedEventBuffer<E>(Arrays.copyOf(this.events, this.size), this.uniqueEvents);
+        }
+    }
+}
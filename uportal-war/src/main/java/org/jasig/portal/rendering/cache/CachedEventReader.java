@@ -33,7 +33,13 @@ class CachedEventReader<E> implements Serializable {
     private final Map<String, String> outputProperties;
 
     public CachedEventReader(List<E> eventCache, Map<String, String> outputProperties) {
-        this.eventCache = Collections.unmodifiableList(eventCache);
+        if (eventCache instanceof CachedEventBuffer) {
+            //Already immutable, no need for the extra wrapper
+            this.eventCache = eventCache;
+        }
+        else {
+            this.eventCache = Collections.unmodifiableList(eventCache);
+        }
         this.outputProperties = Collections.unmodifiableMap(outputProperties);
     }
 
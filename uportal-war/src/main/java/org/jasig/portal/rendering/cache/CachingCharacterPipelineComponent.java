@@ -25,6 +25,8 @@ import org.jasig.portal.character.stream.CharacterEventReader;
 import org.jasig.portal.character.stream.events.CharacterEvent;
 import org.jasig.portal.rendering.CharacterPipelineComponent;
 
+import com.google.common.base.Equivalence;
+
 /**
  * component that can cache character pipeline events
  * 
@@ -33,6 +35,12 @@ import org.jasig.portal.rendering.CharacterPipelineComponent;
  */
 public class CachingCharacterPipelineComponent extends CachingPipelineComponent<CharacterEventReader, CharacterEvent> implements CharacterPipelineComponent {
     
+    @Override
+    protected Equivalence<? super CharacterEvent> getEventEquivalence() {
+        //All CharacterEvent implementations are value objects
+        return Equivalence.equals();
+    }
+
     @Override
     protected CharacterEventReader createEventReader(ListIterator<CharacterEvent> eventCache) {
         return new CharacterEventBufferReader(eventCache);
@@ -19,7 +19,6 @@
 package org.jasig.portal.rendering.cache;
 
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -41,6 +40,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import com.google.common.base.Equivalence;
+import com.google.common.cache.Cache;
+
 /**
  * Component that caches events from a wrapped component
  * 
@@ -53,6 +55,7 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
     private ResourcesElementsProvider resourcesElementsProvider;
     private Ehcache cache;
     private String beanName;
+    private Cache<CachedEventBuffer.EventKey<E>, E> eventDeduplicationCache = createEventDeduplicationCache(10000);
     
     @Autowired
     public void setResourcesElementsProvider(ResourcesElementsProvider resourcesElementsProvider) {
@@ -63,6 +66,23 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         this.cache = cache;
     }
     
+    /**
+     * @param eventDeduplicationCacheSize Maximum number of distinct events tracked for de-duplication across
+     *  cached entries, 0 disables de-duplication. Events are only weakly referenced so the tracked events are
+     *  never retained beyond the cache entries that use them. Defaults to 10000.
+     */
+    public final void setEventDeduplicationCacheSize(int eventDeduplicationCacheSize) {
+        this.eventDeduplicationCache = createEventDeduplicationCache(eventDeduplicationCacheSize);
+    }
+    
+    private static <E> Cache<CachedEventBuffer.EventKey<E>, E> createEventDeduplicationCache(int size) {
+        if (size <= 0) {
+            return null;
+        }
+        
+        return CachedEventBuffer.createDeduplicationCache(size);
+    }
+    
     @Override
     public void setBeanName(String name) {
         this.beanName = name;
@@ -98,12 +118,12 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
             logger.debug("{} - No cached events found for key {}, calling parent", this.beanName, cacheKey);
             final PipelineEventReader<R, E> pipelineEventReader = this.wrappedComponent.getEventReader(request, response);
 
-            //Copy the events from the reader into a buffer to be cached
-            final List<E> eventCache = new LinkedList<E>();
+            //Copy the events from the reader into a compact buffer to be cached, de-duplicating as they are copied
+            final CachedEventBuffer.Builder<E> eventCacheBuilder = new CachedEventBuffer.Builder<E>(this.getEventEquivalence(), this.eventDeduplicationCache);
             for (final E event : pipelineEventReader) {
-                //TODO add de-duplication logic here
-                eventCache.add(event);
+                eventCacheBuilder.add(event);
             }
+            final CachedEventBuffer<E> eventCache = eventCacheBuilder.build();
 
             final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
             cachedEventReader = new CachedEventReader<E>(eventCache, new LinkedHashMap<String, String>(outputProperties));
@@ -111,7 +131,10 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
             //Cache the buffer
             element = new Element(cacheKey, cachedEventReader);
             this.cache.put(element);
-            logger.debug("{} - Cached {} events for key {}", this.beanName, eventCache.size(), cacheKey);
+            if (logger.isDebugEnabled()) {
+                logger.debug("{} - Cached {} events ({} unique, ~{} bytes of buffer) for key {}", 
+                        new Object[] { this.beanName, eventCache.size(), eventCache.getUniqueEvents(), eventCache.getEstimatedRetainedSize(), cacheKey });
+            }
         }
         else {
             logger.debug("{} - Found cached events for key {}", this.beanName, cacheKey);
@@ -124,6 +147,11 @@ public abstract class CachingPipelineComponent<R, E> extends PipelineComponentWr
         return new PipelineEventReaderImpl<R, E>(eventReader, outputProperties);
     }
     
+    /**
+     * @return The equivalence used to find duplicate events when building the cached event buffer
+     */
+    protected abstract Equivalence<? super E> getEventEquivalence();
+    
     //Ugly!!! Needed because XMLEventReader implements Iterator but does not parameterize it
     protected abstract R createEventReader(ListIterator<E> eventCache);
 }
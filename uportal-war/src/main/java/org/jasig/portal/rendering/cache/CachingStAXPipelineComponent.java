@@ -25,6 +25,9 @@ import javax.xml.stream.events.XMLEvent;
 
 import org.jasig.portal.rendering.StAXPipelineComponent;
 import org.jasig.portal.xml.stream.XMLEventBufferReader;
+import org.jasig.portal.xml.stream.XMLEventEquivalence;
+
+import com.google.common.base.Equivalence;
 
 /**
  * component that can cache StAX pipeline events
@@ -33,6 +36,11 @@ import org.jasig.portal.xml.stream.XMLEventBufferReader;
  * @version $Revision$
  */
 public class CachingStAXPipelineComponent extends CachingPipelineComponent<XMLEventReader, XMLEvent> implements StAXPipelineComponent {
+    
+    @Override
+    protected Equivalence<? super XMLEvent> getEventEquivalence() {
+        return XMLEventEquivalence.INSTANCE;
+    }
 
     @Override
     protected XMLEventReader createEventReader(ListIterator<XMLEvent> eventCache) {
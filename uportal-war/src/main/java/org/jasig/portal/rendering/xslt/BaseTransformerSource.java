@@ -18,13 +18,9 @@
  */
 package org.jasig.portal.rendering.xslt;
 
-import java.io.IOException;
-import java.io.Serializable;
-
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
 
 import org.jasig.portal.IUserPreferencesManager;
 import org.jasig.portal.layout.dao.IStylesheetDescriptorDao;
@@ -32,7 +28,6 @@ import org.jasig.portal.layout.om.IStylesheetDescriptor;
 import org.jasig.portal.user.IUserInstance;
 import org.jasig.portal.user.IUserInstanceManager;
 import org.jasig.portal.utils.cache.CacheKey;
-import org.jasig.portal.xml.XmlUtilities;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ResourceLoaderAware;
 import org.springframework.core.io.Resource;
@@ -48,7 +43,7 @@ import org.springframework.core.io.ResourceLoader;
  */
 public abstract class BaseTransformerSource implements TransformerSource, ResourceLoaderAware {
     private IUserInstanceManager userInstanceManager;
-    private XmlUtilities xmlUtilities;
+    private TransformerPool transformerPool;
     private ResourceLoader resourceLoader;
     protected IStylesheetDescriptorDao stylesheetDescriptorDao;
     
@@ -63,8 +58,8 @@ public abstract class BaseTransformerSource implements TransformerSource, Resour
     }
 
     @Autowired
-    public void setXmlUtilities(XmlUtilities xmlUtilities) {
-        this.xmlUtilities = xmlUtilities;
+    public void setTransformerPool(TransformerPool transformerPool) {
+        this.transformerPool = transformerPool;
     }
 
     @Override
@@ -79,18 +74,7 @@ public abstract class BaseTransformerSource implements TransformerSource, Resour
     @Override
     public final CacheKey getCacheKey(HttpServletRequest request, HttpServletResponse response) {
         final Resource stylesheetResource = this.getStylesheetResource(request);
-        final Serializable stylesheetCacheKey;
-        try {
-            stylesheetCacheKey = this.xmlUtilities.getStylesheetCacheKey(stylesheetResource);
-        }
-        catch (TransformerConfigurationException e) {
-            throw new RuntimeException("Failed to get Transformer for stylesheet: " + stylesheetResource, e);
-        }
-        catch (IOException e) {
-            throw new RuntimeException("Failed to load stylesheet: " + stylesheetResource, e);
-        }
-        
-        return CacheKey.build(stylesheetResource.getDescription(), stylesheetCacheKey);
+        return this.transformerPool.getCacheKey(stylesheetResource);
     }
 
     /* (non-Javadoc)
@@ -99,15 +83,15 @@ public abstract class BaseTransformerSource implements TransformerSource, Resour
     @Override
     public final Transformer getTransformer(HttpServletRequest request, HttpServletResponse response) {
         final Resource stylesheetResource = this.getStylesheetResource(request);
-        try {
-            return this.xmlUtilities.getTransformer(stylesheetResource);
-        }
-        catch (TransformerConfigurationException e) {
-            throw new RuntimeException("Failed to get Transformer for stylesheet: " + stylesheetResource, e);
-        }
-        catch (IOException e) {
-            throw new RuntimeException("Failed to load stylesheet: " + stylesheetResource, e);
-        }
+        return this.transformerPool.borrowTransformer(stylesheetResource);
+    }
+
+    /* (non-Javadoc)
+     * @see org.jasig.portal.rendering.xslt.TransformerSource#releaseTransformer(javax.xml.transform.Transformer)
+     */
+    @Override
+    public final void releaseTransformer(Transformer transformer) {
+        this.transformerPool.returnTransformer(transformer);
     }
     
     /**
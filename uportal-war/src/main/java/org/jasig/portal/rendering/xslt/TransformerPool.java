@@ -0,0 +1,338 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering.xslt;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+
+import org.jasig.portal.layout.dao.IStylesheetDescriptorDao;
+import org.jasig.portal.layout.om.IStylesheetDescriptor;
+import org.jasig.portal.utils.cache.CacheKey;
+import org.jasig.portal.xml.XmlUtilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ResourceLoaderAware;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Pools reset Transformers per stylesheet so that each request does not need to create a new Transformer from the
+ * compiled Templates. Pools are keyed by the same {@link CacheKey} the {@link BaseTransformerSource} uses so a
+ * modified stylesheet gets a new pool and the old one expires.
+ * <p>
+ * Transformers are tracked from {@link #borrowTransformer(Resource)} to {@link #returnTransformer(Transformer)}, a
+ * Transformer that is never returned is simply garbage collected.
+ */
+@ManagedResource("uPortal:section=Framework,name=TransformerPool")
+@Service("transformerPool")
+public class TransformerPool implements TransformerPoolMXBean, ResourceLoaderAware, ApplicationListener<ContextRefreshedEvent> {
+    protected final Logger logger = LoggerFactory.getLogger(getClass());
+    
+    private final AtomicBoolean precompiled = new AtomicBoolean(false);
+    private final ConcurrentMap<Transformer, CacheKey> borrowedTransformers = new MapMaker().weakKeys().makeMap();
+    
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong exhaustedCount = new AtomicLong();
+    private final AtomicLong discardCount = new AtomicLong();
+    private final AtomicLong createTime = new AtomicLong();
+    private final AtomicLong precompiledCount = new AtomicLong();
+    private final AtomicLong precompileTime = new AtomicLong();
+    
+    private volatile LoadingCache<CacheKey, Queue<Transformer>> idleTransformers;
+    
+    private XmlUtilities xmlUtilities;
+    private IStylesheetDescriptorDao stylesheetDescriptorDao;
+    private ResourceLoader resourceLoader;
+    private boolean enabled = true;
+    private boolean precompile = true;
+    private int maxIdlePerStylesheet = 10;
+    private long idleTimeout = TimeUnit.MINUTES.toMillis(30);
+    
+    public TransformerPool() {
+        this.idleTransformers = this.createIdleTransformersCache();
+    }
+
+    @Autowired
+    public void setXmlUtilities(XmlUtilities xmlUtilities) {
+        this.xmlUtilities = xmlUtilities;
+    }
+
+    @Autowired
+    public void setStylesheetDescriptorDao(IStylesheetDescriptorDao stylesheetDescriptorDao) {
+        this.stylesheetDescriptorDao = stylesheetDescriptorDao;
+    }
+
+    @Override
+    public void setResourceLoader(ResourceLoader resourceLoader) {
+        this.resourceLoader = resourceLoader;
+    }
+
+    /**
+     * If false every Transformer is created from the Templates and returned Transformers are discarded, defaults to true
+     */
+    @Value("${org.jasig.portal.rendering.xslt.TransformerPool.enabled:true}")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * If true all stylesheet descriptors are compiled and one Transformer is pooled for each once the context
+     * has started, defaults to true
+     */
+    @Value("${org.jasig.portal.rendering.xslt.TransformerPool.precompile:true}")
+    public void setPrecompile(boolean precompile) {
+        this.precompile = precompile;
+    }
+
+    /**
+     * Maximum number of idle Transformers to keep for each stylesheet, defaults to 10
+     */
+    @Value("${org.jasig.portal.rendering.xslt.TransformerPool.maxIdlePerStylesheet:10}")
+    public void setMaxIdlePerStylesheet(int maxIdlePerStylesheet) {
+        this.maxIdlePerStylesheet = maxIdlePerStylesheet;
+        this.idleTransformers = this.createIdleTransformersCache();
+    }
+
+    /**
+     * Milliseconds after which the idle Transformers for a stylesheet that is no longer used are discarded,
+     * defaults to 30 minutes
+     */
+    @Value("${org.jasig.portal.rendering.xslt.TransformerPool.idleTimeout:1800000}")
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        this.idleTransformers = this.createIdleTransformersCache();
+    }
+    
+    private LoadingCache<CacheKey, Queue<Transformer>> createIdleTransformersCache() {
+        return CacheBuilder.newBuilder()
+                .expireAfterAccess(this.idleTimeout, TimeUnit.MILLISECONDS)
+                .build(new CacheLoader<CacheKey, Queue<Transformer>>() {
+                    @Override
+                    public Queue<Transformer> load(CacheKey key) throws Exception {
+                        return new ArrayBlockingQueue<Transformer>(Math.max(1, maxIdlePerStylesheet));
+                    }
+                });
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (!this.enabled || !this.precompile || !this.precompiled.compareAndSet(false, true)) {
+            return;
+        }
+        
+        final long start = System.currentTimeMillis();
+        final List<? extends IStylesheetDescriptor> stylesheetDescriptors;
+        try {
+            stylesheetDescriptors = this.stylesheetDescriptorDao.getStylesheetDescriptors();
+        }
+        catch (RuntimeException e) {
+            this.logger.warn("Failed to load stylesheet descriptors, no stylesheets will be precompiled", e);
+            return;
+        }
+        
+        for (final IStylesheetDescriptor stylesheetDescriptor : stylesheetDescriptors) {
+            final Resource stylesheet = this.resourceLoader.getResource(stylesheetDescriptor.getStylesheetResource());
+            try {
+                final Transformer transformer = this.borrowTransformer(stylesheet);
+                this.returnTransformer(transformer);
+                this.precompiledCount.incrementAndGet();
+            }
+            catch (RuntimeException e) {
+                this.logger.warn("Failed to precompile stylesheet " + stylesheet + " for stylesheet descriptor " + stylesheetDescriptor.getName(), e);
+            }
+        }
+        
+        this.precompileTime.addAndGet(System.currentTimeMillis() - start);
+        this.logger.info("Precompiled {} stylesheets in {}ms", this.precompiledCount.get(), this.precompileTime.get());
+    }
+    
+    /**
+     * @return The key the Transformers for the stylesheet are pooled under, changes when the stylesheet is modified
+     */
+    public CacheKey getCacheKey(Resource stylesheet) {
+        final Serializable stylesheetCacheKey;
+        try {
+            stylesheetCacheKey = this.xmlUtilities.getStylesheetCacheKey(stylesheet);
+        }
+        catch (TransformerConfigurationException e) {
+            throw new RuntimeException("Failed to get Transformer for stylesheet: " + stylesheet, e);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to load stylesheet: " + stylesheet, e);
+        }
+        
+        return CacheKey.build(stylesheet.getDescription(), stylesheetCacheKey);
+    }
+    
+    /**
+     * Get an idle Transformer for the stylesheet or create a new one. The Transformer should be passed to
+     * {@link #returnTransformer(Transformer)} once it is no longer used.
+     */
+    public Transformer borrowTransformer(Resource stylesheet) {
+        if (!this.enabled) {
+            return this.createTransformer(stylesheet);
+        }
+        
+        final CacheKey key = this.getCacheKey(stylesheet);
+        final Queue<Transformer> idle = this.idleTransformers.getUnchecked(key);
+        
+        Transformer transformer = idle.poll();
+        if (transformer != null) {
+            this.hitCount.incrementAndGet();
+        }
+        else {
+            this.missCount.incrementAndGet();
+            if (this.borrowedTransformers.containsValue(key)) {
+                this.exhaustedCount.incrementAndGet();
+            }
+            transformer = this.createTransformer(stylesheet);
+        }
+        
+        this.borrowedTransformers.put(transformer, key);
+        return transformer;
+    }
+    
+    /**
+     * Reset the Transformer and make it available to the next request for the same stylesheet. Transformers that
+     * were not borrowed from this pool are ignored.
+     */
+    public void returnTransformer(Transformer transformer) {
+        final CacheKey key = this.borrowedTransformers.remove(transformer);
+        if (key == null) {
+            return;
+        }
+        
+        final Queue<Transformer> idle = this.idleTransformers.getIfPresent(key);
+        if (idle == null) {
+            //Stylesheet pool expired while the Transformer was in use
+            this.discardCount.incrementAndGet();
+            return;
+        }
+        
+        try {
+            transformer.reset();
+        }
+        catch (UnsupportedOperationException e) {
+            this.logger.debug("Transformer {} cannot be reset and will not be pooled", transformer);
+            this.discardCount.incrementAndGet();
+            return;
+        }
+        
+        if (!idle.offer(transformer)) {
+            this.discardCount.incrementAndGet();
+        }
+    }
+    
+    protected Transformer createTransformer(Resource stylesheet) {
+        final long start = System.nanoTime();
+        try {
+            return this.xmlUtilities.getTransformer(stylesheet);
+        }
+        catch (TransformerConfigurationException e) {
+            throw new RuntimeException("Failed to get Transformer for stylesheet: " + stylesheet, e);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Failed to load stylesheet: " + stylesheet, e);
+        }
+        finally {
+            this.createTime.addAndGet(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    @Override
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+
+    @Override
+    public long getExhaustedCount() {
+        return this.exhaustedCount.get();
+    }
+
+    @Override
+    public long getDiscardCount() {
+        return this.discardCount.get();
+    }
+
+    @Override
+    public long getCreateTime() {
+        return this.createTime.get();
+    }
+
+    @Override
+    public long getPrecompiledCount() {
+        return this.precompiledCount.get();
+    }
+
+    @Override
+    public long getPrecompileTime() {
+        return this.precompileTime.get();
+    }
+
+    @Override
+    public long getPooledStylesheetCount() {
+        return this.idleTransformers.size();
+    }
+
+    @Override
+    public int getIdleCount() {
+        int count = 0;
+        for (final Queue<Transformer> idle : this.idleTransformers.asMap().values()) {
+            count += idle.size();
+        }
+        return count;
+    }
+
+    @Override
+    public int getMaxIdlePerStylesheet() {
+        return this.maxIdlePerStylesheet;
+    }
+
+    @Override
+    public void clear() {
+        this.idleTransformers.invalidateAll();
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering.xslt;
+
+/**
+ * JMX view of the {@link TransformerPool}, used to size the pool
+ */
+public interface TransformerPoolMXBean {
+    
+    /**
+     * @return Number of Transformers that were reused from the pool
+     */
+    long getHitCount();
+    
+    /**
+     * @return Number of Transformers that had to be created because no idle Transformer was pooled
+     */
+    long getMissCount();
+    
+    /**
+     * @return Number of misses for stylesheets that already had Transformers created, all of which were in use
+     */
+    long getExhaustedCount();
+    
+    /**
+     * @return Number of returned Transformers that were discarded because the idle pool was full
+     */
+    long getDiscardCount();
+    
+    /**
+     * @return Total milliseconds spent creating Transformers, including stylesheet compilation
+     */
+    long getCreateTime();
+    
+    /**
+     * @return Number of stylesheets compiled at startup
+     */
+    long getPrecompiledCount();
+    
+    /**
+     * @return Milliseconds spent compiling stylesheets at startup
+     */
+    long getPrecompileTime();
+    
+    /**
+     * @return Number of stylesheet keys with an idle pool
+     */
+    long getPooledStylesheetCount();
+    
+    /**
+     * @return Number of idle Transformers across all stylesheets
+     */
+    int getIdleCount();
+    
+    /**
+     * @return Maximum number of idle Transformers kept per stylesheet
+     */
+    int getMaxIdlePerStylesheet();
+    
+    /**
+     * Discard all idle Transformers
+     */
+    void clear();
+}
@@ -34,6 +34,12 @@ public interface TransformerSource {
      */
     public Transformer getTransformer(HttpServletRequest request, HttpServletResponse response);
     
+    /**
+     * Called once a Transformer returned by {@link #getTransformer(HttpServletRequest, HttpServletResponse)} is
+     * no longer in use, allowing it to be reused
+     */
+    public void releaseTransformer(Transformer transformer);
+    
     /**
      * Gets the CacheKey for the Transformer
      */
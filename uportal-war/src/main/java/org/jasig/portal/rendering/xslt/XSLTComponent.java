@@ -21,10 +21,15 @@ package org.jasig.portal.rendering.xslt;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.XMLEvent;
@@ -43,19 +48,36 @@ import org.jasig.portal.rendering.StAXPipelineComponentWrapper;
 import org.jasig.portal.utils.cache.CacheKey;
 import org.jasig.portal.xml.ResourceLoaderURIResolver;
 import org.jasig.portal.xml.StaxUtils;
+import org.jasig.portal.xml.stream.BaseXMLEventReader;
 import org.jasig.portal.xml.stream.XMLEventBufferReader;
 import org.jasig.portal.xml.stream.XMLEventBufferWriter;
+import org.jasig.portal.xml.stream.XMLEventPipe;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.BeanNameAware;
 import org.springframework.context.ResourceLoaderAware;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.core.io.ResourceLoader;
 import org.springframework.util.xml.FixedXMLEventStreamReader;
 import org.springframework.util.xml.SimpleTransformErrorListener;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.helpers.LocatorImpl;
 
 /**
+ * Transforms the wrapped component's events with the {@link Transformer} from the configured {@link TransformerSource}.
+ * <p>
+ * By default the entire transformation result is buffered before the first event is returned. If
+ * {@link #setPipelined(boolean)} is enabled and a {@link #setPipelineExecutor(ExecutorService)} is configured the
+ * transformation runs on the executor and hands events to the reader through a bounded {@link XMLEventPipe} so the
+ * next component can start consuming events while the transform is still running and the full result is never held
+ * in memory. Only the transformation itself runs on the executor, the wrapped component uses the request and is
+ * read on the request thread: whenever the reader has no transformed event ready it feeds the next events from the
+ * wrapped component to the transformation through a second bounded pipe. The transformation is cancelled when its
+ * reader is closed or the request completes.
+ * 
  * @author Eric Dalquist
  * @version $Revision$
  */
@@ -66,6 +88,10 @@ public class XSLTComponent extends StAXPipelineComponentWrapper implements BeanN
     private ResourceLoaderURIResolver uriResolver;
     private TransformerSource transformerSource;
     private TransformerConfigurationSource xsltParameterSource;
+    private ExecutorService pipelineExecutor;
+    private boolean pipelined = false;
+    private int pipelineBufferSize = 1000;
+    private long pipelineTimeout = 60000;
     
     private String beanName;
     
@@ -80,6 +106,34 @@ public class XSLTComponent extends StAXPipelineComponentWrapper implements BeanN
         this.transformerSource = transformerSource;
     }
     
+    /**
+     * @param pipelineExecutor Executor used to run the transformation when {@link #setPipelined(boolean)} is enabled
+     */
+    public void setPipelineExecutor(ExecutorService pipelineExecutor) {
+        this.pipelineExecutor = pipelineExecutor;
+    }
+
+    /**
+     * @param pipelined If the transformation should run on the pipeline executor and stream events to the reader. Defaults to false.
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    /**
+     * @param pipelineBufferSize Maximum number of events buffered between the transformation and the reader. Defaults to 1000.
+     */
+    public void setPipelineBufferSize(int pipelineBufferSize) {
+        this.pipelineBufferSize = pipelineBufferSize;
+    }
+
+    /**
+     * @param pipelineTimeout Maximum time in ms the transformation and the reader will wait on each other. Defaults to 60000.
+     */
+    public void setPipelineTimeout(long pipelineTimeout) {
+        this.pipelineTimeout = pipelineTimeout;
+    }
+    
     @Override
     public void setBeanName(String name) {
         this.beanName = name;
@@ -97,6 +151,9 @@ public class XSLTComponent extends StAXPipelineComponentWrapper implements BeanN
     public PipelineEventReader<XMLEventReader, XMLEvent> getEventReader(HttpServletRequest request, HttpServletResponse response) {
         final PipelineEventReader<XMLEventReader, XMLEvent> pipelineEventReader = this.wrappedComponent.getEventReader(request, response);
         
+        //The event reader from the previous component in the pipeline
+        final XMLEventReader eventReader = pipelineEventReader.getEventReader();
+        
         final Transformer transformer = this.transformerSource.getTransformer(request, response);
         
         //Setup a URIResolver based on the current resource loader
@@ -123,10 +180,30 @@ public class XSLTComponent extends StAXPipelineComponentWrapper implements BeanN
             }
         }
 
-        //The event reader from the previous component in the pipeline
-        final XMLEventReader eventReader = pipelineEventReader.getEventReader();
+        //Setup logging for the transform
+        transformer.setErrorListener(this.errorListener);
+
+        //Read before the transform starts, the Transformer is released back to the source once it completes
+        final String mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
+
+        XMLEventReader outputEventReader = null;
+        if (this.pipelined && this.pipelineExecutor != null) {
+            outputEventReader = this.startPipelinedTransform(transformer, eventReader);
+        }
+        if (outputEventReader == null) {
+            outputEventReader = this.bufferedTransform(transformer, createSource(eventReader));
+        }
         
-        //Wrap the event reader in a stream reader to avoid a JDK bug
+        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
+        final PipelineEventReaderImpl<XMLEventReader, XMLEvent> pipelineEventReaderImpl = new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(outputEventReader, outputProperties);
+        pipelineEventReaderImpl.setOutputProperty(OutputKeys.MEDIA_TYPE, mediaType);
+        return pipelineEventReaderImpl;
+    }
+
+    /**
+     * Wraps the event reader in a stream reader to avoid a JDK bug, reads the first event from the reader
+     */
+    private static Source createSource(XMLEventReader eventReader) {
         final XMLStreamReader streamReader;
         try {
             streamReader = new FixedXMLEventStreamReader(eventReader);
@@ -134,17 +211,16 @@ public class XSLTComponent extends StAXPipelineComponentWrapper implements BeanN
         catch (XMLStreamException e) {
             throw new RuntimeException("Failed to create XMLStreamReader from XMLEventReader", e);
         }
-        final Source xmlReaderSource = new StAXSource(streamReader);
-        
-        //Setup logging for the transform
-        transformer.setErrorListener(this.errorListener);
+        return new StAXSource(streamReader);
+    }
 
+    /**
+     * Runs the transformation to completion on the calling thread and returns a reader over the buffered result 
+     */
+    protected XMLEventReader bufferedTransform(Transformer transformer, Source xmlReaderSource) {
         //Transform to a SAX ContentHandler to avoid JDK bug: http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=6775588
         final XMLEventBufferWriter eventWriterBuffer = new XMLEventBufferWriter();
-        final ContentHandler contentHandler = StaxUtils.createLexicalContentHandler(eventWriterBuffer);
-        contentHandler.setDocumentLocator(new LocatorImpl());
-        
-        final SAXResult outputTarget = new SAXResult(contentHandler);
+        final SAXResult outputTarget = createOutputTarget(eventWriterBuffer);
         try {
             this.logger.debug("{} - Begining XML Transformation", this.beanName);
             transformer.transform(xmlReaderSource, outputTarget);
@@ -153,16 +229,199 @@ public class XSLTComponent extends StAXPipelineComponentWrapper implements BeanN
         catch (TransformerException e) {
             throw new RuntimeException("Failed to transform document", e);
         }
-        
-        final String mediaType = transformer.getOutputProperty(OutputKeys.MEDIA_TYPE);
+        finally {
+            this.transformerSource.releaseTransformer(transformer);
+        }
         
         final List<XMLEvent> eventBuffer = eventWriterBuffer.getEventBuffer();
-        final XMLEventReader outputEventReader = new XMLEventBufferReader(eventBuffer.listIterator()); 
+        return new XMLEventBufferReader(eventBuffer.listIterator()); 
+    }
+    
+    /**
+     * Submits the transformation to the pipeline executor and returns a reader that streams the result as it is
+     * produced, feeding the events from the wrapped component to the transformation as it is read. Returns null if
+     * the executor rejected the transformation. The transformation is cancelled when the returned reader is closed
+     * or the current request completes.
+     */
+    protected XMLEventReader startPipelinedTransform(final Transformer transformer, XMLEventReader eventReader) {
+        final XMLEventPipe inputPipe = new XMLEventPipe(this.pipelineBufferSize, this.pipelineTimeout);
+        final XMLEventPipe eventPipe = new XMLEventPipe(this.pipelineBufferSize, this.pipelineTimeout);
+        final SAXResult outputTarget = createOutputTarget(eventPipe.getWriter());
+        final AtomicBoolean started = new AtomicBoolean(false);
         
-        final Map<String, String> outputProperties = pipelineEventReader.getOutputProperties();
-        final PipelineEventReaderImpl<XMLEventReader, XMLEvent> pipelineEventReaderImpl = new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(outputEventReader, outputProperties);
-        pipelineEventReaderImpl.setOutputProperty(OutputKeys.MEDIA_TYPE, mediaType);
-        return pipelineEventReaderImpl;
+        //Make the request and locale visible to the transform thread, XSLT extension functions may rely on them
+        final RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+        final LocaleContext localeContext = LocaleContextHolder.getLocaleContext();
+        
+        final Future<?> transformFuture;
+        try {
+            transformFuture = this.pipelineExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    //Cancelled before it started, the transformer has already been released
+                    if (!started.compareAndSet(false, true)) {
+                        return;
+                    }
+                    
+                    final RequestAttributes previousAttributes = RequestContextHolder.getRequestAttributes();
+                    final LocaleContext previousLocaleContext = LocaleContextHolder.getLocaleContext();
+                    RequestContextHolder.setRequestAttributes(requestAttributes);
+                    LocaleContextHolder.setLocaleContext(localeContext);
+                    try {
+                        logger.debug("{} - Begining pipelined XML Transformation", beanName);
+                        transformer.transform(createSource(inputPipe.getReader()), outputTarget);
+                        logger.debug("{} - Pipelined XML Transformation complete", beanName);
+                        eventPipe.complete();
+                    }
+                    catch (Throwable t) {
+                        if (eventPipe.isClosed()) {
+                            logger.debug("{} - Pipelined XML Transformation cancelled", beanName);
+                        }
+                        else {
+                            logger.warn("{} - Pipelined XML Transformation failed", beanName, t);
+                            eventPipe.fail(t);
+                        }
+                    }
+                    finally {
+                        inputPipe.close();
+                        transformerSource.releaseTransformer(transformer);
+                        LocaleContextHolder.setLocaleContext(previousLocaleContext);
+                        if (previousAttributes == null) {
+                            RequestContextHolder.resetRequestAttributes();
+                        }
+                        else {
+                            RequestContextHolder.setRequestAttributes(previousAttributes);
+                        }
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            this.logger.info("{} - Pipelined XML Transformation rejected by executor, falling back to buffered transformation", this.beanName);
+            return null;
+        }
+        
+        final Runnable cancelTransform = new Runnable() {
+            @Override
+            public void run() {
+                eventPipe.close();
+                inputPipe.close();
+                if (started.compareAndSet(false, true)) {
+                    transformFuture.cancel(false);
+                    transformerSource.releaseTransformer(transformer);
+                }
+                else {
+                    //Interrupt the transform if it is waiting on the pipe
+                    transformFuture.cancel(true);
+                }
+            }
+        };
+        
+        //An abandoned reader must not leave the transformation blocked on the pipe until it times out
+        if (requestAttributes != null) {
+            requestAttributes.registerDestructionCallback(this.beanName + ".pipelinedTransform." + System.identityHashCode(eventPipe), 
+                    cancelTransform, RequestAttributes.SCOPE_REQUEST);
+        }
+        
+        return new PipelinedEventReader(eventPipe, inputPipe, eventReader, cancelTransform);
+    }
+    
+    /**
+     * Reads the transformed events from the output pipe. Whenever no transformed event is ready the next events
+     * from the wrapped component are fed to the transformation on the calling thread, the transformation never
+     * blocks on input while the reader blocks on output.
+     */
+    private final class PipelinedEventReader extends BaseXMLEventReader {
+        private final XMLEventPipe outputPipe;
+        private final XMLEventPipe inputPipe;
+        private final XMLEventReader inputReader;
+        private final Runnable cancelTransform;
+        private XMLEvent pendingEvent;
+        private boolean inputComplete = false;
+        
+        public PipelinedEventReader(XMLEventPipe outputPipe, XMLEventPipe inputPipe, XMLEventReader inputReader, Runnable cancelTransform) {
+            super(outputPipe.getReader());
+            this.outputPipe = outputPipe;
+            this.inputPipe = inputPipe;
+            this.inputReader = inputReader;
+            this.cancelTransform = cancelTransform;
+        }
+        
+        /**
+         * Feeds input events until the transformation produces an event or all input has been fed
+         */
+        private void feed() throws XMLStreamException {
+            long lastProgress = System.currentTimeMillis();
+            try {
+                while (!this.inputComplete && !this.outputPipe.awaitReadable(0)) {
+                    if (this.pendingEvent == null && this.inputReader.hasNext()) {
+                        this.pendingEvent = this.inputReader.nextEvent();
+                    }
+                    
+                    final boolean fed;
+                    if (this.pendingEvent != null) {
+                        fed = this.inputPipe.offer(this.pendingEvent);
+                    }
+                    else {
+                        fed = this.inputComplete = this.inputPipe.offerComplete();
+                    }
+                    
+                    if (fed) {
+                        this.pendingEvent = null;
+                        lastProgress = System.currentTimeMillis();
+                    }
+                    else if (System.currentTimeMillis() - lastProgress > pipelineTimeout) {
+                        throw new XMLStreamException("Timed out after " + pipelineTimeout + "ms waiting for the pipelined XML Transformation to consume events");
+                    }
+                    else {
+                        //The input buffer is full, give the transformation time to work through it
+                        this.outputPipe.awaitReadable(1);
+                    }
+                }
+            }
+            catch (XMLStreamException e) {
+                this.cancelTransform.run();
+                throw e;
+            }
+            catch (RuntimeException e) {
+                this.cancelTransform.run();
+                throw e;
+            }
+        }
+        
+        @Override
+        protected XMLEvent internalNextEvent() throws XMLStreamException {
+            this.feed();
+            return this.getParent().nextEvent();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                this.feed();
+            }
+            catch (XMLStreamException e) {
+                throw new IllegalStateException(e);
+            }
+            return super.hasNext();
+        }
+
+        @Override
+        public XMLEvent peek() throws XMLStreamException {
+            this.feed();
+            return super.peek();
+        }
+
+        @Override
+        public void close() throws XMLStreamException {
+            this.cancelTransform.run();
+        }
+    }
+    
+    private SAXResult createOutputTarget(XMLEventWriter eventWriter) {
+        final ContentHandler contentHandler = StaxUtils.createLexicalContentHandler(eventWriter);
+        contentHandler.setDocumentLocator(new LocatorImpl());
+        return new SAXResult(contentHandler);
     }
 
     @Override
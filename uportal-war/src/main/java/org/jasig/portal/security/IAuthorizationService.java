@@ -18,6 +18,8 @@
  */
 package org.jasig.portal.security;
 
+import java.util.Collection;
+import java.util.Set;
 import java.util.Vector;
 
 import org.jasig.portal.AuthorizationException;
@@ -289,4 +291,34 @@ p *
       String target,
       IPermissionPolicy policy)
     throws AuthorizationException;
+
+/**
+ * Answers which of the targets the owner has given the principal permission to perform
+ * the activity on.  The answer for each target is the same as
+ * {@link #doesPrincipalHavePermission(IAuthorizationPrincipal, String, String, String)} but
+ * the groups of the principal are only walked once for all of the targets.
+ *
+ * @return the targets the principal has permission to perform the activity on
+ * @param principal IAuthorizationPrincipal
+ * @param owner java.lang.String
+ * @param activity java.lang.String
+ * @param targets the targets to check
+ * @exception AuthorizationException indicates authorization information could not
+ * be retrieved.
+ */
+    public Set<String> getPermittedTargets(
+      IAuthorizationPrincipal principal,
+      String owner,
+      String activity,
+      Collection<String> targets)
+    throws AuthorizationException;
+
+    /**
+     * The portlets the principal has permission to browse, the bulk version of
+     * {@link #canPrincipalBrowse(IAuthorizationPrincipal, IPortletDefinition)}.
+     * @param principal principal
+     * @param portlets Portlets to check
+     * @return The portlets the principal has permission to browse, in the order they were passed
+     */
+    public Set<IPortletDefinition> getBrowsablePortlets(IAuthorizationPrincipal principal, Collection<? extends IPortletDefinition> portlets);
 }
@@ -0,0 +1,56 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.security;
+
+import java.util.Collection;
+import java.util.Set;
+
+import org.jasig.portal.permission.IPermissionActivity;
+import org.jasig.portal.permission.IPermissionOwner;
+import org.jasig.portal.permission.target.IPermissionTarget;
+
+/**
+ * A permission policy that can evaluate an activity over many targets for one
+ * principal at once, used by {@link IAuthorizationService#getPermittedTargets}.
+ * @see org.jasig.portal.security.IPermissionPolicy
+ */
+public interface IBulkPermissionPolicy extends IPermissionPolicy {
+
+    /**
+     * Answers which of the targets the owner has authorized the principal to
+     * perform the activity on.  The answer for each target must be the same as
+     * {@link #doesPrincipalHavePermission(IAuthorizationService, IAuthorizationPrincipal, IPermissionOwner, IPermissionActivity, IPermissionTarget)}.
+     *
+     * @param service org.jasig.portal.security.IAuthorizationService
+     * @param principal org.jasig.portal.security.IAuthorizationPrincipal
+     * @param owner The 'namespace' of the activity
+     * @param activity The behavior that requires permission
+     * @param targets The objects upon which the behavior will be invoked
+     * @return The targets the principal has permission to perform the activity on
+     * @exception org.jasig.portal.AuthorizationException
+     */
+    public Set<IPermissionTarget> getPermittedTargets(
+            IAuthorizationService service,
+            IAuthorizationPrincipal principal,
+            IPermissionOwner owner,
+            IPermissionActivity activity,
+            Collection<IPermissionTarget> targets)
+        throws org.jasig.portal.AuthorizationException;
+
+}
@@ -18,9 +18,17 @@
  */
 package org.jasig.portal.security.provider;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import net.sf.ehcache.Cache;
@@ -36,8 +44,8 @@ import org.jasig.portal.permission.target.IPermissionTarget;
 import org.jasig.portal.permission.target.IPermissionTargetProviderRegistry;
 import org.jasig.portal.security.IAuthorizationPrincipal;
 import org.jasig.portal.security.IAuthorizationService;
+import org.jasig.portal.security.IBulkPermissionPolicy;
 import org.jasig.portal.security.IPermission;
-import org.jasig.portal.security.IPermissionPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -72,7 +80,7 @@ import org.springframework.stereotype.Service;
  *  Results in GRANT because there is an unblocked path to a GRANT.
  */
 @Service("anyUnblockedGrantPermissionPolicy")
-public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
+public class AnyUnblockedGrantPermissionPolicy implements IBulkPermissionPolicy {
 
     protected final Logger log = LoggerFactory.getLogger(getClass());
 
@@ -123,20 +131,7 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
          * perform the specified activity over an entire class of targets;
          * see if one of those applies in this case.
          */
-        IPermissionTarget collectiveTarget = null;  // The "collective noun" representing a class of thing
-        switch (target.getTargetType()) {
-            case PORTLET:
-                collectiveTarget = targetProviderRegistry.getTargetProvider(activity.getTargetProviderKey()).getTarget(IPermission.ALL_PORTLETS_TARGET);
-                break;
-            case CATEGORY:
-                collectiveTarget = targetProviderRegistry.getTargetProvider(activity.getTargetProviderKey()).getTarget(IPermission.ALL_CATEGORIES_TARGET);
-                break;
-            case GROUP:
-                collectiveTarget = targetProviderRegistry.getTargetProvider(activity.getTargetProviderKey()).getTarget(IPermission.ALL_GROUPS_TARGET);
-                break;
-            default:
-            // This sort of handling does not apply;  just pass through
-        }
+        final IPermissionTarget collectiveTarget = getCollectiveTarget(activity, target);
         /*
          * NOTE:  Cannot generalize to a collective target if we are already on
          * the collective target, else StackOverflowError.
@@ -181,6 +176,220 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
 
     }
 
+    /**
+     * Evaluates the activity for all of the targets at once.  The super-user and
+     * collective target checks are made once for all targets and the groups of the
+     * principal are walked once, see {@link #hasUnblockedPathToGrant(IAuthorizationService, IAuthorizationPrincipal, BulkEvaluation, BitSet)}.
+     */
+    @Override
+    public Set<IPermissionTarget> getPermittedTargets(
+            IAuthorizationService service,
+            IAuthorizationPrincipal principal,
+            IPermissionOwner owner,
+            IPermissionActivity activity,
+            Collection<IPermissionTarget> targets) throws AuthorizationException {
+
+        if (service == null || principal == null || owner == null || activity == null || targets == null) {
+            log.error("Null argument to AnyUnblockedGrantPermissionPolicy getPermittedTargets() method " +
+                    "should not be possible.  This is indicative of a potentially serious bug in the permissions " +
+                    "and authorization infrastructure;  service='{}', principal='{}', owner='{}', activity='{}'",
+                    service, principal, owner, activity);
+            // fail closed
+            return Collections.emptySet();
+        }
+
+        // Is this user a super-user?
+        final IPermissionActivity allPermissionsActivity = permissionOwnerDao.getPermissionActivity(IPermission.PORTAL_SYSTEM, IPermission.ALL_PERMISSIONS_ACTIVITY);
+        if (!activity.equals(allPermissionsActivity)) {
+            final IPermissionOwner allPermissionsOwner = permissionOwnerDao.getPermissionOwner(IPermission.PORTAL_SYSTEM);
+            final IPermissionTarget allPermissionsTarget = targetProviderRegistry.getTargetProvider(allPermissionsActivity.getTargetProviderKey()).getTarget(IPermission.ALL_TARGET);
+            if (doesPrincipalHavePermission(service, principal, allPermissionsOwner, allPermissionsActivity, allPermissionsTarget)) {
+                return new LinkedHashSet<IPermissionTarget>(targets);
+            }
+        }
+
+        // Check each collective target once for all of the targets it covers
+        final Set<IPermissionTarget> permittedTargets = new LinkedHashSet<IPermissionTarget>();
+        final Map<IPermissionTarget, Boolean> collectiveTargetPermissions = new HashMap<IPermissionTarget, Boolean>();
+        final List<IPermissionTarget> remainingTargets = new ArrayList<IPermissionTarget>(targets.size());
+        for (final IPermissionTarget target : new LinkedHashSet<IPermissionTarget>(targets)) {
+            final IPermissionTarget collectiveTarget = getCollectiveTarget(activity, target);
+            if (collectiveTarget != null && !collectiveTarget.equals(target)) {
+                Boolean collectivePermission = collectiveTargetPermissions.get(collectiveTarget);
+                if (collectivePermission == null) {
+                    collectivePermission = doesPrincipalHavePermission(service, principal, owner, activity, collectiveTarget);
+                    collectiveTargetPermissions.put(collectiveTarget, collectivePermission);
+                }
+                if (collectivePermission) {
+                    permittedTargets.add(target);
+                    continue;
+                }
+            }
+            remainingTargets.add(target);
+        }
+
+        if (!remainingTargets.isEmpty()) {
+            final BulkEvaluation evaluation = new BulkEvaluation(owner, activity, remainingTargets);
+            final BitSet allTargets = new BitSet(remainingTargets.size());
+            allTargets.set(0, remainingTargets.size());
+            try {
+                final BitSet granted = hasUnblockedPathToGrant(service, principal, evaluation, allTargets);
+                for (int i = granted.nextSetBit(0); i >= 0; i = granted.nextSetBit(i + 1)) {
+                    permittedTargets.add(remainingTargets.get(i));
+                }
+            } catch (Exception e) {
+                log.error("Error searching for unblocked paths to grant for principal [" + principal + "]", e);
+                // fail closed, but keep the targets granted by their collective target
+            }
+        }
+
+        // Keep the order the targets were passed in
+        final Set<IPermissionTarget> orderedTargets = new LinkedHashSet<IPermissionTarget>();
+        for (final IPermissionTarget target : targets) {
+            if (permittedTargets.contains(target)) {
+                orderedTargets.add(target);
+            }
+        }
+        return orderedTargets;
+    }
+
+    /**
+     * @return The "collective noun" target representing the class of thing the target
+     * belongs to, null if there is none
+     */
+    private IPermissionTarget getCollectiveTarget(IPermissionActivity activity, IPermissionTarget target) {
+        switch (target.getTargetType()) {
+            case PORTLET:
+                return targetProviderRegistry.getTargetProvider(activity.getTargetProviderKey()).getTarget(IPermission.ALL_PORTLETS_TARGET);
+            case CATEGORY:
+                return targetProviderRegistry.getTargetProvider(activity.getTargetProviderKey()).getTarget(IPermission.ALL_CATEGORIES_TARGET);
+            case GROUP:
+                return targetProviderRegistry.getTargetProvider(activity.getTargetProviderKey()).getTarget(IPermission.ALL_GROUPS_TARGET);
+            default:
+                // This sort of handling does not apply;  just pass through
+                return null;
+        }
+    }
+
+    /**
+     * Bulk version of {@link #hasUnblockedPathToGrant(IAuthorizationService, IAuthorizationPrincipal, IPermissionOwner, IPermissionActivity, IPermissionTarget, Set)}
+     * that evaluates the open targets, identified by their index, for the principal and its
+     * ancestors in a single walk of the groups tree.  A principal without any permissions for
+     * the activity is skipped with a single lookup instead of one lookup per target.  The answers
+     * for each group are remembered so groups reachable through several paths are only evaluated
+     * once for each target.
+     *
+     * @return The indexes of the open targets the principal has an unblocked path to a GRANT for
+     */
+    private BitSet hasUnblockedPathToGrant(IAuthorizationService service,
+            IAuthorizationPrincipal principal, BulkEvaluation evaluation,
+            BitSet openTargets) throws GroupsException {
+
+        final IGroupMember principalAsGroupMember = service.getGroupMember(principal);
+        BulkResult result = evaluation.results.get(principalAsGroupMember);
+        if (result == null) {
+            result = new BulkResult();
+            evaluation.results.put(principalAsGroupMember, result);
+        }
+        else if (evaluation.inProgress.contains(principalAsGroupMember)) {
+            // Circular group membership, same as re-examining an already checked group
+            return new BitSet();
+        }
+
+        final BitSet undecided = (BitSet) openTargets.clone();
+        undecided.andNot(result.evaluated);
+        if (!undecided.isEmpty()) {
+            evaluation.inProgress.add(principalAsGroupMember);
+            try {
+                result.evaluated.or(undecided);
+                evaluateUndecided(service, principal, principalAsGroupMember, evaluation, undecided, result.granted);
+            }
+            finally {
+                evaluation.inProgress.remove(principalAsGroupMember);
+            }
+        }
+
+        final BitSet granted = (BitSet) result.granted.clone();
+        granted.and(openTargets);
+        return granted;
+    }
+
+    private void evaluateUndecided(IAuthorizationService service,
+            IAuthorizationPrincipal principal, IGroupMember principalAsGroupMember,
+            BulkEvaluation evaluation, BitSet undecided, BitSet granted) throws GroupsException {
+
+        final IPermissionOwner owner = evaluation.owner;
+        final IPermissionActivity activity = evaluation.activity;
+        final BitSet computed = (BitSet) undecided.clone();
+
+        // Use the answers already cached by single target checks
+        for (int i = undecided.nextSetBit(0); i >= 0; i = undecided.nextSetBit(i + 1)) {
+            final Element element = hasUnblockedGrantCache.get(new CacheTuple(
+                    principal.getPrincipalString(), owner.getFname(), activity.getFname(), evaluation.targets.get(i).getKey()));
+            if (element != null) {
+                if ((Boolean) element.getObjectValue()) {
+                    granted.set(i);
+                }
+                undecided.clear(i);
+                computed.clear(i);
+            }
+        }
+
+        /*
+         * Step #1:  Specific GRANT/DENY attached to this principal, only looked up
+         * per target if the principal has any permissions for the activity at all
+         */
+        if (!undecided.isEmpty()) {
+            final IPermission[] activityPermissions = service.getPermissionsForPrincipal(principal,
+                    owner.getFname(), activity.getFname(), null);
+            if (!removeInactivePermissions(activityPermissions).isEmpty()) {
+                for (int i = undecided.nextSetBit(0); i >= 0; i = undecided.nextSetBit(i + 1)) {
+                    final IPermission[] permissions = service.getPermissionsForPrincipal(principal,
+                            owner.getFname(), activity.getFname(), evaluation.targets.get(i).getKey());
+                    final Set<IPermission> activePermissions = removeInactivePermissions(permissions);
+                    if (containsType(activePermissions, IPermission.PERMISSION_TYPE_DENY)) {
+                        // DENY trumps both GRANT & inherited permissions
+                        undecided.clear(i);
+                    }
+                    else if (containsType(activePermissions, IPermission.PERMISSION_TYPE_GRANT)) {
+                        granted.set(i);
+                        undecided.clear(i);
+                    }
+                }
+            }
+        }
+
+        /*
+         * Step #2:  Seek an answer for the remaining targets from affiliated groups
+         */
+        if (!undecided.isEmpty()) {
+            @SuppressWarnings("unchecked")
+            Iterator<IGroupMember> immediatelyContainingGroups = principalAsGroupMember.getContainingGroups();
+            while (immediatelyContainingGroups.hasNext() && !undecided.isEmpty()) {
+                IGroupMember parentGroup = immediatelyContainingGroups.next();
+                try {
+                    if (parentGroup != null) {
+                        IAuthorizationPrincipal parentPrincipal = service.newPrincipal( parentGroup );
+                        final BitSet parentGranted = hasUnblockedPathToGrant(service, parentPrincipal, evaluation, undecided);
+                        granted.or(parentGranted);
+                        undecided.andNot(parentGranted);
+                    }
+                } catch (Exception e) {
+                    // problem evaluating this path, but let's not let it stop
+                    // us from exploring other paths
+                    log.error("Error evaluating permissions of parent group [" + parentGroup + "]", e);
+                }
+            }
+        }
+
+        // Share the answers with single target checks
+        for (int i = computed.nextSetBit(0); i >= 0; i = computed.nextSetBit(i + 1)) {
+            final CacheTuple cacheTuple = new CacheTuple(
+                    principal.getPrincipalString(), owner.getFname(), activity.getFname(), evaluation.targets.get(i).getKey());
+            hasUnblockedGrantCache.put(new Element(cacheTuple, granted.get(i)));
+        }
+    }
+
     private boolean hasUnblockedPathToGrantWithCache(IAuthorizationService service,
             IAuthorizationPrincipal principal, IPermissionOwner owner,
             IPermissionActivity activity, IPermissionTarget target,
@@ -354,6 +563,32 @@ public class AnyUnblockedGrantPermissionPolicy implements IPermissionPolicy {
      * Nested Types
      */
 
+    /**
+     * State of one {@link AnyUnblockedGrantPermissionPolicy#getPermittedTargets} call
+     */
+    private static final class BulkEvaluation {
+        private final IPermissionOwner owner;
+        private final IPermissionActivity activity;
+        private final List<IPermissionTarget> targets;
+        private final Map<IGroupMember, BulkResult> results = new HashMap<IGroupMember, BulkResult>();
+        private final Set<IGroupMember> inProgress = new HashSet<IGroupMember>();
+
+        public BulkEvaluation(IPermissionOwner owner, IPermissionActivity activity,
+                List<IPermissionTarget> targets) {
+            this.owner = owner;
+            this.activity = activity;
+            this.targets = targets;
+        }
+    }
+
+    /**
+     * The targets evaluated for one group member and the ones it has an unblocked path to a GRANT for
+     */
+    private static final class BulkResult {
+        private final BitSet evaluated = new BitSet();
+        private final BitSet granted = new BitSet();
+    }
+
     private static final class CacheTuple {
         private final String principalName;
         private final String owner;
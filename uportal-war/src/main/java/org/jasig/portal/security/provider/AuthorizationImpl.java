@@ -21,9 +21,13 @@ package org.jasig.portal.security.provider;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 
@@ -51,6 +55,7 @@ import org.jasig.portal.portlet.om.PortletLifecycleState;
 import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
 import org.jasig.portal.security.IAuthorizationPrincipal;
 import org.jasig.portal.security.IAuthorizationService;
+import org.jasig.portal.security.IBulkPermissionPolicy;
 import org.jasig.portal.security.IPermission;
 import org.jasig.portal.security.IPermissionManager;
 import org.jasig.portal.security.IPermissionPolicy;
@@ -109,6 +114,9 @@ public class AuthorizationImpl implements IAuthorizationService {
     /** The cache to hold permission resolution. */
     private Ehcache doesPrincipalHavePermissionCache;
 
+    /** The cache to hold the unblocked grant resolution of the default permission policy. */
+    private Ehcache hasUnblockedGrantCache;
+
     /** The class representing the permission set type. */
     private static final Class<IPermissionSet> PERMISSION_SET_TYPE = IPermissionSet.class;
 
@@ -154,6 +162,10 @@ public class AuthorizationImpl implements IAuthorizationService {
         this.doesPrincipalHavePermissionCache = doesPrincipalHavePermissionCache;
     }
     @Autowired
+    public void setHasUnblockedGrantCache(@Qualifier("org.jasig.portal.security.provider.AnyUnblockedGrantPermissionPolicy.HAS_UNBLOCKED_GRANT") Ehcache hasUnblockedGrantCache) {
+        this.hasUnblockedGrantCache = hasUnblockedGrantCache;
+    }
+    @Autowired
     public void setPortletDefinitionRegistry(IPortletDefinitionRegistry portletDefinitionRegistry) {
         this.portletDefinitionRegistry = portletDefinitionRegistry;
     }
@@ -180,6 +192,7 @@ throws AuthorizationException
         getPermissionStore().add(permissions);
         if ( this.cachePermissions )
             { removeFromPermissionsCache(permissions); }
+        clearPermissionResolutionCaches();
     }
 }
 
@@ -515,15 +528,7 @@ throws AuthorizationException
     public boolean doesPrincipalHavePermission(IAuthorizationPrincipal principal, String owner, String activity,
             String target, IPermissionPolicy policy) throws AuthorizationException {
         
-        final CacheKeyBuilder<Serializable, Serializable> cacheKeyBuilder = CacheKey.builder(AuthorizationImpl.class.getName());
-        final String username = principal.getKey();
-        if (IPerson.class.equals(principal.getType())) {
-            cacheKeyBuilder.addTag(UsernameTaggedCacheEntryPurger.createCacheEntryTag(username));
-        }
-        cacheKeyBuilder.addAll(policy.getClass(), username,
-                principal.getType(), owner, activity, target);
-        
-        final CacheKey key = cacheKeyBuilder.build();
+        final CacheKey key = createPermissionCacheKey(principal, owner, activity, target, policy);
 
         final Element element = this.doesPrincipalHavePermissionCache.get(key);
         if (element != null) {
@@ -559,6 +564,109 @@ throws AuthorizationException
         return doesPrincipalHavePermission;
     }
 
+    private CacheKey createPermissionCacheKey(IAuthorizationPrincipal principal, String owner, String activity,
+            String target, IPermissionPolicy policy) {
+        final CacheKeyBuilder<Serializable, Serializable> cacheKeyBuilder = CacheKey.builder(AuthorizationImpl.class.getName());
+        final String username = principal.getKey();
+        if (IPerson.class.equals(principal.getType())) {
+            cacheKeyBuilder.addTag(UsernameTaggedCacheEntryPurger.createCacheEntryTag(username));
+        }
+        cacheKeyBuilder.addAll(policy.getClass(), username,
+                principal.getType(), owner, activity, target);
+        
+        return cacheKeyBuilder.build();
+    }
+
+    @Override
+    public Set<String> getPermittedTargets(IAuthorizationPrincipal principal, String owner, String activity,
+            Collection<String> targets) throws AuthorizationException {
+        
+        final IPermissionPolicy policy = getDefaultPermissionPolicy();
+        final Set<String> permittedTargets = new HashSet<String>();
+        
+        // Answers already in the permission cache don't need to be evaluated again
+        final Map<String, CacheKey> uncachedTargets = new LinkedHashMap<String, CacheKey>();
+        for (final String target : targets) {
+            final CacheKey key = createPermissionCacheKey(principal, owner, activity, target, policy);
+            final Element element = this.doesPrincipalHavePermissionCache.get(key);
+            if (element == null) {
+                uncachedTargets.put(target, key);
+            }
+            else if ((Boolean) element.getValue()) {
+                permittedTargets.add(target);
+            }
+        }
+        
+        if (!uncachedTargets.isEmpty()) {
+            final IPermissionOwner ipOwner = permissionOwnerDao.getPermissionOwner(owner);
+            final IPermissionActivity ipActivity = permissionOwnerDao.getPermissionActivity(owner, activity);
+            if (ipActivity == null) {
+                // Means needed data is missing;  much clearer than NPE
+                String msg = "The following activity is not defined for owner '" + owner + "':  " + activity;
+                throw new RuntimeException(msg);
+            }
+            final IPermissionTargetProvider targetProvider = targetProviderRegistry.getTargetProvider(ipActivity.getTargetProviderKey());
+            
+            final Map<IPermissionTarget, String> ipTargets = new LinkedHashMap<IPermissionTarget, String>();
+            for (final String target : uncachedTargets.keySet()) {
+                ipTargets.put(targetProvider.getTarget(target), target);
+            }
+            
+            final Set<IPermissionTarget> permittedIpTargets;
+            if (policy instanceof IBulkPermissionPolicy) {
+                permittedIpTargets = ((IBulkPermissionPolicy) policy).getPermittedTargets(this, principal, ipOwner,
+                        ipActivity, ipTargets.keySet());
+            }
+            else {
+                permittedIpTargets = new HashSet<IPermissionTarget>();
+                for (final IPermissionTarget ipTarget : ipTargets.keySet()) {
+                    if (policy.doesPrincipalHavePermission(this, principal, ipOwner, ipActivity, ipTarget)) {
+                        permittedIpTargets.add(ipTarget);
+                    }
+                }
+            }
+            
+            for (final Map.Entry<IPermissionTarget, String> ipTargetEntry : ipTargets.entrySet()) {
+                final String target = ipTargetEntry.getValue();
+                final boolean doesPrincipalHavePermission = permittedIpTargets.contains(ipTargetEntry.getKey());
+                if (doesPrincipalHavePermission) {
+                    permittedTargets.add(target);
+                }
+                this.doesPrincipalHavePermissionCache.put(new Element(uncachedTargets.get(target), doesPrincipalHavePermission));
+            }
+        }
+        
+        // Keep the order the targets were passed in
+        final Set<String> orderedTargets = new LinkedHashSet<String>();
+        for (final String target : targets) {
+            if (permittedTargets.contains(target)) {
+                orderedTargets.add(target);
+            }
+        }
+        return orderedTargets;
+    }
+
+    @Override
+    public Set<IPortletDefinition> getBrowsablePortlets(IAuthorizationPrincipal principal,
+            Collection<? extends IPortletDefinition> portlets) {
+        
+        final Map<String, IPortletDefinition> portletTargets = new LinkedHashMap<String, IPortletDefinition>();
+        for (final IPortletDefinition portlet : portlets) {
+            portletTargets.put(PermissionHelper.permissionTargetIdForPortletDefinition(portlet), portlet);
+        }
+        
+        final Set<String> permittedTargets = getPermittedTargets(principal, IPermission.PORTAL_SUBSCRIBE,
+                IPermission.PORTLET_BROWSE_ACTIVITY, portletTargets.keySet());
+        
+        final Set<IPortletDefinition> browsablePortlets = new LinkedHashSet<IPortletDefinition>();
+        for (final Map.Entry<String, IPortletDefinition> portletTargetEntry : portletTargets.entrySet()) {
+            if (permittedTargets.contains(portletTargetEntry.getKey())) {
+                browsablePortlets.add(portletTargetEntry.getValue());
+            }
+        }
+        return browsablePortlets;
+    }
+
 /**
  * Returns the <code>IPermissions</code> owner has granted this <code>Principal</code> for
  * the specified activity and target.  Null parameters will be ignored, that is, all
@@ -1125,6 +1233,18 @@ throws AuthorizationException
     removeFromPermissionsCache(principals);
 }
 
+/**
+ * Removes all resolved permission checks from the caches.  Any permission change can change
+ * the answer for principals inheriting the permission through their groups so the resolved
+ * checks are cleared completely, permission changes are rare compared to checks.
+ */
+private void clearPermissionResolutionCaches()
+{
+    this.doesPrincipalHavePermissionCache.removeAll();
+    if ( this.hasUnblockedGrantCache != null )
+        { this.hasUnblockedGrantCache.removeAll(); }
+}
+
 /**
  * Removes <code>IPermissions</code> from the back end store.
  * @param permissions IPermission[]
@@ -1138,6 +1258,7 @@ throws AuthorizationException
         getPermissionStore().delete(permissions);
         if ( this.cachePermissions )
             { removeFromPermissionsCache(permissions); }
+        clearPermissionResolutionCaches();
     }
 }
 
@@ -1154,6 +1275,7 @@ throws AuthorizationException
         getPermissionStore().update(permissions);
         if ( this.cachePermissions )
             { removeFromPermissionsCache(permissions); }
+        clearPermissionResolutionCaches();
     }
 }
 }
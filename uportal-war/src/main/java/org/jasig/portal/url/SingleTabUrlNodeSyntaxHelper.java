@@ -25,9 +25,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import javax.servlet.http.HttpServletRequest;
-import javax.xml.xpath.XPathExpression;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
 import org.jasig.portal.IUserPreferencesManager;
 import org.jasig.portal.PortalException;
 import org.jasig.portal.concurrency.caching.RequestCache;
@@ -36,7 +36,6 @@ import org.jasig.portal.layout.IStylesheetUserPreferencesService;
 import org.jasig.portal.layout.IStylesheetUserPreferencesService.PreferencesScope;
 import org.jasig.portal.layout.IUserLayout;
 import org.jasig.portal.layout.IUserLayoutManager;
-import org.jasig.portal.layout.PortletTabIdResolver;
 import org.jasig.portal.layout.node.IUserLayoutNodeDescription;
 import org.jasig.portal.layout.om.IStylesheetDescriptor;
 import org.jasig.portal.layout.om.IStylesheetParameterDescriptor;
@@ -49,14 +48,11 @@ import org.jasig.portal.portlet.registry.IPortletEntityRegistry;
 import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
 import org.jasig.portal.user.IUserInstance;
 import org.jasig.portal.user.IUserInstanceManager;
-import org.jasig.portal.xml.xpath.XPathOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import com.google.common.base.Function;
-
 /**
  * Maps tabs and portlets to folder names and back. Handles a single set of tabs and uses tab IDs for folder names.
  * 
@@ -71,12 +67,9 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
     
     protected final Logger logger = LoggerFactory.getLogger(getClass());
     
-    private String defaultLayoutNodeIdExpression = "/layout/folder/folder[@type='regular' and @hidden!='true'][$defaultTab]/@ID";
-//    private String tabIdExpression = "/layout/folder/folder[@ID=$nodeId or descendant::node()[@ID=$nodeId]]/@ID";
     private String defaultTabParameter = "defaultTab";
     
     private IUserInstanceManager userInstanceManager;
-    private XPathOperations xpathOperations;
     private IStylesheetUserPreferencesService stylesheetUserPreferencesService;
     private IPortletWindowRegistry portletWindowRegistry;
     private IPortletEntityRegistry portletEntityRegistry;
@@ -96,11 +89,6 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         this.userInstanceManager = userInstanceManager;
     }
 
-    @Autowired
-    public void setXpathOperations(XPathOperations xpathOperations) {
-        this.xpathOperations = xpathOperations;
-    }
-    
     @Autowired
     public void setStylesheetUserPreferencesService(IStylesheetUserPreferencesService stylesheetUserPreferencesService) {
         this.stylesheetUserPreferencesService = stylesheetUserPreferencesService;
@@ -141,15 +129,10 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
     }
 
     protected String getTabId(final IUserLayout userLayout, final String tabIndex) {
-        return this.xpathOperations.doWithExpression(
-            defaultLayoutNodeIdExpression, 
-            Collections.singletonMap("defaultTab", tabIndex), 
-            new Function<XPathExpression, String>() {
-                @Override
-                public String apply(XPathExpression xPathExpression) {
-                    return userLayout.findNodeId(xPathExpression);
-                }
-            });
+        if (!NumberUtils.isDigits(tabIndex)) {
+            return null;
+        }
+        return userLayout.getTabIdByIndex(NumberUtils.toInt(tabIndex));
     }
 
     /**
@@ -187,7 +170,7 @@ public class SingleTabUrlNodeSyntaxHelper implements IUrlNodeSyntaxHelper {
         final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
         final IUserLayout userLayout = userLayoutManager.getUserLayout();
         
-        final String tabId = userLayout.findNodeId(new PortletTabIdResolver(layoutNodeId));
+        final String tabId = userLayout.getTabId(layoutNodeId);
         
         if (StringUtils.isEmpty(tabId)) {
             return Collections.emptyList();
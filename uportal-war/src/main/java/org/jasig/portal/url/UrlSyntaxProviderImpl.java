@@ -38,10 +38,10 @@ import java.util.regex.Pattern;
 import javax.portlet.PortletMode;
 import javax.portlet.WindowState;
 import javax.servlet.http.HttpServletRequest;
-import javax.xml.xpath.XPathExpression;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
+import org.apache.commons.lang.math.NumberUtils;
 import org.jasig.portal.IUserPreferencesManager;
 import org.jasig.portal.layout.IUserLayout;
 import org.jasig.portal.layout.IUserLayoutManager;
@@ -55,14 +55,12 @@ import org.jasig.portal.user.IUserInstance;
 import org.jasig.portal.user.IUserInstanceManager;
 import org.jasig.portal.utils.Tuple;
 import org.jasig.portal.utils.web.PortalWebUtils;
-import org.jasig.portal.xml.xpath.XPathOperations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.web.util.UrlPathHelper;
 
-import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
@@ -239,18 +237,12 @@ public class UrlSyntaxProviderImpl implements IUrlSyntaxProvider {
     private IUrlNodeSyntaxHelperRegistry urlNodeSyntaxHelperRegistry;
     private IPortalUrlProvider portalUrlProvider;
     private IUserInstanceManager userInstanceManager;
-    private XPathOperations xpathOperations;
 
     @Autowired
     public void setUserInstanceManager(IUserInstanceManager userInstanceManager) {
         this.userInstanceManager = userInstanceManager;
     }
 
-    @Autowired
-    public void setXpathOperations(XPathOperations xpathOperations) {
-        this.xpathOperations = xpathOperations;
-    }
-
     @Autowired
     public void setPortalUrlProvider(IPortalUrlProvider portalUrlProvider) {
         this.portalUrlProvider = portalUrlProvider;
@@ -731,15 +723,13 @@ public class UrlSyntaxProviderImpl implements IUrlSyntaxProvider {
                             final IUserLayoutManager userLayoutManager = preferencesManager.getUserLayoutManager();
                             final IUserLayout userLayout = userLayoutManager.getUserLayout();
                             
-                            final String nodeId = this.xpathOperations.doWithExpression(
-                                    "/layout/folder/folder[@type='regular' and @hidden='false'][position() = $activeTabId]/@ID", 
-                                    Collections.singletonMap("activeTabId", activeTabId[0]), 
-                                    new Function<XPathExpression, String>() {
-                                        @Override
-                                        public String apply(XPathExpression xPathExpression) {
-                                            return userLayout.findNodeId(xPathExpression);
-                                        }
-                                    });
+                            final String nodeId;
+                            if (NumberUtils.isDigits(activeTabId[0])) {
+                                nodeId = userLayout.getTabIdByIndex(NumberUtils.toInt(activeTabId[0]));
+                            }
+                            else {
+                                nodeId = null;
+                            }
 
                             //Found nodeId for activeTabId
                             if (nodeId != null) {
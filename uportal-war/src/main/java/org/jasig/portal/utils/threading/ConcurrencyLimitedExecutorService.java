@@ -0,0 +1,208 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils.threading;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ExecutorService} that limits the number of tasks executing concurrently with a {@link Semaphore} instead
+ * of relying on the size of the underlying pool. The delegate is expected to start a thread for every task it is
+ * given, such as an unbounded pool, so that the only limit on concurrency is the number of permits.
+ * <p/>
+ * A permit is acquired by the submitting thread, waiting up to the configured permit wait time, and released when the
+ * task completes on the delegate. If no permit is available the task is rejected with a
+ * {@link RejectedExecutionException}, just like a saturated {@link java.util.concurrent.ThreadPoolExecutor}.
+ */
+public class ConcurrencyLimitedExecutorService extends AbstractExecutorService {
+    private final ExecutorService delegate;
+    private final ResizableSemaphore permits;
+    private volatile int maximumConcurrency;
+    private volatile long permitWaitTime = 0;
+    
+    public ConcurrencyLimitedExecutorService(ExecutorService delegate, int maximumConcurrency) {
+        if (maximumConcurrency <= 0) {
+            throw new IllegalArgumentException("maximumConcurrency must be greater than 0: " + maximumConcurrency);
+        }
+        
+        this.delegate = delegate;
+        this.maximumConcurrency = maximumConcurrency;
+        this.permits = new ResizableSemaphore(maximumConcurrency);
+    }
+    
+    /**
+     * Time in milliseconds to wait for a permit before rejecting a task, defaults to 0
+     */
+    public void setPermitWaitTime(long permitWaitTime) {
+        this.permitWaitTime = permitWaitTime;
+    }
+    
+    public long getPermitWaitTime() {
+        return this.permitWaitTime;
+    }
+
+    /**
+     * Change the number of tasks that may execute concurrently. Lowering the limit does not affect tasks that are
+     * already executing, new tasks are rejected until enough of them complete.
+     */
+    public synchronized void setMaximumConcurrency(int maximumConcurrency) {
+        if (maximumConcurrency <= 0) {
+            throw new IllegalArgumentException("maximumConcurrency must be greater than 0: " + maximumConcurrency);
+        }
+        
+        final int delta = maximumConcurrency - this.maximumConcurrency;
+        if (delta > 0) {
+            this.permits.release(delta);
+        }
+        else if (delta < 0) {
+            this.permits.reducePermits(-delta);
+        }
+        this.maximumConcurrency = maximumConcurrency;
+    }
+    
+    /**
+     * @return The maximum number of tasks that may execute concurrently
+     */
+    public int getMaximumConcurrency() {
+        return this.maximumConcurrency;
+    }
+    
+    /**
+     * @return The approximate number of tasks currently holding a permit
+     */
+    public int getActiveCount() {
+        return Math.max(0, this.maximumConcurrency - this.permits.availablePermits());
+    }
+    
+    /**
+     * @return The approximate number of threads waiting for a permit
+     */
+    public int getWaitingCount() {
+        return this.permits.getQueueLength();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        
+        final boolean acquired;
+        try {
+            acquired = this.permits.tryAcquire(this.permitWaitTime, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting to execute " + command, e);
+        }
+        
+        if (!acquired) {
+            throw new RejectedExecutionException("Rejecting execution of " + command + 
+                    ". activeCount=" + this.getActiveCount() + 
+                    ". maximumConcurrency=" + this.maximumConcurrency + 
+                    ". waitingCount=" + this.getWaitingCount());
+        }
+        
+        try {
+            this.delegate.execute(new PermitReleasingRunnable(command));
+        }
+        catch (RuntimeException e) {
+            this.permits.release();
+            throw e;
+        }
+        catch (Error e) {
+            this.permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        this.delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return this.delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.delegate.awaitTermination(timeout, unit);
+    }
+    
+    @Override
+    public String toString() {
+        return "ConcurrencyLimitedExecutorService [maximumConcurrency=" + this.maximumConcurrency + ", activeCount="
+                + this.getActiveCount() + ", delegate=" + this.delegate + "]";
+    }
+
+    private final class PermitReleasingRunnable implements Runnable {
+        private final Runnable command;
+
+        public PermitReleasingRunnable(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            try {
+                this.command.run();
+            }
+            finally {
+                permits.release();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return this.command.toString();
+        }
+    }
+    
+    /**
+     * Exposes {@link Semaphore#reducePermits(int)} so the limit can be lowered
+     */
+    private static final class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        public ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils.threading;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+
+import org.springframework.scheduling.concurrent.ThreadPoolExecutorFactoryBean;
+
+/**
+ * {@link ThreadPoolExecutorFactoryBean} that can optionally wrap the created pool in a
+ * {@link ConcurrencyLimitedExecutorService}. If {@link #setMaximumConcurrency(int)} is greater than 0 the pool is
+ * created without a maximum size, starting threads as tasks are submitted and reusing idle ones, and the number of
+ * concurrently executing tasks is limited by a semaphore instead. Otherwise this behaves exactly like
+ * {@link ThreadPoolExecutorFactoryBean}.
+ */
+public class ConcurrencyLimitedThreadPoolExecutorFactoryBean extends ThreadPoolExecutorFactoryBean {
+    private static final long serialVersionUID = 1L;
+    
+    private int maximumConcurrency = 0;
+    private long permitWaitTime = 0;
+    private ConcurrencyLimitedExecutorService concurrencyLimitedExecutor;
+
+    /**
+     * Maximum number of tasks that may execute concurrently, if 0 or less the pool size is the limit. Defaults to 0.
+     */
+    public void setMaximumConcurrency(int maximumConcurrency) {
+        this.maximumConcurrency = maximumConcurrency;
+    }
+
+    /**
+     * Time in milliseconds a submitting thread waits for a permit before the task is rejected. Defaults to 0.
+     */
+    public void setPermitWaitTime(long permitWaitTime) {
+        this.permitWaitTime = permitWaitTime;
+    }
+
+    @Override
+    protected ExecutorService initializeExecutor(ThreadFactory threadFactory, RejectedExecutionHandler rejectedExecutionHandler) {
+        if (this.maximumConcurrency <= 0) {
+            return super.initializeExecutor(threadFactory, rejectedExecutionHandler);
+        }
+        
+        //The semaphore is the limit, never reject or queue in the pool itself
+        this.setMaxPoolSize(Integer.MAX_VALUE);
+        this.setQueueCapacity(0);
+        final ExecutorService executor = super.initializeExecutor(threadFactory, rejectedExecutionHandler);
+        
+        this.concurrencyLimitedExecutor = new ConcurrencyLimitedExecutorService(executor, this.maximumConcurrency);
+        this.concurrencyLimitedExecutor.setPermitWaitTime(this.permitWaitTime);
+        
+        return executor;
+    }
+
+    @Override
+    public ExecutorService getObject() throws Exception {
+        if (this.concurrencyLimitedExecutor != null) {
+            return this.concurrencyLimitedExecutor;
+        }
+        
+        return super.getObject();
+    }
+
+    @Override
+    public Class<? extends ExecutorService> getObjectType() {
+        if (this.concurrencyLimitedExecutor != null) {
+            return ConcurrencyLimitedExecutorService.class;
+        }
+        
+        return super.getObjectType();
+    }
+}
@@ -0,0 +1,383 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils.threading;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.jasig.portal.utils.ConcurrentMapUtils;
+
+/**
+ * Lock-free alternative to {@link QualityOfServiceBlockingQueue} that returns elements fairly by key. Elements are
+ * placed into a lock-free sub-queue per key returned by {@link #getElementKey(Object)}. Keys that have queued
+ * elements are held in a ring of ready keys, each poll takes the key at the head of the ring, removes one element
+ * and, if the key still has elements, puts it back at the tail. This round-robins between keys without a global
+ * lock.
+ * <p/>
+ * A key is in the ring at most once: offering threads only add a key when they flip its scheduled flag and the
+ * polling thread that took the key off the ring either returns it to the ring or clears the flag.
+ * <p/>
+ * Locks are only used to park threads blocked in {@link #take()}, {@link #put(Object)} and the timed variants
+ * and are only touched by the non-blocking operations when a thread is parked. Unlike
+ * {@link QualityOfServiceBlockingQueue} {@link #peek()} is a best effort, a concurrent poll may return a different
+ * element than the one peeked.
+ * 
+ * @param <K> The type of key used for grouping elements in the queue
+ * @param <T> The type of elements in the queue
+ */
+public abstract class ConcurrentQualityOfServiceBlockingQueue<K, T> extends AbstractQueue<T> implements BlockingQueue<T> {
+    private final ConcurrentMap<K, KeyQueue<T>> keyedQueues = new ConcurrentHashMap<K, KeyQueue<T>>();
+    private final Set<K> queueKeySet = Collections.unmodifiableSet(this.keyedQueues.keySet()); 
+    private final Queue<KeyQueue<T>> readyKeys = new ConcurrentLinkedQueue<KeyQueue<T>>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+    
+    //Only used to park and signal blocked threads
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Condition notEmpty = waitLock.newCondition();
+    private final Condition notFull = waitLock.newCondition();
+    private final AtomicInteger waitingTakers = new AtomicInteger();
+    private final AtomicInteger waitingPutters = new AtomicInteger();
+    
+    public ConcurrentQualityOfServiceBlockingQueue() {
+        this.capacity = Integer.MAX_VALUE;
+    }
+    
+    public ConcurrentQualityOfServiceBlockingQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException();
+        }
+        
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the key for the specified element
+     */
+    protected abstract K getElementKey(T e);
+    
+    /**
+     * @return A read only Set of the keys in the queue
+     */
+    public final Set<K> getKeySet() {
+        return queueKeySet;
+    }
+    
+    /**
+     * @return true if there are no elements for the specified key
+     */
+    public final boolean isKeyEmpty(K key) {
+        final KeyQueue<T> queue = this.keyedQueues.get(key);
+        return queue == null || queue.elements.isEmpty();
+    }
+    
+    /**
+     * @return The number of elements in the queue for the specified key
+     */
+    public final int getKeySize(K key) {
+        final KeyQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            return 0;
+        }
+        
+        return queue.elements.size();
+    }
+
+    @Override
+    public final boolean offer(T e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        
+        //Reserve space for the element
+        int currentSize;
+        do {
+            currentSize = this.size.get();
+            if (currentSize >= this.capacity) {
+                return false;
+            }
+        } while (!this.size.compareAndSet(currentSize, currentSize + 1));
+        
+        final KeyQueue<T> queue = this.getOrCreateQueue(e);
+        queue.elements.add(e);
+        this.schedule(queue);
+        
+        this.signal(this.waitingTakers, this.notEmpty);
+        return true;
+    }
+
+    @Override
+    public final void put(T e) throws InterruptedException {
+        this.offer(e, -1, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public final boolean offer(T e, long timeout, TimeUnit unit) throws InterruptedException {
+        if (this.offer(e)) {
+            return true;
+        }
+        
+        long nanos = unit.toNanos(timeout);
+        this.waitingPutters.incrementAndGet();
+        this.waitLock.lockInterruptibly();
+        try {
+            while (!this.offer(e)) {
+                if (timeout < 0) {
+                    this.notFull.await();
+                }
+                else if (nanos <= 0) {
+                    return false;
+                }
+                else {
+                    nanos = this.notFull.awaitNanos(nanos);
+                }
+            }
+            return true;
+        }
+        finally {
+            this.waitLock.unlock();
+            this.waitingPutters.decrementAndGet();
+        }
+    }
+
+    @Override
+    public final T poll() {
+        KeyQueue<T> queue;
+        while ((queue = this.readyKeys.poll()) != null) {
+            //This thread now exclusively owns the scheduling of the key
+            final T e = queue.elements.poll();
+            
+            if (!queue.elements.isEmpty()) {
+                //More elements for the key, put it at the back of the ring
+                this.readyKeys.add(queue);
+            }
+            else {
+                queue.scheduled.set(false);
+                
+                //Re-check in case an element was added after the isEmpty check but before the flag was cleared
+                if (!queue.elements.isEmpty()) {
+                    this.schedule(queue);
+                }
+            }
+            
+            //Null if the element was removed via remove(Object) after the key was scheduled
+            if (e != null) {
+                this.size.decrementAndGet();
+                this.signal(this.waitingPutters, this.notFull);
+                return e;
+            }
+        }
+        
+        return null;
+    }
+
+    @Override
+    public final T take() throws InterruptedException {
+        return this.poll(-1, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public final T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        T e = this.poll();
+        if (e != null) {
+            return e;
+        }
+        
+        long nanos = unit.toNanos(timeout);
+        this.waitingTakers.incrementAndGet();
+        this.waitLock.lockInterruptibly();
+        try {
+            while ((e = this.poll()) == null) {
+                if (timeout < 0) {
+                    this.notEmpty.await();
+                }
+                else if (nanos <= 0) {
+                    return null;
+                }
+                else {
+                    nanos = this.notEmpty.awaitNanos(nanos);
+                }
+            }
+            return e;
+        }
+        finally {
+            this.waitLock.unlock();
+            this.waitingTakers.decrementAndGet();
+        }
+    }
+
+    @Override
+    public final T peek() {
+        for (final KeyQueue<T> queue : this.readyKeys) {
+            final T e = queue.elements.peek();
+            if (e != null) {
+                return e;
+            }
+        }
+        
+        return null;
+    }
+
+    @Override
+    public final int size() {
+        return this.size.get();
+    }
+
+    @Override
+    public final int remainingCapacity() {
+        return this.capacity - this.size.get();
+    }
+
+    @Override
+    public final boolean remove(Object o) {
+        @SuppressWarnings("unchecked")
+        final K key = this.getElementKey((T)o);
+        final KeyQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null || !queue.elements.remove(o)) {
+            return false;
+        }
+        
+        this.size.decrementAndGet();
+        this.signal(this.waitingPutters, this.notFull);
+        return true;
+    }
+
+    @Override
+    public final boolean contains(Object o) {
+        @SuppressWarnings("unchecked")
+        final K key = this.getElementKey((T)o);
+        final KeyQueue<T> queue = this.keyedQueues.get(key);
+        return queue != null && queue.elements.contains(o);
+    }
+
+    @Override
+    public final int drainTo(Collection<? super T> c) {
+        return this.drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public final int drainTo(Collection<? super T> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        
+        int count = 0;
+        T e;
+        while (count < maxElements && (e = this.poll()) != null) {
+            c.add(e);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Weakly consistent iterator over all elements, grouped by key
+     */
+    @Override
+    public final Iterator<T> iterator() {
+        return new ElementIterator();
+    }
+    
+    private KeyQueue<T> getOrCreateQueue(T e) {
+        final K key = this.getElementKey(e);
+        KeyQueue<T> queue = this.keyedQueues.get(key);
+        if (queue == null) {
+            queue = ConcurrentMapUtils.putIfAbsent(this.keyedQueues, key, new KeyQueue<T>());
+        }
+        return queue;
+    }
+    
+    /**
+     * Add the key's queue to the ring of ready keys if it is not already there
+     */
+    private void schedule(KeyQueue<T> queue) {
+        if (queue.scheduled.compareAndSet(false, true)) {
+            this.readyKeys.add(queue);
+        }
+    }
+    
+    /**
+     * Wake a parked thread, only takes the lock if a thread may be waiting
+     */
+    private void signal(AtomicInteger waiting, Condition condition) {
+        if (waiting.get() > 0) {
+            this.waitLock.lock();
+            try {
+                condition.signal();
+            }
+            finally {
+                this.waitLock.unlock();
+            }
+        }
+    }
+    
+    private static final class KeyQueue<T> {
+        private final Queue<T> elements = new ConcurrentLinkedQueue<T>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+    }
+    
+    private final class ElementIterator implements Iterator<T> {
+        private final Iterator<KeyQueue<T>> queueIterator = keyedQueues.values().iterator();
+        private Iterator<T> elementIterator = Collections.<T>emptyList().iterator();
+        private T lastReturned;
+
+        @Override
+        public boolean hasNext() {
+            while (!this.elementIterator.hasNext()) {
+                if (!this.queueIterator.hasNext()) {
+                    return false;
+                }
+                this.elementIterator = this.queueIterator.next().elements.iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.lastReturned = this.elementIterator.next();
+            return this.lastReturned;
+        }
+
+        @Override
+        public void remove() {
+            if (this.lastReturned == null) {
+                throw new IllegalStateException();
+            }
+            ConcurrentQualityOfServiceBlockingQueue.this.remove(this.lastReturned);
+            this.lastReturned = null;
+        }
+    }
+}
@@ -33,7 +33,8 @@ import org.springframework.scheduling.concurrent.ThreadPoolExecutorFactoryBean;
 /**
  * NOT CURRENTLY FUNCTIONAL
  * 
- * Creates a {@link ThreadPoolExecutor} that uses a {@link QualityOfServiceBlockingQueue} as its queue.
+ * Creates a {@link ThreadPoolExecutor} that uses a {@link QualityOfServiceBlockingQueue} or
+ * {@link ConcurrentQualityOfServiceBlockingQueue} as its queue.
  * 
  * @author Eric Dalquist
  * @version $Revision$
@@ -41,14 +42,15 @@ import org.springframework.scheduling.concurrent.ThreadPoolExecutorFactoryBean;
 public class QoSThreadPoolExecutorFactoryBean extends ThreadPoolExecutorFactoryBean {
     private static final long serialVersionUID = 1L;
     
-    private Class<? extends QualityOfServiceBlockingQueue<?, Runnable>> qualityOfServiceQueueType;
-    private Constructor<? extends QualityOfServiceBlockingQueue<?, Runnable>> qualityOfServiceQueueConstructor;
-    private QualityOfServiceBlockingQueue<?, Runnable> qualityOfServiceBlockingQueue;
+    private Class<? extends BlockingQueue<Runnable>> qualityOfServiceQueueType;
+    private Constructor<? extends BlockingQueue<Runnable>> qualityOfServiceQueueConstructor;
+    private BlockingQueue<Runnable> qualityOfServiceBlockingQueue;
     
     /**
-     * The concrete implementation of {@link QualityOfServiceBlockingQueue} to provide to the {@link ThreadPoolExecutor}
+     * The concrete implementation of {@link QualityOfServiceBlockingQueue} or {@link ConcurrentQualityOfServiceBlockingQueue}
+     * to provide to the {@link ThreadPoolExecutor}
      */
-    public void setQualityOfServiceQueueType(Class<? extends QualityOfServiceBlockingQueue<?, Runnable>> qualityOfServiceQueueType) {
+    public void setQualityOfServiceQueueType(Class<? extends BlockingQueue<Runnable>> qualityOfServiceQueueType) {
         this.qualityOfServiceQueueType = qualityOfServiceQueueType;
     }
 
@@ -64,7 +66,7 @@ public class QoSThreadPoolExecutorFactoryBean extends ThreadPoolExecutorFactoryB
             throw new RuntimeException(e);
         }
         catch (NoSuchMethodException e) {
-            throw new RuntimeException("The QualityOfServiceBlockingQueue implementation MUST have a constructor that takes a single int argument. " + qualityOfServiceQueueType + " does not", e);
+            throw new RuntimeException("The quality of service queue implementation MUST have a constructor that takes a single int argument. " + qualityOfServiceQueueType + " does not", e);
         }
         
         super.afterPropertiesSet();
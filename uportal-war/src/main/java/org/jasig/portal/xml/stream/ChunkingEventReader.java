@@ -18,7 +18,6 @@
  */
 package org.jasig.portal.xml.stream;
 
-import java.io.StringWriter;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +35,7 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
+import org.apache.commons.io.output.StringBuilderWriter;
 import org.jasig.portal.character.stream.CharacterEventSource;
 import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
 import org.jasig.portal.character.stream.events.CharacterEvent;
@@ -56,8 +56,9 @@ public class ChunkingEventReader extends BaseXMLEventReader {
     private final Map<String, CharacterEventSource> chunkingElements;
     private final Map<Pattern, CharacterEventSource> chunkingPatternEventSources;
     private final Pattern[] chunkingPatterns;
+    private final MultiPatternMatcher chunkingPatternMatcher;
     private final XMLEventWriter xmlEventWriter;
-    private final StringWriter writer;
+    private final StringBuilderWriter writer;
     private boolean removeXmlDeclaration = true;
     
     //to handle peek() calls
@@ -71,13 +72,26 @@ public class ChunkingEventReader extends BaseXMLEventReader {
             Map<Pattern, CharacterEventSource> chunkingPatternEventSources, 
             Pattern[] chunkingPatterns,
             XMLEventReader xmlEventReader, XMLEventWriter xmlEventWriter,
-            StringWriter writer) {
+            StringBuilderWriter writer) {
+        this(request, chunkingElements, chunkingPatternEventSources, chunkingPatterns, null, xmlEventReader, xmlEventWriter, writer);
+    }
+
+    /**
+     * @param chunkingPatternMatcher If not null used to find all of the chunkingPatterns in a single pass over each chunk 
+     */
+    public ChunkingEventReader(HttpServletRequest request,
+            Map<String, CharacterEventSource> chunkingElements,
+            Map<Pattern, CharacterEventSource> chunkingPatternEventSources, 
+            Pattern[] chunkingPatterns, MultiPatternMatcher chunkingPatternMatcher,
+            XMLEventReader xmlEventReader, XMLEventWriter xmlEventWriter,
+            StringBuilderWriter writer) {
         super(xmlEventReader);
 
         this.request = request;
         this.chunkingElements = chunkingElements;
         this.chunkingPatternEventSources = chunkingPatternEventSources;
         this.chunkingPatterns = chunkingPatterns;
+        this.chunkingPatternMatcher = chunkingPatternMatcher;
         this.xmlEventWriter = xmlEventWriter;
         this.writer = writer;
     }
@@ -183,18 +197,57 @@ public class ChunkingEventReader extends BaseXMLEventReader {
     protected void captureCharacterDataEvent() throws XMLStreamException {
         this.xmlEventWriter.flush();
         
-        //Add character chunk to events
-        this.chunkString(this.characterEvents, this.writer.toString(), 0);
+        //Chunk the buffered characters in place, avoids copying the buffer into an intermediate String
+        final StringBuilder buffer = this.writer.getBuilder();
+        if (this.chunkingPatternMatcher != null) {
+            this.chunkString(this.characterEvents, buffer);
+        }
+        else {
+            this.chunkString(this.characterEvents, buffer, 0);
+        }
         
         this.clearWriter();
     }
 
     /**
-     * Delete all data in the Writer
+     * Delete all data in the Writer, the underlying buffer is kept for the next chunk
      */
     private void clearWriter() {
-        final StringBuffer buffer = this.writer.getBuffer();
-        buffer.delete(0, buffer.length());
+        this.writer.getBuilder().setLength(0);
+    }
+
+    /**
+     * Breaks up the buffer into a List of CharacterEvents using a single pass of the {@link MultiPatternMatcher}
+     */
+    protected void chunkString(final List<CharacterEvent> characterEvents, final CharSequence buffer) {
+        final Matcher matcher = this.chunkingPatternMatcher.matcher(buffer);
+        if (!matcher.find()) {
+            //Buffer didn't match anything, just append the string data
+            characterEvents.add(CharacterDataEventImpl.create(buffer.toString()));
+            return;
+        }
+        
+        int prevMatchEnd = 0;
+        do {
+            //Add all of the text up to the match as a new chunk
+            if (prevMatchEnd < matcher.start()) {
+                characterEvents.add(CharacterDataEventImpl.create(buffer.subSequence(prevMatchEnd, matcher.start()).toString()));
+            }
+            
+            //Get the generated CharacterEvents for the match
+            final int patternIndex = this.chunkingPatternMatcher.getPatternIndex(matcher);
+            final Pattern pattern = this.chunkingPatterns[patternIndex];
+            final CharacterEventSource eventSource = this.chunkingPatternEventSources.get(pattern);
+            final MatchResult matchResult = this.chunkingPatternMatcher.toMatchResult(matcher, patternIndex);
+            eventSource.generateCharacterEvents(this.request, matchResult, characterEvents);
+            
+            prevMatchEnd = matcher.end();
+        } while (matcher.find());
+        
+        //Add any remaining text
+        if (prevMatchEnd < buffer.length()) {
+            characterEvents.add(CharacterDataEventImpl.create(buffer.subSequence(prevMatchEnd, buffer.length()).toString()));
+        }
     }
 
     /**
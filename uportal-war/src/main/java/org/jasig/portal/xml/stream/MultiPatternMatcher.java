@@ -0,0 +1,196 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.xml.stream;
+
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Combines several {@link Pattern}s into a single alternation so a buffer can be searched for all of them in one
+ * pass. Each pattern is wrapped in its own capturing group, the {@link MatchResult} returned for a match uses the
+ * group numbering of the pattern that matched. The flags of each pattern are embedded in its group so they only
+ * apply to that pattern.
+ * <p>
+ * When more than one pattern matches at the same position the pattern that comes first wins. Patterns that use
+ * numbered back references or the {@link Pattern#CANON_EQ} flag cannot be combined and are rejected with an
+ * {@link IllegalArgumentException}.
+ */
+public class MultiPatternMatcher {
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\[1-9]");
+    
+    private final Pattern[] patterns;
+    private final Pattern combinedPattern;
+    private final int[] groupOffsets;
+    private final int[] groupCounts;
+    
+    public MultiPatternMatcher(Pattern... patterns) {
+        this.patterns = patterns.clone();
+        this.groupOffsets = new int[patterns.length];
+        this.groupCounts = new int[patterns.length];
+        
+        final StringBuilder combined = new StringBuilder();
+        int group = 1;
+        for (int i = 0; i < patterns.length; i++) {
+            final Pattern pattern = patterns[i];
+            if (BACK_REFERENCE.matcher(pattern.pattern()).find()) {
+                throw new IllegalArgumentException("Pattern '" + pattern + "' uses back references and cannot be combined");
+            }
+            
+            if (i > 0) {
+                combined.append('|');
+            }
+            combined.append("(").append(embedFlags(pattern)).append(")");
+            
+            this.groupOffsets[i] = group;
+            this.groupCounts[i] = pattern.matcher("").groupCount();
+            group += this.groupCounts[i] + 1;
+        }
+        
+        this.combinedPattern = Pattern.compile(combined.toString());
+    }
+    
+    /**
+     * @return The pattern's expression with its flags applied by an embedded flag group
+     */
+    private static String embedFlags(Pattern pattern) {
+        int flags = pattern.flags();
+        String expression = pattern.pattern();
+        if ((flags & Pattern.CANON_EQ) != 0) {
+            throw new IllegalArgumentException("Pattern '" + pattern + "' uses CANON_EQ and cannot be combined");
+        }
+        if ((flags & Pattern.LITERAL) != 0) {
+            expression = Pattern.quote(expression);
+            flags &= ~Pattern.LITERAL;
+        }
+        if (flags == 0) {
+            return expression;
+        }
+        
+        final StringBuilder embedded = new StringBuilder("(?");
+        appendFlag(embedded, flags, Pattern.UNIX_LINES, 'd');
+        appendFlag(embedded, flags, Pattern.CASE_INSENSITIVE, 'i');
+        appendFlag(embedded, flags, Pattern.COMMENTS, 'x');
+        appendFlag(embedded, flags, Pattern.MULTILINE, 'm');
+        appendFlag(embedded, flags, Pattern.DOTALL, 's');
+        appendFlag(embedded, flags, Pattern.UNICODE_CASE, 'u');
+        appendFlag(embedded, flags, Pattern.UNICODE_CHARACTER_CLASS, 'U');
+        embedded.append(':').append(expression);
+        if ((flags & Pattern.COMMENTS) != 0) {
+            //End any trailing comment so it does not swallow the closing parenthesis
+            embedded.append('\n');
+        }
+        return embedded.append(')').toString();
+    }
+    
+    private static void appendFlag(StringBuilder embedded, int flags, int flag, char flagChar) {
+        if ((flags & flag) != 0) {
+            embedded.append(flagChar);
+        }
+    }
+    
+    /**
+     * @return The patterns being matched, in priority order
+     */
+    public Pattern[] getPatterns() {
+        return this.patterns.clone();
+    }
+    
+    /**
+     * @return A Matcher for the combined pattern, use {@link #getPatternIndex(Matcher)} and
+     * {@link #toMatchResult(Matcher, int)} to interpret each match
+     */
+    public Matcher matcher(CharSequence input) {
+        return this.combinedPattern.matcher(input);
+    }
+    
+    /**
+     * @return The index of the pattern responsible for the matcher's current match
+     */
+    public int getPatternIndex(Matcher matcher) {
+        for (int i = 0; i < this.groupOffsets.length; i++) {
+            if (matcher.start(this.groupOffsets[i]) != -1) {
+                return i;
+            }
+        }
+        
+        throw new IllegalStateException("No pattern matched");
+    }
+    
+    /**
+     * @return Snapshot of the matcher's current match using the group numbering of the specified pattern
+     */
+    public MatchResult toMatchResult(Matcher matcher, int patternIndex) {
+        return new PatternMatchResult(matcher.toMatchResult(), this.groupOffsets[patternIndex], this.groupCounts[patternIndex]);
+    }
+    
+    private static final class PatternMatchResult implements MatchResult {
+        private final MatchResult combinedResult;
+        private final int groupOffset;
+        private final int groupCount;
+        
+        public PatternMatchResult(MatchResult combinedResult, int groupOffset, int groupCount) {
+            this.combinedResult = combinedResult;
+            this.groupOffset = groupOffset;
+            this.groupCount = groupCount;
+        }
+        
+        private int getCombinedGroup(int group) {
+            if (group < 0 || group > this.groupCount) {
+                throw new IndexOutOfBoundsException("No group " + group);
+            }
+            return this.groupOffset + group;
+        }
+
+        @Override
+        public int start() {
+            return this.combinedResult.start();
+        }
+
+        @Override
+        public int start(int group) {
+            return this.combinedResult.start(this.getCombinedGroup(group));
+        }
+
+        @Override
+        public int end() {
+            return this.combinedResult.end();
+        }
+
+        @Override
+        public int end(int group) {
+            return this.combinedResult.end(this.getCombinedGroup(group));
+        }
+
+        @Override
+        public String group() {
+            return this.combinedResult.group();
+        }
+
+        @Override
+        public String group(int group) {
+            return this.combinedResult.group(this.getCombinedGroup(group));
+        }
+
+        @Override
+        public int groupCount() {
+            return this.groupCount;
+        }
+    }
+}
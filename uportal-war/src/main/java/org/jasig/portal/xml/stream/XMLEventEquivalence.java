@@ -0,0 +1,141 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.xml.stream;
+
+import java.util.Iterator;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import com.google.common.base.Equivalence;
+import com.google.common.base.Objects;
+
+/**
+ * Value based {@link Equivalence} for the {@link XMLEvent} types that commonly repeat in a
+ * document: character data, start elements (including their attributes and namespaces) and
+ * end elements. All other event types fall back to identity. Event locations are ignored, name
+ * prefixes are compared since {@link QName#equals(Object)} ignores them but they are serialized.
+ */
+public final class XMLEventEquivalence extends Equivalence<XMLEvent> {
+    public static final XMLEventEquivalence INSTANCE = new XMLEventEquivalence();
+    
+    private XMLEventEquivalence() {
+    }
+
+    @Override
+    protected boolean doEquivalent(XMLEvent a, XMLEvent b) {
+        final int eventType = a.getEventType();
+        if (eventType != b.getEventType()) {
+            return false;
+        }
+        
+        switch (eventType) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.CDATA: {
+                final Characters ac = a.asCharacters();
+                final Characters bc = b.asCharacters();
+                return ac.isCData() == bc.isCData() 
+                        && ac.isIgnorableWhiteSpace() == bc.isIgnorableWhiteSpace()
+                        && ac.getData().equals(bc.getData());
+            }
+            case XMLStreamConstants.START_ELEMENT: {
+                final StartElement as = a.asStartElement();
+                final StartElement bs = b.asStartElement();
+                return namesEquivalent(as.getName(), bs.getName())
+                        && attributesEquivalent(as.getAttributes(), bs.getAttributes())
+                        && namespacesEquivalent(as.getNamespaces(), bs.getNamespaces());
+            }
+            case XMLStreamConstants.END_ELEMENT: {
+                final EndElement ae = a.asEndElement();
+                final EndElement be = b.asEndElement();
+                return namesEquivalent(ae.getName(), be.getName())
+                        && namespacesEquivalent(ae.getNamespaces(), be.getNamespaces());
+            }
+            default: {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    protected int doHash(XMLEvent t) {
+        final int eventType = t.getEventType();
+        switch (eventType) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.SPACE:
+            case XMLStreamConstants.CDATA: {
+                return 31 * eventType + t.asCharacters().getData().hashCode();
+            }
+            case XMLStreamConstants.START_ELEMENT: {
+                final StartElement startElement = t.asStartElement();
+                int hash = 31 * eventType + startElement.getName().hashCode();
+                for (final Iterator<Attribute> attrItr = startElement.getAttributes(); attrItr.hasNext();) {
+                    final Attribute attribute = attrItr.next();
+                    hash = 31 * hash + Objects.hashCode(attribute.getName(), attribute.getValue());
+                }
+                return hash;
+            }
+            case XMLStreamConstants.END_ELEMENT: {
+                return 31 * eventType + t.asEndElement().getName().hashCode();
+            }
+            default: {
+                return System.identityHashCode(t);
+            }
+        }
+    }
+    
+    private static boolean namesEquivalent(QName a, QName b) {
+        return a.equals(b) && a.getPrefix().equals(b.getPrefix());
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static boolean attributesEquivalent(Iterator<?> a, Iterator<?> b) {
+        final Iterator<Attribute> aItr = (Iterator<Attribute>)a;
+        final Iterator<Attribute> bItr = (Iterator<Attribute>)b;
+        while (aItr.hasNext() && bItr.hasNext()) {
+            final Attribute aAttr = aItr.next();
+            final Attribute bAttr = bItr.next();
+            if (!namesEquivalent(aAttr.getName(), bAttr.getName()) || !aAttr.getValue().equals(bAttr.getValue())) {
+                return false;
+            }
+        }
+        return !aItr.hasNext() && !bItr.hasNext();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static boolean namespacesEquivalent(Iterator<?> a, Iterator<?> b) {
+        final Iterator<Namespace> aItr = (Iterator<Namespace>)a;
+        final Iterator<Namespace> bItr = (Iterator<Namespace>)b;
+        while (aItr.hasNext() && bItr.hasNext()) {
+            final Namespace aNs = aItr.next();
+            final Namespace bNs = bItr.next();
+            if (!aNs.getPrefix().equals(bNs.getPrefix()) || !aNs.getNamespaceURI().equals(bNs.getNamespaceURI())) {
+                return false;
+            }
+        }
+        return !aItr.hasNext() && !bItr.hasNext();
+    }
+}
@@ -0,0 +1,324 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.xml.stream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Bounded hand-off of {@link XMLEvent}s from a producer thread writing to {@link #getWriter()} to
+ * a consumer thread reading from {@link #getReader()}. The producer blocks while the buffer is full
+ * and the consumer blocks while it is empty, so at most the configured number of events are held
+ * in memory at once.
+ * <p>
+ * The producer MUST call either {@link #complete()} or {@link #fail(Throwable)} when it is done
+ * writing. If the consumer closes the reader, or the pipe is closed with {@link #close()}, further
+ * writes fail, allowing the producer to abort.
+ * <p>
+ * A producer that must not block on the consumer can use {@link #offer(XMLEvent)} and
+ * {@link #offerComplete()}, a consumer that must not block on the producer can check
+ * {@link #awaitReadable(long)} before reading.
+ */
+public class XMLEventPipe {
+    /**
+     * Marks the end of the event stream in the queue
+     */
+    private static final Object END_OF_STREAM = new Object();
+    
+    private final BlockingQueue<Object> eventQueue;
+    private final long timeout;
+    private final XMLEventWriter writer = new PipeWriter();
+    private final XMLEventReader reader = new PipeReader();
+    
+    private volatile Throwable failure;
+    private volatile boolean readerClosed = false;
+    
+    /**
+     * @param bufferSize Maximum number of events held between the producer and consumer
+     * @param timeout Maximum time in ms either side will wait on the other before failing
+     */
+    public XMLEventPipe(int bufferSize, long timeout) {
+        this.eventQueue = new ArrayBlockingQueue<Object>(bufferSize);
+        this.timeout = timeout;
+    }
+    
+    /**
+     * @return The producer side of the pipe, must only be used by one thread
+     */
+    public XMLEventWriter getWriter() {
+        return this.writer;
+    }
+    
+    /**
+     * @return The consumer side of the pipe, must only be used by one thread
+     */
+    public XMLEventReader getReader() {
+        return this.reader;
+    }
+    
+    /**
+     * Signal that the producer has written all events
+     */
+    public void complete() {
+        this.putEndOfStream();
+    }
+    
+    /**
+     * Signal that the producer failed, the consumer will see the cause as an {@link XMLStreamException}
+     */
+    public void fail(Throwable cause) {
+        this.failure = cause;
+        this.putEndOfStream();
+    }
+    
+    /**
+     * Close the pipe, further writes fail and a writer waiting for room in the buffer is released.
+     * Equivalent to closing the reader.
+     */
+    public void close() {
+        this.readerClosed = true;
+        
+        //Free up the writer if it is blocked on a full queue
+        this.eventQueue.clear();
+    }
+    
+    /**
+     * @return true if the pipe or its reader has been closed
+     */
+    public boolean isClosed() {
+        return this.readerClosed;
+    }
+    
+    /**
+     * Writes the event only if there is room in the buffer, for a producer that must not block on the consumer
+     * 
+     * @return false if the buffer is full and the event was not written
+     */
+    public boolean offer(XMLEvent event) throws XMLStreamException {
+        if (this.readerClosed) {
+            throw new XMLStreamException("XMLEventPipe reader has been closed, no more events can be written");
+        }
+        return this.eventQueue.offer(event);
+    }
+    
+    /**
+     * Signals that the producer has written all events only if there is room in the buffer, for a producer that
+     * must not block on the consumer
+     * 
+     * @return false if the buffer is full and the end of the stream was not written
+     */
+    public boolean offerComplete() {
+        return this.readerClosed || this.eventQueue.offer(END_OF_STREAM);
+    }
+    
+    /**
+     * Waits for the next event or the end of the stream, must only be called by the consumer thread
+     * 
+     * @param waitTime Maximum time in ms to wait, 0 to not wait
+     * @return true if the reader can return the next event or the end of the stream without blocking
+     */
+    public boolean awaitReadable(long waitTime) throws XMLStreamException {
+        return ((PipeReader)this.reader).poll(waitTime);
+    }
+    
+    private void putEndOfStream() {
+        if (this.readerClosed) {
+            return;
+        }
+        
+        try {
+            //If the reader doesn't make room within the timeout it has stalled and will time out on its own
+            this.eventQueue.offer(END_OF_STREAM, this.timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private final class PipeWriter implements XMLEventWriter {
+        private final Map<String, String> prefixes = new LinkedHashMap<String, String>();
+        private NamespaceContext namespaceContext;
+
+        @Override
+        public void add(XMLEvent event) throws XMLStreamException {
+            if (readerClosed) {
+                throw new XMLStreamException("XMLEventPipe reader has been closed, no more events can be written");
+            }
+            
+            try {
+                if (!eventQueue.offer(event, timeout, TimeUnit.MILLISECONDS)) {
+                    throw new XMLStreamException("Timed out after " + timeout + "ms waiting for the XMLEventPipe reader to consume events");
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XMLStreamException("Interrupted while writing to XMLEventPipe", e);
+            }
+        }
+
+        @Override
+        public void add(XMLEventReader reader) throws XMLStreamException {
+            while (reader.hasNext()) {
+                this.add(reader.nextEvent());
+            }
+        }
+
+        @Override
+        public void flush() throws XMLStreamException {
+        }
+
+        @Override
+        public void close() throws XMLStreamException {
+        }
+
+        @Override
+        public String getPrefix(String uri) throws XMLStreamException {
+            return this.prefixes.get(uri);
+        }
+
+        @Override
+        public void setPrefix(String prefix, String uri) throws XMLStreamException {
+            this.prefixes.put(uri, prefix);
+        }
+
+        @Override
+        public void setDefaultNamespace(String uri) throws XMLStreamException {
+        }
+
+        @Override
+        public void setNamespaceContext(NamespaceContext context) throws XMLStreamException {
+            this.namespaceContext = context;
+        }
+
+        @Override
+        public NamespaceContext getNamespaceContext() {
+            return this.namespaceContext;
+        }
+    }
+    
+    private final class PipeReader extends BaseXMLEventReader {
+        private XMLEvent peekedEvent;
+        private boolean ended = false;
+        
+        public PipeReader() {
+            super(null);
+        }
+        
+        /**
+         * Moves the next event or the end of the stream from the queue to the reader
+         * 
+         * @return false if nothing was written within the wait time
+         */
+        private boolean poll(long waitTime) throws XMLStreamException {
+            if (this.peekedEvent != null || this.ended) {
+                return true;
+            }
+            
+            final Object next;
+            try {
+                next = eventQueue.poll(waitTime, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XMLStreamException("Interrupted while reading from XMLEventPipe", e);
+            }
+            
+            if (next == null) {
+                return false;
+            }
+            
+            if (next == END_OF_STREAM) {
+                this.ended = true;
+            }
+            else {
+                this.peekedEvent = (XMLEvent)next;
+            }
+            return true;
+        }
+        
+        /**
+         * @return The next event without consuming it, null if the end of the stream has been reached
+         */
+        private XMLEvent take() throws XMLStreamException {
+            if (!this.poll(timeout)) {
+                throw new XMLStreamException("Timed out after " + timeout + "ms waiting for the XMLEventPipe writer to produce events");
+            }
+            
+            if (this.ended) {
+                final Throwable cause = failure;
+                if (cause != null) {
+                    throw new XMLStreamException("XMLEventPipe writer failed", cause);
+                }
+                return null;
+            }
+            
+            return this.peekedEvent;
+        }
+
+        @Override
+        protected XMLEvent internalNextEvent() throws XMLStreamException {
+            final XMLEvent event = this.take();
+            if (event == null) {
+                throw new NoSuchElementException();
+            }
+            this.peekedEvent = null;
+            return event;
+        }
+
+        @Override
+        public XMLEvent peek() throws XMLStreamException {
+            return this.take();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return this.peek() != null;
+            }
+            catch (XMLStreamException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public Object getProperty(String name) throws IllegalArgumentException {
+            return null;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws XMLStreamException {
+            XMLEventPipe.this.close();
+        }
+    }
+}
@@ -27,3 +27,12 @@
                     </c:forEach>
                 </form:select>
             </p>
+            <p>
+                <form:label path="percentile"><spring:message code="report.value"/></form:label>
+                <form:select path="percentile">
+                    <form:option value="0"><spring:message code="report.value.count"/></form:option>
+                    <c:forEach items="50,90,95,99" var="percentile">
+                        <form:option value="${ percentile }"><spring:message code="report.value.percentile" arguments="${ percentile }"/></form:option>
+                    </c:forEach>
+                </form:select>
+            </p>
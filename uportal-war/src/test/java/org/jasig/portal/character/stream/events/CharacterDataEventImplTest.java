@@ -0,0 +1,68 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.character.stream.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class CharacterDataEventImplTest {
+    @After
+    public void reset() {
+        CharacterDataEventImpl.setMaxInternLength(CharacterDataEventImpl.DEFAULT_MAX_INTERN_LENGTH);
+        CharacterDataEventImpl.setMaxInternedCharacters(CharacterDataEventImpl.DEFAULT_MAX_INTERNED_CHARACTERS);
+    }
+    
+    @Test
+    public void testInterned() {
+        final CharacterDataEvent event = CharacterDataEventImpl.create(new String("<div class=\"up\">"));
+        assertSame(event, CharacterDataEventImpl.create(new String("<div class=\"up\">")));
+        assertSame(CharacterDataEventImpl.EMPTY_CHARACTER_DATA, CharacterDataEventImpl.create(""));
+    }
+    
+    @Test
+    public void testLongAndDynamicBypass() {
+        CharacterDataEventImpl.setMaxInternLength(4);
+        
+        final long bypassCount = CharacterDataEventImpl.getBypassCount();
+        final CharacterDataEvent event = CharacterDataEventImpl.create("too long");
+        assertNotSame(event, CharacterDataEventImpl.create("too long"));
+        assertEquals(event, CharacterDataEventImpl.create("too long"));
+        
+        assertNotSame(CharacterDataEventImpl.createDynamic("abc"), CharacterDataEventImpl.createDynamic("abc"));
+        assertEquals(bypassCount + 5, CharacterDataEventImpl.getBypassCount());
+    }
+    
+    @Test
+    public void testBounded() {
+        CharacterDataEventImpl.setMaxInternedCharacters(1024);
+        
+        for (int i = 0; i < 10000; i++) {
+            CharacterDataEventImpl.create("chunk-" + i);
+        }
+        
+        final CharacterDataEventInterner interner = (CharacterDataEventInterner) CharacterDataEventImpl.getEventCache();
+        assertTrue(interner.size() * "chunk-0".length() <= 1024 + interner.getStripeCount() * 10);
+        assertEquals(10000, interner.stats().requestCount());
+    }
+}
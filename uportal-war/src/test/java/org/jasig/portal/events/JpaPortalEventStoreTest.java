@@ -39,6 +39,8 @@ import javax.xml.namespace.QName;
 import org.jasig.portal.concurrency.CallableWithoutResult;
 import org.jasig.portal.concurrency.FunctionWithoutResult;
 import org.jasig.portal.events.handlers.db.IPortalEventDao;
+import org.jasig.portal.events.handlers.db.PartitionedAggregationHandler;
+import org.jasig.portal.events.handlers.db.PersistentPortalEvent;
 import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
 import org.jasig.portal.security.SystemPerson;
 import org.jasig.portal.test.BaseRawEventsJpaDaoTest;
@@ -46,6 +48,7 @@ import org.joda.time.DateTime;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
@@ -62,8 +65,13 @@ import com.google.common.collect.ImmutableSet;
 @ContextConfiguration(locations = "classpath:jpaRawEventsTestApplicationContext.xml")
 public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
     @Autowired
+    @Qualifier("portalEventDao")
     private IPortalEventDao portalEventDao;
     
+    @Autowired
+    @Qualifier("partitionedPortalEventDao")
+    private IPortalEventDao partitionedPortalEventDao;
+    
     @Test
     public void testStoreSingleEvents() throws Exception {
         final DateTime startDate = DateTime.now().minusDays(1);
@@ -143,6 +151,93 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
         verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
     }
 
+    @Test
+    public void testPartitionedAggregation() throws Exception {
+        final DateTime startDate = DateTime.now().minusDays(1);
+        final DateTime endDate = DateTime.now().plusDays(1);
+        
+        final List<PortalEvent> originalEvents = generateEvents();
+
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                portalEventDao.storePortalEvents(originalEvents);
+            }
+        });
+        
+        verifyAggregateEvents(partitionedPortalEventDao, originalEvents, startDate, endDate);
+        verifyAggregateEvents(partitionedPortalEventDao, Collections.<PortalEvent>emptyList(), startDate, endDate);
+        deleteEvents(originalEvents, startDate, endDate);
+    }
+    
+    @Test
+    public void testPartitionedAggregationHandler() throws Exception {
+        final DateTime startDate = DateTime.now().minusDays(1);
+        final DateTime endDate = DateTime.now().plusDays(1);
+        
+        final List<PortalEvent> originalEvents = generateEvents();
+
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                portalEventDao.storePortalEvents(originalEvents);
+            }
+        });
+        
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final List<PortalEvent> portalEvents = new LinkedList<PortalEvent>();
+                final List<Integer> partitionedEventCounts = new LinkedList<Integer>();
+                
+                //Fail the deferred aggregation of the first event of each batch
+                portalEventDao.aggregatePortalEvents(startDate, endDate, -1, new PartitionedAggregationHandler() {
+                    @Override
+                    public Boolean apply(PortalEvent input) {
+                        portalEvents.add(input);
+                        return Boolean.TRUE;
+                    }
+                    
+                    @Override
+                    public Set<PortalEvent> aggregatePartitions() {
+                        final int batchStart = partitionedEventCounts.isEmpty() ? 0 : partitionedEventCounts.get(partitionedEventCounts.size() - 1);
+                        partitionedEventCounts.add(portalEvents.size());
+                        if (batchStart == portalEvents.size()) {
+                            return Collections.emptySet();
+                        }
+                        return Collections.singleton(portalEvents.get(batchStart));
+                    }
+                });
+                
+                assertEquals(originalEvents.size(), portalEvents.size());
+                
+                //The partitions are aggregated after all of the events in each batch of 5 are handled
+                assertEquals(ImmutableList.of(5, 10, 12), partitionedEventCounts);
+            }
+        });
+        
+        execute(new CallableWithoutResult() {
+            @Override
+            protected void callWithoutResult() {
+                final List<PersistentPortalEvent> persistentEvents = getEntityManager()
+                        .createQuery("SELECT e FROM PersistentPortalEvent e ORDER BY e.timestamp", PersistentPortalEvent.class)
+                        .getResultList();
+                
+                assertEquals(originalEvents.size(), persistentEvents.size());
+                
+                for (int index = 0; index < persistentEvents.size(); index++) {
+                    final PersistentPortalEvent persistentEvent = persistentEvents.get(index);
+                    final boolean failed = index % 5 == 0;
+                    assertEquals(failed, persistentEvent.isErrorAggregating());
+                    assertEquals(!failed, persistentEvent.isAggregated());
+                }
+            }
+        });
+        
+        verifyAggregateEvents(Collections.<PortalEvent>emptyList(), startDate, endDate);
+        deleteEvents(originalEvents, startDate, endDate);
+    }
+    
     protected void verifyGetEvents(final List<PortalEvent> originalEvents, final DateTime startDate, final DateTime endDate) {
         execute(new CallableWithoutResult() {
             @Override
@@ -169,6 +264,10 @@ public class JpaPortalEventStoreTest extends BaseRawEventsJpaDaoTest {
     }
 
     protected void verifyAggregateEvents(final List<PortalEvent> originalEvents, final DateTime startDate, final DateTime endDate) {
+        verifyAggregateEvents(portalEventDao, originalEvents, startDate, endDate);
+    }
+
+    protected void verifyAggregateEvents(final IPortalEventDao portalEventDao, final List<PortalEvent> originalEvents, final DateTime startDate, final DateTime endDate) {
         execute(new CallableWithoutResult() {
             @Override
             protected void callWithoutResult() {
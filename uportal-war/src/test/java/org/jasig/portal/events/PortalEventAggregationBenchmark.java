@@ -0,0 +1,186 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.portlet.PortletMode;
+import javax.portlet.WindowState;
+
+import org.apache.commons.lang.mutable.MutableInt;
+import org.jasig.portal.events.handlers.db.IPortalEventDao;
+import org.jasig.portal.events.handlers.db.JpaPortalEventStore;
+import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
+import org.jasig.portal.security.SystemPerson;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.context.annotation.AnnotationConfigUtils;
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionOperations;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * JMH benchmark comparing event aggregation throughput of {@link JpaPortalEventStore} deserializing the raw
+ * events in the aggregating thread with deserializing them in concurrent partitions. Each invocation stores a
+ * generated set of events and aggregates all of them. Uses the in-memory HSQLDB database of the JPA unit tests
+ * so the database time is not representative of a real portal. Not run as part of the build, run
+ * {@link #main(String[])} from the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PortalEventAggregationBenchmark {
+    @Param({"1", "3"})
+    public int partitions;
+    
+    @Param({"5000"})
+    public int events;
+    
+    private final DateTime startDate = DateTime.now().minusDays(1);
+    private final DateTime endDate = DateTime.now().plusDays(1);
+    
+    private GenericXmlApplicationContext context;
+    private TransactionOperations transactionOperations;
+    private IPortalEventDao portalEventDao;
+    private List<PortalEvent> portalEvents;
+    
+    @Setup(Level.Trial)
+    public void setup() {
+        this.context = new GenericXmlApplicationContext();
+        this.context.load("classpath:jpaRawEventsTestApplicationContext.xml");
+        //Same annotation processing the test context loader sets up for the JPA unit tests
+        AnnotationConfigUtils.registerAnnotationConfigProcessors(this.context);
+        this.context.registerBeanDefinition("benchmarkPortalEventDao", 
+                BeanDefinitionBuilder.genericBeanDefinition(JpaPortalEventStore.class)
+                    .addPropertyValue("aggregationFlushPeriod", 1000)
+                    .addPropertyValue("aggregationPartitions", this.partitions)
+                    .getBeanDefinition());
+        this.context.refresh();
+        
+        this.transactionOperations = this.context.getBean("transactionOperations", TransactionOperations.class);
+        this.portalEventDao = this.context.getBean("benchmarkPortalEventDao", IPortalEventDao.class);
+        this.portalEvents = generateEvents(this.events);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.context.close();
+    }
+    
+    @Setup(Level.Invocation)
+    public void storeEvents() {
+        this.transactionOperations.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                portalEventDao.storePortalEvents(portalEvents);
+            }
+        });
+    }
+    
+    @TearDown(Level.Invocation)
+    public void deleteEvents() {
+        this.transactionOperations.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                portalEventDao.deletePortalEventsBefore(endDate);
+            }
+        });
+    }
+    
+    @Benchmark
+    public int aggregate() {
+        final int aggregated = this.transactionOperations.execute(new TransactionCallback<Integer>() {
+            @Override
+            public Integer doInTransaction(TransactionStatus status) {
+                final MutableInt count = new MutableInt();
+                portalEventDao.aggregatePortalEvents(startDate, endDate, -1, new Function<PortalEvent, Boolean>() {
+                    @Override
+                    public Boolean apply(PortalEvent input) {
+                        count.increment();
+                        return Boolean.TRUE;
+                    }
+                });
+                return count.intValue();
+            }
+        });
+        
+        if (aggregated != this.events) {
+            throw new IllegalStateException("Aggregated " + aggregated + " of " + this.events + " events");
+        }
+        return aggregated;
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(PortalEventAggregationBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+    
+    private List<PortalEvent> generateEvents(int count) {
+        final String sessionId = "1234567890123_system_AAAAAAAAAAA";
+        final PortalEvent.PortalEventBuilder eventBuilder = new PortalEvent.PortalEventBuilder(this, "example.com", sessionId, SystemPerson.INSTANCE, null);
+        @SuppressWarnings("unchecked")
+        final PortletExecutionEvent.PortletExecutionEventBuilder portletExecutionEventBuilder = new PortletExecutionEvent.PortletExecutionEventBuilder(eventBuilder, new MockPortletWindowId("pw1"), "fname", 12345, Collections.EMPTY_MAP, WindowState.NORMAL, PortletMode.VIEW);
+        
+        final Set<String> groups = ImmutableSet.of("Student", "Employee");
+        final Map<String, List<String>> attributes = ImmutableMap.of("username", (List<String>)ImmutableList.of("system"), "roles", (List<String>)ImmutableList.of("student", "employee"));
+        
+        final List<PortalEvent> events = new ArrayList<PortalEvent>(count);
+        for (int i = 0; i < count; i++) {
+            switch (i % 4) {
+                case 0: events.add(new LoginEvent(eventBuilder, groups, attributes)); break;
+                case 1: events.add(new PortletRenderExecutionEvent(portletExecutionEventBuilder, true, false)); break;
+                case 2: events.add(new PortletActionExecutionEvent(portletExecutionEventBuilder)); break;
+                default: events.add(new PortletAddedToLayoutPortalEvent(eventBuilder, SystemPerson.INSTANCE, 1, "n32", "portletA")); break;
+            }
+        }
+        return events;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.aggr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.jasig.portal.events.PortalEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+public class AggregationUpdatePartitionsTest {
+    private ExecutorService executor;
+    
+    @Before
+    public void setup() {
+        this.executor = Executors.newFixedThreadPool(2);
+    }
+    
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+    
+    @Test
+    public void testUpdatesAppliedInOrder() throws Exception {
+        final AggregationUpdatePartitions updatePartitions = new AggregationUpdatePartitions(3);
+        
+        final List<List<Integer>> aggregations = new ArrayList<List<Integer>>();
+        for (int i = 0; i < 10; i++) {
+            aggregations.add(new ArrayList<Integer>());
+        }
+        
+        for (int i = 0; i < 1000; i++) {
+            final List<Integer> aggregation = aggregations.get(i % aggregations.size());
+            final int update = i;
+            updatePartitions.add(mock(PortalEvent.class), aggregation, new Runnable() {
+                @Override
+                public void run() {
+                    aggregation.add(update);
+                }
+            });
+        }
+        assertEquals(1000, updatePartitions.getPendingUpdates());
+        
+        assertTrue(updatePartitions.apply(this.executor).isEmpty());
+        assertEquals(0, updatePartitions.getPendingUpdates());
+        
+        for (int a = 0; a < aggregations.size(); a++) {
+            final List<Integer> aggregation = aggregations.get(a);
+            assertEquals(100, aggregation.size());
+            for (int i = 0; i < aggregation.size(); i++) {
+                assertEquals(a + i * aggregations.size(), aggregation.get(i).intValue());
+            }
+        }
+        
+        //Applied updates are not applied again
+        assertTrue(updatePartitions.apply(this.executor).isEmpty());
+        assertEquals(100, aggregations.get(0).size());
+    }
+    
+    @Test
+    public void testFailedUpdatesReported() throws Exception {
+        final AggregationUpdatePartitions updatePartitions = new AggregationUpdatePartitions(3);
+        
+        final PortalEvent failedEvent = mock(PortalEvent.class);
+        final List<Integer> aggregation = new ArrayList<Integer>();
+        for (int i = 0; i < 5; i++) {
+            final int update = i;
+            updatePartitions.add(update == 2 ? failedEvent : mock(PortalEvent.class), aggregation, new Runnable() {
+                @Override
+                public void run() {
+                    if (update == 2) {
+                        throw new IllegalStateException("Test failure");
+                    }
+                    aggregation.add(update);
+                }
+            });
+        }
+        
+        assertEquals(ImmutableSet.of(failedEvent), updatePartitions.apply(this.executor));
+        assertEquals(ImmutableSet.of(0, 1, 3, 4), ImmutableSet.copyOf(aggregation));
+    }
+    
+    @Test
+    public void testRejectedPartitionsAppliedByCaller() throws Exception {
+        final AggregationUpdatePartitions updatePartitions = new AggregationUpdatePartitions(4);
+        
+        final ExecutorService rejectingExecutor = mock(ExecutorService.class);
+        when(rejectingExecutor.submit(any(Runnable.class))).thenThrow(new RejectedExecutionException());
+        
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 20; i++) {
+            updatePartitions.add(mock(PortalEvent.class), new Object(), new Runnable() {
+                @Override
+                public void run() {
+                    threads.add(Thread.currentThread());
+                }
+            });
+        }
+        
+        assertTrue(updatePartitions.apply(rejectingExecutor).isEmpty());
+        assertEquals(20, threads.size());
+        for (final Thread thread : threads) {
+            assertSame(Thread.currentThread(), thread);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.aggr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HyperLogLogTest {
+    
+    @Test
+    public void testEmpty() {
+        final HyperLogLog hll = new HyperLogLog();
+        assertEquals(0, hll.cardinality());
+        assertEquals(0.01625, hll.getRelativeError(), 0.00001);
+    }
+    
+    @Test
+    public void testDuplicatesIgnored() {
+        final HyperLogLog hll = new HyperLogLog();
+        assertTrue(hll.offer("user1"));
+        assertFalse(hll.offer("user1"));
+        hll.offer("user2");
+        hll.offer("user2");
+        assertEquals(2, hll.cardinality());
+    }
+    
+    @Test
+    public void testEstimateWithinErrorBound() {
+        for (final int count : new int[] { 100, 5000, 60000, 250000 }) {
+            final HyperLogLog hll = new HyperLogLog();
+            for (int i = 0; i < count; i++) {
+                hll.offer("user" + i);
+                hll.offer("user" + (i / 2));
+            }
+            
+            //4 standard errors
+            final double error = Math.abs(hll.cardinality() - count) / (double) count;
+            assertTrue("Error " + error + " too large for " + count, error < hll.getRelativeError() * 4);
+        }
+    }
+    
+    @Test
+    public void testMerge() {
+        final HyperLogLog first = new HyperLogLog();
+        final HyperLogLog second = new HyperLogLog();
+        final HyperLogLog union = new HyperLogLog();
+        for (int i = 0; i < 20000; i++) {
+            first.offer("user" + i);
+            union.offer("user" + i);
+        }
+        for (int i = 10000; i < 40000; i++) {
+            second.offer("user" + i);
+            union.offer("user" + i);
+        }
+        
+        assertTrue(first.merge(second));
+        assertArrayEquals(union.toByteArray(), first.toByteArray());
+        assertEquals(union.cardinality(), first.cardinality());
+        assertFalse(first.merge(second));
+    }
+    
+    @Test
+    public void testRoundTrip() {
+        final HyperLogLog hll = new HyperLogLog();
+        for (int i = 0; i < 1000; i++) {
+            hll.offer("user" + i);
+        }
+        
+        final HyperLogLog copy = HyperLogLog.fromByteArray(hll.toByteArray());
+        assertEquals(hll.cardinality(), copy.cardinality());
+        assertFalse(copy.offer("user1"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergePrecisionMismatch() {
+        new HyperLogLog(10).merge(new HyperLogLog(12));
+    }
+}
@@ -20,10 +20,13 @@ package org.jasig.portal.events.aggr;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.concurrent.ExecutorService;
+
 import javax.persistence.EntityManager;
 
 import org.jasig.portal.IPortalInfoProvider;
@@ -34,6 +37,7 @@ import org.jasig.portal.events.aggr.dao.IEventAggregationManagementDao;
 import org.jasig.portal.events.aggr.session.EventSession;
 import org.jasig.portal.events.aggr.session.EventSessionDao;
 import org.jasig.portal.events.handlers.db.IPortalEventDao;
+import org.jasig.portal.events.handlers.db.PartitionedAggregationHandler;
 import org.jasig.portal.security.IPerson;
 import org.joda.time.DateTime;
 import org.junit.Test;
@@ -152,6 +156,43 @@ public class PortalRawEventsAggregatorImplTest {
         this.portalEventAggregator.setEventAggregationBatchSize(1000);
     }
     
+    @Test
+    public void aggregateRawEventsPartitioned()  throws Exception {
+        when(transactionOperations.execute(any(TransactionCallback.class))).then(new Answer<EventProcessingResult>() {
+            @Override
+            public EventProcessingResult answer(InvocationOnMock invocation) throws Throwable {
+                final TransactionStatus status = mock(TransactionStatus.class);
+                return ((TransactionCallback<EventProcessingResult>)invocation.getArguments()[0]).doInTransaction(status);
+            }
+        });
+        when(clusterLockService.isLockOwner(PortalRawEventsAggregator.AGGREGATION_LOCK_NAME)).thenReturn(true);
+        when(portalEventDimensionPopulator.isCheckedDimensions()).thenReturn(true);
+        when(eventAggregationManagementDao.getEventAggregatorStatus(ProcessingType.AGGREGATION, true)).thenReturn(eventAggregatorStatus);
+        when(portalInfoProvider.getUniqueServerName()).thenReturn("serverName_abcd");
+        when(eventAggregatorStatus.getLastEventDate()).thenReturn(new DateTime(1325881376117l));
+        when(portalEventDao.aggregatePortalEvents(any(DateTime.class), any(DateTime.class), (int)any(Integer.TYPE), (Function<PortalEvent, Boolean>)any(Function.class))).then(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                final Object handler = invocation.getArguments()[3];
+                assertTrue(handler instanceof PartitionedAggregationHandler);
+                
+                final PartitionedAggregationHandler partitionedHandler = (PartitionedAggregationHandler)handler;
+                partitionedHandler.apply(new MockPortalEvent(this, "serverName", "eventSessionId", person));
+                assertTrue(partitionedHandler.aggregatePartitions().isEmpty());
+                
+                return true;
+            }
+        });
+        when(eventSessionDao.getEventSession(any(PortalEvent.class))).thenReturn(eventSession);
+        
+        this.portalEventAggregator.setAggregationPartitions(3);
+        this.portalEventAggregator.setAggregationPartitionExecutor(mock(ExecutorService.class));
+        final EventProcessingResult result = portalEventAggregator.doAggregateRawEvents();
+        assertNotNull(result);
+        assertEquals(1, result.getProcessed());
+        assertEquals(true, result.isComplete());
+    }
+    
     private static class MockPortalEvent extends PortalEvent {
         public MockPortalEvent(Object source, String serverName, String eventSessionId, IPerson person) {
             super(new MockPortalEventBuilder(source, serverName, eventSessionId, person));
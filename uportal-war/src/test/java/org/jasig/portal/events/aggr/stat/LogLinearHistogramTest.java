@@ -0,0 +1,101 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.aggr.stat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LogLinearHistogramTest {
+    
+    @Test
+    public void testEmpty() {
+        final LogLinearHistogram histogram = new LogLinearHistogram();
+        assertEquals(0, histogram.getN());
+        assertTrue(Double.isNaN(histogram.getPercentile(50)));
+    }
+    
+    @Test
+    public void testSmallValuesExact() {
+        final LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.addValue(i);
+        }
+        
+        assertEquals(100, histogram.getN());
+        assertEquals(50, histogram.getPercentile(50), 0);
+        assertEquals(95, histogram.getPercentile(95), 0);
+        assertEquals(100, histogram.getPercentile(100), 0);
+    }
+    
+    @Test
+    public void testBucketBoundaries() {
+        for (long value = 0; value < 1000000; value += 7) {
+            final int index = LogLinearHistogram.getBucketIndex(value);
+            final double bucketValue = LogLinearHistogram.getBucketValue(index);
+            assertTrue(value + " -> " + bucketValue, Math.abs(bucketValue - value) <= Math.max(1, value * 0.016));
+        }
+        
+        final int index = LogLinearHistogram.getBucketIndex(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, LogLinearHistogram.getBucketValue(index), Long.MAX_VALUE * 0.016);
+    }
+    
+    @Test
+    public void testPercentilesWithinErrorBound() {
+        final Random random = new Random(42);
+        final double[] values = new double[100000];
+        final LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int i = 0; i < values.length; i++) {
+            //Log-normal render times in nanoseconds, centered around 20ms
+            values[i] = Math.exp(random.nextGaussian() + Math.log(20000000));
+            histogram.addValue(values[i]);
+        }
+        Arrays.sort(values);
+        
+        for (final double percentile : new double[] { 50, 90, 95, 99, 99.9 }) {
+            final double expected = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            final double actual = histogram.getPercentile(percentile);
+            assertEquals("p" + percentile, expected, actual, expected * 0.016);
+        }
+    }
+    
+    @Test
+    public void testMergeAndRoundTrip() {
+        final LogLinearHistogram first = new LogLinearHistogram();
+        final LogLinearHistogram second = new LogLinearHistogram();
+        final LogLinearHistogram combined = new LogLinearHistogram();
+        for (int i = 0; i < 10000; i++) {
+            first.addValue(i * 1000);
+            combined.addValue(i * 1000);
+            second.addValue(i * 500000);
+            combined.addValue(i * 500000);
+        }
+        
+        final LogLinearHistogram merged = LogLinearHistogram.fromByteArray(first.toByteArray());
+        merged.merge(LogLinearHistogram.fromByteArray(second.toByteArray()));
+        
+        assertEquals(combined.getN(), merged.getN());
+        assertTrue(Arrays.equals(combined.toByteArray(), merged.toByteArray()));
+        assertEquals(combined.getPercentile(99), merged.getPercentile(99), 0);
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.events.handlers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jasig.portal.events.handlers.QueueingEventHandler.OverflowPolicy;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEvent;
+
+public class QueueingEventHandlerTest {
+    private final List<String> flushed = new ArrayList<String>();
+    private QueueingEventHandler<TestEvent> eventHandler;
+    
+    @Before
+    public void setup() {
+        flushed.clear();
+        eventHandler = new QueueingEventHandler<TestEvent>() {
+            @Override
+            protected void onApplicationEvents(Iterable<TestEvent> events) {
+                for (final TestEvent event : events) {
+                    flushed.add((String) event.getSource());
+                }
+            }
+        };
+        eventHandler.setQueueCapacity(3);
+        eventHandler.setBatchSize(2);
+    }
+    
+    private void queueEvents(int count) {
+        for (int i = 0; i < count; i++) {
+            eventHandler.onApplicationEvent(new TestEvent("e" + i));
+        }
+    }
+    
+    @Test
+    public void testFlushInBatches() {
+        queueEvents(3);
+        assertEquals(3, eventHandler.getQueueSize());
+        
+        eventHandler.flush();
+        
+        assertEquals(0, eventHandler.getQueueSize());
+        assertEquals(3, eventHandler.getFlushedEventCount());
+        assertEquals(0, eventHandler.getOverflowCount());
+        assertEquals(3, flushed.size());
+    }
+    
+    @Test
+    public void testDropOldest() {
+        eventHandler.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        queueEvents(5);
+        
+        assertEquals(3, eventHandler.getQueueSize());
+        assertEquals(2, eventHandler.getOverflowCount());
+        assertEquals(2, eventHandler.getDiscardCount());
+        
+        eventHandler.flush();
+        assertEquals(3, flushed.size());
+        assertEquals("e2", flushed.get(0));
+        assertEquals("e4", flushed.get(2));
+    }
+    
+    @Test
+    public void testSample() {
+        eventHandler.setOverflowPolicy(OverflowPolicy.SAMPLE);
+        eventHandler.setOverflowSampleRate(2);
+        queueEvents(7);
+        
+        assertEquals(3, eventHandler.getQueueSize());
+        assertEquals(4, eventHandler.getOverflowCount());
+        assertEquals(4, eventHandler.getDiscardCount());
+        
+        eventHandler.flush();
+        assertEquals(3, flushed.size());
+        assertEquals("e2", flushed.get(0));
+        assertEquals("e4", flushed.get(1));
+        assertEquals("e6", flushed.get(2));
+    }
+    
+    @Test
+    public void testBlock() {
+        eventHandler.setOverflowPolicy(OverflowPolicy.BLOCK);
+        eventHandler.setOverflowBlockTimeout(1);
+        queueEvents(4);
+        
+        assertEquals(3, eventHandler.getQueueSize());
+        assertEquals(1, eventHandler.getOverflowCount());
+        assertEquals(1, eventHandler.getDiscardCount());
+        
+        eventHandler.flush();
+        assertEquals("e0", flushed.get(0));
+        assertEquals("e2", flushed.get(2));
+    }
+    
+    private static class TestEvent extends ApplicationEvent {
+        private static final long serialVersionUID = 1L;
+
+        public TestEvent(String source) {
+            super(source);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.groups;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class GroupClosureIndexTest {
+    @Test
+    public void testClosure() {
+        final GroupClosureIndex index = new GroupClosureIndex(createMemberGroupKeys());
+        
+        assertEquals(5, index.size());
+        assertTrue(index.isIndexed("local.0"));
+        assertFalse(index.isIndexed("pags.students"));
+        
+        assertTrue(index.isDeepMemberOf("local.1", "local.0"));
+        assertTrue(index.isDeepMemberOf("local.3", "local.0"));
+        assertTrue(index.isDeepMemberOf("local.3", "local.1"));
+        assertTrue(index.isDeepMemberOf("local.3", "local.2"));
+        assertFalse(index.isDeepMemberOf("local.0", "local.3"));
+        assertFalse(index.isDeepMemberOf("local.4", "local.0"));
+        assertFalse(index.isDeepMemberOf("local.3", "local.unknown"));
+        
+        //Local parents of groups from other services are known too
+        assertTrue(index.isDeepMemberOf("pags.students", "local.0"));
+        
+        assertEquals(set("local.0", "local.1", "local.2"), new HashSet<String>(index.getAncestorKeys("local.3")));
+        assertEquals(Collections.<String>emptyList(), index.getAncestorKeys("local.0"));
+        assertEquals(Collections.<String>emptyList(), index.getAncestorKeys("local.unknown"));
+    }
+    
+    @Test
+    public void testCycle() {
+        final Map<String, List<String>> memberGroupKeys = createMemberGroupKeys();
+        memberGroupKeys.put("local.3", Arrays.asList("local.1"));
+        final GroupClosureIndex index = new GroupClosureIndex(memberGroupKeys);
+        
+        assertTrue(index.isDeepMemberOf("local.1", "local.3"));
+        assertTrue(index.isDeepMemberOf("local.3", "local.1"));
+        assertTrue(index.isDeepMemberOf("local.1", "local.1"));
+        assertTrue(index.isDeepMemberOf("local.3", "local.0"));
+        assertEquals(set("local.0", "local.1", "local.2", "local.3"), new HashSet<String>(index.getAncestorKeys("local.1")));
+    }
+    
+    @Test
+    public void testUpdates() {
+        GroupClosureIndex index = new GroupClosureIndex(createMemberGroupKeys());
+        
+        index = index.withMemberGroupKeys("local.4", Arrays.asList("local.0"));
+        assertTrue(index.isDeepMemberOf("local.3", "local.4"));
+        assertTrue(index.isDeepMemberOf("pags.students", "local.4"));
+        
+        index = index.withoutGroup("local.1");
+        assertEquals(4, index.size());
+        assertFalse(index.isIndexed("local.1"));
+        assertTrue(index.isDeepMemberOf("local.3", "local.2"));
+        assertFalse(index.isDeepMemberOf("local.3", "local.0"));
+        assertFalse(index.isDeepMemberOf("local.2", "local.0"));
+    }
+    
+    @Test
+    public void testUpdatesMatchRebuild() {
+        final Random random = new Random(42);
+        
+        //Random graph with cycles and members from another service
+        final Map<String, List<String>> memberGroupKeys = new LinkedHashMap<String, List<String>>();
+        for (int i = 0; i < 40; i++) {
+            memberGroupKeys.put("local." + i, randomMembers(random, 40));
+        }
+        GroupClosureIndex index = new GroupClosureIndex(memberGroupKeys);
+        
+        for (int update = 0; update < 200; update++) {
+            //Groups beyond the initial ones are added by the updates
+            final String groupKey = "local." + random.nextInt(50);
+            if (random.nextInt(5) == 0 && memberGroupKeys.containsKey(groupKey)) {
+                index = index.withoutGroup(groupKey);
+                memberGroupKeys.remove(groupKey);
+                for (final Map.Entry<String, List<String>> memberEntry : memberGroupKeys.entrySet()) {
+                    final List<String> memberKeys = new ArrayList<String>(memberEntry.getValue());
+                    memberKeys.removeAll(Collections.singleton(groupKey));
+                    memberEntry.setValue(memberKeys);
+                }
+            }
+            else {
+                final List<String> memberKeys = randomMembers(random, 50);
+                index = index.withMemberGroupKeys(groupKey, memberKeys);
+                memberGroupKeys.put(groupKey, memberKeys);
+            }
+            
+            assertSameClosure(new GroupClosureIndex(memberGroupKeys), index, 50);
+        }
+    }
+    
+    private void assertSameClosure(GroupClosureIndex expected, GroupClosureIndex actual, int groups) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < groups; i++) {
+            final String memberKey = "local." + i;
+            assertEquals(memberKey, expected.isIndexed(memberKey), actual.isIndexed(memberKey));
+            assertEquals(memberKey, new HashSet<String>(expected.getAncestorKeys(memberKey)), new HashSet<String>(actual.getAncestorKeys(memberKey)));
+            for (int j = 0; j < groups; j++) {
+                final String groupKey = "local." + j;
+                assertEquals(memberKey + " in " + groupKey, expected.isDeepMemberOf(memberKey, groupKey), actual.isDeepMemberOf(memberKey, groupKey));
+            }
+        }
+        assertEquals(new HashSet<String>(expected.getAncestorKeys("pags.students")), new HashSet<String>(actual.getAncestorKeys("pags.students")));
+    }
+    
+    private List<String> randomMembers(Random random, int groups) {
+        final List<String> memberKeys = new ArrayList<String>();
+        final int count = random.nextInt(4);
+        for (int i = 0; i < count; i++) {
+            memberKeys.add("local." + random.nextInt(groups));
+        }
+        if (random.nextInt(10) == 0) {
+            memberKeys.add("pags.students");
+        }
+        return memberKeys;
+    }
+    
+    /*
+     * local.0 -> local.1 -> local.2 -> local.3
+     *         -> pags.students
+     * local.4
+     */
+    private Map<String, List<String>> createMemberGroupKeys() {
+        final Map<String, List<String>> memberGroupKeys = new LinkedHashMap<String, List<String>>();
+        memberGroupKeys.put("local.0", Arrays.asList("local.1", "pags.students"));
+        memberGroupKeys.put("local.1", Arrays.asList("local.2"));
+        memberGroupKeys.put("local.2", Arrays.asList("local.3"));
+        memberGroupKeys.put("local.3", Collections.<String>emptyList());
+        memberGroupKeys.put("local.4", Collections.<String>emptyList());
+        return memberGroupKeys;
+    }
+    
+    private Set<String> set(String... values) {
+        return new HashSet<String>(Arrays.asList(values));
+    }
+}
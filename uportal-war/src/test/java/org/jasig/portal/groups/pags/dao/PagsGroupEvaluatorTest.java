@@ -0,0 +1,187 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.groups.pags.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.jasig.portal.groups.pags.testers.GuestUserTester;
+import org.jasig.portal.groups.pags.testers.RegexTester;
+import org.jasig.portal.groups.pags.testers.StringEqualsTester;
+import org.jasig.portal.groups.pags.testers.StringTester;
+import org.jasig.portal.groups.pags.testers.ValueMissingTester;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.security.provider.PersonImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PagsGroupEvaluatorTest {
+    private IPersonAttributesGroupDefinition root;
+    private IPersonAttributesGroupDefinition students;
+    private IPersonAttributesGroupDefinition chemistryStudents;
+    private IPersonAttributesGroupDefinition notStudents;
+    private IPersonAttributesGroupDefinition broken;
+    private IPersonAttributesGroupDefinition partlyBroken;
+    private PagsGroupEvaluator evaluator;
+
+    @Before
+    public void setup() {
+        CountingTester.count = 0;
+
+        root = definition("Root", Collections.<IPersonAttributesGroupTestGroupDefinition>emptySet());
+        students = definition("Students", testGroups(
+                testGroup(test("affiliation", StringEqualsTester.class, "student")),
+                testGroup(test("affiliation", RegexTester.class, "grad.*"), test("affiliation", CountingTester.class, "x"))));
+        chemistryStudents = definition("Chemistry Students", testGroups(
+                testGroup(test("affiliation", StringEqualsTester.class, "student"), test("major", StringEqualsTester.class, "chemistry"))));
+        notStudents = definition("Not Students", testGroups(
+                testGroup(test("affiliation", ValueMissingTester.class, "student"), test("guest", GuestUserTester.class, "false"))));
+        broken = definition("Broken", testGroups(
+                testGroup(test("affiliation", String.class, "student"))));
+        partlyBroken = definition("Partly Broken", testGroups(
+                testGroup(test("affiliation", StringEqualsTester.class, "student"), test("major", String.class, "chemistry")),
+                testGroup(test("major", StringEqualsTester.class, "physics"))));
+
+        when(root.getMembers()).thenReturn(new HashSet<IPersonAttributesGroupDefinition>(Arrays.asList(students, notStudents)));
+        when(students.getMembers()).thenReturn(Collections.singleton(chemistryStudents));
+
+        evaluator = new PagsGroupEvaluator(Arrays.asList(root, students, chemistryStudents, notStudents, broken, partlyBroken), 10);
+    }
+
+    @Test
+    public void testMembers() {
+        assertTrue(evaluator.isDefined("Students"));
+        assertFalse(evaluator.isDefined("Staff"));
+        assertTrue(evaluator.hasMember("Root", "Students"));
+        assertTrue(evaluator.hasMember("Students", "Chemistry Students"));
+        assertFalse(evaluator.hasMember("Root", "Chemistry Students"));
+    }
+
+    @Test
+    public void testSharedTests() {
+        // affiliation=student is used by three groups but created once
+        assertEquals(7, evaluator.getTestCount());
+    }
+
+    @Test
+    public void testContains() {
+        final IPerson student = person("student", "chemistry");
+        assertTrue(evaluator.contains("Students", student));
+        assertTrue(evaluator.contains("Chemistry Students", student));
+        assertFalse(evaluator.contains("Not Students", student));
+        // Groups without tests and groups whose only test group has a tester that could not be created contain no one
+        assertFalse(evaluator.contains("Root", student));
+        assertFalse(evaluator.contains("Broken", student));
+        // A tester that could not be created only fails its own test group
+        assertFalse(evaluator.contains("Partly Broken", student));
+        assertTrue(evaluator.contains("Partly Broken", person("student", "physics")));
+        assertFalse(evaluator.contains("Staff", student));
+
+        assertFalse(evaluator.contains("Chemistry Students", person("student", "physics")));
+        assertTrue(evaluator.contains("Students", person("graduate", null)));
+        assertTrue(evaluator.contains("Not Students", person("graduate", null)));
+        assertTrue(evaluator.contains("Not Students", person(null, null)));
+    }
+
+    @Test
+    public void testContainingGroupNames() {
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("Chemistry Students", "Students")),
+                evaluator.getContainingGroupNames(person("student", "chemistry")));
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("Not Students", "Students")),
+                evaluator.getContainingGroupNames(person("graduate", "chemistry")));
+        assertEquals(Collections.singleton("Not Students"), evaluator.getContainingGroupNames(person(null, "chemistry")));
+    }
+
+    @Test
+    public void testAttributeSnapshotCache() {
+        assertTrue(evaluator.contains("Students", person("graduate", "chemistry")));
+        assertEquals(1, CountingTester.count);
+
+        // Same tested attribute values, the attribute tests are not evaluated again
+        final IPerson other = person("graduate", "chemistry");
+        other.setAttribute("displayName", "Other");
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("Not Students", "Students")),
+                evaluator.getContainingGroupNames(other));
+        assertEquals(1, CountingTester.count);
+
+        assertTrue(evaluator.contains("Students", person("graduate", "physics")));
+        assertEquals(2, CountingTester.count);
+    }
+
+    private static IPerson person(String affiliation, String major) {
+        final IPerson person = new PersonImpl();
+        person.setAttribute(IPerson.USERNAME, "user");
+        if (affiliation != null) {
+            person.setAttribute("affiliation", affiliation);
+        }
+        if (major != null) {
+            person.setAttribute("major", major);
+        }
+        return person;
+    }
+
+    private static IPersonAttributesGroupDefinition definition(String name, Set<IPersonAttributesGroupTestGroupDefinition> testGroups) {
+        final IPersonAttributesGroupDefinition definition = mock(IPersonAttributesGroupDefinition.class);
+        when(definition.getName()).thenReturn(name);
+        when(definition.getMembers()).thenReturn(Collections.<IPersonAttributesGroupDefinition>emptySet());
+        when(definition.getTestGroups()).thenReturn(testGroups);
+        return definition;
+    }
+
+    private static Set<IPersonAttributesGroupTestGroupDefinition> testGroups(IPersonAttributesGroupTestGroupDefinition... testGroups) {
+        return new LinkedHashSet<IPersonAttributesGroupTestGroupDefinition>(Arrays.asList(testGroups));
+    }
+
+    private static IPersonAttributesGroupTestGroupDefinition testGroup(IPersonAttributesGroupTestDefinition... tests) {
+        final IPersonAttributesGroupTestGroupDefinition testGroup = mock(IPersonAttributesGroupTestGroupDefinition.class);
+        when(testGroup.getTests()).thenReturn(new LinkedHashSet<IPersonAttributesGroupTestDefinition>(Arrays.asList(tests)));
+        return testGroup;
+    }
+
+    private static IPersonAttributesGroupTestDefinition test(String attributeName, Class<?> testerClass, String testValue) {
+        final IPersonAttributesGroupTestDefinition test = mock(IPersonAttributesGroupTestDefinition.class);
+        when(test.getAttributeName()).thenReturn(attributeName);
+        when(test.getTesterClassName()).thenReturn(testerClass.getName());
+        when(test.getTestValue()).thenReturn(testValue);
+        return test;
+    }
+
+    public static class CountingTester extends StringTester {
+        private static int count;
+
+        public CountingTester(IPersonAttributesGroupTestDefinition definition) {
+            super(definition);
+        }
+
+        @Override
+        public boolean test(String att) {
+            count++;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Locale;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.jasig.portal.IUserProfile;
+import org.jasig.portal.i18n.LocaleManager;
+import org.jasig.portal.layout.immutable.ImmutableTransientUserLayoutManagerWrapper;
+import org.jasig.portal.security.IPerson;
+import org.jasig.portal.utils.cache.CacheKey;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.beans.factory.BeanFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UserLayoutManagerFactoryTest {
+    private UserLayoutManagerFactory userLayoutManagerFactory;
+    
+    @Mock private BeanFactory beanFactory;
+    @Mock private Ehcache guestUserLayoutManagers;
+    @Mock private IPerson person;
+    @Mock private IUserProfile profile;
+    @Mock private LocaleManager localeManager;
+    @Mock private IUserLayoutManager userLayoutManager;
+    
+    @Before
+    public void setup() {
+        this.userLayoutManagerFactory = new UserLayoutManagerFactory();
+        this.userLayoutManagerFactory.setBeanFactory(this.beanFactory);
+        this.userLayoutManagerFactory.setGuestUserLayoutManagers(this.guestUserLayoutManagers);
+        
+        when(this.person.getID()).thenReturn(1);
+        when(this.profile.getProfileId()).thenReturn(2);
+        when(this.profile.getLocaleManager()).thenReturn(this.localeManager);
+        when(this.localeManager.getLocales()).thenReturn(new Locale[] { Locale.US });
+        when(this.beanFactory.getBean(UserLayoutManagerFactory.USER_LAYOUT_MANAGER_PROTOTYPE_BEAN_NAME, this.person, this.profile))
+            .thenReturn(this.userLayoutManager);
+    }
+    
+    @Test
+    public void testUserLayoutManagerNotShared() {
+        when(this.person.isGuest()).thenReturn(false);
+        
+        final IUserLayoutManager layoutManager = this.userLayoutManagerFactory.getUserLayoutManager(this.person, this.profile);
+        
+        assertTrue(layoutManager instanceof TransientUserLayoutManagerWrapper);
+        assertSame(this.userLayoutManager, ((TransientUserLayoutManagerWrapper) layoutManager).getOriginalLayoutManager());
+        verifyZeroInteractions(this.guestUserLayoutManagers);
+    }
+    
+    @Test
+    public void testGuestUserLayoutManagerCreated() {
+        when(this.person.isGuest()).thenReturn(true);
+        when(this.person.getAttributeMap()).thenReturn(ImmutableMap.of(IPerson.USERNAME, (List<Object>) ImmutableList.<Object>of("guest")));
+        final ArgumentCaptor<IPerson> ownerCaptor = ArgumentCaptor.forClass(IPerson.class);
+        when(this.beanFactory.getBean(eq(UserLayoutManagerFactory.USER_LAYOUT_MANAGER_PROTOTYPE_BEAN_NAME), ownerCaptor.capture(), eq(this.profile)))
+            .thenReturn(this.userLayoutManager);
+        
+        final IUserLayoutManager layoutManager = this.userLayoutManagerFactory.getUserLayoutManager(this.person, this.profile);
+        
+        assertTrue(layoutManager instanceof ImmutableTransientUserLayoutManagerWrapper);
+        assertSame(this.userLayoutManager, ((TransientUserLayoutManagerWrapper) layoutManager).getOriginalLayoutManager());
+        verify(this.guestUserLayoutManagers).putIfAbsent(any(Element.class));
+        
+        //The shared layout manager is owned by a copy of the guest, not the session's person
+        final IPerson owner = ownerCaptor.getValue();
+        assertNotSame(this.person, owner);
+        assertEquals(1, owner.getID());
+        assertEquals("guest", owner.getAttribute(IPerson.USERNAME));
+        assertTrue(owner.isGuest());
+    }
+    
+    @Test
+    public void testGuestUserLayoutManagerShared() {
+        when(this.person.isGuest()).thenReturn(true);
+        final IUserLayoutManager sharedLayoutManager = mock(IUserLayoutManager.class);
+        final CacheKey cacheKey = CacheKey.build(UserLayoutManagerFactory.class.getName(), 1, 2, Locale.US.toString());
+        when(this.guestUserLayoutManagers.get(cacheKey)).thenReturn(new Element(cacheKey, sharedLayoutManager));
+        
+        final IUserLayoutManager first = this.userLayoutManagerFactory.getUserLayoutManager(this.person, this.profile);
+        final IUserLayoutManager second = this.userLayoutManagerFactory.getUserLayoutManager(this.person, this.profile);
+        
+        //Each session gets its own transient wrapper around the shared layout manager
+        assertNotSame(first, second);
+        assertSame(sharedLayoutManager, ((TransientUserLayoutManagerWrapper) first).getOriginalLayoutManager());
+        assertSame(sharedLayoutManager, ((TransientUserLayoutManagerWrapper) second).getOriginalLayoutManager());
+        verify(this.beanFactory, never()).getBean(UserLayoutManagerFactory.USER_LAYOUT_MANAGER_PROTOTYPE_BEAN_NAME, this.person, this.profile);
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.StringReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.jasig.portal.IUserProfile;
+import org.jasig.portal.events.IPortalLayoutEventFactory;
+import org.jasig.portal.layout.IUserLayoutStore;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IAuthorizationService;
+import org.jasig.portal.security.IPerson;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+public class DistributedLayoutManagerTest {
+    private static final String LAYOUT = 
+            "<layout>" +
+                "<folder ID=\"s1\" type=\"root\" name=\"Root folder\" hidden=\"false\" immutable=\"false\" unremovable=\"false\">" +
+                    "<folder ID=\"s2\" type=\"regular\" name=\"Home\" hidden=\"false\" immutable=\"false\" unremovable=\"false\">" +
+                        "<folder ID=\"s3\" type=\"regular\" name=\"Column\" hidden=\"false\" immutable=\"false\" unremovable=\"false\"/>" +
+                    "</folder>" +
+                "</folder>" +
+            "</layout>";
+    
+    private IPerson owner;
+    private IUserLayoutStore layoutStore;
+    private DistributedUserLayout cachedLayout;
+    private DistributedLayoutManager layoutManager;
+    
+    @Before
+    public void setup() throws Exception {
+        this.owner = mock(IPerson.class);
+        when(this.owner.getAttribute(Constants.PLF)).thenReturn(parseLayout());
+        
+        final IUserProfile profile = mock(IUserProfile.class);
+        when(profile.getLayoutId()).thenReturn(1);
+        
+        this.layoutStore = mock(IUserLayoutStore.class);
+        when(this.layoutStore.getUserLayout(this.owner, profile)).thenAnswer(new Answer<DistributedUserLayout>() {
+            @Override
+            public DistributedUserLayout answer(InvocationOnMock invocation) throws Throwable {
+                return new DistributedUserLayout(parseLayout());
+            }
+        });
+        when(this.layoutStore.isUserLayoutCurrent(any(DistributedUserLayout.class))).thenReturn(true);
+        
+        final IAuthorizationService authorizationService = mock(IAuthorizationService.class);
+        final IAuthorizationPrincipal principal = mock(IAuthorizationPrincipal.class);
+        when(authorizationService.newPrincipal(anyString(), any(Class.class))).thenReturn(principal);
+        
+        this.layoutManager = new DistributedLayoutManager(this.owner, profile);
+        this.layoutManager.setDistributedLayoutStore(this.layoutStore);
+        this.layoutManager.setAuthorizationService(authorizationService);
+        this.layoutManager.setPortalEventFactory(mock(IPortalLayoutEventFactory.class));
+        this.layoutManager.setLayoutCachingService(new ILayoutCachingService() {
+            @Override
+            public void cacheLayout(IPerson owner, IUserProfile profile, DistributedUserLayout layout) {
+                cachedLayout = layout;
+            }
+            
+            @Override
+            public void removeCachedLayout(IPerson owner, IUserProfile profile) {
+                cachedLayout = null;
+            }
+            
+            @Override
+            public DistributedUserLayout getCachedLayout(IPerson owner, IUserProfile profile) {
+                return cachedLayout;
+            }
+        });
+    }
+    
+    private static Document parseLayout() throws Exception {
+        final Document layout = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(LAYOUT)));
+        final NodeList folders = layout.getElementsByTagName("folder");
+        for (int i = 0; i < folders.getLength(); i++) {
+            ((Element)folders.item(i)).setIdAttribute(Constants.ATT_ID, true);
+        }
+        return layout;
+    }
+    
+    @Test
+    public void testEditCreatesNewVersion() throws Exception {
+        this.layoutManager.loadUserLayout();
+        
+        //A request that is rendering the layout while it is modified
+        final DistributedUserLayout readerLayout = this.cachedLayout;
+        final String readerCacheKey = this.layoutManager.getCacheKey();
+        
+        assertTrue(this.layoutManager.deleteNode("s3"));
+        
+        assertNotSame(readerLayout, this.cachedLayout);
+        assertFalse(readerCacheKey.equals(this.layoutManager.getCacheKey()));
+        assertNull(this.cachedLayout.getLayout().getElementById("s3"));
+        assertNull(this.cachedLayout.getIndex().getNode("s3"));
+        
+        //The reader still sees the layout as it was when it started
+        assertNotNull(readerLayout.getLayout().getElementById("s3"));
+        assertNotNull(readerLayout.getIndex().getNode("s3"));
+        assertEquals("s2", readerLayout.getIndex().getParentId("s3"));
+        
+        //The change was pushed into the PLF
+        assertNull(((Document)this.owner.getAttribute(Constants.PLF)).getElementById("s3"));
+    }
+    
+    @Test
+    public void testUserLayoutDOMIsCopy() throws Exception {
+        this.layoutManager.loadUserLayout();
+        final DistributedUserLayout userLayout = this.cachedLayout;
+        final String cacheKey = this.layoutManager.getCacheKey();
+        
+        @SuppressWarnings("deprecation")
+        final Document layoutDOM = this.layoutManager.getUserLayoutDOM();
+        final Element column = layoutDOM.getElementById("s3");
+        assertNotNull(column);
+        column.getParentNode().removeChild(column);
+        
+        assertNotSame(userLayout.getLayout(), layoutDOM);
+        assertSame(userLayout, this.cachedLayout);
+        assertEquals(cacheKey, this.layoutManager.getCacheKey());
+        assertNotNull(userLayout.getLayout().getElementById("s3"));
+        assertEquals("s2", this.layoutManager.getParentId("s3"));
+    }
+    
+    @Test
+    public void testConcurrentLoadsLoadOnce() throws Exception {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(this.layoutStore.getUserLayout(any(IPerson.class), any(IUserProfile.class))).thenAnswer(new Answer<DistributedUserLayout>() {
+            @Override
+            public DistributedUserLayout answer(InvocationOnMock invocation) throws Throwable {
+                loading.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return new DistributedUserLayout(parseLayout());
+            }
+        });
+        
+        final Thread firstLoad = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                layoutManager.loadUserLayout();
+            }
+        });
+        final Thread secondLoad = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                layoutManager.loadUserLayout();
+            }
+        });
+        
+        firstLoad.start();
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        secondLoad.start();
+        
+        //Let the second load reach the layout store if it isn't held back by the first
+        final long waitUntil = System.currentTimeMillis() + 5000;
+        while (secondLoad.getState() != Thread.State.BLOCKED && secondLoad.isAlive() && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        
+        firstLoad.join(5000);
+        secondLoad.join(5000);
+        
+        verify(this.layoutStore, times(1)).getUserLayout(any(IPerson.class), any(IUserProfile.class));
+        assertNotNull(this.cachedLayout);
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class FragmentActivatorTest {
+    @Test
+    public void testFragmentVersions() {
+        final FragmentActivator activator = new FragmentActivator();
+        assertEquals(0, activator.getFragmentVersion("admin-lo"));
+        assertEquals(0, activator.getLatestFragmentVersion());
+        
+        activator.clearChacheForOwner("admin-lo");
+        activator.clearChacheForOwner("guest-lo");
+        
+        assertEquals(1, activator.getFragmentVersion("admin-lo"));
+        assertEquals(2, activator.getFragmentVersion("guest-lo"));
+        assertEquals(0, activator.getFragmentVersion("faculty-lo"));
+        assertEquals(2, activator.getLatestFragmentVersion());
+        assertEquals(2, activator.getFragmentChangeCount());
+        
+        activator.clearChacheForOwner("admin-lo");
+        
+        assertEquals(3, activator.getFragmentVersion("admin-lo"));
+        assertEquals(2, activator.getFragmentVersion("guest-lo"));
+        assertEquals(3, activator.getLatestFragmentVersion());
+    }
+}
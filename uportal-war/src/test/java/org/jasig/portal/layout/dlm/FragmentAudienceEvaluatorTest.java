@@ -0,0 +1,142 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jasig.portal.security.IPerson;
+import org.junit.After;
+import org.junit.Test;
+
+public class FragmentAudienceEvaluatorTest {
+    private final FragmentAudienceEvaluator fragmentAudienceEvaluator = new FragmentAudienceEvaluator();
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+    
+    @After
+    public void destroy() throws Exception {
+        this.executor.shutdownNow();
+    }
+    
+    @Test
+    public void testSerialEvaluation() {
+        testEvaluation(1);
+    }
+    
+    @Test
+    public void testParallelEvaluation() {
+        testEvaluation(4);
+    }
+    
+    @Test(timeout = 10000)
+    public void testBusyPoolDoesNotBlockEvaluation() throws Exception {
+        //Occupy every pool thread, the helpers of the evaluation are queued behind them
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 3; i++) {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        
+        try {
+            testEvaluation(4);
+        }
+        finally {
+            release.countDown();
+        }
+        
+        //The queued helpers were cancelled and never evaluate anything
+        this.executor.shutdown();
+        assertTrue(this.executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, this.fragmentAudienceEvaluator.getEvaluationCount());
+    }
+    
+    @Test
+    public void testNoEvaluationInProgress() {
+        AudienceEvaluationContext.putResult("key", Boolean.TRUE);
+        assertNull(AudienceEvaluationContext.getResult("key"));
+    }
+    
+    private void testEvaluation(int threads) {
+        this.fragmentAudienceEvaluator.setThreads(threads);
+        this.fragmentAudienceEvaluator.setEvaluationExecutor(this.executor);
+        
+        final AtomicInteger groupChecks = new AtomicInteger();
+        final List<FragmentDefinition> fragments = new ArrayList<FragmentDefinition>();
+        for (int i = 0; i < 50; i++) {
+            fragments.add(new SharedAudienceFragmentDefinition("fragment-" + i, i % 3 == 0, groupChecks));
+        }
+        
+        final List<FragmentDefinition> applicable = this.fragmentAudienceEvaluator.getApplicableFragments(null, fragments);
+        
+        assertEquals(17, applicable.size());
+        for (int i = 0; i < applicable.size(); i++) {
+            assertEquals("fragment-" + (i * 3), applicable.get(i).getName());
+        }
+        
+        //Every thread may check the shared group before the first result is memoized
+        assertTrue(groupChecks.get() >= 1 && groupChecks.get() <= threads);
+        assertEquals(1, this.fragmentAudienceEvaluator.getEvaluationCount());
+        assertEquals(50, this.fragmentAudienceEvaluator.getAverageFragmentEvaluationTimes().size());
+        
+        //Results are not shared between evaluations
+        this.fragmentAudienceEvaluator.getApplicableFragments(null, Arrays.asList(fragments.get(0)));
+        assertTrue(groupChecks.get() >= 2);
+    }
+    
+    private static final class SharedAudienceFragmentDefinition extends FragmentDefinition {
+        private final boolean applicable;
+        private final AtomicInteger groupChecks;
+        
+        public SharedAudienceFragmentDefinition(String name, boolean applicable, AtomicInteger groupChecks) {
+            super(name);
+            this.applicable = applicable;
+            this.groupChecks = groupChecks;
+        }
+
+        @Override
+        public boolean isApplicable(IPerson p) {
+            Boolean member = AudienceEvaluationContext.getResult("sharedGroup");
+            if (member == null) {
+                this.groupChecks.incrementAndGet();
+                member = Boolean.TRUE;
+                AudienceEvaluationContext.putResult("sharedGroup", member);
+            }
+            return member && this.applicable;
+        }
+    }
+}
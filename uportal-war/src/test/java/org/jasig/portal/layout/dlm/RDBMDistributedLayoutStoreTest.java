@@ -0,0 +1,252 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.jasig.portal.EntityIdentifier;
+import org.jasig.portal.IUserProfile;
+import org.jasig.portal.events.IPortalLayoutEventFactory;
+import org.jasig.portal.i18n.LocaleManager;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IAuthorizationService;
+import org.jasig.portal.security.IPerson;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+public class RDBMDistributedLayoutStoreTest {
+    private static final String PLF =
+            "<layout>" +
+                "<folder ID=\"s1\" type=\"root\" name=\"Root folder\" hidden=\"false\" immutable=\"false\" unremovable=\"false\">" +
+                    "<folder ID=\"s2\" type=\"regular\" name=\"Home\" hidden=\"false\" immutable=\"false\" unremovable=\"false\"/>" +
+                "</folder>" +
+            "</layout>";
+
+    private static final String NEWS =
+            "<layout>" +
+                "<folder ID=\"u10l1s1\" type=\"root\" name=\"Root folder\" hidden=\"false\" immutable=\"false\" unremovable=\"false\">" +
+                    "<folder ID=\"u10l1s2\" type=\"regular\" name=\"News\" hidden=\"false\" immutable=\"true\" unremovable=\"true\"/>" +
+                "</folder>" +
+            "</layout>";
+
+    private static final String NEWS_CHANGED =
+            "<layout>" +
+                "<folder ID=\"u10l1s1\" type=\"root\" name=\"Root folder\" hidden=\"false\" immutable=\"false\" unremovable=\"false\">" +
+                    "<folder ID=\"u10l1s3\" type=\"regular\" name=\"Headlines\" hidden=\"false\" immutable=\"true\" unremovable=\"true\"/>" +
+                "</folder>" +
+            "</layout>";
+
+    private static final String SPORTS =
+            "<layout>" +
+                "<folder ID=\"u11l1s1\" type=\"root\" name=\"Root folder\" hidden=\"false\" immutable=\"false\" unremovable=\"false\">" +
+                    "<folder ID=\"u11l1s2\" type=\"regular\" name=\"Sports\" hidden=\"false\" immutable=\"true\" unremovable=\"true\"/>" +
+                "</folder>" +
+            "</layout>";
+
+    private final Map<String, Document> fragmentViews = new HashMap<String, Document>();
+    private List<FragmentDefinition> fragments;
+    private FragmentActivator activator;
+    private IAuthorizationPrincipal principal;
+    private IPerson owner;
+    private RDBMDistributedLayoutStore layoutStore;
+    private DistributedUserLayout cachedLayout;
+    private DistributedLayoutManager layoutManager;
+
+    @Before
+    public void setup() throws Exception {
+        this.fragmentViews.put("news-lo", parseLayout(NEWS));
+        this.fragmentViews.put("sports-lo", parseLayout(SPORTS));
+
+        final ConfigurationLoader configurationLoader = mock(ConfigurationLoader.class);
+        this.fragments = new ArrayList<FragmentDefinition>();
+        this.fragments.add(mockFragment(configurationLoader, "News", "news-lo"));
+        this.fragments.add(mockFragment(configurationLoader, "Sports", "sports-lo"));
+
+        final IUserProfile profile = mock(IUserProfile.class);
+        when(profile.getLayoutId()).thenReturn(1);
+        final LocaleManager localeManager = mock(LocaleManager.class);
+        when(localeManager.getLocales()).thenReturn(new Locale[] { Locale.US });
+        when(profile.getLocaleManager()).thenReturn(localeManager);
+
+        //The fragment owners' layouts are served from the current fragment views
+        this.activator = spy(new FragmentActivator());
+        doAnswer(new Answer<UserView>() {
+            @Override
+            public UserView answer(InvocationOnMock invocation) throws Throwable {
+                final FragmentDefinition fragment = (FragmentDefinition) invocation.getArguments()[0];
+                return new UserView(10, profile, fragmentViews.get(fragment.getOwnerId()));
+            }
+        }).when(this.activator).getUserView(any(FragmentDefinition.class), any(Locale.class));
+
+        final IAuthorizationService authorizationService = mock(IAuthorizationService.class);
+        this.principal = mock(IAuthorizationPrincipal.class);
+        when(this.principal.canRender(anyString())).thenReturn(true);
+        when(authorizationService.newPrincipal(anyString(), any(Class.class))).thenReturn(this.principal);
+
+        this.owner = mock(IPerson.class);
+        when(this.owner.getAttribute(Constants.PLF)).thenReturn(parseLayout(PLF));
+        when(this.owner.getUserName()).thenReturn("student");
+        when(this.owner.getEntityIdentifier()).thenReturn(new EntityIdentifier("student", IPerson.class));
+
+        this.layoutStore = new RDBMDistributedLayoutStore();
+        this.layoutStore.setConfigurationLoader(configurationLoader);
+        this.layoutStore.setFragmentActivator(this.activator);
+        this.layoutStore.setAuthorizationService(authorizationService);
+
+        this.layoutManager = new DistributedLayoutManager(this.owner, profile);
+        this.layoutManager.setDistributedLayoutStore(this.layoutStore);
+        this.layoutManager.setAuthorizationService(authorizationService);
+        this.layoutManager.setPortalEventFactory(mock(IPortalLayoutEventFactory.class));
+        this.layoutManager.setLayoutCachingService(new ILayoutCachingService() {
+            @Override
+            public void cacheLayout(IPerson owner, IUserProfile profile, DistributedUserLayout layout) {
+                cachedLayout = layout;
+            }
+
+            @Override
+            public void removeCachedLayout(IPerson owner, IUserProfile profile) {
+                cachedLayout = null;
+            }
+
+            @Override
+            public DistributedUserLayout getCachedLayout(IPerson owner, IUserProfile profile) {
+                return cachedLayout;
+            }
+        });
+    }
+
+    private static FragmentDefinition mockFragment(ConfigurationLoader configurationLoader, String name, String ownerId) {
+        final FragmentDefinition fragment = mock(FragmentDefinition.class);
+        when(fragment.getName()).thenReturn(name);
+        when(fragment.getOwnerId()).thenReturn(ownerId);
+        when(configurationLoader.getFragmentByName(name)).thenReturn(fragment);
+        return fragment;
+    }
+
+    private static Document parseLayout(String layoutXml) throws Exception {
+        final Document layout = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(layoutXml)));
+        final NodeList folders = layout.getElementsByTagName("folder");
+        for (int i = 0; i < folders.getLength(); i++) {
+            ((Element)folders.item(i)).setIdAttribute(Constants.ATT_ID, true);
+        }
+        return layout;
+    }
+
+    /**
+     * Compose the layout the way it is loaded from the store, from the current fragment views and versions
+     */
+    private DistributedUserLayout composeLayout() {
+        final Map<String, Long> fragmentVersions = new LinkedHashMap<String, Long>();
+        final List<Document> applicables = new ArrayList<Document>();
+        for (final FragmentDefinition fragment : this.fragments) {
+            fragmentVersions.put(fragment.getName(), this.activator.getFragmentVersion(fragment.getOwnerId()));
+            applicables.add(this.fragmentViews.get(fragment.getOwnerId()));
+        }
+
+        final Document ILF = ILFBuilder.constructILF((Document) this.owner.getAttribute(Constants.PLF), applicables, this.principal);
+        return new DistributedUserLayout(ILF, fragmentVersions, this.activator.getLatestFragmentVersion(), null, null);
+    }
+
+    @Test
+    public void testUnchangedFragmentsReuseLayout() throws Exception {
+        final DistributedUserLayout userLayout = composeLayout();
+        this.cachedLayout = userLayout;
+
+        //A fragment that is not part of this layout changes
+        this.activator.clearChacheForOwner("faculty-lo");
+        assertEquals(1, this.activator.getLatestFragmentVersion());
+
+        @SuppressWarnings("deprecation")
+        final Document layoutDOM = this.layoutManager.getUserLayoutDOM();
+        assertNotNull(layoutDOM.getElementById("u10l1s2"));
+
+        assertSame(userLayout, this.cachedLayout);
+        assertEquals(1, userLayout.getCheckedFragmentVersion());
+        assertEquals(1, this.activator.getRecompositionAvoidedCount());
+        assertEquals(0, this.activator.getRecompositionCount());
+        verify(this.activator, never()).getUserView(any(FragmentDefinition.class), any(Locale.class));
+
+        //Once checked the layout is current without looking at the fragments again
+        assertTrue(this.layoutStore.isUserLayoutCurrent(userLayout));
+        assertEquals(1, this.activator.getRecompositionAvoidedCount());
+    }
+
+    @Test
+    public void testChangedFragmentRecomposesLayout() throws Exception {
+        final DistributedUserLayout userLayout = composeLayout();
+        this.cachedLayout = userLayout;
+
+        //The news fragment owner edits their layout
+        this.fragmentViews.put("news-lo", parseLayout(NEWS_CHANGED));
+        this.activator.clearChacheForOwner("news-lo");
+        assertFalse(this.layoutStore.isUserLayoutCurrent(userLayout));
+
+        //Without a task executor the recomposition runs before the layout is returned
+        this.layoutManager.getUserLayoutDOM();
+
+        final DistributedUserLayout recomposedLayout = this.cachedLayout;
+        assertNotSame(userLayout, recomposedLayout);
+        assertEquals(1, this.activator.getRecompositionCount());
+        assertEquals(0, this.activator.getRecompositionAvoidedCount());
+
+        final Document ILF = recomposedLayout.getLayout();
+        assertNotNull(ILF.getElementById("u10l1s3"));
+        assertNull(ILF.getElementById("u10l1s2"));
+        assertNotNull(ILF.getElementById("u11l1s2"));
+        assertNotNull(ILF.getElementById("s2"));
+
+        assertEquals(Long.valueOf(this.activator.getFragmentVersion("news-lo")), recomposedLayout.getFragmentVersions().get("News"));
+        assertEquals(Long.valueOf(0), recomposedLayout.getFragmentVersions().get("Sports"));
+        assertTrue(this.layoutStore.isUserLayoutCurrent(recomposedLayout));
+
+        //The layout being rendered when the fragment changed is left as it was
+        assertNotNull(userLayout.getLayout().getElementById("u10l1s2"));
+        assertNull(userLayout.getLayout().getElementById("u10l1s3"));
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.dlm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+public class UserLayoutIndexTest {
+    private static final String LAYOUT = 
+            "<layout>" +
+                "<folder ID=\"s1\" type=\"root\">" +
+                    "<folder ID=\"s2\" type=\"header\">" +
+                        "<channel ID=\"n3\" fname=\"login\"/>" +
+                    "</folder>" +
+                    "<folder ID=\"s4\" type=\"regular\" hidden=\"false\">" +
+                        "<folder ID=\"s5\" type=\"regular\" hidden=\"false\">" +
+                            "<channel ID=\"n6\" fname=\"weather\"><parameter name=\"p\" value=\"v\"/></channel>" +
+                            "<channel ID=\"n7\" fname=\"news\"/>" +
+                        "</folder>" +
+                    "</folder>" +
+                    "<folder ID=\"s8\" type=\"regular\" hidden=\"true\">" +
+                        "<folder ID=\"s9\" type=\"regular\" hidden=\"false\"/>" +
+                    "</folder>" +
+                    "<folder ID=\"s10\" type=\"regular\" hidden=\"false\">" +
+                        "<folder ID=\"s11\" type=\"regular\" hidden=\"false\">" +
+                            "<channel ID=\"n12\" fname=\"weather\"/>" +
+                        "</folder>" +
+                    "</folder>" +
+                "</folder>" +
+            "</layout>";
+    
+    private UserLayoutIndex index;
+    
+    @Before
+    public void setup() throws Exception {
+        final Document layout = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(LAYOUT)));
+        this.index = new UserLayoutIndex(layout);
+    }
+    
+    @Test
+    public void testNodes() {
+        assertEquals("s1", this.index.getRootId());
+        assertEquals("n6", this.index.getNode("n6").getAttribute("ID"));
+        assertNull(this.index.getNode("n99"));
+        
+        assertNull(this.index.getParentId("s1"));
+        assertEquals("s5", this.index.getParentId("n7"));
+        assertEquals(Arrays.asList("s2", "s4", "s8", "s10"), this.index.getChildIds("s1"));
+        assertEquals(Arrays.asList("n6", "n7"), this.index.getChildIds("s5"));
+        assertEquals(Collections.emptyList(), this.index.getChildIds("n6"));
+    }
+    
+    @Test
+    public void testSubscribeIds() {
+        assertEquals("n6", this.index.getSubscribeId("weather"));
+        assertEquals("n12", this.index.getSubscribeId("s10", "weather"));
+        assertEquals("n6", this.index.getSubscribeId("s1", "weather"));
+        assertNull(this.index.getSubscribeId("s2", "weather"));
+        assertNull(this.index.getSubscribeId("calendar"));
+    }
+    
+    @Test
+    public void testTabs() {
+        assertEquals(Arrays.asList("s4", "s10"), this.index.getTabIds());
+        assertEquals("s4", this.index.getTabIdByIndex(1));
+        assertEquals("s10", this.index.getTabIdByIndex(2));
+        assertNull(this.index.getTabIdByIndex(0));
+        assertNull(this.index.getTabIdByIndex(3));
+        
+        assertEquals("s4", this.index.getTabId("n7"));
+        assertEquals("s4", this.index.getTabId("s4"));
+        assertEquals("s2", this.index.getTabId("n3"));
+        assertEquals("s10", this.index.getTabId("n12"));
+        assertNull(this.index.getTabId("s1"));
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.simple;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UserLayoutRowsTest {
+    private static final int USER_ID = 42;
+    private static final int REWRITE_USER_ID = 43;
+    private static final int LAYOUT_ID = 1;
+    
+    private Connection connection;
+    
+    @Before
+    public void setup() throws SQLException {
+        this.connection = DriverManager.getConnection("jdbc:hsqldb:mem:userLayoutRowsTest", "sa", "");
+        this.execute("CREATE TABLE UP_LAYOUT_STRUCT (USER_ID INTEGER NOT NULL, LAYOUT_ID INTEGER NOT NULL, STRUCT_ID INTEGER NOT NULL, "
+                + "NEXT_STRUCT_ID INTEGER, CHLD_STRUCT_ID INTEGER, EXTERNAL_ID VARCHAR(64), CHAN_ID INTEGER, NAME VARCHAR(35), "
+                + "TYPE VARCHAR(35), HIDDEN VARCHAR(1), IMMUTABLE VARCHAR(1), UNREMOVABLE VARCHAR(1), "
+                + "PRIMARY KEY (LAYOUT_ID, USER_ID, STRUCT_ID))");
+        this.execute("CREATE TABLE UP_LAYOUT_PARAM (USER_ID INTEGER NOT NULL, LAYOUT_ID INTEGER NOT NULL, STRUCT_ID INTEGER NOT NULL, "
+                + "STRUCT_PARM_NM VARCHAR(35) NOT NULL, STRUCT_PARM_VAL VARCHAR(2000), "
+                + "PRIMARY KEY (USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM))");
+    }
+    
+    @After
+    public void tearDown() throws SQLException {
+        this.execute("SHUTDOWN");
+        this.connection.close();
+    }
+
+    @Test
+    public void testUnchangedLayout() {
+        final UserLayoutRows.Changes changes = layout().getChanges(layout());
+        assertEquals(0, changes.size());
+    }
+
+    @Test
+    public void testFirstSave() {
+        final UserLayoutRows.Changes changes = layout().getChanges(new UserLayoutRows());
+        assertEquals(Arrays.asList(1, 2, 3, 4), changes.getInsertedStructIds());
+        assertEquals(2, changes.getInsertedParamCount());
+        assertEquals(6, changes.size());
+    }
+
+    @Test
+    public void testMovedPortlet() {
+        final UserLayoutRows.Changes changes = movedLayout().getChanges(layout());
+        assertEquals(Collections.emptyList(), changes.getInsertedStructIds());
+        assertEquals(Arrays.asList(2, 4, 3), changes.getUpdatedStructIds());
+        assertEquals(Collections.emptyList(), changes.getDeletedStructIds());
+        assertEquals(3, changes.size());
+    }
+
+    @Test
+    public void testRemovedPortletAndChangedParameters() {
+        final UserLayoutRows removed = new UserLayoutRows();
+        removed.addStruct(1, 0, 2, null, null, "Root", "root", "N", "N", "N");
+        removed.addStruct(2, 0, 3, null, null, "Tab", "regular", "N", "N", "N");
+        removed.addStruct(3, 0, 0, "7", 10, null, "", "N", "N", "N");
+        removed.addParam(3, "dlm:moveAllowed", "true");
+        removed.addParam(3, "color", "red");
+
+        final UserLayoutRows.Changes changes = removed.getChanges(layout());
+        assertEquals(Collections.emptyList(), changes.getInsertedStructIds());
+        assertEquals(Arrays.asList(3), changes.getUpdatedStructIds());
+        assertEquals(Arrays.asList(4), changes.getDeletedStructIds());
+        assertEquals(1, changes.getInsertedParamCount());
+        assertEquals(1, changes.getUpdatedParamCount());
+        assertEquals(1, changes.getDeletedParamCount());
+        assertEquals(5, changes.size());
+    }
+
+    @Test
+    public void testEmptyStringsEqualNull() {
+        // Oracle reads back empty strings written to VARCHAR columns as NULL
+        final UserLayoutRows persisted = new UserLayoutRows();
+        persisted.addStruct(1, 0, 2, null, null, "Root", "root", "N", "N", "N");
+        persisted.addStruct(2, 0, 3, null, null, null, "regular", "N", "N", "N");
+        persisted.addStruct(3, 4, 0, "7", 10, null, null, "N", "N", "N");
+        persisted.addStruct(4, 0, 0, null, 20, null, null, "N", "N", "N");
+        persisted.addParam(3, "dlm:moveAllowed", "false");
+        persisted.addParam(4, "color", null);
+
+        final UserLayoutRows layout = new UserLayoutRows();
+        layout.addStruct(1, 0, 2, null, null, "Root", "root", "N", "N", "N");
+        layout.addStruct(2, 0, 3, null, null, "", "regular", "N", "N", "N");
+        layout.addStruct(3, 4, 0, "7", 10, null, "", "N", "N", "N");
+        layout.addStruct(4, 0, 0, null, 20, null, "", "N", "N", "N");
+        layout.addParam(3, "dlm:moveAllowed", "false");
+        layout.addParam(4, "color", "");
+
+        assertEquals(0, layout.getChanges(persisted).size());
+    }
+
+    @Test
+    public void testSaveMatchesFullRewrite() throws SQLException {
+        // First save inserts every row
+        UserLayoutRows.Changes changes = layout().getChanges(UserLayoutRows.load(this.connection, USER_ID, LAYOUT_ID));
+        assertEquals(6, changes.size());
+        changes.apply(this.connection, USER_ID, LAYOUT_ID);
+        this.rewrite(LAYOUT_STRUCTS, LAYOUT_PARAMS);
+        this.assertMatchesRewrite();
+
+        // Saving the same layout again changes nothing
+        assertEquals(0, layout().getChanges(UserLayoutRows.load(this.connection, USER_ID, LAYOUT_ID)).size());
+
+        // Move a portlet
+        changes = movedLayout().getChanges(UserLayoutRows.load(this.connection, USER_ID, LAYOUT_ID));
+        assertEquals(3, changes.size());
+        changes.apply(this.connection, USER_ID, LAYOUT_ID);
+        this.rewrite(MOVED_LAYOUT_STRUCTS, LAYOUT_PARAMS);
+        this.assertMatchesRewrite();
+
+        // Remove a portlet, rename the tab, update, add and delete parameters
+        final UserLayoutRows changed = new UserLayoutRows();
+        changed.addStruct(1, 0, 2, null, null, "Root", "root", "N", "N", "N");
+        changed.addStruct(2, 0, 3, null, null, "", "regular", "Y", "N", "N");
+        changed.addStruct(3, 0, 0, "7", 10, null, "", "N", "N", "Y");
+        changed.addParam(3, "dlm:moveAllowed", "true");
+        changed.addParam(3, "title", "");
+        changes = changed.getChanges(UserLayoutRows.load(this.connection, USER_ID, LAYOUT_ID));
+        assertEquals(6, changes.size());
+        changes.apply(this.connection, USER_ID, LAYOUT_ID);
+        this.rewrite(CHANGED_LAYOUT_STRUCTS, CHANGED_LAYOUT_PARAMS);
+        this.assertMatchesRewrite();
+        assertEquals(0, changed.getChanges(UserLayoutRows.load(this.connection, USER_ID, LAYOUT_ID)).size());
+
+        // Empty strings read back as NULL, as on Oracle, are not changes
+        this.execute("UPDATE UP_LAYOUT_STRUCT SET NAME=NULL WHERE NAME=''");
+        this.execute("UPDATE UP_LAYOUT_STRUCT SET TYPE=NULL WHERE TYPE=''");
+        this.execute("UPDATE UP_LAYOUT_PARAM SET STRUCT_PARM_VAL=NULL WHERE STRUCT_PARM_VAL=''");
+        assertEquals(0, changed.getChanges(UserLayoutRows.load(this.connection, USER_ID, LAYOUT_ID)).size());
+    }
+
+    private static final String[] LAYOUT_STRUCTS = {
+        "1, 0, 2, NULL, NULL, 'Root', 'root', 'N', 'N', 'N'",
+        "2, 0, 3, NULL, NULL, 'Tab', 'regular', 'N', 'N', 'N'",
+        "3, 4, 0, '7', 10, NULL, '', 'N', 'N', 'N'",
+        "4, 0, 0, NULL, 20, NULL, '', 'N', 'N', 'N'",
+    };
+    private static final String[] LAYOUT_PARAMS = {
+        "3, 'dlm:moveAllowed', 'false'",
+        "4, 'color', 'blue'",
+    };
+    private static final String[] MOVED_LAYOUT_STRUCTS = {
+        "1, 0, 2, NULL, NULL, 'Root', 'root', 'N', 'N', 'N'",
+        "2, 0, 4, NULL, NULL, 'Tab', 'regular', 'N', 'N', 'N'",
+        "3, 0, 0, '7', 10, NULL, '', 'N', 'N', 'N'",
+        "4, 3, 0, NULL, 20, NULL, '', 'N', 'N', 'N'",
+    };
+    private static final String[] CHANGED_LAYOUT_STRUCTS = {
+        "1, 0, 2, NULL, NULL, 'Root', 'root', 'N', 'N', 'N'",
+        "2, 0, 3, NULL, NULL, '', 'regular', 'Y', 'N', 'N'",
+        "3, 0, 0, '7', 10, NULL, '', 'N', 'N', 'Y'",
+    };
+    private static final String[] CHANGED_LAYOUT_PARAMS = {
+        "3, 'dlm:moveAllowed', 'true'",
+        "3, 'title', ''",
+    };
+
+    /**
+     * Deletes the layout of the rewrite user and inserts every row, the way layouts were saved
+     * before {@link UserLayoutRows}
+     */
+    private void rewrite(String[] structs, String[] params) throws SQLException {
+        this.execute("DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=" + REWRITE_USER_ID);
+        this.execute("DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=" + REWRITE_USER_ID);
+        for (final String struct : structs) {
+            this.execute("INSERT INTO UP_LAYOUT_STRUCT VALUES (" + REWRITE_USER_ID + ", " + LAYOUT_ID + ", " + struct + ")");
+        }
+        for (final String param : params) {
+            this.execute("INSERT INTO UP_LAYOUT_PARAM VALUES (" + REWRITE_USER_ID + ", " + LAYOUT_ID + ", " + param + ")");
+        }
+    }
+
+    private void assertMatchesRewrite() throws SQLException {
+        final String structQuery = "SELECT STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID, EXTERNAL_ID, CHAN_ID, NAME, TYPE, HIDDEN, IMMUTABLE, UNREMOVABLE "
+                + "FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=? ORDER BY STRUCT_ID";
+        assertEquals(this.query(structQuery, REWRITE_USER_ID), this.query(structQuery, USER_ID));
+
+        final String paramQuery = "SELECT STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL "
+                + "FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=? ORDER BY STRUCT_ID, STRUCT_PARM_NM";
+        assertEquals(this.query(paramQuery, REWRITE_USER_ID), this.query(paramQuery, USER_ID));
+    }
+
+    private List<List<Object>> query(String sql, int userId) throws SQLException {
+        final List<List<Object>> rows = new ArrayList<List<Object>>();
+        final PreparedStatement pstmt = this.connection.prepareStatement(sql);
+        try {
+            pstmt.setInt(1, userId);
+            pstmt.setInt(2, LAYOUT_ID);
+            final ResultSet rs = pstmt.executeQuery();
+            try {
+                final int columns = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    final List<Object> row = new ArrayList<Object>(columns);
+                    for (int i = 1; i <= columns; i++) {
+                        row.add(rs.getObject(i));
+                    }
+                    rows.add(row);
+                }
+            } finally {
+                rs.close();
+            }
+        } finally {
+            pstmt.close();
+        }
+        return rows;
+    }
+
+    private void execute(String sql) throws SQLException {
+        final Statement stmt = this.connection.createStatement();
+        try {
+            stmt.execute(sql);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    private static UserLayoutRows layout() {
+        final UserLayoutRows rows = new UserLayoutRows();
+        rows.addStruct(1, 0, 2, null, null, "Root", "root", "N", "N", "N");
+        rows.addStruct(2, 0, 3, null, null, "Tab", "regular", "N", "N", "N");
+        rows.addStruct(3, 4, 0, "7", 10, null, "", "N", "N", "N");
+        rows.addStruct(4, 0, 0, null, 20, null, "", "N", "N", "N");
+        rows.addParam(3, "dlm:moveAllowed", "false");
+        rows.addParam(4, "color", "blue");
+        return rows;
+    }
+
+    /**
+     * {@link #layout()} with portlet 4 moved in front of portlet 3
+     */
+    private static UserLayoutRows movedLayout() {
+        final UserLayoutRows rows = new UserLayoutRows();
+        rows.addStruct(1, 0, 2, null, null, "Root", "root", "N", "N", "N");
+        rows.addStruct(2, 0, 4, null, null, "Tab", "regular", "N", "N", "N");
+        rows.addStruct(4, 3, 0, null, 20, null, "", "N", "N", "N");
+        rows.addStruct(3, 0, 0, "7", 10, null, "", "N", "N", "N");
+        rows.addParam(3, "dlm:moveAllowed", "false");
+        rows.addParam(4, "color", "blue");
+        return rows;
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.layout.simple;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark comparing saving a user layout by deleting and re-inserting every row, the way
+ * layouts were saved before {@link UserLayoutRows}, with saving only the changed rows. Each save
+ * moves one portlet, like a drag and drop in the UI. Uses an in-memory HSQLDB database so it
+ * measures the statements issued rather than real database I/O. Not run as part of the build,
+ * run {@link #main(String[])} from the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class UserLayoutSaveBenchmark {
+    private static final int USER_ID = 42;
+    private static final int LAYOUT_ID = 1;
+    private static final int PORTLETS_PER_COLUMN = 5;
+    
+    @Param({"10", "50", "200"})
+    public int nodes;
+    
+    private Connection connection;
+    private List<Object[]> layout;
+    private List<Object[]> movedLayout;
+    private boolean moved;
+    
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        this.connection = DriverManager.getConnection("jdbc:hsqldb:mem:layoutSaveBenchmark", "sa", "");
+        final Statement stmt = this.connection.createStatement();
+        try {
+            stmt.execute("CREATE TABLE UP_LAYOUT_STRUCT (USER_ID INTEGER NOT NULL, LAYOUT_ID INTEGER NOT NULL, STRUCT_ID INTEGER NOT NULL, "
+                    + "NEXT_STRUCT_ID INTEGER, CHLD_STRUCT_ID INTEGER, EXTERNAL_ID VARCHAR(64), CHAN_ID INTEGER, NAME VARCHAR(35), "
+                    + "TYPE VARCHAR(35), HIDDEN VARCHAR(1), IMMUTABLE VARCHAR(1), UNREMOVABLE VARCHAR(1), "
+                    + "PRIMARY KEY (LAYOUT_ID, USER_ID, STRUCT_ID))");
+            stmt.execute("CREATE TABLE UP_LAYOUT_PARAM (USER_ID INTEGER NOT NULL, LAYOUT_ID INTEGER NOT NULL, STRUCT_ID INTEGER NOT NULL, "
+                    + "STRUCT_PARM_NM VARCHAR(35) NOT NULL, STRUCT_PARM_VAL VARCHAR(2000) NOT NULL, "
+                    + "PRIMARY KEY (USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM))");
+        } finally {
+            stmt.close();
+        }
+        this.connection.setAutoCommit(false);
+        
+        this.layout = createLayout(this.nodes, false);
+        this.movedLayout = createLayout(this.nodes, true);
+        this.moved = false;
+        rewrite(this.layout);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        final Statement stmt = this.connection.createStatement();
+        try {
+            stmt.execute("SHUTDOWN");
+        } finally {
+            stmt.close();
+        }
+        this.connection.close();
+    }
+    
+    @Benchmark
+    public void fullRewrite() throws SQLException {
+        rewrite(nextLayout());
+    }
+    
+    @Benchmark
+    public void diff() throws SQLException {
+        final UserLayoutRows layoutRows = toLayoutRows(nextLayout());
+        final UserLayoutRows persistedRows = UserLayoutRows.load(this.connection, USER_ID, LAYOUT_ID);
+        layoutRows.getChanges(persistedRows).apply(this.connection, USER_ID, LAYOUT_ID);
+        this.connection.commit();
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(UserLayoutSaveBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+    
+    private List<Object[]> nextLayout() {
+        this.moved = !this.moved;
+        return this.moved ? this.movedLayout : this.layout;
+    }
+    
+    /**
+     * Deletes all rows of the layout and inserts every row with its own statement execution
+     */
+    private void rewrite(List<Object[]> structRows) throws SQLException {
+        PreparedStatement pstmt = this.connection.prepareStatement("DELETE FROM UP_LAYOUT_PARAM WHERE USER_ID=? AND LAYOUT_ID=?");
+        try {
+            pstmt.setInt(1, USER_ID);
+            pstmt.setInt(2, LAYOUT_ID);
+            pstmt.executeUpdate();
+        } finally {
+            pstmt.close();
+        }
+        pstmt = this.connection.prepareStatement("DELETE FROM UP_LAYOUT_STRUCT WHERE USER_ID=? AND LAYOUT_ID=?");
+        try {
+            pstmt.setInt(1, USER_ID);
+            pstmt.setInt(2, LAYOUT_ID);
+            pstmt.executeUpdate();
+        } finally {
+            pstmt.close();
+        }
+        
+        final PreparedStatement structStmt = this.connection.prepareStatement("INSERT INTO UP_LAYOUT_STRUCT "
+                + "(USER_ID, LAYOUT_ID, STRUCT_ID, NEXT_STRUCT_ID, CHLD_STRUCT_ID,EXTERNAL_ID,CHAN_ID,NAME,TYPE,HIDDEN,IMMUTABLE,UNREMOVABLE) "
+                + "VALUES (" + USER_ID + "," + LAYOUT_ID + ",?,?,?,?,?,?,?,?,?,?)");
+        final PreparedStatement parmStmt = this.connection.prepareStatement("INSERT INTO UP_LAYOUT_PARAM "
+                + "(USER_ID, LAYOUT_ID, STRUCT_ID, STRUCT_PARM_NM, STRUCT_PARM_VAL) " + "VALUES (" + USER_ID + "," + LAYOUT_ID + ",?,?,?)");
+        try {
+            for (final Object[] structRow : structRows) {
+                final int structId = (Integer) structRow[0];
+                final Integer chanId = (Integer) structRow[3];
+                structStmt.clearParameters();
+                structStmt.setInt(1, structId);
+                structStmt.setInt(2, (Integer) structRow[1]);
+                structStmt.setInt(3, (Integer) structRow[2]);
+                structStmt.setNull(4, Types.NUMERIC);
+                if (chanId != null) {
+                    structStmt.setInt(5, chanId);
+                    structStmt.setNull(6, Types.VARCHAR);
+                }
+                else {
+                    structStmt.setNull(5, Types.NUMERIC);
+                    structStmt.setString(6, (String) structRow[4]);
+                }
+                structStmt.setString(7, (String) structRow[5]);
+                structStmt.setString(8, "N");
+                structStmt.setString(9, "N");
+                structStmt.setString(10, "N");
+                structStmt.executeUpdate();
+                
+                if (chanId != null) {
+                    parmStmt.clearParameters();
+                    parmStmt.setInt(1, structId);
+                    parmStmt.setString(2, "dlm:moveAllowed");
+                    parmStmt.setString(3, "true");
+                    parmStmt.executeUpdate();
+                }
+            }
+        } finally {
+            structStmt.close();
+            parmStmt.close();
+        }
+        this.connection.commit();
+    }
+    
+    private static UserLayoutRows toLayoutRows(List<Object[]> structRows) {
+        final UserLayoutRows layoutRows = new UserLayoutRows();
+        for (final Object[] structRow : structRows) {
+            final int structId = (Integer) structRow[0];
+            final Integer chanId = (Integer) structRow[3];
+            layoutRows.addStruct(structId, (Integer) structRow[1], (Integer) structRow[2], null, chanId,
+                    (String) structRow[4], (String) structRow[5], "N", "N", "N");
+            if (chanId != null) {
+                layoutRows.addParam(structId, "dlm:moveAllowed", "true");
+            }
+        }
+        return layoutRows;
+    }
+    
+    /**
+     * Creates a layout of root, header, tab and column folders holding the portlets. Each row is
+     * { structId, nextStructId, childStructId, chanId, name, type }
+     * 
+     * @param moved If the first two portlets of the first column are swapped
+     */
+    private static List<Object[]> createLayout(int nodes, boolean moved) {
+        final int portlets = Math.max(2, nodes - 2 - (nodes / (PORTLETS_PER_COLUMN + 1)));
+        final int columns = (portlets + PORTLETS_PER_COLUMN - 1) / PORTLETS_PER_COLUMN;
+        final int firstColumnId = 3;
+        final int firstPortletId = firstColumnId + columns;
+        
+        final List<Object[]> structRows = new ArrayList<Object[]>();
+        structRows.add(new Object[] { 1, 0, 2, null, "Root", "root" });
+        structRows.add(new Object[] { 2, 0, firstColumnId, null, "Tab", "regular" });
+        for (int column = 0; column < columns; column++) {
+            final int columnId = firstColumnId + column;
+            final int nextColumnId = column + 1 < columns ? columnId + 1 : 0;
+            final int firstChildId = firstPortletId + column * PORTLETS_PER_COLUMN;
+            final int columnPortlets = Math.min(PORTLETS_PER_COLUMN, portlets - column * PORTLETS_PER_COLUMN);
+            
+            final int[] order = new int[columnPortlets];
+            for (int i = 0; i < columnPortlets; i++) {
+                order[i] = firstChildId + i;
+            }
+            if (moved && column == 0) {
+                order[0] = firstChildId + 1;
+                order[1] = firstChildId;
+            }
+            
+            structRows.add(new Object[] { columnId, nextColumnId, order[0], null, "Column", "regular" });
+            for (int i = 0; i < columnPortlets; i++) {
+                final int nextPortletId = i + 1 < columnPortlets ? order[i + 1] : 0;
+                structRows.add(new Object[] { order[i], nextPortletId, 0, order[i] * 10, null, "" });
+            }
+        }
+        return structRows;
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.portlet.container.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import org.apache.commons.lang.StringUtils;
+import org.jasig.portal.portlet.rendering.PortletOutputHandler;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Test CachedPortletData compression
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class CachedPortletDataTest {
+    @Mock private PortletOutputHandler portletOutputHandler;
+    
+    @Test
+    public void testCompressWriterOutput() throws IOException {
+        final String output = StringUtils.repeat("<li class=\"portlet\">caf\u00e9</li>", 1000);
+        final CachedPortletData<Long> cachedPortletData = new CachedPortletData<Long>(1l, output, null, "text/html", true, "etag", 60);
+        
+        final CachedPortletData<Long> compressedPortletData = cachedPortletData.compress(1024);
+        assertTrue(compressedPortletData.isCompressed());
+        assertEquals(cachedPortletData.getExpirationTime(), compressedPortletData.getExpirationTime());
+        assertEquals("etag", compressedPortletData.getEtag());
+        assertEquals(output, compressedPortletData.getCachedWriterOutput());
+        
+        final StringWriter writer = new StringWriter();
+        when(portletOutputHandler.getPrintWriter()).thenReturn(new PrintWriter(writer));
+        compressedPortletData.replay(portletOutputHandler);
+        
+        assertEquals(output, writer.toString());
+    }
+    
+    @Test
+    public void testCompressStreamOutput() throws IOException {
+        final byte[] output = StringUtils.repeat("0123456789", 1000).getBytes();
+        final CachedPortletData<Long> cachedPortletData = new CachedPortletData<Long>(1l, null, output, null, true, null, 60);
+        
+        final CachedPortletData<Long> compressedPortletData = cachedPortletData.compress(1024);
+        assertTrue(compressedPortletData.isCompressed());
+        assertArrayEquals(output, compressedPortletData.getCachedStreamOutput());
+        
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        when(portletOutputHandler.getOutputStream()).thenReturn(stream);
+        compressedPortletData.replay(portletOutputHandler);
+        
+        assertArrayEquals(output, stream.toByteArray());
+    }
+    
+    @Test
+    public void testSmallOutputNotCompressed() {
+        final CachedPortletData<Long> cachedPortletData = new CachedPortletData<Long>(1l, "small", null, null, true, null, 60);
+        
+        final CachedPortletData<Long> compressedPortletData = cachedPortletData.compress(1024);
+        assertSame(cachedPortletData, compressedPortletData);
+        assertFalse(compressedPortletData.isCompressed());
+    }
+}
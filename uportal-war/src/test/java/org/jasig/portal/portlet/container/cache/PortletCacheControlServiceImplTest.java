@@ -18,14 +18,19 @@
  */
 package org.jasig.portal.portlet.container.cache;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.portlet.CacheControl;
 import javax.portlet.MimeResponse;
@@ -35,9 +40,12 @@ import javax.portlet.WindowState;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.pluto.container.om.portlet.PortletDefinition;
 import org.jasig.portal.mock.portlet.om.MockPortletDefinitionId;
 import org.jasig.portal.mock.portlet.om.MockPortletWindowId;
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.om.IPortletDefinitionId;
 import org.jasig.portal.portlet.om.IPortletEntity;
 import org.jasig.portal.portlet.om.IPortletWindow;
 import org.jasig.portal.portlet.registry.IPortletDefinitionRegistry;
@@ -345,4 +353,208 @@ public class PortletCacheControlServiceImplTest {
         final CachedPortletResourceData<Long> actualCachedPortletData = secondCacheState.getCachedPortletData();
         assertNotNull(actualCachedPortletData);
     }
+    
+    @Test
+    public void testConcurrentPublicRenderWaitsForPopulation() throws Exception {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        setupPublicRender(httpRequest, portletWindowId);
+        cacheControlService.setCachePopulationTimeout(10000);
+
+        //First request is responsible for rendering the portlet
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> firstCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertTrue(firstCacheState.isCachePopulation());
+        assertFalse(firstCacheState.isUseCachedData());
+        
+        //Second request waits for the first to populate the cache
+        final AtomicReference<CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>> secondCacheState = new AtomicReference<CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult>>();
+        final Thread secondRequest = new Thread() {
+            @Override
+            public void run() {
+                secondCacheState.set(cacheControlService.getPortletRenderState(httpRequest, portletWindowId));
+            }
+        };
+        secondRequest.start();
+        
+        //Fake Render execution
+        final CacheControl cacheControl = firstCacheState.getCacheControl();
+        cacheControl.setExpirationTime(300);
+        
+        final PortletRenderResult renderResult = new PortletRenderResult("title", null, 0, 1000l);
+        final CachedPortletData<PortletRenderResult> cachedPortletData = new CachedPortletData<PortletRenderResult>(
+                renderResult, "output", null, null, false, cacheControl.getETag(), cacheControl.getExpirationTime());
+        cacheControlService.cachePortletRenderOutput(portletWindowId, httpRequest, firstCacheState, cachedPortletData);
+        firstCacheState.endCachePopulation();
+        
+        secondRequest.join(5000);
+        
+        assertNotNull(secondCacheState.get());
+        assertTrue(secondCacheState.get().isUseCachedData());
+        assertFalse(secondCacheState.get().isCachePopulation());
+        assertNotNull(secondCacheState.get().getCachedPortletData());
+    }
+    
+    @Test
+    public void testCachePopulationDisabledByDefault() {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        setupPublicRender(httpRequest, portletWindowId);
+        
+        //Every request renders the portlet, nothing waits
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> firstCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertFalse(firstCacheState.isCachePopulation());
+        
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> secondCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertFalse(secondCacheState.isCachePopulation());
+        assertFalse(secondCacheState.isUseCachedData());
+    }
+    
+    @Test
+    public void testCachePopulationWaitCappedAtPortletTimeout() {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        setupPublicRender(httpRequest, portletWindowId);
+        cacheControlService.setCachePopulationTimeout(10000);
+        
+        final IPortletDefinition portletDefinition = mock(IPortletDefinition.class);
+        when(portletDefinition.getRenderTimeout()).thenReturn(50);
+        when(portletEntity.getPortletDefinition()).thenReturn(portletDefinition);
+        
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> firstCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertTrue(firstCacheState.isCachePopulation());
+        
+        //The first request never populates the cache, the second only waits as long as the portlet's render timeout
+        final long start = System.currentTimeMillis();
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> secondCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        final long waited = System.currentTimeMillis() - start;
+        
+        assertTrue("waited " + waited + "ms", waited < 5000);
+        assertFalse(secondCacheState.isUseCachedData());
+        assertNull(secondCacheState.getCachedPortletData());
+    }
+    
+    @Test
+    public void testStaleWhileRevalidateWithoutPopulationTimeout() throws Exception {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        setupPublicRender(httpRequest, portletWindowId);
+        cacheControlService.setStaleWhileRevalidate(60);
+        
+        cacheExpiredPublicRender(httpRequest, portletWindowId);
+        
+        //One request refreshes the expired data
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> refreshCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertTrue(refreshCacheState.isCachePopulation());
+        assertFalse(refreshCacheState.isUseCachedData());
+        
+        //Other requests are served the stale data while it does
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> staleCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertFalse(staleCacheState.isCachePopulation());
+        assertTrue(staleCacheState.isUseCachedData());
+        assertNotNull(staleCacheState.getCachedPortletData());
+        
+        //Once the refresh is done the next request may refresh again
+        refreshCacheState.endCachePopulation();
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> nextCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertTrue(nextCacheState.isCachePopulation());
+    }
+    
+    @Test
+    public void testFailedCacheStateEndsCachePopulation() throws Exception {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        setupPublicRender(httpRequest, portletWindowId);
+        cacheControlService.setStaleWhileRevalidate(60);
+        
+        cacheExpiredPublicRender(httpRequest, portletWindowId);
+        
+        //The request registers to refresh the data and then fails before the state is returned
+        final IPortletDefinitionId portletDefinitionId = portletEntity.getPortletDefinitionId();
+        doThrow(new IllegalStateException("registry failure")).when(portletDefinitionRegistry).getParentPortletDescriptor(portletDefinitionId);
+        try {
+            cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+            Assert.fail("getPortletRenderState should have failed");
+        }
+        catch (IllegalStateException e) {
+            //expected
+        }
+        
+        //The failed request doesn't leave others serving stale data until the population is abandoned
+        doReturn(portletDescriptor).when(portletDefinitionRegistry).getParentPortletDescriptor(portletDefinitionId);
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> nextCacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        assertTrue(nextCacheState.isCachePopulation());
+        assertFalse(nextCacheState.isUseCachedData());
+    }
+    
+    @Test
+    public void testCacheSizeThresholdAppliesToCompressedOutput() {
+        final MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        final MockPortletWindowId portletWindowId = new MockPortletWindowId("123");
+        setupPublicRender(httpRequest, portletWindowId);
+        cacheControlService.setCacheSizeThreshold(1024);
+        cacheControlService.setCompressionThreshold(512);
+        
+        //More than the threshold is captured so it can be compressed
+        assertEquals(1048576, cacheControlService.getCacheSizeThreshold());
+        
+        //Compresses to less than the threshold
+        final String output = StringUtils.repeat("<li class=\"portlet\">output</li>", 1000);
+        cachePublicRender(httpRequest, portletWindowId, output.getBytes());
+        assertNotNull(cacheControlService.getPortletRenderState(httpRequest, portletWindowId).getCachedPortletData());
+        publicScopeRenderCache.removeAll();
+        
+        //Doesn't compress to less than the threshold
+        final byte[] randomOutput = new byte[output.length()];
+        new Random(42).nextBytes(randomOutput);
+        cachePublicRender(httpRequest, portletWindowId, randomOutput);
+        assertNull(cacheControlService.getPortletRenderState(httpRequest, portletWindowId).getCachedPortletData());
+    }
+    
+    private void cachePublicRender(MockHttpServletRequest httpRequest, MockPortletWindowId portletWindowId, byte[] output) {
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        final CacheControl cacheControl = cacheState.getCacheControl();
+        cacheControl.setExpirationTime(300);
+        
+        final PortletRenderResult renderResult = new PortletRenderResult("title", null, 0, 1000l);
+        final CachedPortletData<PortletRenderResult> cachedPortletData = new CachedPortletData<PortletRenderResult>(
+                renderResult, null, output, null, true, cacheControl.getETag(), cacheControl.getExpirationTime());
+        cacheControlService.cachePortletRenderOutput(portletWindowId, httpRequest, cacheState, cachedPortletData);
+        cacheState.endCachePopulation();
+    }
+    
+    /**
+     * Render the portlet into the public cache and expire the cached data
+     */
+    private void cacheExpiredPublicRender(MockHttpServletRequest httpRequest, MockPortletWindowId portletWindowId) throws InterruptedException {
+        final CacheState<CachedPortletData<PortletRenderResult>, PortletRenderResult> cacheState = cacheControlService.getPortletRenderState(httpRequest, portletWindowId);
+        final CacheControl cacheControl = cacheState.getCacheControl();
+        cacheControl.setExpirationTime(300);
+        
+        final PortletRenderResult renderResult = new PortletRenderResult("title", null, 0, 1000l);
+        final CachedPortletData<PortletRenderResult> cachedPortletData = new CachedPortletData<PortletRenderResult>(
+                renderResult, "output", null, null, true, cacheControl.getETag(), cacheControl.getExpirationTime());
+        cacheControlService.cachePortletRenderOutput(portletWindowId, httpRequest, cacheState, cachedPortletData);
+        cacheState.endCachePopulation();
+        
+        cachedPortletData.updateExpirationTime(0);
+        Thread.sleep(5);
+    }
+    
+    private void setupPublicRender(MockHttpServletRequest httpRequest, MockPortletWindowId portletWindowId) {
+        MockPortletDefinitionId portletDefinitionId = new MockPortletDefinitionId(789);
+        
+        when(portletDescriptor.getCacheScope()).thenReturn(MimeResponse.PUBLIC_SCOPE);
+        
+        when(portletWindowRegistry.getPortletWindow(httpRequest, portletWindowId)).thenReturn(portletWindow);
+        when(portletWindow.getPortletWindowId()).thenReturn(portletWindowId);
+        when(portletWindow.getPortletEntity()).thenReturn(portletEntity);
+        when(portletWindow.getWindowState()).thenReturn(WindowState.NORMAL);
+        when(portletWindow.getPortletMode()).thenReturn(PortletMode.VIEW);
+        when(portletEntity.getPortletDefinitionId()).thenReturn(portletDefinitionId);
+        
+        when(portletDefinitionRegistry.getParentPortletDescriptor(portletDefinitionId)).thenReturn(portletDescriptor);
+
+        when(urlSyntaxProvider.getPortalRequestInfo(httpRequest)).thenReturn(portalRequestInfo);
+        when(portalRequestInfo.getPortletRequestInfoMap()).thenReturn(Collections.EMPTY_MAP);
+    }
 }
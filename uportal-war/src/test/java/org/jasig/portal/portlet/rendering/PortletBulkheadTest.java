@@ -0,0 +1,72 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.portlet.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PortletBulkheadTest {
+    private PortletBulkhead portletBulkhead;
+    
+    @Before
+    public void setup() {
+        this.portletBulkhead = new PortletBulkhead();
+        this.portletBulkhead.setMaxConcurrentExecutions(4);
+        this.portletBulkhead.setMinConcurrentExecutions(1);
+    }
+    
+    @Test
+    public void testSaturation() {
+        for (int i = 0; i < 4; i++) {
+            assertTrue(this.portletBulkhead.tryAcquire("slow"));
+        }
+        assertFalse(this.portletBulkhead.tryAcquire("slow"));
+        assertTrue(this.portletBulkhead.tryAcquire("fast"));
+        
+        assertEquals(Long.valueOf(1), this.portletBulkhead.getRejections().get("slow"));
+        assertEquals(Long.valueOf(0), this.portletBulkhead.getRejections().get("fast"));
+        assertEquals(Integer.valueOf(4), this.portletBulkhead.getActiveExecutions().get("slow"));
+    }
+    
+    @Test
+    public void testAdaptiveLimit() {
+        //Slow executions shrink the limit
+        assertTrue(this.portletBulkhead.tryAcquire("slow"));
+        this.portletBulkhead.release("slow", 9000, 10000);
+        assertEquals(3, this.portletBulkhead.getLimit("slow"));
+        
+        assertTrue(this.portletBulkhead.tryAcquire("slow"));
+        this.portletBulkhead.release("slow", 9000, 10000);
+        assertEquals(2, this.portletBulkhead.getLimit("slow"));
+        
+        //Fast executions at the limit grow it again, up to the max
+        for (int i = 0; i < 5; i++) {
+            assertTrue(this.portletBulkhead.tryAcquire("slow"));
+            assertTrue(this.portletBulkhead.tryAcquire("slow"));
+            this.portletBulkhead.release("slow", 10, 10000);
+            this.portletBulkhead.release("slow", 10, 10000);
+        }
+        assertEquals(4, this.portletBulkhead.getLimit("slow"));
+        assertEquals(Integer.valueOf(0), this.portletBulkhead.getActiveExecutions().get("slow"));
+    }
+}
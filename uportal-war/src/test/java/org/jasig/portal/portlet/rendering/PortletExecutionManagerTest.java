@@ -0,0 +1,108 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.portlet.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jasig.portal.portlet.om.IPortletDefinition;
+import org.jasig.portal.portlet.om.IPortletDescriptorKey;
+import org.jasig.portal.portlet.om.IPortletEntity;
+import org.jasig.portal.portlet.om.IPortletWindow;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.registry.IPortletWindowRegistry;
+import org.jasig.portal.portlet.rendering.worker.IPortletExecutionContext;
+import org.jasig.portal.portlet.rendering.worker.IPortletExecutionContext.ExecutionType;
+import org.jasig.portal.portlet.rendering.worker.IPortletExecutionInterceptor;
+import org.jasig.portal.portlet.rendering.worker.IPortletRenderExecutionWorker;
+import org.jasig.portal.portlet.rendering.worker.PortletWorkerFactoryImpl;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PortletExecutionManagerTest {
+    private PortletExecutionManager portletExecutionManager;
+    
+    @Mock private HttpServletRequest request;
+    @Mock private HttpServletResponse response;
+    @Mock private IPortletWindowRegistry portletWindowRegistry;
+    @Mock private IPortletWindowId portletWindowId;
+    @Mock private IPortletWindow portletWindow;
+    @Mock private IPortletEntity portletEntity;
+    @Mock private IPortletDefinition portletDefinition;
+    @Mock private IPortletDescriptorKey portletDescriptorKey;
+    @Mock private IPortletExecutionContext context;
+    @Mock private ExecutorService portletThreadPool;
+    
+    @Before
+    public void setup() {
+        this.portletExecutionManager = new PortletExecutionManager();
+        this.portletExecutionManager.setPortletWindowRegistry(this.portletWindowRegistry);
+        
+        //Workers wrap the request so the window is looked up with any request
+        when(this.portletWindowRegistry.getPortletWindow(any(HttpServletRequest.class), eq(this.portletWindowId))).thenReturn(this.portletWindow);
+        when(this.portletWindow.getPortletWindowId()).thenReturn(this.portletWindowId);
+        when(this.portletWindow.getPortletEntity()).thenReturn(this.portletEntity);
+        when(this.portletEntity.getPortletDefinition()).thenReturn(this.portletDefinition);
+        when(this.portletDefinition.getFName()).thenReturn("portlet");
+        when(this.portletDefinition.getPortletDescriptorKey()).thenReturn(this.portletDescriptorKey);
+        
+        when(this.context.getPortletWindowId()).thenReturn(this.portletWindowId);
+        when(this.context.getPortletFname()).thenReturn("portlet");
+        when(this.context.getExecutionType()).thenReturn(ExecutionType.RENDER);
+    }
+    
+    @Test
+    public void testRejectedRendersNotInAverageRenderTime() {
+        this.portletExecutionManager.setBulkheadEnabled(true);
+        this.portletExecutionManager.setBulkheadMaxConcurrentExecutions(1);
+        this.portletExecutionManager.setBulkheadMinConcurrentExecutions(1);
+        this.portletExecutionManager.recordRenderTime("portlet", 1000);
+        
+        //Hold the only permit so the next render of the portlet is rejected by the bulkhead
+        this.portletExecutionManager.preSubmit(this.request, this.response, this.context);
+        
+        final PortletWorkerFactoryImpl portletWorkerFactory = new PortletWorkerFactoryImpl();
+        portletWorkerFactory.setPortletWindowRegistry(this.portletWindowRegistry);
+        portletWorkerFactory.setPortletThreadPool(this.portletThreadPool);
+        portletWorkerFactory.setExecutionInterceptors(Collections.<IPortletExecutionInterceptor>singletonList(this.portletExecutionManager));
+        
+        final IPortletRenderExecutionWorker worker = portletWorkerFactory.createRenderWorker(this.request, this.response, this.portletWindowId);
+        worker.submit();
+        
+        //The rejected render completes without running, it doesn't make the portlet look faster
+        assertTrue(worker.isComplete());
+        verifyZeroInteractions(this.portletThreadPool);
+        assertEquals(Long.valueOf(1), this.portletExecutionManager.getBulkheadRejections().get("portlet"));
+        assertEquals(1000, this.portletExecutionManager.getAverageRenderTime("portlet"));
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.portlets.statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.jasig.portal.events.aggr.AggregationInterval;
+import org.jasig.portal.events.aggr.groups.AggregatedGroupMapping;
+import org.jasig.portal.events.aggr.login.LoginAggregation;
+import org.jasig.portal.events.aggr.login.LoginAggregationDiscriminator;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.visualization.datasource.datatable.ColumnDescription;
+import com.google.visualization.datasource.datatable.value.NumberValue;
+import com.google.visualization.datasource.datatable.value.Value;
+
+public class LoginTotalsStatisticsControllerTest {
+    private LoginTotalsStatisticsController controller;
+    private LoginReportForm form;
+    private LoginAggregationDiscriminator discriminator;
+    private LoginAggregation aggregation;
+    
+    @Before
+    public void setup() {
+        this.controller = new LoginTotalsStatisticsController();
+        this.form = new LoginReportForm();
+        this.form.setUniqueLogins(true);
+        this.form.setTotalLogins(true);
+        this.form.setInterval(AggregationInterval.DAY);
+        
+        final AggregatedGroupMapping group = mock(AggregatedGroupMapping.class);
+        when(group.getGroupName()).thenReturn("Everyone");
+        this.discriminator = mock(LoginAggregationDiscriminator.class);
+        when(this.discriminator.getAggregatedGroup()).thenReturn(group);
+        
+        this.aggregation = mock(LoginAggregation.class);
+        when(this.aggregation.getLoginCount()).thenReturn(2000);
+        when(this.aggregation.getUniqueLoginCount()).thenReturn(1000);
+    }
+    
+    @Test
+    public void testExactUniqueLogins() {
+        final List<ColumnDescription> columns = this.controller.getColumnDescriptions(this.discriminator, this.form);
+        assertEquals(2, columns.size());
+        assertEquals("Everyone-uniqueLogins", columns.get(0).getId());
+        assertEquals("Everyone-totalLogins", columns.get(1).getId());
+        
+        assertValues(this.controller.createRowValues(this.aggregation, this.form), 1000, 2000);
+        assertValues(this.controller.createRowValues(null, this.form), 0, 0);
+    }
+    
+    @Test
+    public void testEstimatedUniqueLoginErrorBounds() {
+        this.controller.setEstimatedUniqueIntervals("hour, day");
+        
+        final List<ColumnDescription> columns = this.controller.getColumnDescriptions(this.discriminator, this.form);
+        assertEquals(4, columns.size());
+        assertEquals("Everyone-uniqueLogins", columns.get(0).getId());
+        assertEquals("interval", columns.get(1).getCustomProperty("role"));
+        assertEquals("interval", columns.get(2).getCustomProperty("role"));
+        assertEquals("Everyone-totalLogins", columns.get(3).getId());
+        
+        //Estimated count with a 1% relative error
+        when(this.aggregation.getUniqueLoginCountError()).thenReturn(0.01);
+        assertValues(this.controller.createRowValues(this.aggregation, this.form), 1000, 980, 1020, 2000);
+        
+        //Exact count
+        when(this.aggregation.getUniqueLoginCountError()).thenReturn(0.0);
+        assertValues(this.controller.createRowValues(this.aggregation, this.form), 1000, 1000, 1000, 2000);
+        
+        //No data
+        assertValues(this.controller.createRowValues(null, this.form), 0, 0, 0, 0);
+        
+        //Intervals that are counted exactly have no bounds
+        this.form.setInterval(AggregationInterval.MONTH);
+        assertEquals(2, this.controller.getColumnDescriptions(this.discriminator, this.form).size());
+        assertValues(this.controller.createRowValues(this.aggregation, this.form), 1000, 2000);
+    }
+    
+    private void assertValues(List<Value> values, double... expected) {
+        assertEquals(expected.length, values.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], ((NumberValue) values.get(i)).getValue(), 0);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jasig.portal.character.stream.CharacterEventBufferReader;
+import org.jasig.portal.character.stream.CharacterEventReader;
+import org.jasig.portal.character.stream.events.CharacterDataEvent;
+import org.jasig.portal.character.stream.events.CharacterDataEventImpl;
+import org.jasig.portal.character.stream.events.CharacterEvent;
+import org.jasig.portal.character.stream.events.PortletContentPlaceholderEventImpl;
+import org.jasig.portal.character.stream.events.PortletTitlePlaceholderEventImpl;
+import org.jasig.portal.portlet.om.IPortletWindowId;
+import org.jasig.portal.portlet.rendering.IPortletExecutionManager;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class PortletRenderingIncorporationComponentTest {
+    private final Map<IPortletWindowId, String> names = new HashMap<IPortletWindowId, String>();
+    private final Map<IPortletWindowId, List<Runnable>> callbacks = new HashMap<IPortletWindowId, List<Runnable>>();
+    private final Set<IPortletWindowId> available = Collections.synchronizedSet(new HashSet<IPortletWindowId>());
+    private final HttpServletRequest request = mock(HttpServletRequest.class);
+    private final HttpServletResponse response = mock(HttpServletResponse.class);
+    private IPortletWindowId portlet1;
+    private IPortletWindowId portlet2;
+    private IPortletExecutionManager portletExecutionManager;
+    private PortletRenderingIncorporationComponent component;
+    
+    @Before
+    public void setUp() {
+        this.portlet1 = this.portletWindowId("p1");
+        this.portlet2 = this.portletWindowId("p2");
+        
+        this.portletExecutionManager = mock(IPortletExecutionManager.class);
+        when(this.portletExecutionManager.isPortletRenderRequested(any(IPortletWindowId.class), any(HttpServletRequest.class), any(HttpServletResponse.class))).thenReturn(true);
+        when(this.portletExecutionManager.isPortletOutputAvailable(any(IPortletWindowId.class), any(HttpServletRequest.class), any(HttpServletResponse.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                return available.contains(invocation.getArguments()[0]);
+            }
+        });
+        when(this.portletExecutionManager.addPortletRenderCompletionCallback(any(IPortletWindowId.class), any(Runnable.class), any(HttpServletRequest.class), any(HttpServletResponse.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                callbacks.get(invocation.getArguments()[0]).add((Runnable) invocation.getArguments()[1]);
+                return true;
+            }
+        });
+        when(this.portletExecutionManager.getPortletOutput(any(IPortletWindowId.class), any(HttpServletRequest.class), any(HttpServletResponse.class))).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                return "[content " + names.get(invocation.getArguments()[0]) + "]";
+            }
+        });
+        when(this.portletExecutionManager.getPortletTitle(any(IPortletWindowId.class), any(HttpServletRequest.class), any(HttpServletResponse.class))).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                return "[title " + names.get(invocation.getArguments()[0]) + "]";
+            }
+        });
+        
+        this.component = new PortletRenderingIncorporationComponent();
+        this.component.setPortletExecutionManager(this.portletExecutionManager);
+        this.component.setDeferIncompletePortlets(true);
+        this.component.setDeferredTimeoutCheckInterval(10);
+    }
+    
+    @Test
+    public void testDeferralDisabled() {
+        this.component.setDeferIncompletePortlets(false);
+        
+        final CharacterEventReader reader = this.getEventReader(
+                CharacterDataEventImpl.create("<body><div>"),
+                new PortletContentPlaceholderEventImpl(this.portlet1),
+                CharacterDataEventImpl.create("</div></body>"));
+        
+        assertEquals("<body><div>[content p1]</div></body>", this.readAll(reader, null));
+    }
+    
+    @Test
+    public void testSlotPlacementAndOrdering() {
+        final CharacterEventReader reader = this.getEventReader(
+                CharacterDataEventImpl.create("<html><head><title>"),
+                new PortletTitlePlaceholderEventImpl(this.portlet1),
+                CharacterDataEventImpl.create(" | Portal</title></head><body><h2 title=\""),
+                new PortletTitlePlaceholderEventImpl(this.portlet1),
+                CharacterDataEventImpl.create("\">"),
+                new PortletTitlePlaceholderEventImpl(this.portlet1),
+                CharacterDataEventImpl.create("</h2><div>"),
+                new PortletContentPlaceholderEventImpl(this.portlet1),
+                CharacterDataEventImpl.create("</div><div>"),
+                new PortletContentPlaceholderEventImpl(this.portlet2),
+                CharacterDataEventImpl.create("</div></body></html>"));
+        
+        //Complete the second portlet first once the stream reaches the deferred output
+        final String output = this.readAll(reader, "</div>", this.portlet2, this.portlet1);
+        
+        //Title placeholders in <title> and in attributes are never deferred
+        assertTrue(output, output.startsWith("<html><head><title>[title p1] | Portal</title></head><body><h2 title=\"[title p1]\">"));
+        
+        //The remaining placeholders are replaced with slots in document order
+        final int titleSlot = output.indexOf("<span id=\"up-deferred-0\" class=\"up-deferred-portlet\"></span>");
+        final int content1Slot = output.indexOf("<div id=\"up-deferred-1\" class=\"up-deferred-portlet\"></div>");
+        final int content2Slot = output.indexOf("<div id=\"up-deferred-2\" class=\"up-deferred-portlet\"></div>");
+        assertTrue(output, titleSlot > 0 && titleSlot < content1Slot && content1Slot < content2Slot);
+        
+        //Deferred output is written in completion order between the last markup and </body>
+        final int lastMarkup = output.indexOf("</div>", content2Slot + "<div id=\"up-deferred-2\" class=\"up-deferred-portlet\"></div>".length());
+        final int content2Fill = output.indexOf("<div id=\"up-deferred-2-content\" style=\"display:none\">[content p2]</div>");
+        final int titleFill = output.indexOf("s.innerHTML='[title p1]'");
+        final int content1Fill = output.indexOf("<div id=\"up-deferred-1-content\" style=\"display:none\">[content p1]</div>");
+        final int bodyClose = output.indexOf("</body>");
+        assertTrue(output, content2Slot < lastMarkup);
+        assertTrue(output, lastMarkup < content2Fill && content2Fill < titleFill && titleFill < content1Fill && content1Fill < bodyClose);
+        assertTrue(output, output.endsWith("</script></body></html>"));
+    }
+    
+    @Test
+    public void testDeferredWithoutBodyClose() {
+        final CharacterEventReader reader = this.getEventReader(
+                CharacterDataEventImpl.create("<div>"),
+                new PortletContentPlaceholderEventImpl(this.portlet1),
+                CharacterDataEventImpl.create("</div>"));
+        
+        final String output = this.readAll(reader, "</div>", this.portlet1);
+        
+        assertTrue(output, output.startsWith("<div><div id=\"up-deferred-0\" class=\"up-deferred-portlet\"></div></div><div id=\"up-deferred-0-content\""));
+        assertTrue(output, output.endsWith("</script>"));
+    }
+    
+    @Test
+    public void testNoSlotsInScriptStyleOrComments() {
+        final CharacterEventReader reader = this.getEventReader(
+                CharacterDataEventImpl.create("<body><script type=\"text/javascript\">var t = '<div>"),
+                new PortletTitlePlaceholderEventImpl(this.portlet1),
+                CharacterDataEventImpl.create("'; document.write('</body>');</script><!-- <div>"),
+                new PortletContentPlaceholderEventImpl(this.portlet1),
+                CharacterDataEventImpl.create(" --><style>p:before { content: '<'; }</style><div>"),
+                new PortletContentPlaceholderEventImpl(this.portlet2),
+                CharacterDataEventImpl.create("</div></body>"));
+
+        final String output = this.readAll(reader, "</div>", this.portlet2);
+
+        //Placeholders in script and comment text are never deferred, markup after </script> and </style> still gets a slot
+        assertTrue(output, output.startsWith("<body><script type=\"text/javascript\">var t = '<div>[title p1]'; document.write('</body>');</script>"
+                + "<!-- <div>[content p1] --><style>p:before { content: '<'; }</style>"
+                + "<div><div id=\"up-deferred-0\" class=\"up-deferred-portlet\"></div></div><div id=\"up-deferred-0-content\" style=\"display:none\">[content p2]</div>"));
+
+        //The </body> in the script is not where the deferred output is written
+        assertTrue(output, output.endsWith("</script></body>"));
+    }
+
+    @Test
+    public void testHungPortletWrittenAfterTimeout() {
+        final CharacterEventReader reader = this.getEventReader(
+                CharacterDataEventImpl.create("<body>"),
+                new PortletContentPlaceholderEventImpl(this.portlet1),
+                CharacterDataEventImpl.create("</body>"));
+        
+        assertEquals("<body>", this.readNext(reader));
+        assertEquals("<div id=\"up-deferred-0\" class=\"up-deferred-portlet\"></div>", this.readNext(reader));
+        assertEquals("", this.readNext(reader));
+        
+        //The render never completes but passes its timeout, the failure output is written by getPortletOutput
+        this.available.add(this.portlet1);
+        assertTrue(this.readNext(reader).startsWith("<div id=\"up-deferred-0-content\" style=\"display:none\">[content p1]</div>"));
+        assertEquals("</body>", this.readNext(reader));
+        assertFalse(reader.hasNext());
+    }
+    
+    private IPortletWindowId portletWindowId(String name) {
+        final IPortletWindowId portletWindowId = mock(IPortletWindowId.class);
+        this.names.put(portletWindowId, name);
+        this.callbacks.put(portletWindowId, new ArrayList<Runnable>());
+        return portletWindowId;
+    }
+    
+    private CharacterEventReader getEventReader(CharacterEvent... events) {
+        final CharacterEventReader eventReader = new CharacterEventBufferReader(Arrays.asList(events).listIterator());
+        
+        final CharacterPipelineComponent wrappedComponent = mock(CharacterPipelineComponent.class);
+        when(wrappedComponent.getEventReader(this.request, this.response)).thenReturn(new PipelineEventReaderImpl<CharacterEventReader, CharacterEvent>(eventReader));
+        this.component.setWrappedComponent(wrappedComponent);
+        
+        return this.component.getEventReader(this.request, this.response).getEventReader();
+    }
+    
+    private String readNext(CharacterEventReader reader) {
+        return ((CharacterDataEvent) reader.next()).getData();
+    }
+    
+    /**
+     * Read the reader to the end, completing the portlets in the specified order once the trigger event has been read
+     */
+    private String readAll(CharacterEventReader reader, String trigger, IPortletWindowId... completionOrder) {
+        final StringBuilder output = new StringBuilder();
+        boolean completed = false;
+        while (reader.hasNext()) {
+            final String data = this.readNext(reader);
+            output.append(data);
+            
+            if (!completed && trigger != null && data.equals(trigger)) {
+                completed = true;
+                for (final IPortletWindowId portletWindowId : completionOrder) {
+                    this.available.add(portletWindowId);
+                    for (final Runnable callback : this.callbacks.get(portletWindowId)) {
+                        callback.run();
+                    }
+                }
+            }
+        }
+        
+        return output.toString();
+    }
+}
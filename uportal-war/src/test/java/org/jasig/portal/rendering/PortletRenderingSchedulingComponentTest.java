@@ -0,0 +1,144 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+import org.jasig.portal.layout.IUserLayout;
+import org.jasig.portal.layout.node.IUserLayoutChannelDescription;
+import org.jasig.portal.layout.node.IUserLayoutNodeDescription;
+import org.jasig.portal.layout.node.UserLayoutChannelDescription;
+import org.jasig.portal.layout.node.UserLayoutFolderDescription;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class PortletRenderingSchedulingComponentTest {
+    private IUserLayout userLayout;
+    
+    @Before
+    public void setUp() {
+        this.userLayout = mock(IUserLayout.class);
+        when(this.userLayout.getRootId()).thenReturn("s1");
+        
+        folder("s1", "root", false, "s2", "s3", "s4", "s5", "s6", "s7", "s8");
+        folder("s2", "hidden-top", false, "n1");
+        folder("s3", "regular", false, "s9");
+        folder("s9", "regular", false, "n2", "n3");
+        folder("s4", "regular", false, "n4");
+        folder("s5", "regular", true, "n5");
+        folder("s6", "sidebar", false, "n6");
+        folder("s7", "favorite_collection", false, "n7");
+        folder("s8", "customize", false, "n8");
+        for (int i = 1; i <= 8; i++) {
+            channel("n" + i);
+        }
+        
+        //Visible regular tabs
+        when(this.userLayout.getTabIdByIndex(1)).thenReturn("s3");
+        when(this.userLayout.getTabIdByIndex(2)).thenReturn("s4");
+    }
+    
+    @Test
+    public void testDefaultTab() {
+        assertChannels(PortletRenderingSchedulingComponent.getDisplayedChannels(this.userLayout, "none", "1", "root", false), 
+                "n1", "n8", "n2", "n3");
+    }
+    
+    @Test
+    public void testDefaultTabPreference() {
+        assertChannels(PortletRenderingSchedulingComponent.getDisplayedChannels(this.userLayout, "none", "2", "root", false), 
+                "n1", "n8", "n4");
+        
+        //An index with no tab falls back to the first tab
+        assertChannels(PortletRenderingSchedulingComponent.getDisplayedChannels(this.userLayout, "none", "5", "root", false), 
+                "n1", "n8", "n2", "n3");
+        assertChannels(PortletRenderingSchedulingComponent.getDisplayedChannels(this.userLayout, "none", "x", "root", false), 
+                "n1", "n8", "n2", "n3");
+    }
+    
+    @Test
+    public void testFocusedTab() {
+        assertChannels(PortletRenderingSchedulingComponent.getDisplayedChannels(this.userLayout, "s4", "1", "root", false), 
+                "n1", "n8", "n4");
+        
+        //Hidden tabs fall back to the default tab
+        assertChannels(PortletRenderingSchedulingComponent.getDisplayedChannels(this.userLayout, "s5", "1", "root", false), 
+                "n1", "n8", "n2", "n3");
+        assertChannels(PortletRenderingSchedulingComponent.getDisplayedChannels(this.userLayout, "s5", "2", "root", false), 
+                "n1", "n8", "n4");
+    }
+    
+    @Test
+    public void testFavoriteCollection() {
+        assertChannels(PortletRenderingSchedulingComponent.getDisplayedChannels(this.userLayout, "s7", "1", "root", false), 
+                "n1", "n8", "n7");
+    }
+    
+    @Test
+    public void testFocusedPortlet() {
+        assertChannels(PortletRenderingSchedulingComponent.getDisplayedChannels(this.userLayout, "s4", "1", "n3", false), 
+                "n1", "n3");
+        
+        assertChannels(PortletRenderingSchedulingComponent.getDisplayedChannels(this.userLayout, "s4", "1", "n3", true), 
+                "n1", "n3");
+    }
+    
+    private void assertChannels(List<IUserLayoutChannelDescription> channels, String... expected) {
+        final List<String> ids = new ArrayList<String>();
+        for (final IUserLayoutChannelDescription channel : channels) {
+            ids.add(channel.getId());
+        }
+        assertEquals(Arrays.asList(expected), ids);
+    }
+    
+    private void folder(String id, String type, boolean hidden, String... childIds) {
+        final UserLayoutFolderDescription folder = new UserLayoutFolderDescription();
+        folder.setId(id);
+        folder.setFolderType(type);
+        folder.setHidden(hidden);
+        register(folder, childIds);
+    }
+    
+    private void channel(String id) {
+        final UserLayoutChannelDescription channel = new UserLayoutChannelDescription();
+        channel.setId(id);
+        channel.setFunctionalName("fname-" + id);
+        register(channel);
+    }
+    
+    private void register(IUserLayoutNodeDescription node, final String... childIds) {
+        when(this.userLayout.getNodeDescription(node.getId())).thenReturn(node);
+        when(this.userLayout.getChildIds(node.getId())).thenAnswer(new Answer<Enumeration<String>>() {
+            @Override
+            public Enumeration<String> answer(InvocationOnMock invocation) throws Throwable {
+                return Collections.enumeration(Arrays.asList(childIds));
+            }
+        });
+    }
+}
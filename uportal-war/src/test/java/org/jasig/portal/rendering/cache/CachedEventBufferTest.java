@@ -0,0 +1,162 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering.cache;
+
+import java.util.Collections;
+import java.util.ListIterator;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.events.XMLEvent;
+
+import org.jasig.portal.xml.stream.XMLEventEquivalence;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.cache.Cache;
+
+public class CachedEventBufferTest {
+    private final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+    
+    @Test
+    public void testDeduplicationWithinBuffer() {
+        final Cache<CachedEventBuffer.EventKey<XMLEvent>, XMLEvent> eventCache = CachedEventBuffer.createDeduplicationCache(100);
+        final CachedEventBuffer.Builder<XMLEvent> builder = new CachedEventBuffer.Builder<XMLEvent>(XMLEventEquivalence.INSTANCE, eventCache);
+        
+        final XMLEvent start1 = this.eventFactory.createStartElement(new QName("div"), 
+                Collections.singletonList(this.eventFactory.createAttribute("class", "portlet")).iterator(), null);
+        final XMLEvent start2 = this.eventFactory.createStartElement(new QName("div"), 
+                Collections.singletonList(this.eventFactory.createAttribute("class", "portlet")).iterator(), null);
+        final XMLEvent start3 = this.eventFactory.createStartElement(new QName("div"), 
+                Collections.singletonList(this.eventFactory.createAttribute("class", "column")).iterator(), null);
+        final XMLEvent space1 = this.eventFactory.createCharacters("\n    ");
+        final XMLEvent space2 = this.eventFactory.createCharacters("\n    ");
+        final XMLEvent end1 = this.eventFactory.createEndElement(new QName("div"), null);
+        final XMLEvent end2 = this.eventFactory.createEndElement(new QName("div"), null);
+        
+        for (final XMLEvent event : new XMLEvent[] { start1, space1, end1, start2, space2, end2, start3, end1 }) {
+            builder.add(event);
+        }
+        
+        final CachedEventBuffer<XMLEvent> buffer = builder.build();
+        Assert.assertEquals(8, buffer.size());
+        Assert.assertEquals(4, buffer.getUniqueEvents());
+        
+        Assert.assertSame(start1, buffer.get(3));
+        Assert.assertSame(space1, buffer.get(4));
+        Assert.assertSame(end1, buffer.get(5));
+        Assert.assertSame(start3, buffer.get(6));
+        Assert.assertNotSame(end2, buffer.get(5));
+    }
+    
+    @Test
+    public void testDeduplicationAcrossBuffers() {
+        final Cache<CachedEventBuffer.EventKey<XMLEvent>, XMLEvent> eventCache = CachedEventBuffer.createDeduplicationCache(100);
+        
+        final XMLEvent text1 = this.eventFactory.createCharacters("Welcome");
+        final XMLEvent text2 = this.eventFactory.createCharacters("Welcome");
+        
+        final CachedEventBuffer<XMLEvent> buffer1 = new CachedEventBuffer.Builder<XMLEvent>(XMLEventEquivalence.INSTANCE, eventCache).add(text1).build();
+        final CachedEventBuffer<XMLEvent> buffer2 = new CachedEventBuffer.Builder<XMLEvent>(XMLEventEquivalence.INSTANCE, eventCache).add(text2).build();
+        
+        Assert.assertSame(buffer1.get(0), buffer2.get(0));
+        Assert.assertEquals(0, buffer2.getUniqueEvents());
+    }
+    
+    @Test
+    public void testPrefixesNotDeduplicated() {
+        final Cache<CachedEventBuffer.EventKey<XMLEvent>, XMLEvent> eventCache = CachedEventBuffer.createDeduplicationCache(100);
+        
+        //Same namespace and local name but different prefixes serialize differently
+        final XMLEvent start1 = this.eventFactory.createStartElement("a", "urn:test", "div");
+        final XMLEvent start2 = this.eventFactory.createStartElement("b", "urn:test", "div");
+        final XMLEvent end1 = this.eventFactory.createEndElement("a", "urn:test", "div");
+        final XMLEvent end2 = this.eventFactory.createEndElement("b", "urn:test", "div");
+        final XMLEvent attr1 = this.eventFactory.createStartElement(new QName("div"), 
+                Collections.singletonList(this.eventFactory.createAttribute("a", "urn:test", "class", "portlet")).iterator(), null);
+        final XMLEvent attr2 = this.eventFactory.createStartElement(new QName("div"), 
+                Collections.singletonList(this.eventFactory.createAttribute("b", "urn:test", "class", "portlet")).iterator(), null);
+        
+        final CachedEventBuffer<XMLEvent> buffer = new CachedEventBuffer.Builder<XMLEvent>(XMLEventEquivalence.INSTANCE, eventCache)
+                .add(start1).add(start2).add(end1).add(end2).add(attr1).add(attr2).build();
+        
+        Assert.assertEquals(6, buffer.getUniqueEvents());
+        Assert.assertSame(start2, buffer.get(1));
+        Assert.assertSame(end2, buffer.get(3));
+        Assert.assertSame(attr2, buffer.get(5));
+    }
+    
+    @Test
+    public void testUnusedEventsReleased() throws InterruptedException {
+        final Cache<CachedEventBuffer.EventKey<XMLEvent>, XMLEvent> eventCache = CachedEventBuffer.createDeduplicationCache(100);
+        
+        CachedEventBuffer<XMLEvent> buffer = new CachedEventBuffer.Builder<XMLEvent>(XMLEventEquivalence.INSTANCE, eventCache)
+                .add(this.eventFactory.createCharacters("Welcome")).build();
+        Assert.assertEquals(1, eventCache.size());
+        
+        //Once no buffer uses the event the cache does not keep it reachable
+        buffer = null;
+        for (int i = 0; i < 20 && eventCache.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+            eventCache.cleanUp();
+        }
+        Assert.assertEquals(0, eventCache.size());
+        
+        final XMLEvent text = this.eventFactory.createCharacters("Welcome");
+        buffer = new CachedEventBuffer.Builder<XMLEvent>(XMLEventEquivalence.INSTANCE, eventCache).add(text).build();
+        Assert.assertSame(text, buffer.get(0));
+        Assert.assertEquals(1, buffer.getUniqueEvents());
+    }
+    
+    @Test
+    public void testNoDeduplication() {
+        final XMLEvent text1 = this.eventFactory.createCharacters("Welcome");
+        final XMLEvent text2 = this.eventFactory.createCharacters("Welcome");
+        
+        final CachedEventBuffer<XMLEvent> buffer = new CachedEventBuffer.Builder<XMLEvent>(XMLEventEquivalence.INSTANCE, null).add(text1).add(text2).build();
+        
+        Assert.assertSame(text1, buffer.get(0));
+        Assert.assertSame(text2, buffer.get(1));
+    }
+    
+    @Test
+    public void testListIterator() {
+        final CachedEventBuffer.Builder<XMLEvent> builder = new CachedEventBuffer.Builder<XMLEvent>(XMLEventEquivalence.INSTANCE, null);
+        for (int i = 0; i < 100; i++) {
+            builder.add(this.eventFactory.createCharacters(Integer.toString(i)));
+        }
+        final CachedEventBuffer<XMLEvent> buffer = builder.build();
+        
+        final ListIterator<XMLEvent> itr = buffer.listIterator();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(itr.hasNext());
+            Assert.assertEquals(Integer.toString(i), itr.next().asCharacters().getData());
+        }
+        Assert.assertFalse(itr.hasNext());
+        Assert.assertEquals("99", itr.previous().asCharacters().getData());
+    }
+    
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        final CachedEventBuffer<XMLEvent> buffer = new CachedEventBuffer.Builder<XMLEvent>(XMLEventEquivalence.INSTANCE, null)
+                .add(this.eventFactory.createCharacters("a")).build();
+        buffer.add(this.eventFactory.createCharacters("b"));
+    }
+}
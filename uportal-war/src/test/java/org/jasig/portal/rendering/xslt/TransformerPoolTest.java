@@ -0,0 +1,138 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.rendering.xslt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+
+import org.easymock.EasyMock;
+import org.jasig.portal.layout.dao.IStylesheetDescriptorDao;
+import org.jasig.portal.layout.om.IStylesheetDescriptor;
+import org.jasig.portal.xml.XmlUtilities;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+
+public class TransformerPoolTest {
+    private final Resource stylesheet = new ByteArrayResource(new byte[0], "test.xsl");
+    
+    private XmlUtilities xmlUtilities;
+    private TransformerPool transformerPool;
+    
+    @Before
+    public void setup() throws Exception {
+        this.xmlUtilities = EasyMock.createMock(XmlUtilities.class);
+        EasyMock.expect(this.xmlUtilities.getStylesheetCacheKey(this.stylesheet)).andReturn("v1").anyTimes();
+        
+        this.transformerPool = new TransformerPool();
+        this.transformerPool.setXmlUtilities(this.xmlUtilities);
+        this.transformerPool.setMaxIdlePerStylesheet(1);
+    }
+    
+    @Test
+    public void testReuse() throws Exception {
+        EasyMock.expect(this.xmlUtilities.getTransformer(this.stylesheet)).andReturn(newTransformer());
+        EasyMock.replay(this.xmlUtilities);
+        
+        final Transformer transformer = this.transformerPool.borrowTransformer(this.stylesheet);
+        transformer.setParameter("foo", "bar");
+        this.transformerPool.returnTransformer(transformer);
+        assertEquals(1, this.transformerPool.getIdleCount());
+        
+        final Transformer reused = this.transformerPool.borrowTransformer(this.stylesheet);
+        assertSame(transformer, reused);
+        assertNull(reused.getParameter("foo"));
+        
+        assertEquals(1, this.transformerPool.getHitCount());
+        assertEquals(1, this.transformerPool.getMissCount());
+        assertEquals(0, this.transformerPool.getExhaustedCount());
+        
+        EasyMock.verify(this.xmlUtilities);
+    }
+    
+    @Test
+    public void testExhaustedAndDiscard() throws Exception {
+        EasyMock.expect(this.xmlUtilities.getTransformer(this.stylesheet)).andReturn(newTransformer());
+        EasyMock.expect(this.xmlUtilities.getTransformer(this.stylesheet)).andReturn(newTransformer());
+        EasyMock.replay(this.xmlUtilities);
+        
+        final Transformer first = this.transformerPool.borrowTransformer(this.stylesheet);
+        final Transformer second = this.transformerPool.borrowTransformer(this.stylesheet);
+        assertNotSame(first, second);
+        assertEquals(2, this.transformerPool.getMissCount());
+        assertEquals(1, this.transformerPool.getExhaustedCount());
+        
+        this.transformerPool.returnTransformer(first);
+        this.transformerPool.returnTransformer(second);
+        assertEquals(1, this.transformerPool.getIdleCount());
+        assertEquals(1, this.transformerPool.getDiscardCount());
+        
+        //Returning twice or returning a foreign Transformer is ignored
+        this.transformerPool.returnTransformer(second);
+        this.transformerPool.returnTransformer(newTransformer());
+        assertEquals(1, this.transformerPool.getIdleCount());
+        
+        EasyMock.verify(this.xmlUtilities);
+    }
+    
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void testPrecompile() throws Exception {
+        EasyMock.expect(this.xmlUtilities.getTransformer(this.stylesheet)).andReturn(newTransformer());
+        
+        final IStylesheetDescriptor stylesheetDescriptor = EasyMock.createMock(IStylesheetDescriptor.class);
+        EasyMock.expect(stylesheetDescriptor.getStylesheetResource()).andReturn("test.xsl");
+        
+        final IStylesheetDescriptorDao stylesheetDescriptorDao = EasyMock.createMock(IStylesheetDescriptorDao.class);
+        EasyMock.expect(stylesheetDescriptorDao.getStylesheetDescriptors()).andReturn((List) Collections.singletonList(stylesheetDescriptor));
+        
+        final ResourceLoader resourceLoader = EasyMock.createMock(ResourceLoader.class);
+        EasyMock.expect(resourceLoader.getResource("test.xsl")).andReturn(this.stylesheet);
+        
+        EasyMock.replay(this.xmlUtilities, stylesheetDescriptor, stylesheetDescriptorDao, resourceLoader);
+        
+        this.transformerPool.setStylesheetDescriptorDao(stylesheetDescriptorDao);
+        this.transformerPool.setResourceLoader(resourceLoader);
+        this.transformerPool.onApplicationEvent(null);
+        //Only precompiles once
+        this.transformerPool.onApplicationEvent(null);
+        
+        assertEquals(1, this.transformerPool.getPrecompiledCount());
+        assertEquals(1, this.transformerPool.getIdleCount());
+        
+        this.transformerPool.borrowTransformer(this.stylesheet);
+        assertEquals(1, this.transformerPool.getHitCount());
+        
+        EasyMock.verify(this.xmlUtilities, stylesheetDescriptor, stylesheetDescriptorDao, resourceLoader);
+    }
+
+    private Transformer newTransformer() throws Exception {
+        return TransformerFactory.newInstance().newTransformer();
+    }
+}
@@ -18,12 +18,17 @@
  */
 package org.jasig.portal.rendering.xslt;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -34,6 +39,7 @@ import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
@@ -54,6 +60,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -82,6 +90,8 @@ public class XSLTComponentTest {
         
         EasyMock.expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(cacheableEventReader);
         EasyMock.expect(transformerSource.getTransformer(mockReq, mockRes)).andReturn(transformer);
+        transformerSource.releaseTransformer(transformer);
+        EasyMock.expectLastCall();
         
         EasyMock.replay(targetComponent, transformerSource);
         
@@ -94,7 +104,114 @@ public class XSLTComponentTest {
         Assert.assertNotNull(eventReader);
         
         final String output = this.serializeXMLEventReader(eventReader.getEventReader());
+        this.assertExpectedOutput(output);
         
+        EasyMock.verify(targetComponent, transformerSource);
+    }
+    
+    @Test
+    public void testPipelinedXSLTComponent() throws Exception {
+        final MockHttpServletRequest mockReq = new MockHttpServletRequest();
+        final MockHttpServletResponse mockRes = new MockHttpServletResponse();
+
+        //Fail if the previous component is read by the transform thread
+        final Thread requestThread = Thread.currentThread();
+        final AtomicInteger eventsRead = new AtomicInteger();
+        final XMLEventReader xmlEventReader = new EventReaderDelegate(this.getXmlEventReader("juser.xml")) {
+            @Override
+            public XMLEvent nextEvent() throws XMLStreamException {
+                assertEquals(requestThread, Thread.currentThread());
+                eventsRead.incrementAndGet();
+                return super.nextEvent();
+            }
+        };
+        final PipelineEventReaderImpl<XMLEventReader, XMLEvent> cacheableEventReader = new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(xmlEventReader);
+        
+        final Transformer transformer = this.getTransformer("columns.xsl");
+
+        final StAXPipelineComponent targetComponent = EasyMock.createMock(StAXPipelineComponent.class);
+        final TransformerSource transformerSource = EasyMock.createMock(TransformerSource.class);
+        
+        EasyMock.expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(cacheableEventReader);
+        EasyMock.expect(transformerSource.getTransformer(mockReq, mockRes)).andReturn(transformer);
+        transformerSource.releaseTransformer(transformer);
+        EasyMock.expectLastCall();
+        
+        EasyMock.replay(targetComponent, transformerSource);
+        
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final XSLTComponent xsltComponent = new XSLTComponent();
+            xsltComponent.setWrappedComponent(targetComponent);
+            xsltComponent.setTransformerSource(transformerSource);
+            xsltComponent.setPipelineExecutor(executor);
+            xsltComponent.setPipelined(true);
+            xsltComponent.setPipelineBufferSize(10);
+            
+            final PipelineEventReader<XMLEventReader, XMLEvent> eventReader = xsltComponent.getEventReader(mockReq, mockRes);
+            
+            //The previous component is only read as the transformed events are read
+            assertEquals(0, eventsRead.get());
+            
+            final String output = this.serializeXMLEventReader(eventReader.getEventReader());
+            this.assertExpectedOutput(output);
+        }
+        finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+        
+        EasyMock.verify(targetComponent, transformerSource);
+    }
+    
+    @Test
+    public void testPipelinedTransformCancelledOnRequestCompletion() throws Exception {
+        final MockHttpServletRequest mockReq = new MockHttpServletRequest();
+        final MockHttpServletResponse mockRes = new MockHttpServletResponse();
+
+        final XMLEventReader xmlEventReader = this.getXmlEventReader("juser.xml");
+        final PipelineEventReaderImpl<XMLEventReader, XMLEvent> cacheableEventReader = new PipelineEventReaderImpl<XMLEventReader, XMLEvent>(xmlEventReader);
+        
+        final Transformer transformer = this.getTransformer("columns.xsl");
+
+        final StAXPipelineComponent targetComponent = EasyMock.createMock(StAXPipelineComponent.class);
+        final TransformerSource transformerSource = EasyMock.createMock(TransformerSource.class);
+        
+        EasyMock.expect(targetComponent.getEventReader(mockReq, mockRes)).andReturn(cacheableEventReader);
+        EasyMock.expect(transformerSource.getTransformer(mockReq, mockRes)).andReturn(transformer);
+        transformerSource.releaseTransformer(transformer);
+        EasyMock.expectLastCall();
+        
+        EasyMock.replay(targetComponent, transformerSource);
+        
+        final ServletRequestAttributes requestAttributes = new ServletRequestAttributes(mockReq);
+        RequestContextHolder.setRequestAttributes(requestAttributes);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final XSLTComponent xsltComponent = new XSLTComponent();
+            xsltComponent.setWrappedComponent(targetComponent);
+            xsltComponent.setTransformerSource(transformerSource);
+            xsltComponent.setPipelineExecutor(executor);
+            xsltComponent.setPipelined(true);
+            xsltComponent.setPipelineBufferSize(1);
+            
+            //Abandon the reader after the first event, the transform is left waiting on the full pipe
+            final PipelineEventReader<XMLEventReader, XMLEvent> eventReader = xsltComponent.getEventReader(mockReq, mockRes);
+            eventReader.getEventReader().nextEvent();
+            
+            requestAttributes.requestCompleted();
+        }
+        finally {
+            RequestContextHolder.resetRequestAttributes();
+            executor.shutdown();
+        }
+        
+        //The transform stopped long before the 60 second pipe timeout
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        EasyMock.verify(targetComponent, transformerSource);
+    }
+    
+    protected void assertExpectedOutput(String output) throws Exception {
         DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
 
         dbf.setValidating(false);
@@ -119,8 +236,6 @@ public class XSLTComponentTest {
         catch (Error e) {
             throw new XmlTestException("Failed to assert similar between XSLT output and expected XML", output, e);
         }
-        
-        EasyMock.verify(targetComponent, transformerSource);
     }
     
     protected String serializeXMLEventReader(XMLEventReader reader) {
@@ -0,0 +1,344 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.jasig.portal.groups.IGroupMember;
+import org.jasig.portal.permission.IPermissionActivity;
+import org.jasig.portal.permission.IPermissionOwner;
+import org.jasig.portal.permission.dao.IPermissionOwnerDao;
+import org.jasig.portal.permission.target.IPermissionTarget;
+import org.jasig.portal.permission.target.IPermissionTarget.TargetType;
+import org.jasig.portal.permission.target.IPermissionTargetProvider;
+import org.jasig.portal.permission.target.IPermissionTargetProviderRegistry;
+import org.jasig.portal.permission.target.PermissionTargetImpl;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IAuthorizationService;
+import org.jasig.portal.security.IPermission;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Verifies {@link AnyUnblockedGrantPermissionPolicy#getPermittedTargets} gives the same answers as
+ * checking each target with {@link AnyUnblockedGrantPermissionPolicy#doesPrincipalHavePermission}
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class AnyUnblockedGrantPermissionPolicyBulkTest {
+    private static final String ALL_TARGETS_PROVIDER = "allTargets";
+    private static final String PORTLETS_PROVIDER = "portlets";
+    
+    @InjectMocks private AnyUnblockedGrantPermissionPolicy policy = new AnyUnblockedGrantPermissionPolicy();
+    @Mock private IPermissionOwnerDao permissionOwnerDao;
+    @Mock private IPermissionTargetProviderRegistry targetProviderRegistry;
+    @Mock private IAuthorizationService service;
+    @Mock private IPermissionOwner owner;
+    @Mock private IPermissionActivity activity;
+    @Mock private IPermissionOwner systemOwner;
+    @Mock private IPermissionActivity allPermissionsActivity;
+    
+    private CacheManager cacheManager;
+    private Cache hasUnblockedGrantCache;
+    private final Map<String, IAuthorizationPrincipal> principals = new HashMap<String, IAuthorizationPrincipal>();
+    private final Map<String, List<String>> containingGroups = new HashMap<String, List<String>>();
+    private final List<IPermission> permissions = new ArrayList<IPermission>();
+    private final List<IPermissionTarget> targets = new ArrayList<IPermissionTarget>();
+    
+    @Before
+    public void setup() throws Exception {
+        when(this.owner.getFname()).thenReturn(IPermission.PORTAL_SUBSCRIBE);
+        when(this.activity.getFname()).thenReturn(IPermission.PORTLET_BROWSE_ACTIVITY);
+        when(this.activity.getTargetProviderKey()).thenReturn(PORTLETS_PROVIDER);
+        when(this.systemOwner.getFname()).thenReturn(IPermission.PORTAL_SYSTEM);
+        when(this.allPermissionsActivity.getFname()).thenReturn(IPermission.ALL_PERMISSIONS_ACTIVITY);
+        when(this.allPermissionsActivity.getTargetProviderKey()).thenReturn(ALL_TARGETS_PROVIDER);
+        when(this.permissionOwnerDao.getPermissionOwner(IPermission.PORTAL_SYSTEM)).thenReturn(this.systemOwner);
+        when(this.permissionOwnerDao.getPermissionActivity(IPermission.PORTAL_SYSTEM, IPermission.ALL_PERMISSIONS_ACTIVITY))
+            .thenReturn(this.allPermissionsActivity);
+        
+        final IPermissionTargetProvider allTargetsProvider = mock(IPermissionTargetProvider.class);
+        when(allTargetsProvider.getTarget(IPermission.ALL_TARGET))
+            .thenReturn(new PermissionTargetImpl(IPermission.ALL_TARGET, IPermission.ALL_TARGET, TargetType.OTHER));
+        when(this.targetProviderRegistry.getTargetProvider(ALL_TARGETS_PROVIDER)).thenReturn(allTargetsProvider);
+        
+        final IPermissionTargetProvider portletsProvider = mock(IPermissionTargetProvider.class);
+        when(portletsProvider.getTarget(IPermission.ALL_PORTLETS_TARGET))
+            .thenReturn(new PermissionTargetImpl(IPermission.ALL_PORTLETS_TARGET, IPermission.ALL_PORTLETS_TARGET, TargetType.PORTLET));
+        when(this.targetProviderRegistry.getTargetProvider(PORTLETS_PROVIDER)).thenReturn(portletsProvider);
+        
+        for (int i = 1; i <= 6; i++) {
+            this.targets.add(new PermissionTargetImpl("PORTLET_ID_" + i, "portlet" + i, TargetType.PORTLET));
+        }
+        
+        this.cacheManager = new CacheManager(new Configuration().name(getClass().getName()));
+        this.hasUnblockedGrantCache = new Cache(new CacheConfiguration("hasUnblockedGrant", 1000));
+        this.cacheManager.addCache(this.hasUnblockedGrantCache);
+        ReflectionTestUtils.setField(this.policy, "hasUnblockedGrantCache", this.hasUnblockedGrantCache);
+        
+        //Answer permission lookups from the configured permissions, a null target matches all targets
+        when(this.service.getPermissionsForPrincipal(any(IAuthorizationPrincipal.class), anyString(), anyString(), anyString()))
+            .thenAnswer(new Answer<IPermission[]>() {
+                @Override
+                public IPermission[] answer(InvocationOnMock invocation) throws Throwable {
+                    final Object[] args = invocation.getArguments();
+                    final String principal = ((IAuthorizationPrincipal) args[0]).getKey();
+                    final List<IPermission> result = new ArrayList<IPermission>();
+                    for (final IPermission permission : permissions) {
+                        if (permission.getPrincipal().equals(principal)
+                                && permission.getOwner().equals(args[1])
+                                && permission.getActivity().equals(args[2])
+                                && (args[3] == null || permission.getTarget().equals(args[3]))) {
+                            result.add(permission);
+                        }
+                    }
+                    return result.toArray(new IPermission[result.size()]);
+                }
+            });
+    }
+    
+    @After
+    public void shutdown() {
+        this.cacheManager.shutdown();
+    }
+    
+    @Test
+    public void testExplicitDenyBlocksInheritedGrant() throws Exception {
+        member("user", "small");
+        member("small", "big");
+        member("user2", "small", "other");
+        grant("big", "PORTLET_ID_1", "PORTLET_ID_2", "PORTLET_ID_3");
+        deny("small", "PORTLET_ID_1");
+        grant("other", "PORTLET_ID_1");
+        deny("user", "PORTLET_ID_2");
+        
+        assertSameAnswers("user", "PORTLET_ID_3");
+        assertSameAnswers("user2", "PORTLET_ID_1", "PORTLET_ID_2", "PORTLET_ID_3");
+    }
+    
+    @Test
+    public void testInheritedGrant() throws Exception {
+        member("user", "students");
+        member("students", "everyone");
+        grant("everyone", "PORTLET_ID_2", "PORTLET_ID_5");
+        grant("user", "PORTLET_ID_4");
+        
+        assertSameAnswers("user", "PORTLET_ID_2", "PORTLET_ID_4", "PORTLET_ID_5");
+        assertSameAnswers("students", "PORTLET_ID_2", "PORTLET_ID_5");
+    }
+    
+    @Test
+    public void testAllPortletsCollectiveTarget() throws Exception {
+        member("user", "staff");
+        member("user2", "students");
+        grant("staff", IPermission.ALL_PORTLETS_TARGET);
+        deny("user", "PORTLET_ID_3");
+        grant("students", "PORTLET_ID_6");
+        
+        assertSameAnswers("user", "PORTLET_ID_1", "PORTLET_ID_2", "PORTLET_ID_3", "PORTLET_ID_4", "PORTLET_ID_5", "PORTLET_ID_6");
+        assertSameAnswers("user2", "PORTLET_ID_6");
+    }
+    
+    @Test
+    public void testSuperUser() throws Exception {
+        member("admin", "admins");
+        member("user", "everyone");
+        permission("admins", IPermission.PORTAL_SYSTEM, IPermission.ALL_PERMISSIONS_ACTIVITY, IPermission.ALL_TARGET, 
+                IPermission.PERMISSION_TYPE_GRANT);
+        deny("admin", "PORTLET_ID_1");
+        
+        assertSameAnswers("admin", "PORTLET_ID_1", "PORTLET_ID_2", "PORTLET_ID_3", "PORTLET_ID_4", "PORTLET_ID_5", "PORTLET_ID_6");
+        assertSameAnswers("user");
+    }
+    
+    @Test
+    public void testCircularGroupMembership() throws Exception {
+        member("user", "a");
+        member("a", "b");
+        member("b", "c");
+        member("c", "a", "d");
+        grant("c", "PORTLET_ID_5");
+        deny("b", "PORTLET_ID_6");
+        grant("d", "PORTLET_ID_6", "PORTLET_ID_2");
+        
+        assertSameAnswers("user", "PORTLET_ID_2", "PORTLET_ID_5");
+        assertSameAnswers("c", "PORTLET_ID_2", "PORTLET_ID_5", "PORTLET_ID_6");
+    }
+    
+    @Test
+    public void testPartlyCachedAnswers() throws Exception {
+        member("user", "small", "other");
+        member("small", "big");
+        grant("big", "PORTLET_ID_1", "PORTLET_ID_2", "PORTLET_ID_4");
+        deny("small", "PORTLET_ID_2");
+        grant("other", "PORTLET_ID_2", "PORTLET_ID_3");
+        
+        final Set<IPermissionTarget> expected = getPermittedBySingleChecks(principal("user"));
+        this.hasUnblockedGrantCache.removeAll();
+        
+        //Answer some of the targets for the user and one of its groups with single checks first
+        final IAuthorizationPrincipal user = principal("user");
+        policy.doesPrincipalHavePermission(service, user, owner, activity, this.targets.get(0));
+        policy.doesPrincipalHavePermission(service, user, owner, activity, this.targets.get(1));
+        policy.doesPrincipalHavePermission(service, principal("big"), owner, activity, this.targets.get(3));
+        
+        assertEquals(expected, policy.getPermittedTargets(service, user, owner, activity, this.targets));
+        assertEquals(keys("PORTLET_ID_1", "PORTLET_ID_2", "PORTLET_ID_3", "PORTLET_ID_4"), keys(expected));
+        
+        //The cached targets were only evaluated for the expected answers and by the single checks
+        verify(this.service, times(2)).getPermissionsForPrincipal(user, IPermission.PORTAL_SUBSCRIBE, 
+                IPermission.PORTLET_BROWSE_ACTIVITY, "PORTLET_ID_1");
+        
+        //And the bulk answers are used by the single checks
+        this.permissions.clear();
+        assertEquals(expected, getPermittedBySingleChecks(user));
+    }
+    
+    /**
+     * Asserts the bulk and single target checks permit the same targets, both starting from an empty cache
+     */
+    private void assertSameAnswers(String principalKey, String... expectedTargets) throws Exception {
+        final IAuthorizationPrincipal principal = principal(principalKey);
+        
+        this.hasUnblockedGrantCache.removeAll();
+        final Set<IPermissionTarget> permitted = policy.getPermittedTargets(service, principal, owner, activity, this.targets);
+        
+        this.hasUnblockedGrantCache.removeAll();
+        final Set<IPermissionTarget> permittedBySingleChecks = getPermittedBySingleChecks(principal);
+        
+        assertEquals(permittedBySingleChecks, permitted);
+        assertEquals(keys(expectedTargets), keys(permitted));
+    }
+    
+    private Set<IPermissionTarget> getPermittedBySingleChecks(IAuthorizationPrincipal principal) throws Exception {
+        final Set<IPermissionTarget> permitted = new LinkedHashSet<IPermissionTarget>();
+        for (final IPermissionTarget target : this.targets) {
+            if (policy.doesPrincipalHavePermission(service, principal, owner, activity, target)) {
+                permitted.add(target);
+            }
+        }
+        return permitted;
+    }
+    
+    private Set<String> keys(String... keys) {
+        return new LinkedHashSet<String>(Arrays.asList(keys));
+    }
+    
+    private Set<String> keys(Set<IPermissionTarget> targets) {
+        final Set<String> keys = new LinkedHashSet<String>();
+        for (final IPermissionTarget target : targets) {
+            keys.add(target.getKey());
+        }
+        return keys;
+    }
+    
+    private void member(String key, String... groups) throws Exception {
+        this.containingGroups.put(key, Arrays.asList(groups));
+        principal(key);
+        for (final String group : groups) {
+            principal(group);
+        }
+    }
+    
+    private void grant(String principal, String... targets) {
+        for (final String target : targets) {
+            permission(principal, IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_BROWSE_ACTIVITY, target, 
+                    IPermission.PERMISSION_TYPE_GRANT);
+        }
+    }
+    
+    private void deny(String principal, String... targets) {
+        for (final String target : targets) {
+            permission(principal, IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_BROWSE_ACTIVITY, target, 
+                    IPermission.PERMISSION_TYPE_DENY);
+        }
+    }
+    
+    private void permission(String principal, String owner, String activity, String target, String type) {
+        final IPermission permission = mock(IPermission.class);
+        when(permission.getPrincipal()).thenReturn(principal);
+        when(permission.getOwner()).thenReturn(owner);
+        when(permission.getActivity()).thenReturn(activity);
+        when(permission.getTarget()).thenReturn(target);
+        when(permission.getType()).thenReturn(type);
+        this.permissions.add(permission);
+    }
+    
+    /**
+     * @return The principal for the key, group memberships are resolved when the groups are walked so they can be circular,
+     * all principals must be created before the groups are walked
+     */
+    private IAuthorizationPrincipal principal(final String key) throws Exception {
+        IAuthorizationPrincipal principal = this.principals.get(key);
+        if (principal != null) {
+            return principal;
+        }
+        
+        principal = mock(IAuthorizationPrincipal.class);
+        when(principal.getKey()).thenReturn(key);
+        when(principal.getPrincipalString()).thenReturn(key);
+        this.principals.put(key, principal);
+        
+        final IGroupMember groupMember = mock(IGroupMember.class);
+        when(groupMember.getKey()).thenReturn(key);
+        when(groupMember.getContainingGroups()).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final List<IGroupMember> groups = new ArrayList<IGroupMember>();
+                final List<String> groupKeys = containingGroups.get(key);
+                if (groupKeys != null) {
+                    for (final String groupKey : groupKeys) {
+                        groups.add(service.getGroupMember(principals.get(groupKey)));
+                    }
+                }
+                return groups.iterator();
+            }
+        });
+        when(this.service.getGroupMember(principal)).thenReturn(groupMember);
+        when(this.service.newPrincipal(groupMember)).thenReturn(principal);
+        
+        return principal;
+    }
+}
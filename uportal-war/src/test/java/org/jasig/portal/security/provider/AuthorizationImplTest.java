@@ -0,0 +1,199 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.security.provider;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.config.CacheConfiguration;
+import net.sf.ehcache.config.Configuration;
+
+import org.jasig.portal.permission.IPermissionActivity;
+import org.jasig.portal.permission.IPermissionOwner;
+import org.jasig.portal.permission.dao.IPermissionOwnerDao;
+import org.jasig.portal.permission.target.IPermissionTarget;
+import org.jasig.portal.permission.target.IPermissionTarget.TargetType;
+import org.jasig.portal.permission.target.IPermissionTargetProvider;
+import org.jasig.portal.permission.target.IPermissionTargetProviderRegistry;
+import org.jasig.portal.permission.target.PermissionTargetImpl;
+import org.jasig.portal.security.IAuthorizationPrincipal;
+import org.jasig.portal.security.IAuthorizationService;
+import org.jasig.portal.security.IBulkPermissionPolicy;
+import org.jasig.portal.security.IPermission;
+import org.jasig.portal.security.IPermissionStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AuthorizationImplTest {
+    private static final Set<String> PERMITTED_TARGETS = new LinkedHashSet<String>(Arrays.asList("PORTLET_ID_2", "PORTLET_ID_3"));
+    
+    private AuthorizationImpl authorizationService;
+    private CacheManager cacheManager;
+    private Cache doesPrincipalHavePermissionCache;
+    
+    @Mock private IPermissionOwnerDao permissionOwnerDao;
+    @Mock private IPermissionTargetProviderRegistry targetProviderRegistry;
+    @Mock private IPermissionTargetProvider targetProvider;
+    @Mock private IBulkPermissionPolicy policy;
+    @Mock private IPermissionOwner owner;
+    @Mock private IPermissionActivity activity;
+    @Mock private IAuthorizationPrincipal principal;
+    
+    @Before
+    public void setup() throws Exception {
+        this.cacheManager = new CacheManager(new Configuration().name(getClass().getName()));
+        this.doesPrincipalHavePermissionCache = new Cache(new CacheConfiguration("doesPrincipalHavePermission", 1000));
+        this.cacheManager.addCache(this.doesPrincipalHavePermissionCache);
+        
+        this.authorizationService = new AuthorizationImpl();
+        this.authorizationService.setDefaultPermissionPolicy(this.policy);
+        this.authorizationService.setDoesPrincipalHavePermissionCache(this.doesPrincipalHavePermissionCache);
+        ReflectionTestUtils.setField(this.authorizationService, "permissionOwnerDao", this.permissionOwnerDao);
+        ReflectionTestUtils.setField(this.authorizationService, "targetProviderRegistry", this.targetProviderRegistry);
+        
+        when(this.principal.getKey()).thenReturn("user");
+        when(this.permissionOwnerDao.getPermissionOwner(IPermission.PORTAL_SUBSCRIBE)).thenReturn(this.owner);
+        when(this.permissionOwnerDao.getPermissionActivity(IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_BROWSE_ACTIVITY))
+            .thenReturn(this.activity);
+        when(this.activity.getTargetProviderKey()).thenReturn("portlets");
+        when(this.targetProviderRegistry.getTargetProvider("portlets")).thenReturn(this.targetProvider);
+        when(this.targetProvider.getTarget(anyString())).thenAnswer(new Answer<IPermissionTarget>() {
+            @Override
+            public IPermissionTarget answer(InvocationOnMock invocation) throws Throwable {
+                final String key = (String) invocation.getArguments()[0];
+                return new PermissionTargetImpl(key, key, TargetType.PORTLET);
+            }
+        });
+        
+        //The policy permits the same targets for single and bulk checks
+        when(this.policy.doesPrincipalHavePermission(any(IAuthorizationService.class), eq(this.principal), eq(this.owner), 
+                eq(this.activity), any(IPermissionTarget.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                return PERMITTED_TARGETS.contains(((IPermissionTarget) invocation.getArguments()[4]).getKey());
+            }
+        });
+        when(this.policy.getPermittedTargets(any(IAuthorizationService.class), eq(this.principal), eq(this.owner), 
+                eq(this.activity), anyCollectionOf(IPermissionTarget.class))).thenAnswer(new Answer<Set<IPermissionTarget>>() {
+            @Override
+            public Set<IPermissionTarget> answer(InvocationOnMock invocation) throws Throwable {
+                @SuppressWarnings("unchecked")
+                final Collection<IPermissionTarget> targets = (Collection<IPermissionTarget>) invocation.getArguments()[4];
+                final Set<IPermissionTarget> permitted = new LinkedHashSet<IPermissionTarget>();
+                for (final IPermissionTarget target : targets) {
+                    if (PERMITTED_TARGETS.contains(target.getKey())) {
+                        permitted.add(target);
+                    }
+                }
+                return permitted;
+            }
+        });
+    }
+    
+    @After
+    public void shutdown() {
+        this.cacheManager.shutdown();
+    }
+    
+    @Test
+    public void testPermittedTargetsPartlyCached() throws Exception {
+        final List<String> targets = Arrays.asList("PORTLET_ID_1", "PORTLET_ID_2", "PORTLET_ID_3", "PORTLET_ID_4");
+        
+        //Answer the first two targets with single checks
+        this.authorizationService.doesPrincipalHavePermission(this.principal, IPermission.PORTAL_SUBSCRIBE, 
+                IPermission.PORTLET_BROWSE_ACTIVITY, "PORTLET_ID_1");
+        this.authorizationService.doesPrincipalHavePermission(this.principal, IPermission.PORTAL_SUBSCRIBE, 
+                IPermission.PORTLET_BROWSE_ACTIVITY, "PORTLET_ID_2");
+        
+        final Set<String> permitted = this.authorizationService.getPermittedTargets(this.principal, 
+                IPermission.PORTAL_SUBSCRIBE, IPermission.PORTLET_BROWSE_ACTIVITY, targets);
+        assertEquals(PERMITTED_TARGETS, permitted);
+        
+        //Only the uncached targets are passed to the policy
+        @SuppressWarnings("unchecked")
+        final ArgumentCaptor<Collection<IPermissionTarget>> targetsCaptor = (ArgumentCaptor) ArgumentCaptor.forClass(Collection.class);
+        verify(this.policy).getPermittedTargets(any(IAuthorizationService.class), eq(this.principal), eq(this.owner), 
+                eq(this.activity), targetsCaptor.capture());
+        final List<String> evaluatedTargets = new ArrayList<String>();
+        for (final IPermissionTarget target : targetsCaptor.getValue()) {
+            evaluatedTargets.add(target.getKey());
+        }
+        assertEquals(Arrays.asList("PORTLET_ID_3", "PORTLET_ID_4"), evaluatedTargets);
+        
+        //The single checks give the same answers, including the ones cached by the bulk check
+        final Set<String> permittedBySingleChecks = new LinkedHashSet<String>();
+        for (final String target : targets) {
+            if (this.authorizationService.doesPrincipalHavePermission(this.principal, IPermission.PORTAL_SUBSCRIBE, 
+                    IPermission.PORTLET_BROWSE_ACTIVITY, target)) {
+                permittedBySingleChecks.add(target);
+            }
+        }
+        assertEquals(permitted, permittedBySingleChecks);
+    }
+    
+    @Test
+    public void testPermissionChangesClearResolutionCaches() throws Exception {
+        final Ehcache doesPrincipalHavePermissionCache = mock(Ehcache.class);
+        final Ehcache hasUnblockedGrantCache = mock(Ehcache.class);
+        this.authorizationService.setDoesPrincipalHavePermissionCache(doesPrincipalHavePermissionCache);
+        this.authorizationService.setHasUnblockedGrantCache(hasUnblockedGrantCache);
+        this.authorizationService.setPermissionStore(mock(IPermissionStore.class));
+        this.authorizationService.setCachePermissions(false);
+        
+        final IPermission[] permissions = new IPermission[] { mock(IPermission.class) };
+        
+        this.authorizationService.addPermissions(permissions);
+        verify(doesPrincipalHavePermissionCache).removeAll();
+        verify(hasUnblockedGrantCache).removeAll();
+        
+        this.authorizationService.updatePermissions(permissions);
+        verify(doesPrincipalHavePermissionCache, times(2)).removeAll();
+        verify(hasUnblockedGrantCache, times(2)).removeAll();
+        
+        this.authorizationService.removePermissions(permissions);
+        verify(doesPrincipalHavePermissionCache, times(3)).removeAll();
+        verify(hasUnblockedGrantCache, times(3)).removeAll();
+    }
+}
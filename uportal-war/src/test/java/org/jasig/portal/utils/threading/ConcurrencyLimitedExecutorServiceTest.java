@@ -0,0 +1,136 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils.threading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConcurrencyLimitedExecutorServiceTest {
+    private ExecutorService delegate;
+    
+    @Before
+    public void setup() {
+        this.delegate = Executors.newCachedThreadPool();
+    }
+    
+    @After
+    public void teardown() {
+        this.delegate.shutdownNow();
+    }
+    
+    @Test
+    public void testLimitAndRelease() throws Exception {
+        final ConcurrencyLimitedExecutorService executor = new ConcurrencyLimitedExecutorService(this.delegate, 2);
+        final CountDownLatch running = new CountDownLatch(2);
+        final CountDownLatch block = new CountDownLatch(1);
+        final Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                try {
+                    block.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        
+        final Future<?> first = executor.submit(blocking);
+        final Future<?> second = executor.submit(blocking);
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        assertEquals(2, executor.getActiveCount());
+        
+        try {
+            executor.submit(blocking);
+            fail("third task should have been rejected");
+        }
+        catch (RejectedExecutionException e) {
+            //expected
+        }
+        
+        block.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        
+        //Permits are released after the task completes, which may be just after get() returns
+        executor.setPermitWaitTime(5000);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+    }
+    
+    @Test
+    public void testCancelInterruptsAndReleases() throws Exception {
+        final ConcurrencyLimitedExecutorService executor = new ConcurrencyLimitedExecutorService(this.delegate, 1);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        
+        final Future<?> hung = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                }
+                catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        
+        hung.cancel(true);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        
+        executor.setPermitWaitTime(5000);
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+    }
+    
+    @Test
+    public void testResize() {
+        final ConcurrencyLimitedExecutorService executor = new ConcurrencyLimitedExecutorService(this.delegate, 4);
+        
+        executor.setMaximumConcurrency(1);
+        assertEquals(1, executor.getMaximumConcurrency());
+        assertEquals(0, executor.getActiveCount());
+        
+        executor.setMaximumConcurrency(8);
+        assertEquals(8, executor.getMaximumConcurrency());
+        assertEquals(0, executor.getActiveCount());
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils.threading;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ConcurrentQualityOfServiceBlockingQueueTest {
+    
+    @Test
+    public void testFairByKey() {
+        final StringKeyQueue queue = new StringKeyQueue(10);
+        
+        queue.offer("a1");
+        queue.offer("a2");
+        queue.offer("a3");
+        queue.offer("b1");
+        queue.offer("c1");
+        queue.offer("c2");
+        assertEquals(6, queue.size());
+        assertEquals(3, queue.getKeySize("a"));
+        
+        final List<String> polled = new ArrayList<String>();
+        String e;
+        while ((e = queue.poll()) != null) {
+            polled.add(e);
+        }
+        
+        assertEquals("[a1, b1, c1, a2, c2, a3]", polled.toString());
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.isKeyEmpty("a"));
+    }
+    
+    @Test
+    public void testCapacityAndRemove() throws Exception {
+        final StringKeyQueue queue = new StringKeyQueue(2);
+        
+        assertTrue(queue.offer("a1"));
+        assertTrue(queue.offer("b1"));
+        assertFalse(queue.offer("c1"));
+        assertFalse(queue.offer("c1", 10, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.remainingCapacity());
+        
+        assertTrue(queue.contains("a1"));
+        assertTrue(queue.remove("a1"));
+        assertFalse(queue.contains("a1"));
+        assertEquals(1, queue.size());
+        
+        assertEquals("b1", queue.poll());
+        assertNull(queue.poll());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+    
+    @Test
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final StringKeyQueue queue = new StringKeyQueue(16);
+        final int producers = 4;
+        final int perProducer = 5000;
+        final ExecutorService executor = Executors.newFixedThreadPool(producers * 2);
+        final CountDownLatch done = new CountDownLatch(producers * 2);
+        final ConcurrentHashMap<String, Boolean> consumed = new ConcurrentHashMap<String, Boolean>();
+        
+        try {
+            for (int p = 0; p < producers; p++) {
+                final String key = String.valueOf((char) ('a' + p));
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; i < perProducer; i++) {
+                                queue.put(key + i);
+                            }
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        finally {
+                            done.countDown();
+                        }
+                    }
+                });
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int i = 0; i < perProducer; i++) {
+                                consumed.put(queue.take(), Boolean.TRUE);
+                            }
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertEquals(producers * perProducer, consumed.size());
+            assertTrue(queue.isEmpty());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private static final class StringKeyQueue extends ConcurrentQualityOfServiceBlockingQueue<String, String> {
+        public StringKeyQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected String getElementKey(String e) {
+            return e.substring(0, 1);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.utils.threading;
+
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark comparing {@link QualityOfServiceBlockingQueue} and {@link ConcurrentQualityOfServiceBlockingQueue}
+ * with several producer and consumer threads sharing one queue. Not run as part of the build, run {@link #main(String[])}
+ * from the test classpath.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class QualityOfServiceBlockingQueueBenchmark {
+    private static final int KEY_COUNT = 32;
+    private static final String[] ELEMENTS = new String[KEY_COUNT];
+    static {
+        for (int i = 0; i < KEY_COUNT; i++) {
+            ELEMENTS[i] = "portlet-" + i;
+        }
+    }
+    
+    @Param({"locking", "concurrent"})
+    public String implementation;
+    
+    @Param({"1024"})
+    public int capacity;
+    
+    private BlockingQueue<String> queue;
+    
+    @Setup(Level.Iteration)
+    public void setup() {
+        if ("locking".equals(this.implementation)) {
+            this.queue = new LockingQueue(this.capacity);
+        }
+        else {
+            this.queue = new ConcurrentQueue(this.capacity);
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class ProducerState {
+        private int next;
+        
+        String nextElement() {
+            this.next = (this.next + 1) % KEY_COUNT;
+            return ELEMENTS[this.next];
+        }
+    }
+    
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public boolean offer(ProducerState state) throws InterruptedException {
+        return this.queue.offer(state.nextElement(), 10, TimeUnit.MILLISECONDS);
+    }
+    
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public String poll() throws InterruptedException {
+        return this.queue.poll(10, TimeUnit.MILLISECONDS);
+    }
+    
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(QualityOfServiceBlockingQueueBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+    
+    /**
+     * Round-robins between keys the same way {@link org.jasig.portal.portlet.rendering.worker.PortletWorkerExecutionQueue} does
+     */
+    private static final class LockingQueue extends QualityOfServiceBlockingQueue<String, String> {
+        private Iterator<String> keyIterator;
+        
+        public LockingQueue(int capacity) {
+            super(capacity);
+            this.keyIterator = this.getKeySet().iterator();
+        }
+
+        @Override
+        protected String getElementKey(String e) {
+            return e;
+        }
+
+        @Override
+        protected String getNextElementKey() {
+            boolean reset = false;
+            
+            String key;
+            do {
+                if (!this.keyIterator.hasNext()) {
+                    if (reset) {
+                        throw new IllegalStateException("No key could be found that had queued elements");
+                    }
+                    
+                    reset = true;
+                    this.keyIterator = this.getKeySet().iterator();
+                }
+                
+                key = this.keyIterator.next();
+            } while (this.isKeyEmpty(key));
+            
+            return key;
+        }
+    }
+    
+    private static final class ConcurrentQueue extends ConcurrentQualityOfServiceBlockingQueue<String, String> {
+        public ConcurrentQueue(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        protected String getElementKey(String e) {
+            return e;
+        }
+    }
+}
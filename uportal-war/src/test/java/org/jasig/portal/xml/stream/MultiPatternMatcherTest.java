@@ -0,0 +1,90 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.xml.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class MultiPatternMatcherTest {
+    private final Pattern titlePattern = Pattern.compile("\\{up-portlet-title\\(([^\\)]+)\\)\\}");
+    private final Pattern linkPattern = Pattern.compile("\\{up-portlet-link\\(([^,]+),([^\\)]+)\\)\\}");
+    
+    @Test
+    public void testSinglePass() {
+        final MultiPatternMatcher multiPatternMatcher = new MultiPatternMatcher(titlePattern, linkPattern);
+        final Matcher matcher = multiPatternMatcher.matcher("<a href=\"{up-portlet-link(u1l1n2,/p/foo)}\">{up-portlet-title(u1l1n2)}</a>");
+        
+        assertTrue(matcher.find());
+        assertEquals(1, multiPatternMatcher.getPatternIndex(matcher));
+        MatchResult matchResult = multiPatternMatcher.toMatchResult(matcher, 1);
+        assertEquals(2, matchResult.groupCount());
+        assertEquals("{up-portlet-link(u1l1n2,/p/foo)}", matchResult.group());
+        assertEquals("u1l1n2", matchResult.group(1));
+        assertEquals("/p/foo", matchResult.group(2));
+        assertEquals(9, matchResult.start());
+        
+        assertTrue(matcher.find());
+        assertEquals(0, multiPatternMatcher.getPatternIndex(matcher));
+        matchResult = multiPatternMatcher.toMatchResult(matcher, 0);
+        assertEquals(1, matchResult.groupCount());
+        assertEquals("u1l1n2", matchResult.group(1));
+        
+        assertFalse(matcher.find());
+    }
+    
+    @Test
+    public void testFlagsKept() {
+        final Pattern caseInsensitive = Pattern.compile("<title>", Pattern.CASE_INSENSITIVE);
+        final Pattern literal = Pattern.compile("a.b", Pattern.LITERAL);
+        final Pattern comments = Pattern.compile("x y # trailing comment", Pattern.COMMENTS);
+        final MultiPatternMatcher multiPatternMatcher = new MultiPatternMatcher(caseInsensitive, literal, comments, titlePattern);
+        
+        //Flags only apply to their own pattern
+        final Matcher matcher = multiPatternMatcher.matcher("<TITLE> axb a.b xy {UP-PORTLET-TITLE(n1)} {up-portlet-title(n2)}");
+        assertTrue(matcher.find());
+        assertEquals(0, multiPatternMatcher.getPatternIndex(matcher));
+        assertEquals("<TITLE>", matcher.group());
+        
+        assertTrue(matcher.find());
+        assertEquals(1, multiPatternMatcher.getPatternIndex(matcher));
+        assertEquals("a.b", matcher.group());
+        
+        assertTrue(matcher.find());
+        assertEquals(2, multiPatternMatcher.getPatternIndex(matcher));
+        assertEquals("xy", matcher.group());
+        
+        assertTrue(matcher.find());
+        assertEquals(3, multiPatternMatcher.getPatternIndex(matcher));
+        assertEquals("n2", multiPatternMatcher.toMatchResult(matcher, 3).group(1));
+        
+        assertFalse(matcher.find());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testBackReferenceRejected() {
+        new MultiPatternMatcher(titlePattern, Pattern.compile("(a)\\1"));
+    }
+}
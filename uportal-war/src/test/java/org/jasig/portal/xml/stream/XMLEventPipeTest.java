@@ -0,0 +1,103 @@
+/**
+ * Licensed to Apereo under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Apereo licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License.  You may obtain a
+ * copy of the License at the following location:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.portal.xml.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class XMLEventPipeTest {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    
+    @After
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+    
+    @Test
+    public void testPipeAllEvents() throws Exception {
+        //Buffer smaller than the document so the producer has to block on the consumer
+        final XMLEventPipe eventPipe = new XMLEventPipe(10, 5000);
+        
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final InputStream xmlStream = XMLEventPipeTest.class.getResourceAsStream("document.xml");
+                    final XMLEventReader xmlEventReader = XMLInputFactory.newFactory().createXMLEventReader(xmlStream);
+                    eventPipe.getWriter().add(xmlEventReader);
+                    eventPipe.complete();
+                }
+                catch (Exception e) {
+                    eventPipe.fail(e);
+                }
+            }
+        });
+        
+        final XMLEventReader reader = eventPipe.getReader();
+        int eventCount = 0;
+        while (reader.hasNext()) {
+            reader.nextEvent();
+            eventCount++;
+        }
+        assertEquals(122, eventCount);
+        assertFalse(reader.hasNext());
+    }
+    
+    @Test
+    public void testProducerFailure() throws Exception {
+        final XMLEventPipe eventPipe = new XMLEventPipe(10, 5000);
+        
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                eventPipe.fail(new IllegalStateException("transform failed"));
+            }
+        });
+        
+        try {
+            eventPipe.getReader().nextEvent();
+            fail("nextEvent should have failed");
+        }
+        catch (XMLStreamException e) {
+            assertEquals("transform failed", e.getNestedException().getMessage());
+        }
+    }
+    
+    @Test(expected = XMLStreamException.class)
+    public void testWriteAfterReaderClosed() throws Exception {
+        final XMLEventPipe eventPipe = new XMLEventPipe(10, 5000);
+        eventPipe.getReader().close();
+        
+        final InputStream xmlStream = this.getClass().getResourceAsStream("document.xml");
+        final XMLEventReader xmlEventReader = XMLInputFactory.newFactory().createXMLEventReader(xmlStream);
+        eventPipe.getWriter().add(xmlEventReader);
+    }
+}